@@ -52,5 +52,38 @@ namespace Microsoft.Azure.Functions.Worker.Extensions.Kusto
         /// An option to set the ManagedServiceIdentity option. If set to "system" will use SystemManagedIdentity else use UserManagedIdentity
         /// </summary>
         public string ManagedServiceIdentity { get; set; }
+
+        /// <summary>
+        /// Enables caching of the query results in the host when greater than 0. Invocations that resolve to the same query share the result for this many seconds
+        /// </summary>
+        public int CacheTtlSeconds { get; set; }
+
+        /// <summary>
+        /// The maximum number of cached query results, the least recently used results are evicted first. Defaults to 1000 when caching is enabled
+        /// </summary>
+        public int CacheMaxEntries { get; set; }
+
+        /// <summary>
+        /// Comma separated names for the result tables of a multi statement KqlCommand (name1,name2). When set the binding returns a JSON object
+        /// with the records of each result table under its name, which can be bound to a POCO with a collection property per table
+        /// </summary>
+        public string ResultTableNames { get; set; }
+
+        /// <summary>
+        /// The format the result is handed to the function in, json (the default, an array of records), csv (a header line and a line per record) or
+        /// columnar (a JSON object with the column names and types and an array of values per column). Only string parameters support csv and columnar
+        /// </summary>
+        public string ResultFormat { get; set; }
+
+        /// <summary>
+        /// Comma separated app setting names of the connection strings of read replicas (follower clusters) of the database. The queries go to
+        /// the replica with the lowest expected wait, the Connection keeps serving control commands
+        /// </summary>
+        public string ReadConnections { get; set; }
+
+        /// <summary>
+        /// Sends a hedged query to the next best read replica when the first one did not complete within this percentile (1 to 99) of its recent latencies
+        /// </summary>
+        public int HedgeAfterPercentile { get; set; }
     }
 }
\ No newline at end of file
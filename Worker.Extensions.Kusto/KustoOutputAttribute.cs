@@ -57,13 +57,63 @@ namespace Microsoft.Azure.Functions.Worker.Extensions.Kusto
         public string ManagedServiceIdentity { get; set; }
 
         /// <summary>
-        /// The ingestion client to use. Supports managed,queued clients
+        /// The ingestion client to use. Supports managed,queued clients, and auto which picks one of them for every payload by its size and the recent
+        /// ingestion rate of the table
         /// </summary>
         public string IngestionType { get; set; } = "managed";
 
         /// <summary>
-        /// The ingestion properties (@flushImmediately=false,@pollIntervalSeconds=15,@pollTimeoutMinutes=5)
+        /// The ingestion properties (@flushImmediately=false,@pollIntervalSeconds=15,@pollTimeoutMinutes=5,@trackingMode=background)
         /// </summary>
         public string IngestionProperties { get; set; }
+
+        /// <summary>
+        /// Enables batching across invocations when greater than 0. The rows of invocations writing to the same table are ingested together once this many rows are buffered
+        /// </summary>
+        public int BatchMaxRows { get; set; }
+
+        /// <summary>
+        /// Enables batching across invocations when greater than 0. The buffered rows are ingested once their size reaches this many bytes
+        /// </summary>
+        public int BatchMaxBytes { get; set; }
+
+        /// <summary>
+        /// Enables batching across invocations when greater than 0. The buffered rows are ingested at the latest this many milliseconds after the first row was buffered
+        /// </summary>
+        public int BatchMaxLatencyMs { get; set; }
+
+        /// <summary>
+        /// Compression of the payloads sent to the cluster: none (the default), gzip, or auto which compresses payloads of 64 KB and more
+        /// </summary>
+        public string Compression { get; set; }
+
+        /// <summary>
+        /// Enables sharded ingestion when set. Comma separated Connection/Database or Database targets the rows are spread over by <see cref="ShardKey"/>,
+        /// the shards are ingested in parallel
+        /// </summary>
+        public string ShardTargets { get; set; }
+
+        /// <summary>
+        /// The field of the rows whose value picks the shard target, e.g. ProductID
+        /// </summary>
+        public string ShardKey { get; set; }
+
+        /// <summary>
+        /// Comma separated ascending boundaries for range sharding, one less than the number of targets. Without boundaries the rows are spread by a hash of the key
+        /// </summary>
+        public string ShardBoundaries { get; set; }
+
+        /// <summary>
+        /// Scopes the identity of the rows of IngestIdentityKey, which it needs. An identity of the invocation resolved from the trigger metadata, e.g.
+        /// {PartitionContext.PartitionId}, for keys that are only unique within it
+        /// </summary>
+        public string IngestIdentity { get; set; }
+
+        /// <summary>
+        /// Makes the ingestion of the rows of an invocation idempotent when set. The field of the rows, e.g. SequenceNumber, whose values identify the rows
+        /// along with IngestIdentity. The SourceId of the rows is derived from them and the rows of a replay that was already ingested are skipped.
+        /// Needs IngestionType queued
+        /// </summary>
+        public string IngestIdentityKey { get; set; }
     }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using Microsoft.Azure.Functions.Worker.Extensions.Abstractions;
+
+namespace Microsoft.Azure.Functions.Worker.Extensions.Kusto
+{
+    public sealed class KustoTriggerAttribute : TriggerBindingAttribute
+    {
+        /// <summary>
+        /// Initializes a new instance of the <see cref="KustoTriggerAttribute"/> class.
+        /// </summary>
+        /// <param name="Database">The name of the Database</param>
+        /// <param name="TableName">The name of the table whose new rows invoke the function</param>
+        public KustoTriggerAttribute(string Database, string TableName)
+        {
+            this.Database = Database ?? throw new ArgumentNullException(nameof(Database));
+            this.TableName = TableName ?? throw new ArgumentNullException(nameof(TableName));
+        }
+
+        /// <summary>
+        /// The Database name where the table resides
+        /// </summary>
+        public string Database { get; private set; }
+
+        /// <summary>
+        /// The table whose new rows invoke the function. The table needs the IngestionTime policy
+        /// </summary>
+        public string TableName { get; private set; }
+
+        /// <summary>
+        /// The name of the app setting where the Kusto connection string is stored
+        /// Defaults to KustoConnectionString
+        /// </summary>
+        public string Connection { get; set; }
+
+        /// <summary>
+        /// An option to set the ManagedServiceIdentity option. If set to "system" will use SystemManagedIdentity else use UserManagedIdentity
+        /// </summary>
+        public string ManagedServiceIdentity { get; set; }
+
+        /// <summary>
+        /// Operators applied to the new rows before they are passed to the function, starting with a pipe (e.g. "| where Level == 'Error' | project Id, Message")
+        /// </summary>
+        public string Query { get; set; }
+
+        /// <summary>
+        /// The maximum number of rows the function is invoked with. Defaults to 100
+        /// </summary>
+        public int MaxBatchSize { get; set; }
+
+        /// <summary>
+        /// The time between two polls of the table, in milliseconds. Defaults to 5000
+        /// </summary>
+        public int PollingIntervalMs { get; set; }
+
+        /// <summary>
+        /// The number of times the function is invoked with a page of rows before the page is logged and skipped. Defaults to 5
+        /// </summary>
+        public int MaxAttempts { get; set; }
+
+        /// <summary>
+        /// When true the first poll of the function reads the rows already in the table, otherwise it starts with the rows ingested after it
+        /// </summary>
+        public bool StartFromBeginning { get; set; }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,75 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Globalization;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Benchmarks
+{
+    /// <summary>
+    /// Runs every row mapping for each row count and prints a markdown table of the mean time, rows per second and allocations
+    /// </summary>
+    public static class Program
+    {
+        private const int WarmupIterations = 5;
+        private static readonly TimeSpan MeasureTime = TimeSpan.FromSeconds(2);
+
+        public static void Main(string[] args)
+        {
+            int[] rowCounts = args.Length == 0 ? new[] { 100, 10000 } : Array.ConvertAll(args, arg => int.Parse(arg, CultureInfo.InvariantCulture));
+            var benchmarks = new RowMappingBenchmarks();
+            var mappings = new (string Name, Func<List<RowMappingBenchmarks.Product>> Run)[]
+            {
+                (nameof(RowMappingBenchmarks.SerializeRowThenDeserialize), benchmarks.SerializeRowThenDeserialize),
+                (nameof(RowMappingBenchmarks.JArrayToObject), benchmarks.JArrayToObject),
+                (nameof(RowMappingBenchmarks.CompiledRowMapper), benchmarks.CompiledRowMapper),
+            };
+            Console.WriteLine($".NET {Environment.Version}, {Environment.ProcessorCount} logical cores, {Environment.OSVersion}");
+            Console.WriteLine();
+            Console.WriteLine("| Mapping | Rows | Mean | Rows/s | Allocated/op |");
+            Console.WriteLine("|---------|-----:|-----:|-------:|-------------:|");
+            foreach (int rowCount in rowCounts)
+            {
+                benchmarks.Setup(rowCount);
+                foreach ((string name, Func<List<RowMappingBenchmarks.Product>> run) in mappings)
+                {
+                    (double meanMicroseconds, long allocatedBytes) = Measure(run, rowCount);
+                    Console.WriteLine(string.Format(CultureInfo.InvariantCulture, "| {0} | {1} | {2:N1} us | {3:N0} | {4:N0} B |", name, rowCount, meanMicroseconds, rowCount / (meanMicroseconds / 1_000_000), allocatedBytes));
+                }
+            }
+        }
+
+        private static (double MeanMicroseconds, long AllocatedBytes) Measure(Func<List<RowMappingBenchmarks.Product>> run, int rowCount)
+        {
+            for (int i = 0; i < WarmupIterations; i++)
+            {
+                Verify(run(), rowCount);
+            }
+            GC.Collect();
+            GC.WaitForPendingFinalizers();
+            GC.Collect();
+            long allocatedBefore = GC.GetAllocatedBytesForCurrentThread();
+            int iterations = 0;
+            var stopwatch = Stopwatch.StartNew();
+            while (stopwatch.Elapsed < MeasureTime)
+            {
+                Verify(run(), rowCount);
+                iterations++;
+            }
+            stopwatch.Stop();
+            long allocated = GC.GetAllocatedBytesForCurrentThread() - allocatedBefore;
+            return (stopwatch.Elapsed.TotalMilliseconds * 1000 / iterations, allocated / iterations);
+        }
+
+        // Keeps the result alive, and makes sure every mapping reads the whole result
+        private static void Verify(List<RowMappingBenchmarks.Product> products, int rowCount)
+        {
+            if (products.Count != rowCount)
+            {
+                throw new InvalidOperationException($"Expected {rowCount} rows, mapped {products.Count}");
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,87 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Data;
+using Kusto.Cloud.Platform.Data;
+using Microsoft.Azure.WebJobs.Kusto;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Benchmarks
+{
+    /// <summary>
+    /// Reads a query result into a list of POCOs the ways the input bindings do
+    /// </summary>
+    public class RowMappingBenchmarks
+    {
+        private DataTable _result;
+
+        public void Setup(int rowCount)
+        {
+            this._result = new DataTable();
+            this._result.Columns.Add("ID", typeof(long));
+            this._result.Columns.Add("Name", typeof(string));
+            this._result.Columns.Add("Cost", typeof(double));
+            this._result.Columns.Add("Timestamp", typeof(DateTime));
+            for (int i = 0; i < rowCount; i++)
+            {
+                this._result.Rows.Add((long)i, "Item-" + i, i * 1.5, new DateTime(2023, 1, 1, 0, 0, 0, DateTimeKind.Utc).AddSeconds(i));
+            }
+        }
+
+        /// <summary>
+        /// The IAsyncEnumerable binding before the mapper, a JSON string per row
+        /// </summary>
+        public List<Product> SerializeRowThenDeserialize()
+        {
+            var products = new List<Product>();
+            using (DataTableReader reader = this._result.CreateDataReader())
+            {
+                while (reader.Read())
+                {
+                    products.Add(JsonConvert.DeserializeObject<Product>(KustoBindingUtilities.SerializeRow(reader)));
+                }
+            }
+            return products;
+        }
+
+        /// <summary>
+        /// The IEnumerable binding before the mapper, and with caching enabled
+        /// </summary>
+        public List<Product> JArrayToObject()
+        {
+            using (DataTableReader reader = this._result.CreateDataReader())
+            {
+                return new JArray(reader.ToJObjects()).ToObject<List<Product>>();
+            }
+        }
+
+        public List<Product> CompiledRowMapper()
+        {
+            var products = new List<Product>();
+            using (DataTableReader reader = this._result.CreateDataReader())
+            {
+                Func<IDataRecord, Product> mapRow = KustoRowMapper<Product>.GetMapper(reader);
+                while (reader.Read())
+                {
+                    products.Add(mapRow(reader));
+                }
+            }
+            return products;
+        }
+
+        public class Product
+        {
+            // Kusto returns long columns, as in the samples the property is an int
+            public int ID { get; set; }
+
+            public string Name { get; set; }
+
+            public double Cost { get; set; }
+
+            public DateTime Timestamp { get; set; }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.Container;
+import org.testcontainers.containers.ContainerState;
+import org.testcontainers.containers.DockerComposeContainer;
+import org.testcontainers.utility.MountableFile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.kusto.functions.standin.KustoStandIn;
+
+/**
+ * The docker compose environment the function apps of the samples run in, shared by the simulations. Starts the app of
+ * a language on its port and copies the function logs back once the run is over.
+ * <p>
+ * With -DkustoStandIn=true the app talks to a {@link KustoStandIn} running in the test process instead of the cluster
+ * of KustoConnectionString, and the stand-in timings are written next to the function logs.
+ */
+public class FunctionsEnvironment {
+    private static final Logger logger = LoggerFactory.getLogger(FunctionsEnvironment.class);
+    // File name in docker compose file
+    private static final String BASE_IMAGE = "baseimage";
+
+    private static final String PATH_TO_DOCKER_COMPOSE = "../samples/docker/docker-compose.yml";
+    private static final String PATH_TO_DOCKER_COMPOSE_WITH_NO_RMQ = "../samples/docker/docker-compose-no-rmq.yml";
+    private static final String CREATE_QUEUE = "../samples/docker/create-queue.sh";
+    private static final boolean USE_STAND_IN = Boolean.getBoolean("kustoStandIn");
+    private static final int STAND_IN_PORT = Integer.getInteger("standIn.port", 7200);
+    // The compose files map this name to the host the tests run on
+    private static final String STAND_IN_CONNECTION_STRING = "Data Source=http://host.docker.internal:" + STAND_IN_PORT;
+
+    public static final Map<String, Integer> LANGUAGE_PORT_MAP = Stream
+            .of(new String[][] { { "outofproc", "7101" }, { "java", "7102" }, { "node", "7103" }, { "python", "7104" },
+                    { "csharp", "7105" } })
+            .collect(Collectors.collectingAndThen(Collectors.toMap(data -> data[0], data -> Integer.parseInt(data[1])),
+                    Collections::<String, Integer> unmodifiableMap));
+
+    private final String language;
+    private final boolean runTrigger;
+    private DockerComposeContainer<?> environment;
+    private KustoStandIn standIn;
+
+    public FunctionsEnvironment(String language, boolean runTrigger) {
+        this.language = language;
+        this.runTrigger = runTrigger;
+    }
+
+    public static boolean usesStandIn() {
+        return USE_STAND_IN;
+    }
+
+    public void start() {
+        // Set up the tables and may be even clear them
+        // Start with a randomly large number
+        // Start the test container based on the language passed
+        // Copy the project into the container
+        // Replace the DLL file
+        if (!LANGUAGE_PORT_MAP.containsKey(language)) {
+            logger.warn(
+                    "Language " + language + " is not in the list of accepted languages for test. Accepted languages - "
+                            + LANGUAGE_PORT_MAP.keySet());
+            System.exit(137);
+        }
+        int hostPort = LANGUAGE_PORT_MAP.get(language);
+        String dockerComposeFile = runTrigger ? PATH_TO_DOCKER_COMPOSE : PATH_TO_DOCKER_COMPOSE_WITH_NO_RMQ;
+        File absoluteFilePath = new File(dockerComposeFile).getAbsoluteFile();
+        try {
+            if (USE_STAND_IN) {
+                standIn = new KustoStandIn(STAND_IN_PORT).start();
+            }
+            String path = absoluteFilePath.getCanonicalPath();
+            logger.info("Starting compose from file {}", path);
+            environment = new DockerComposeContainer<>(new File(path));
+            environment.start();
+            environment.getContainerByServiceName("rabbitmq").ifPresent(FunctionsEnvironment::createQueue);
+            environment.getContainerByServiceName(BASE_IMAGE)
+                    .ifPresent(containerState -> runContainerCommands(language, hostPort, containerState,
+                            USE_STAND_IN ? STAND_IN_CONNECTION_STRING : null));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void createQueue(ContainerState containerState) {
+        try {
+            containerState.copyFileToContainer(MountableFile.forHostPath(CREATE_QUEUE), "/tmp/create-queue.sh");
+            Container.ExecResult createQueue = containerState.execInContainer("bash", "/tmp/create-queue.sh");
+            // .execInContainer("rabbitmqadmin -u guest -p guest -V / declare queue name=bindings.test.queue");
+            logger.info("Create Queue returned {}.StdErr {} and StdOut {}", createQueue.getExitCode(),
+                    createQueue.getStderr(), createQueue.getStdout());
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void runContainerCommands(String language, int exposedPort, ContainerState containerState,
+            String kustoConnectionString) {
+        try {
+            // Goes to the samples folder
+            String pathToSamplesDirectory = new File(PATH_TO_DOCKER_COMPOSE).getParentFile().getParentFile()
+                    .getCanonicalPath();
+            String pathToLanguageSample = String.format("%s%ssamples-%s", pathToSamplesDirectory, File.separator,
+                    language);
+            containerState.copyFileToContainer(MountableFile.forHostPath(pathToLanguageSample),
+                    String.format("/src/samples-%s/", language));
+            logger.info("Copied folder {} to container", pathToLanguageSample);
+            // Since the file is copied now move over
+            Container.ExecResult initFunctionsResult = containerState.execInContainer("bash", "/src/init-functions.sh");
+            logger.debug("Init function for language binding {} returned {}.StdErr {} and StdOut {}", language,
+                    initFunctionsResult.getExitCode(), initFunctionsResult.getStderr(),
+                    initFunctionsResult.getStdout());
+            // Once in the folder start the function tools after navigating to the folder
+            // Since the file is copied now move over
+            Container.ExecResult startFunctionsResult = kustoConnectionString == null
+                    ? containerState.execInContainer("bash", "/src/start-functions.sh", "-l", language, "-p",
+                            String.valueOf(exposedPort))
+                    : containerState.execInContainer("bash", "/src/start-functions.sh", "-l", language, "-p",
+                            String.valueOf(exposedPort), "-k", kustoConnectionString);
+            logger.info("Starting function on port {} for language binding {} returned {}. StdErr {} and StdOut {}",
+                    exposedPort, language, startFunctionsResult.getExitCode(), startFunctionsResult.getStderr(),
+                    startFunctionsResult.getStdout());
+
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void stop(boolean holdContainer) {
+        String containerPath;
+        if ("java".equalsIgnoreCase(language)) {
+            containerPath = String.format(
+                    "/src/samples-%s/target/azure-functions/kustojavafunctionssample-20230130111810292/func-logs.txt",
+                    language);
+        } else if ("outofproc".equalsIgnoreCase(language)) {
+            containerPath = String.format("/src/samples-%s/bin/Debug/net6/func-logs.txt", language);
+        } else if ("csharp".equalsIgnoreCase(language)) {
+            containerPath = String.format("/src/samples-%s/bin/Debug/net6/func-logs.txt", language);
+        } else {
+            containerPath = String.format("/src/samples-%s/func-logs.txt", language);
+        }
+        final String currentTargetLogPath = String.format("%s%s%s-%s-%d.log", System.getProperty("user.dir"),
+                File.separator, "func-logs", language, Instant.now().toEpochMilli());
+        logger.info("Copying log runs to {}", currentTargetLogPath);
+        environment.getContainerByServiceName(BASE_IMAGE).ifPresent(containerState -> {
+            try {
+                containerState.copyFileFromContainer(containerPath, currentTargetLogPath);
+            } catch (IOException | InterruptedException e) {
+                logger.warn("Could not copy run logs, this should not affect the run", e);
+            }
+        });
+        if (holdContainer) {
+            try {
+                Thread.sleep(600000);
+            } catch (Exception ignored) {
+
+            }
+        }
+        environment.stop();
+        if (standIn != null) {
+            writeStandInTimings();
+            standIn.close();
+        }
+    }
+
+    private void writeStandInTimings() {
+        String timingsPath = String.format("%s%s%s-%s-%d", System.getProperty("user.dir"), File.separator,
+                "standin-timings", language, Instant.now().toEpochMilli());
+        try {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(timingsPath + ".json"),
+                    standIn.timings().summary());
+            Files.write(Paths.get(timingsPath + ".csv"), standIn.timings().toCsv().getBytes(StandardCharsets.UTF_8));
+            logger.info("Stand-in timings written to {}.json and {}.csv", timingsPath, timingsPath);
+        } catch (IOException e) {
+            logger.warn("Could not write the stand-in timings, this should not affect the run", e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.perf;
+
+import static io.gatling.javaapi.core.CoreDsl.StringBody;
+import static io.gatling.javaapi.core.CoreDsl.scenario;
+import static io.gatling.javaapi.http.HttpDsl.http;
+import static io.gatling.javaapi.http.HttpDsl.status;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.microsoft.azure.kusto.functions.common.Product;
+
+import io.gatling.javaapi.core.ScenarioBuilder;
+
+/**
+ * Throughput and latency of the output binding: every request posts a batch of -DbatchSize products of about
+ * -DpayloadBytes bytes each to AddProducts.
+ */
+public class AddProductsSimulation extends BindingSimulation {
+    // The JSON of a product without its name
+    private static final int PRODUCT_OVERHEAD_BYTES = 60;
+
+    private final int batchSize = Integer.getInteger("batchSize", 100);
+    private final int payloadBytes = Integer.getInteger("payloadBytes", 256);
+    private final AtomicLong nextProductId = new AtomicLong(Instant.now().toEpochMilli() * 1000);
+    private final String padding = padding(payloadBytes - PRODUCT_OVERHEAD_BYTES);
+
+    Iterator<Map<String, Object>> batches = Stream
+            .generate(() -> Collections.<String, Object> singletonMap("batch", nextBatch())).iterator();
+    ScenarioBuilder addProducts = scenario("AddProducts-" + baselineKey()).feed(batches).exec(
+            http("AddProducts").post("/addproduct").body(StringBody("#{batch}")).check(status().in(200, 201)));
+    {
+        setUp(inject(addProducts)).protocols(httpProtocol()).assertions(assertions("AddProducts"));
+    }
+
+    @Override
+    protected String parametersKey() {
+        return String.format("batch%d-payload%d-%s", batchSize, payloadBytes, workload.name().toLowerCase(Locale.ROOT));
+    }
+
+    private String nextBatch() {
+        List<Product> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            long productId = nextProductId.incrementAndGet();
+            batch.add(new Product(productId, String.format("Perf-%s-%d-%s", language, productId, padding),
+                    productId / 1000999.999));
+        }
+        try {
+            return JSON_MAPPER.writeValueAsString(batch);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String padding(int length) {
+        char[] padding = new char[Math.max(0, length)];
+        Arrays.fill(padding, 'x');
+        return new String(padding);
+    }
+}
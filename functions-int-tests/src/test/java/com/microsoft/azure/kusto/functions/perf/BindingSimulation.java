@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.perf;
+
+import static io.gatling.javaapi.core.CoreDsl.constantConcurrentUsers;
+import static io.gatling.javaapi.core.CoreDsl.constantUsersPerSec;
+import static io.gatling.javaapi.core.CoreDsl.details;
+import static io.gatling.javaapi.core.CoreDsl.global;
+import static io.gatling.javaapi.http.HttpDsl.http;
+import static java.lang.System.getProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.kusto.functions.common.FunctionsEnvironment;
+
+import io.gatling.javaapi.core.Assertion;
+import io.gatling.javaapi.core.PopulationBuilder;
+import io.gatling.javaapi.core.ScenarioBuilder;
+import io.gatling.javaapi.core.Simulation;
+import io.gatling.javaapi.http.HttpProtocolBuilder;
+
+/**
+ * Base of the per binding simulations. Every simulation runs one binding of the function app of a language under an
+ * open (arrival rate) or closed (concurrent users) workload, asserts the p95 and p99 response times of its requests
+ * against the stored baseline of its parameters and records the run for the {@link RegressionReport}.
+ * <p>
+ * The workload is set with -Dworkload=open|closed, -Dusers (users per second when open, concurrent users when closed)
+ * and -DdurationSeconds.
+ */
+public abstract class BindingSimulation extends Simulation {
+    private static final Logger logger = LoggerFactory.getLogger(BindingSimulation.class);
+    protected static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    // Response time ceilings used while a parameter set has no baseline yet
+    private static final int P95_CEILING_MS = Integer.getInteger("p95CeilingMs", 10000);
+    private static final int P99_CEILING_MS = Integer.getInteger("p99CeilingMs", 20000);
+    private static final int HOST_START_TIMEOUT_SECONDS = Integer.getInteger("hostStartTimeoutSeconds", 300);
+    static final String PERF_RUNS_DIRECTORY = "target/gatling/perf-runs";
+
+    protected final String language = getProperty("language", "node");
+    protected final WorkloadModel workload = WorkloadModel
+            .valueOf(getProperty("workload", "open").toUpperCase(Locale.ROOT));
+    protected final int users = Integer.getInteger("users", 10);
+    protected final Duration duration = Duration.ofSeconds(Long.getLong("durationSeconds", 120));
+    protected final String baseUrl = String.format("http://localhost:%d/api",
+            Integer.getInteger("port", FunctionsEnvironment.LANGUAGE_PORT_MAP.getOrDefault(language, 7103)));
+    private final boolean holdContainer = Boolean.getBoolean("debug");
+    private FunctionsEnvironment environment;
+
+    public enum WorkloadModel {
+        OPEN, CLOSED
+    }
+
+    /**
+     * The parameters the response times depend on, a baseline is kept per language and parameter set
+     */
+    protected abstract String parametersKey();
+
+    /**
+     * The parameters of the run, runs against the stand-in are compared with baselines recorded against the stand-in
+     */
+    protected final String baselineKey() {
+        return FunctionsEnvironment.usesStandIn() ? parametersKey() + "-standin" : parametersKey();
+    }
+
+    @Override
+    public void before() {
+        environment = new FunctionsEnvironment(language, false);
+        environment.start();
+        waitForHost();
+    }
+
+    @Override
+    public void after() {
+        recordRun();
+        environment.stop(holdContainer);
+        logger.info("Simulation run finished!");
+    }
+
+    protected HttpProtocolBuilder httpProtocol() {
+        return http.baseUrl(baseUrl).acceptHeader("application/json").contentTypeHeader("application/json");
+    }
+
+    protected PopulationBuilder inject(ScenarioBuilder scenario) {
+        if (workload == WorkloadModel.CLOSED) {
+            // Closed systems, where the number of concurrent users is capped
+            return scenario.injectClosed(constantConcurrentUsers(users).during(duration));
+        }
+        // Open systems, where you control the arrival rate of users
+        return scenario.injectOpen(constantUsersPerSec(users).during(duration));
+    }
+
+    /**
+     * Every request succeeds and stays within the tolerance of the p95 and p99 of the baseline
+     */
+    protected Assertion[] assertions(String... requestNames) {
+        Map<String, PerfBaseline.RequestStats> baseline = PerfBaseline.load(language, getClass().getSimpleName(),
+                baselineKey());
+        List<Assertion> assertions = new ArrayList<>();
+        assertions.add(global().successfulRequests().percent().shouldBe(100.0));
+        for (String requestName : requestNames) {
+            PerfBaseline.RequestStats stats = baseline.get(requestName);
+            int p95Limit = stats == null ? P95_CEILING_MS : PerfBaseline.upperLimit(stats.p95);
+            int p99Limit = stats == null ? P99_CEILING_MS : PerfBaseline.upperLimit(stats.p99);
+            logger.info("Asserting {} p95 <= {} ms and p99 <= {} ms ({})", requestName, p95Limit, p99Limit,
+                    stats == null ? "no baseline" : "baseline " + baselineKey());
+            assertions.add(details(requestName).responseTime().percentile(95.0).lte(p95Limit));
+            assertions.add(details(requestName).responseTime().percentile(99.0).lte(p99Limit));
+        }
+        return assertions.toArray(new Assertion[0]);
+    }
+
+    /**
+     * Posts the body to the function app outside of the measured scenario, used to seed data
+     */
+    protected String post(String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return readResponse(connection);
+    }
+
+    protected String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        return readResponse(connection);
+    }
+
+    private static String readResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        if (status >= 300) {
+            throw new IOException(String.format("%s returned %d", connection.getURL(), status));
+        }
+        try (InputStream inputStream = connection.getInputStream()) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void waitForHost() {
+        // The functions host starts in the background, the measured load starts once it answers
+        Instant deadline = Instant.now().plusSeconds(HOST_START_TIMEOUT_SECONDS);
+        while (Instant.now().isBefore(deadline)) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl.replace("/api", "/"))
+                        .openConnection();
+                int status = connection.getResponseCode();
+                connection.disconnect();
+                if (status < 500) {
+                    return;
+                }
+            } catch (IOException e) {
+                logger.debug("Functions host on {} is not up yet", baseUrl, e);
+            }
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        throw new IllegalStateException(
+                String.format("Functions host on %s did not start in %d seconds", baseUrl, HOST_START_TIMEOUT_SECONDS));
+    }
+
+    private void recordRun() {
+        // Gatling writes its stats after this hook, the report matches the record with the latest run of the
+        // simulation
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("simulation", getClass().getSimpleName());
+        run.put("language", language);
+        run.put("baselineKey", baselineKey());
+        run.put("workload", workload.name().toLowerCase(Locale.ROOT));
+        run.put("users", users);
+        run.put("durationSeconds", duration.getSeconds());
+        run.put("finishedAt", Instant.now().toString());
+        File runFile = new File(PERF_RUNS_DIRECTORY, getClass().getSimpleName() + ".json");
+        try {
+            runFile.getParentFile().mkdirs();
+            JSON_MAPPER.writerWithDefaultPrettyPrinter().writeValue(runFile, run);
+        } catch (IOException e) {
+            logger.warn("Could not record the run in {}, the regression report will skip it", runFile, e);
+        }
+    }
+}
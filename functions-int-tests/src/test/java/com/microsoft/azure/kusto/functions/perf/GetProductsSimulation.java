@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.perf;
+
+import static io.gatling.javaapi.core.CoreDsl.jsonPath;
+import static io.gatling.javaapi.core.CoreDsl.scenario;
+import static io.gatling.javaapi.http.HttpDsl.http;
+import static io.gatling.javaapi.http.HttpDsl.status;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.microsoft.azure.kusto.functions.common.Product;
+
+import io.gatling.javaapi.core.ScenarioBuilder;
+
+/**
+ * Throughput and latency of the input binding: -DresultSize products are seeded under one ProductID before the load
+ * starts, every request then reads all of them back through GetProducts.
+ */
+public class GetProductsSimulation extends BindingSimulation {
+    private static final Logger logger = LoggerFactory.getLogger(GetProductsSimulation.class);
+    private static final int SEED_BATCH_SIZE = 1000;
+    private static final int SEED_TIMEOUT_SECONDS = Integer.getInteger("seedTimeoutSeconds", 600);
+
+    private final int resultSize = Integer.getInteger("resultSize", 100);
+    private final long productId = Instant.now().toEpochMilli();
+
+    ScenarioBuilder getProducts = scenario("GetProducts-" + baselineKey()).exec(http("GetProducts")
+            .get("/getproducts/" + productId).check(status().is(200), jsonPath("$[*]").count().is(resultSize)));
+    {
+        setUp(inject(getProducts)).protocols(httpProtocol()).assertions(assertions("GetProducts"));
+    }
+
+    @Override
+    protected String parametersKey() {
+        return String.format("rows%d-%s", resultSize, workload.name().toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public void before() {
+        super.before();
+        try {
+            seed();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void seed() throws IOException {
+        for (int seeded = 0; seeded < resultSize; seeded += SEED_BATCH_SIZE) {
+            List<Product> batch = new ArrayList<>();
+            for (int i = seeded; i < Math.min(resultSize, seeded + SEED_BATCH_SIZE); i++) {
+                batch.add(new Product(productId, String.format("Perf-%s-%d-%d", language, productId, i),
+                        productId / 1000999.999));
+            }
+            post("/addproduct", JSON_MAPPER.writeValueAsString(batch));
+        }
+        // Queued ingestion makes the rows visible a while after the post, the measured queries start once all are
+        Instant deadline = Instant.now().plusSeconds(SEED_TIMEOUT_SECONDS);
+        int visible = 0;
+        while (Instant.now().isBefore(deadline)) {
+            visible = JSON_MAPPER.readTree(get("/getproducts/" + productId)).size();
+            if (visible >= resultSize) {
+                logger.info("Seeded {} products with ProductID {}", visible, productId);
+                return;
+            }
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        throw new IllegalStateException(String.format("Only %d of the %d seeded products were visible after %d seconds",
+                visible, resultSize, SEED_TIMEOUT_SECONDS));
+    }
+}
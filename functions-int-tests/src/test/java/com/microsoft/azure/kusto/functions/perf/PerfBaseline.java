@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * The stored baselines, one file per language, simulation and parameter set under src/test/resources/baselines. A
+ * baseline holds the p95, p99 (ms) and throughput (requests/s) of every request of a reference run and is refreshed
+ * with -DupdateBaselines=true on the {@link RegressionReport}.
+ */
+public final class PerfBaseline {
+    static final String BASELINES_DIRECTORY = "src/test/resources/baselines";
+    // Relative slack before a change of a metric counts as a regression, runs on shared hardware are noisy
+    static final double TOLERANCE = Double.parseDouble(System.getProperty("regressionTolerance", "0.2"));
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private PerfBaseline() {
+    }
+
+    public static class RequestStats {
+        @JsonProperty("p95")
+        public double p95;
+        @JsonProperty("p99")
+        public double p99;
+        @JsonProperty("throughput")
+        public double throughput;
+
+        public RequestStats() {
+        }
+
+        public RequestStats(double p95, double p99, double throughput) {
+            this.p95 = p95;
+            this.p99 = p99;
+            this.throughput = throughput;
+        }
+    }
+
+    static File file(String language, String simulation, String baselineKey) {
+        return new File(new File(BASELINES_DIRECTORY, language), String.format("%s-%s.json", simulation, baselineKey));
+    }
+
+    /**
+     * The baseline by request name, empty when none was stored for these parameters yet
+     */
+    public static Map<String, RequestStats> load(String language, String simulation, String baselineKey) {
+        File baselineFile = file(language, simulation, baselineKey);
+        if (!baselineFile.isFile()) {
+            return Collections.emptyMap();
+        }
+        try {
+            return JSON_MAPPER.readValue(baselineFile, new TypeReference<TreeMap<String, RequestStats>>() {
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read baseline " + baselineFile, e);
+        }
+    }
+
+    public static void save(String language, String simulation, String baselineKey, Map<String, RequestStats> stats)
+            throws IOException {
+        File baselineFile = file(language, simulation, baselineKey);
+        baselineFile.getParentFile().mkdirs();
+        JSON_MAPPER.writeValue(baselineFile, new TreeMap<>(stats));
+    }
+
+    static int upperLimit(double baselineMs) {
+        return (int) Math.ceil(baselineMs * (1 + TOLERANCE));
+    }
+}
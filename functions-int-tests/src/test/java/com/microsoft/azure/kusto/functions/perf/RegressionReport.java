@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the latest Gatling run of every simulation recorded under target/gatling/perf-runs with its stored
+ * baseline and writes target/gatling/regression-report.md. Run it after the simulations with
+ * {@code mvn exec:java}; -DupdateBaselines=true stores the runs as the new baselines and
+ * -DfailOnRegression=true fails the build when a request got slower or its throughput dropped, or when a request
+ * has no baseline or a baseline request is missing from the run.
+ */
+public final class RegressionReport {
+    private static final String GATLING_RESULTS_DIRECTORY = "target/gatling";
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    private RegressionReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File[] runFiles = new File(BindingSimulation.PERF_RUNS_DIRECTORY)
+                .listFiles((dir, name) -> name.endsWith(".json"));
+        if (runFiles == null || runFiles.length == 0) {
+            System.out.println("No simulation runs recorded under " + BindingSimulation.PERF_RUNS_DIRECTORY);
+            return;
+        }
+        Arrays.sort(runFiles);
+        boolean updateBaselines = Boolean.getBoolean("updateBaselines");
+        boolean regressed = false;
+        boolean unchecked = false;
+        StringBuilder report = new StringBuilder("# Bindings performance regression report\n\n");
+        report.append(String.format(Locale.ROOT, "Regression tolerance: %.0f%%%n%n", PerfBaseline.TOLERANCE * 100));
+        for (File runFile : runFiles) {
+            JsonNode run = JSON_MAPPER.readTree(runFile);
+            String simulation = run.path("simulation").asText();
+            String language = run.path("language").asText();
+            String baselineKey = run.path("baselineKey").asText();
+            report.append(String.format("## %s (%s, %s)%n%n", simulation, language, baselineKey));
+            Optional<File> statsFile = latestStats(simulation);
+            if (!statsFile.isPresent()) {
+                report.append("No Gatling results found for the run.\n\n");
+                unchecked = true;
+                continue;
+            }
+            Map<String, PerfBaseline.RequestStats> current = readStats(statsFile.get());
+            Map<String, PerfBaseline.RequestStats> baseline = PerfBaseline.load(language, simulation, baselineKey);
+            if (baseline.isEmpty()) {
+                report.append(String.format("No baseline stored in %s, record one with -DupdateBaselines=true.%n%n",
+                        PerfBaseline.file(language, simulation, baselineKey).getPath()));
+            }
+            report.append("| Request | p95 (ms) | p99 (ms) | Throughput (req/s) | Verdict |\n");
+            report.append("|---|---|---|---|---|\n");
+            for (Map.Entry<String, PerfBaseline.RequestStats> request : current.entrySet()) {
+                PerfBaseline.RequestStats now = request.getValue();
+                PerfBaseline.RequestStats before = baseline.get(request.getKey());
+                String verdict;
+                if (before == null) {
+                    verdict = "no baseline";
+                    unchecked = !updateBaselines;
+                } else if (now.p95 > before.p95 * (1 + PerfBaseline.TOLERANCE)
+                        || now.p99 > before.p99 * (1 + PerfBaseline.TOLERANCE)
+                        || now.throughput < before.throughput * (1 - PerfBaseline.TOLERANCE)) {
+                    verdict = "**regressed**";
+                    regressed = true;
+                } else if (now.p95 < before.p95 * (1 - PerfBaseline.TOLERANCE)
+                        && now.throughput >= before.throughput) {
+                    verdict = "improved";
+                } else {
+                    verdict = "unchanged";
+                }
+                report.append(String.format("| %s | %s | %s | %s | %s |%n", request.getKey(),
+                        compare(now.p95, before == null ? null : before.p95),
+                        compare(now.p99, before == null ? null : before.p99),
+                        compare(now.throughput, before == null ? null : before.throughput), verdict));
+            }
+            for (String request : baseline.keySet()) {
+                if (!current.containsKey(request)) {
+                    report.append(String.format("| %s | | | | missing |%n", request));
+                    unchecked = !updateBaselines;
+                }
+            }
+            report.append('\n');
+            if (updateBaselines) {
+                PerfBaseline.save(language, simulation, baselineKey, current);
+                report.append(String.format("Baseline %s updated.%n%n",
+                        PerfBaseline.file(language, simulation, baselineKey).getPath()));
+            }
+        }
+        File reportFile = new File(GATLING_RESULTS_DIRECTORY, "regression-report.md");
+        Files.write(reportFile.toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println(report);
+        System.out.println("Report written to " + reportFile.getPath());
+        if ((regressed || unchecked) && Boolean.getBoolean("failOnRegression")) {
+            System.exit(1);
+        }
+    }
+
+    private static String compare(double now, Double before) {
+        if (before == null || before == 0) {
+            return String.format(Locale.ROOT, "%.1f", now);
+        }
+        return String.format(Locale.ROOT, "%.1f (%+.1f%%)", now, (now - before) / before * 100);
+    }
+
+    /**
+     * The stats of the newest run directory of the simulation, Gatling names them after the lower cased simulation
+     */
+    private static Optional<File> latestStats(String simulation) {
+        String prefix = simulation.toLowerCase(Locale.ROOT) + "-";
+        File[] runDirectories = new File(GATLING_RESULTS_DIRECTORY)
+                .listFiles(file -> file.isDirectory() && file.getName().startsWith(prefix));
+        if (runDirectories == null) {
+            return Optional.empty();
+        }
+        return Arrays.stream(runDirectories).sorted(Comparator.comparing(File::getName).reversed())
+                .map(directory -> new File(directory, "js" + File.separator + "stats.json")).filter(File::isFile)
+                .findFirst();
+    }
+
+    /**
+     * The p95 (percentiles3), p99 (percentiles4) and throughput of every request, with the default percentiles of
+     * gatling.conf
+     */
+    private static Map<String, PerfBaseline.RequestStats> readStats(File statsFile) throws IOException {
+        Map<String, PerfBaseline.RequestStats> stats = new TreeMap<>();
+        collectRequests(JSON_MAPPER.readTree(statsFile), stats);
+        return stats;
+    }
+
+    private static void collectRequests(JsonNode node, Map<String, PerfBaseline.RequestStats> stats) {
+        if ("REQUEST".equals(node.path("type").asText())) {
+            JsonNode requestStats = node.path("stats");
+            stats.put(node.path("name").asText(),
+                    new PerfBaseline.RequestStats(requestStats.path("percentiles3").path("ok").asDouble(),
+                            requestStats.path("percentiles4").path("ok").asDouble(),
+                            requestStats.path("meanNumberOfRequestsPerSecond").path("ok").asDouble()));
+        }
+        Iterator<JsonNode> children = node.path("contents").elements();
+        while (children.hasNext()) {
+            collectRequests(children.next(), stats);
+        }
+    }
+}
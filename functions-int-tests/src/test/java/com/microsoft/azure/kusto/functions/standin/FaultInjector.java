@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.standin;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The latency, throttling and failures the stand-in injects in the requests of the clients. Set at start with the
+ * standIn.* system properties and changed while running with a POST of this object to /standin/faults.
+ */
+public class FaultInjector {
+    public enum Fault {
+        NONE, THROTTLE, FAILURE
+    }
+
+    // Fixed delay added to every request
+    @JsonProperty("latencyMs")
+    public volatile long latencyMs = Long.getLong("standIn.latencyMs", 0);
+    // Random delay of up to jitterMs added to the fixed one
+    @JsonProperty("jitterMs")
+    public volatile long jitterMs = Long.getLong("standIn.jitterMs", 0);
+    // Share of the requests answered with 429, as the cluster does when it throttles
+    @JsonProperty("throttleRate")
+    public volatile double throttleRate = Double.parseDouble(System.getProperty("standIn.throttleRate", "0"));
+    // Share of the requests answered with a transient 500
+    @JsonProperty("failureRate")
+    public volatile double failureRate = Double.parseDouble(System.getProperty("standIn.failureRate", "0"));
+
+    public void update(FaultInjector faults) {
+        this.latencyMs = faults.latencyMs;
+        this.jitterMs = faults.jitterMs;
+        this.throttleRate = faults.throttleRate;
+        this.failureRate = faults.failureRate;
+    }
+
+    /**
+     * Waits for the injected latency, returns how long it waited
+     */
+    long delay() throws InterruptedException {
+        long delayMs = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (delayMs > 0) {
+            Thread.sleep(delayMs);
+        }
+        return delayMs;
+    }
+
+    Fault nextFault() {
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if (draw < throttleRate) {
+            return Fault.THROTTLE;
+        }
+        if (draw < throttleRate + failureRate) {
+            return Fault.FAILURE;
+        }
+        return Fault.NONE;
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.standin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The tables of the stand-in, kept in memory. Rows ingested as JSON keep their property names as columns, CSV rows
+ * take the columns of the table or Column1..N. Ingestion mappings are not applied.
+ * <p>
+ * Queries support the subset of KQL the samples and the simulations use: a table, then where (conditions joined by
+ * and, with ==, !=, =~, has, !has, contains, !contains, startswith, <, <=, >, >=), take or limit, project, sort by or
+ * order by and count. Other operators are rejected, so that a test does not silently measure a wrong result.
+ */
+public class InMemoryTables {
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final Pattern TABLE_NAME = Pattern.compile("\\[?'?\"?([A-Za-z_][\\w.-]*)\"?'?]?");
+    private static final Pattern CONDITION = Pattern.compile(
+            "(\\w+)\\s*(==|!=|=~|!has|has|!contains|contains|startswith|<=|>=|<|>)\\s*(.+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern AND = Pattern.compile("\\s+and\\s+", Pattern.CASE_INSENSITIVE);
+    private final Map<String, List<Map<String, Object>>> tables = new ConcurrentHashMap<>();
+
+    private static String key(String database, String table) {
+        return database + "." + table;
+    }
+
+    private List<Map<String, Object>> table(String database, String table) {
+        return tables.computeIfAbsent(key(database, table),
+                name -> Collections.synchronizedList(new ArrayList<Map<String, Object>>()));
+    }
+
+    /**
+     * Appends the rows of the payload to the table, returns the number of rows
+     */
+    public int ingest(String database, String table, String format, InputStream data) throws IOException {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        String normalizedFormat = format == null ? "csv" : format.toLowerCase(Locale.ROOT);
+        switch (normalizedFormat) {
+            case "json":
+            case "multijson":
+            case "singlejson":
+                try (MappingIterator<JsonNode> values = JSON_MAPPER.readerFor(JsonNode.class).readValues(data)) {
+                    while (values.hasNext()) {
+                        JsonNode value = values.next();
+                        if (value.isArray()) {
+                            for (JsonNode element : value) {
+                                rows.add(toRow(element));
+                            }
+                        } else {
+                            rows.add(toRow(value));
+                        }
+                    }
+                }
+                break;
+            case "csv":
+                List<Map<String, Object>> existing = table(database, table);
+                List<String> columns = existing.isEmpty() ? Collections.<String> emptyList()
+                        : new ArrayList<>(existing.get(0).keySet());
+                BufferedReader reader = new BufferedReader(new InputStreamReader(data, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        rows.add(csvRow(line, columns));
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("The stand-in does not ingest the format " + format);
+        }
+        table(database, table).addAll(rows);
+        return rows.size();
+    }
+
+    public List<Map<String, Object>> query(String database, String csl, Map<String, String> parameters) {
+        // Declarations and let statements come first, the last statement is the query
+        String[] statements = csl.split(";");
+        String statement = "";
+        for (int i = statements.length - 1; i >= 0 && statement.isEmpty(); i--) {
+            statement = statements[i].trim();
+        }
+        String[] stages = statement.split("\\|");
+        Matcher tableName = TABLE_NAME.matcher(stages[0].trim());
+        if (!tableName.matches()) {
+            throw new IllegalArgumentException("The stand-in only queries tables, not " + stages[0].trim());
+        }
+        List<Map<String, Object>> rows;
+        List<Map<String, Object>> source = tables.get(key(database, tableName.group(1)));
+        if (source == null) {
+            rows = new ArrayList<>();
+        } else {
+            synchronized (source) {
+                rows = new ArrayList<>(source);
+            }
+        }
+        for (int i = 1; i < stages.length; i++) {
+            rows = apply(stages[i].trim(), rows, parameters);
+        }
+        return rows;
+    }
+
+    public void clear(String database, String table) {
+        tables.remove(key(database, table));
+    }
+
+    public void clear() {
+        tables.clear();
+    }
+
+    /**
+     * Row count by database.table
+     */
+    public Map<String, Integer> counts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, List<Map<String, Object>>> table : tables.entrySet()) {
+            counts.put(table.getKey(), table.getValue().size());
+        }
+        return counts;
+    }
+
+    private static List<Map<String, Object>> apply(String stage, List<Map<String, Object>> rows,
+            Map<String, String> parameters) {
+        String[] operator = stage.split("\\s+", 2);
+        String name = operator[0].toLowerCase(Locale.ROOT);
+        String arguments = operator.length > 1 ? operator[1].trim() : "";
+        List<Map<String, Object>> result = new ArrayList<>();
+        switch (name) {
+            case "where":
+                String[] conditions = AND.split(arguments);
+                for (Map<String, Object> row : rows) {
+                    boolean matches = true;
+                    for (int i = 0; i < conditions.length && matches; i++) {
+                        matches = matches(row, conditions[i].trim(), parameters);
+                    }
+                    if (matches) {
+                        result.add(row);
+                    }
+                }
+                return result;
+            case "take":
+            case "limit":
+                return new ArrayList<>(rows.subList(0, Math.min(rows.size(), Integer.parseInt(arguments))));
+            case "project":
+                for (Map<String, Object> row : rows) {
+                    Map<String, Object> projected = new LinkedHashMap<>();
+                    for (String column : arguments.split(",")) {
+                        projected.put(column.trim(), row.get(column.trim()));
+                    }
+                    result.add(projected);
+                }
+                return result;
+            case "count":
+                Map<String, Object> count = new LinkedHashMap<>();
+                count.put("Count", (long) rows.size());
+                result.add(count);
+                return result;
+            case "sort":
+            case "order":
+                // sort by Column [asc|desc], descending by default as in KQL
+                String[] sort = arguments.replaceFirst("(?i)^by\\s+", "").split("\\s+");
+                String column = sort[0];
+                Comparator<Map<String, Object>> comparator = (left, right) -> compare(left.get(column),
+                        right.get(column));
+                result.addAll(rows);
+                result.sort(sort.length > 1 && "asc".equalsIgnoreCase(sort[1]) ? comparator : comparator.reversed());
+                return result;
+            default:
+                throw new IllegalArgumentException("The stand-in does not support the query operator " + name);
+        }
+    }
+
+    private static boolean matches(Map<String, Object> row, String condition, Map<String, String> parameters) {
+        Matcher matcher = CONDITION.matcher(condition);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("The stand-in does not support the condition " + condition);
+        }
+        Object value = row.get(matcher.group(1));
+        Object operand = operand(matcher.group(3).trim(), parameters);
+        String valueText = value == null ? "" : String.valueOf(value);
+        String operandText = String.valueOf(operand);
+        switch (matcher.group(2).toLowerCase(Locale.ROOT)) {
+            case "==":
+                return compare(value, operand) == 0;
+            case "!=":
+                return compare(value, operand) != 0;
+            case "=~":
+                return valueText.equalsIgnoreCase(operandText);
+            case "has":
+            case "contains":
+                return valueText.toLowerCase(Locale.ROOT).contains(operandText.toLowerCase(Locale.ROOT));
+            case "!has":
+            case "!contains":
+                return !valueText.toLowerCase(Locale.ROOT).contains(operandText.toLowerCase(Locale.ROOT));
+            case "startswith":
+                return valueText.toLowerCase(Locale.ROOT).startsWith(operandText.toLowerCase(Locale.ROOT));
+            case "<":
+                return compare(value, operand) < 0;
+            case "<=":
+                return compare(value, operand) <= 0;
+            case ">":
+                return compare(value, operand) > 0;
+            default:
+                return compare(value, operand) >= 0;
+        }
+    }
+
+    private static Object operand(String text, Map<String, String> parameters) {
+        boolean singleQuoted = text.startsWith("'") && text.endsWith("'");
+        boolean doubleQuoted = text.startsWith("\"") && text.endsWith("\"");
+        if (text.length() >= 2 && (singleQuoted || doubleQuoted)) {
+            return text.substring(1, text.length() - 1);
+        }
+        if (parameters.containsKey(text)) {
+            return parameters.get(text);
+        }
+        try {
+            return new BigDecimal(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The stand-in does not know the parameter or literal " + text);
+        }
+    }
+
+    private static int compare(Object left, Object right) {
+        // Numbers are compared as numbers, the rest by their text
+        BigDecimal leftNumber = number(left);
+        BigDecimal rightNumber = number(right);
+        if (leftNumber != null && rightNumber != null) {
+            return leftNumber.compareTo(rightNumber);
+        }
+        return String.valueOf(left).compareTo(String.valueOf(right));
+    }
+
+    private static BigDecimal number(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return null;
+        }
+        try {
+            return new BigDecimal(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, Object> toRow(JsonNode value) {
+        if (!value.isObject()) {
+            throw new IllegalArgumentException("The stand-in ingests JSON objects, not " + value.getNodeType());
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = value.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode fieldValue = field.getValue();
+            Object columnValue;
+            if (fieldValue.isNull()) {
+                columnValue = null;
+            } else if (fieldValue.isIntegralNumber()) {
+                columnValue = fieldValue.longValue();
+            } else if (fieldValue.isNumber()) {
+                columnValue = fieldValue.doubleValue();
+            } else if (fieldValue.isBoolean()) {
+                columnValue = fieldValue.booleanValue();
+            } else if (fieldValue.isTextual()) {
+                columnValue = fieldValue.textValue();
+            } else {
+                columnValue = fieldValue;
+            }
+            row.put(field.getKey(), columnValue);
+        }
+        return row;
+    }
+
+    private static Map<String, Object> csvRow(String line, List<String> columns) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            String column = i < columns.size() ? columns.get(i) : "Column" + (i + 1);
+            row.put(column, fields.get(i));
+        }
+        return row;
+    }
+}
@@ -0,0 +1,415 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.standin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for a Kusto cluster, speaking enough of the REST API for the clients of the extension: streaming
+ * ingestion (/v1/rest/ingest), queries (/v2/rest/query and /v1/rest/query) and control commands (/v1/rest/mgmt). It
+ * injects latency, throttling and failures through its {@link FaultInjector} and records the timing of every request in
+ * its {@link RequestTimings}, so that load tests measure the overhead of the extension and not the one of a shared
+ * cluster.
+ * <p>
+ * Queued ingestion goes through Azure storage queues and status tables and is not emulated: the ingestion resources
+ * commands are answered with a permanent error. Requests are not authenticated, connect with
+ * {@code Data Source=http://<host>:<port>} and no credentials.
+ * <p>
+ * /standin/timings, /standin/faults and /standin/tables inspect and control the stand-in while it runs.
+ */
+public class KustoStandIn implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(KustoStandIn.class);
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final Pattern INGEST_PATH = Pattern.compile("/v1/rest/ingest/([^/]+)/([^/?]+)");
+    private static final Pattern CLEAR_TABLE = Pattern.compile("\\.clear\\s+table\\s+(\\S+)\\s+data.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final InMemoryTables tables = new InMemoryTables();
+    private final FaultInjector faults = new FaultInjector();
+    private final RequestTimings timings = new RequestTimings();
+
+    private interface Handler {
+        Response handle(HttpExchange exchange, byte[] body) throws IOException;
+    }
+
+    private static final class Response {
+        final int status;
+        final byte[] body;
+        final String contentType;
+        final long rows;
+
+        Response(int status, byte[] body, String contentType, long rows) {
+            this.status = status;
+            this.body = body;
+            this.contentType = contentType;
+            this.rows = rows;
+        }
+
+        static Response json(int status, JsonNode body, long rows) throws IOException {
+            return new Response(status, JSON_MAPPER.writeValueAsBytes(body), "application/json; charset=utf-8", rows);
+        }
+    }
+
+    public KustoStandIn(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1/rest/ingest/", exchange -> serve(exchange, "ingest", this::streamingIngest));
+        server.createContext("/v2/rest/query", exchange -> serve(exchange, "query", this::queryV2));
+        server.createContext("/v1/rest/query", exchange -> serve(exchange, "query", this::queryV1));
+        server.createContext("/v1/rest/mgmt", exchange -> serve(exchange, "mgmt", this::management));
+        server.createContext("/standin/", this::control);
+    }
+
+    public KustoStandIn start() {
+        server.start();
+        logger.info("Kusto stand-in listening on {}", getUrl());
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    public InMemoryTables tables() {
+        return tables;
+    }
+
+    public FaultInjector faults() {
+        return faults;
+    }
+
+    public RequestTimings timings() {
+        return timings;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange, String endpoint, Handler handler) throws IOException {
+        long startEpochMs = System.currentTimeMillis();
+        long injectedDelayMs = 0;
+        long requestBytes = 0;
+        Response response;
+        long start = System.nanoTime();
+        try {
+            byte[] body = readBody(exchange);
+            requestBytes = body.length;
+            injectedDelayMs = faults.delay();
+            start = System.nanoTime();
+            switch (faults.nextFault()) {
+                case THROTTLE:
+                    response = error(429, "Request is throttled by the stand-in",
+                            "Kusto.DataNode.Exceptions.ThrottlingException", false);
+                    break;
+                case FAILURE:
+                    response = error(500, "Transient failure injected by the stand-in",
+                            "Kusto.Data.Exceptions.KustoServiceException", false);
+                    break;
+                default:
+                    response = handler.handle(exchange, body);
+            }
+        } catch (IllegalArgumentException e) {
+            response = error(400, e.getMessage(), "Kusto.Data.Exceptions.KustoBadRequestException", true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response = error(503, "The stand-in is stopping", "Kusto.Data.Exceptions.KustoServiceException", false);
+        } catch (Exception e) {
+            logger.warn("Stand-in failed to serve {}", exchange.getRequestURI(), e);
+            response = error(500, String.valueOf(e.getMessage()), "Kusto.Data.Exceptions.KustoServiceException",
+                    false);
+        }
+        write(exchange, response);
+        timings.record(new RequestTimings.Timing(endpoint, response.status, startEpochMs,
+                (System.nanoTime() - start) / 1_000_000.0, injectedDelayMs, requestBytes, response.rows));
+    }
+
+    private Response streamingIngest(HttpExchange exchange, byte[] body) throws IOException {
+        Matcher path = INGEST_PATH.matcher(exchange.getRequestURI().getPath());
+        if (!path.matches()) {
+            throw new IllegalArgumentException("Streaming ingestion is posted to /v1/rest/ingest/{database}/{table}");
+        }
+        Map<String, String> query = queryParameters(exchange);
+        int rows = tables.ingest(decode(path.group(1)), decode(path.group(2)), query.get("streamFormat"),
+                new ByteArrayInputStream(body));
+        return Response.json(200, v1Result(Collections.<Map<String, Object>> emptyList()), rows);
+    }
+
+    private Response queryV2(HttpExchange exchange, byte[] body) throws IOException {
+        List<Map<String, Object>> rows = runQuery(body);
+        ArrayNode frames = JSON_MAPPER.createArrayNode();
+        ObjectNode header = frames.addObject();
+        header.put("FrameType", "DataSetHeader");
+        header.put("IsProgressive", false);
+        header.put("Version", "v2.0");
+        ObjectNode table = frames.addObject();
+        table.put("FrameType", "DataTable");
+        table.put("TableId", 0);
+        table.put("TableKind", "PrimaryResult");
+        table.put("TableName", "PrimaryResult");
+        writeTable(table, rows, false);
+        ObjectNode completion = frames.addObject();
+        completion.put("FrameType", "DataSetCompletion");
+        completion.put("HasErrors", false);
+        completion.put("Cancelled", false);
+        return Response.json(200, frames, rows.size());
+    }
+
+    private Response queryV1(HttpExchange exchange, byte[] body) throws IOException {
+        List<Map<String, Object>> rows = runQuery(body);
+        return Response.json(200, v1Result(rows), rows.size());
+    }
+
+    private Response management(HttpExchange exchange, byte[] body) throws IOException {
+        JsonNode request = JSON_MAPPER.readTree(body);
+        String database = request.path("db").asText();
+        String command = request.path("csl").asText().trim();
+        String lowerCommand = command.toLowerCase(Locale.ROOT);
+        if (lowerCommand.startsWith(".get ingestion resources")
+                || lowerCommand.startsWith(".get kusto identity token")) {
+            return error(400, "Queued ingestion is not emulated by the stand-in, use streaming ingestion",
+                    "Kusto.Data.Exceptions.KustoBadRequestException", true);
+        }
+        Matcher clearTable = CLEAR_TABLE.matcher(command);
+        if (clearTable.matches()) {
+            tables.clear(database, clearTable.group(1));
+        }
+        List<Map<String, Object>> rows = new ArrayList<>();
+        if (lowerCommand.startsWith(".show version")) {
+            Map<String, Object> version = new LinkedHashMap<>();
+            version.put("BuildVersion", "1.0.0.0");
+            version.put("ServiceType", "Engine");
+            version.put("ProductVersion", "KustoStandIn");
+            rows.add(version);
+        }
+        // Other commands (tables, mappings, policies) are acknowledged without effect
+        return Response.json(200, v1Result(rows), rows.size());
+    }
+
+    private List<Map<String, Object>> runQuery(byte[] body) throws IOException {
+        JsonNode request = JSON_MAPPER.readTree(body);
+        JsonNode properties = request.path("properties");
+        // Clients send the properties as an object or as its JSON text
+        if (properties.isTextual()) {
+            properties = JSON_MAPPER.readTree(properties.asText());
+        }
+        Map<String, String> parameters = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = properties.path("Parameters").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            parameters.put(field.getKey(), field.getValue().asText());
+        }
+        return tables.query(request.path("db").asText(), request.path("csl").asText(), parameters);
+    }
+
+    private void control(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        Response response;
+        if (path.startsWith("/standin/timings")) {
+            if ("DELETE".equals(method)) {
+                timings.clear();
+                response = new Response(204, new byte[0], "text/plain", 0);
+            } else if ("format=csv".equals(exchange.getRequestURI().getQuery())) {
+                response = new Response(200, timings.toCsv().getBytes(StandardCharsets.UTF_8), "text/csv", 0);
+            } else {
+                response = Response.json(200, JSON_MAPPER.valueToTree(timings.summary()), 0);
+            }
+        } else if (path.startsWith("/standin/faults")) {
+            if ("POST".equals(method)) {
+                faults.update(JSON_MAPPER.readValue(readBody(exchange), FaultInjector.class));
+            }
+            response = Response.json(200, JSON_MAPPER.valueToTree(faults), 0);
+        } else if (path.startsWith("/standin/tables")) {
+            if ("DELETE".equals(method)) {
+                tables.clear();
+            }
+            response = Response.json(200, JSON_MAPPER.valueToTree(tables.counts()), 0);
+        } else {
+            response = new Response(404, new byte[0], "text/plain", 0);
+        }
+        write(exchange, response);
+    }
+
+    private static ObjectNode v1Result(List<Map<String, Object>> rows) {
+        ObjectNode result = JSON_MAPPER.createObjectNode();
+        ObjectNode table = result.putArray("Tables").addObject();
+        table.put("TableName", "Table_0");
+        writeTable(table, rows, true);
+        return result;
+    }
+
+    private static void writeTable(ObjectNode table, List<Map<String, Object>> rows, boolean v1) {
+        Set<String> columns = new LinkedHashSet<>();
+        for (Map<String, Object> row : rows) {
+            columns.addAll(row.keySet());
+        }
+        ArrayNode columnsNode = table.putArray("Columns");
+        for (String column : columns) {
+            ObjectNode columnNode = columnsNode.addObject();
+            columnNode.put("ColumnName", column);
+            String columnType = columnType(rows, column);
+            columnNode.put("ColumnType", columnType);
+            if (v1) {
+                columnNode.put("DataType", dataType(columnType));
+            }
+        }
+        ArrayNode rowsNode = table.putArray("Rows");
+        for (Map<String, Object> row : rows) {
+            ArrayNode rowNode = rowsNode.addArray();
+            for (String column : columns) {
+                rowNode.add(JSON_MAPPER.valueToTree(row.get(column)));
+            }
+        }
+    }
+
+    private static String columnType(List<Map<String, Object>> rows, String column) {
+        // JSON numbers of a column can mix integers and decimals, a single decimal makes the column real
+        String columnType = null;
+        for (Map<String, Object> row : rows) {
+            Object value = row.get(column);
+            String valueType;
+            if (value == null) {
+                continue;
+            } else if (value instanceof Long || value instanceof Integer) {
+                valueType = "long";
+            } else if (value instanceof Double) {
+                valueType = "real";
+            } else if (value instanceof Boolean) {
+                valueType = "bool";
+            } else if (value instanceof String) {
+                valueType = "string";
+            } else {
+                valueType = "dynamic";
+            }
+            if (columnType == null || "long".equals(columnType) && "real".equals(valueType)) {
+                columnType = valueType;
+            }
+        }
+        return columnType == null ? "string" : columnType;
+    }
+
+    private static String dataType(String columnType) {
+        switch (columnType) {
+            case "long":
+                return "Int64";
+            case "real":
+                return "Double";
+            case "bool":
+                return "Boolean";
+            case "dynamic":
+                return "Object";
+            default:
+                return "String";
+        }
+    }
+
+    private static Response error(int status, String message, String type, boolean permanent) throws IOException {
+        ObjectNode body = JSON_MAPPER.createObjectNode();
+        ObjectNode error = body.putObject("error");
+        error.put("code", status == 429 ? "TooManyRequests" : status == 400 ? "BadRequest" : "ServiceError");
+        error.put("message", message);
+        error.put("@type", type);
+        error.put("@message", message);
+        error.put("@permanent", permanent);
+        return Response.json(status, body, 0);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = body.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void write(HttpExchange exchange, Response response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(response.body);
+        }
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                String[] pair = parameter.split("=", 2);
+                parameters.put(decode(pair[0]), pair.length > 1 ? decode(pair[1]) : "");
+            }
+        }
+        return parameters;
+    }
+
+    private static String decode(String text) throws IOException {
+        return URLDecoder.decode(text, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Runs the stand-in on -DstandIn.port (7200 by default) until the process is stopped, printing the timings on exit
+     */
+    public static void main(String[] args) throws IOException {
+        KustoStandIn standIn = new KustoStandIn(Integer.getInteger("standIn.port", 7200)).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                System.out.println(
+                        JSON_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(standIn.timings().summary()));
+            } catch (IOException e) {
+                logger.warn("Could not print the timings", e);
+            }
+            standIn.close();
+        }));
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.kusto.functions.standin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The timing of every request served by the stand-in. The server time excludes the injected delay, so that the time
+ * measured by a client minus the server time is the overhead of the client and the extension.
+ */
+public class RequestTimings {
+    private final ConcurrentLinkedQueue<Timing> timings = new ConcurrentLinkedQueue<>();
+
+    public static class Timing {
+        public final String endpoint;
+        public final int status;
+        public final long startEpochMs;
+        public final double serverMs;
+        public final long injectedDelayMs;
+        // Size of the request body once decompressed
+        public final long requestBytes;
+        public final long rows;
+
+        Timing(String endpoint, int status, long startEpochMs, double serverMs, long injectedDelayMs, long requestBytes,
+                long rows) {
+            this.endpoint = endpoint;
+            this.status = status;
+            this.startEpochMs = startEpochMs;
+            this.serverMs = serverMs;
+            this.injectedDelayMs = injectedDelayMs;
+            this.requestBytes = requestBytes;
+            this.rows = rows;
+        }
+    }
+
+    void record(Timing timing) {
+        timings.add(timing);
+    }
+
+    public void clear() {
+        timings.clear();
+    }
+
+    public List<Timing> all() {
+        return new ArrayList<>(timings);
+    }
+
+    /**
+     * Count, errors, rows, bytes and server time percentiles by endpoint
+     */
+    public Map<String, Map<String, Object>> summary() {
+        Map<String, List<Timing>> byEndpoint = new TreeMap<>();
+        for (Timing timing : timings) {
+            byEndpoint.computeIfAbsent(timing.endpoint, endpoint -> new ArrayList<>()).add(timing);
+        }
+        Map<String, Map<String, Object>> summary = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Timing>> endpoint : byEndpoint.entrySet()) {
+            List<Double> serverMs = new ArrayList<>();
+            long errors = 0;
+            long rows = 0;
+            long bytes = 0;
+            for (Timing timing : endpoint.getValue()) {
+                serverMs.add(timing.serverMs);
+                errors += timing.status >= 400 ? 1 : 0;
+                rows += timing.rows;
+                bytes += timing.requestBytes;
+            }
+            Collections.sort(serverMs);
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", serverMs.size());
+            stats.put("errors", errors);
+            stats.put("rows", rows);
+            stats.put("requestBytes", bytes);
+            stats.put("p50Ms", percentile(serverMs, 50));
+            stats.put("p95Ms", percentile(serverMs, 95));
+            stats.put("p99Ms", percentile(serverMs, 99));
+            stats.put("maxMs", serverMs.get(serverMs.size() - 1));
+            summary.put(endpoint.getKey(), stats);
+        }
+        return summary;
+    }
+
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder(
+                "endpoint,status,startEpochMs,serverMs,injectedDelayMs,requestBytes,rows\n");
+        for (Timing timing : timings) {
+            csv.append(timing.endpoint).append(',').append(timing.status).append(',').append(timing.startEpochMs)
+                    .append(',').append(timing.serverMs).append(',').append(timing.injectedDelayMs).append(',')
+                    .append(timing.requestBytes).append(',').append(timing.rows).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static double percentile(List<Double> sorted, double percentile) {
+        // Nearest rank
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compares two JMH result files (-rf json) and fails when a benchmark regressed by more than the threshold. Used to compare a release
+// candidate against the results recorded for the previous release:
+// java -cp target/benchmarks.jar com.microsoft.azure.functions.kusto.benchmarks.BenchmarkComparison baseline.json current.json [thresholdPercent]
+// Benchmarks of the baseline that are missing from the current run fail the comparison as well, a renamed or deleted benchmark would
+// otherwise hide a regression. -DfailOnRegression=false only prints the comparison
+public final class BenchmarkComparison {
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+
+    private BenchmarkComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison <baseline.json> <current.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        double thresholdPercent = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+        boolean failOnRegression = Boolean.parseBoolean(System.getProperty("failOnRegression", "true"));
+        Map<String, Result> baseline = readResults(new File(args[0]));
+        Map<String, Result> current = readResults(new File(args[1]));
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result currentResult = entry.getValue();
+            Result baselineResult = baseline.get(entry.getKey());
+            if (baselineResult == null) {
+                System.out.printf("%-90s %14s %14.3f %9s%n", entry.getKey(), "-", currentResult.score, "new");
+                continue;
+            }
+            double changePercent = (currentResult.score - baselineResult.score) * 100 / baselineResult.score;
+            // For throughput higher is better, for the time based modes lower is better
+            double regressionPercent = "thrpt".equals(currentResult.mode) ? -changePercent : changePercent;
+            boolean regressed = regressionPercent > thresholdPercent;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), baselineResult.score, currentResult.score, changePercent,
+                    regressed ? "  REGRESSION" : "");
+        }
+        int missing = 0;
+        for (Map.Entry<String, Result> entry : baseline.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                missing++;
+                System.out.printf("%-90s %14.3f %14s %9s%n", entry.getKey(), entry.getValue().score, "-", "missing");
+            }
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%%n", regressions, thresholdPercent);
+        }
+        if (missing > 0) {
+            System.out.printf("%d benchmark(s) of the baseline are missing from the current run%n", missing);
+        }
+        if (failOnRegression && (regressions > 0 || missing > 0)) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Result> readResults(File file) throws IOException {
+        Map<String, Result> results = new TreeMap<>();
+        for (JsonNode benchmark : new ObjectMapper().readTree(file)) {
+            Map<String, String> params = new LinkedHashMap<>();
+            JsonNode paramsNode = benchmark.get("params");
+            if (paramsNode != null) {
+                Iterator<Map.Entry<String, JsonNode>> fields = paramsNode.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    params.put(field.getKey(), field.getValue().asText());
+                }
+            }
+            String key = benchmark.get("benchmark").asText() + (params.isEmpty() ? "" : params.toString());
+            results.put(key, new Result(benchmark.get("mode").asText(), benchmark.get("primaryMetric").get("score").asDouble()));
+        }
+        return results;
+    }
+
+    private static final class Result {
+        private final String mode;
+        private final double score;
+
+        private Result(String mode, double score) {
+            this.mode = mode;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.benchmarks;
+
+import java.util.stream.IntStream;
+
+// Rows shaped like the ones the samples read and write
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    static Product[] products(int count) {
+        return IntStream.range(0, count).mapToObj(productId -> new Product(productId, "java-prod" + productId, 99.99 * productId))
+                .toArray(Product[]::new);
+    }
+
+    // The JSON array the KustoInput binding hands to the worker for a Product[] parameter
+    static String productsJson(int count) {
+        StringBuilder json = new StringBuilder("[");
+        for (int productId = 0; productId < count; productId++) {
+            if (productId > 0) {
+                json.append(',');
+            }
+            json.append("{\"ProductID\":").append(productId).append(",\"Name\":\"java-prod").append(productId).append("\",\"Cost\":")
+                    .append(99.99 * productId).append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    // The same rows as the KustoInput binding hands them over with resultFormat = "columnar"
+    static String productsColumnar(int count) {
+        StringBuilder ids = new StringBuilder("[");
+        StringBuilder names = new StringBuilder("[");
+        StringBuilder costs = new StringBuilder("[");
+        for (int productId = 0; productId < count; productId++) {
+            if (productId > 0) {
+                ids.append(',');
+                names.append(',');
+                costs.append(',');
+            }
+            ids.append(productId);
+            names.append("\"java-prod").append(productId).append('"');
+            costs.append(99.99 * productId);
+        }
+        return "{\"columns\":[{\"name\":\"ProductID\",\"type\":\"long\"},{\"name\":\"Name\",\"type\":\"string\"},"
+                + "{\"name\":\"Cost\",\"type\":\"real\"}],\"rowCount\":" + count + ",\"data\":[" + ids + "]," + names + "]," + costs + "]]}";
+    }
+}
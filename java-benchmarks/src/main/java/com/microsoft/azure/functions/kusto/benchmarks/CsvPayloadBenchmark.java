@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.benchmarks;
+
+import com.microsoft.azure.functions.kusto.encoding.KustoPayloads;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Building the payload of a KustoOutput binding with dataFormat = "csv", the way the AddProductCsv sample does (string concatenation)
+// against a StringBuilder and the generated encoder
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvPayloadBenchmark {
+    @Param({ "1", "100", "10000" })
+    public int rowCount;
+
+    private Product[] products;
+
+    @Setup
+    public void setup() {
+        this.products = BenchmarkData.products(this.rowCount);
+    }
+
+    @Benchmark
+    public String concatenation() {
+        String payload = "";
+        for (int i = 0; i < this.products.length; i++) {
+            Product p = this.products[i];
+            String productCsv = p.ProductID + "," + p.Name + "," + p.Cost;
+            payload = i == 0 ? productCsv : payload + "\n" + productCsv;
+        }
+        return payload;
+    }
+
+    @Benchmark
+    public String stringBuilder() {
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < this.products.length; i++) {
+            Product p = this.products[i];
+            if (i > 0) {
+                payload.append('\n');
+            }
+            payload.append(p.ProductID).append(',').append(p.Name).append(',').append(p.Cost);
+        }
+        return payload.toString();
+    }
+
+    @Benchmark
+    public String encoder() {
+        return KustoPayloads.toCsv(ProductKustoEncoder.INSTANCE, this.products);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.benchmarks;
+
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Building a kqlParameters value (@name=value pairs separated by commas) from a set of parameters
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KqlParametersBenchmark {
+    @Param({ "1", "4", "16" })
+    public int parameterCount;
+
+    private String[] names;
+    private String[] values;
+
+    @Setup
+    public void setup() {
+        this.names = new String[this.parameterCount];
+        this.values = new String[this.parameterCount];
+        for (int i = 0; i < this.parameterCount; i++) {
+            this.names[i] = "param" + i;
+            this.values[i] = i % 2 == 0 ? String.valueOf(1000L + i) : "java-prod" + i;
+        }
+    }
+
+    @Benchmark
+    public String concatenation() {
+        String parameters = "";
+        for (int i = 0; i < this.parameterCount; i++) {
+            parameters += (i == 0 ? "@" : ",@") + this.names[i] + "=" + this.values[i];
+        }
+        return parameters;
+    }
+
+    @Benchmark
+    public String format() {
+        String parameters = "";
+        for (int i = 0; i < this.parameterCount; i++) {
+            parameters = i == 0 ? String.format("@%s=%s", this.names[i], this.values[i])
+                    : String.format("%s,@%s=%s", parameters, this.names[i], this.values[i]);
+        }
+        return parameters;
+    }
+
+    @Benchmark
+    public String stringJoiner() {
+        StringJoiner parameters = new StringJoiner(",");
+        for (int i = 0; i < this.parameterCount; i++) {
+            parameters.add("@" + this.names[i] + "=" + this.values[i]);
+        }
+        return parameters.toString();
+    }
+
+    @Benchmark
+    public String stringBuilder() {
+        StringBuilder parameters = new StringBuilder();
+        for (int i = 0; i < this.parameterCount; i++) {
+            if (i > 0) {
+                parameters.append(',');
+            }
+            parameters.append('@').append(this.names[i]).append('=').append(this.values[i]);
+        }
+        return parameters.toString();
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.functions.kusto.annotation.KustoRow;
+
+// The product row used by the samples, annotated for the generated encoder
+@KustoRow
+public class Product {
+    @JsonProperty("ProductID")
+    public long ProductID;
+    @JsonProperty("Name")
+    public String Name;
+    @JsonProperty("Cost")
+    public double Cost;
+
+    public Product() {
+    }
+
+    public Product(long ProductID, String name, double Cost) {
+        this.ProductID = ProductID;
+        this.Name = name;
+        this.Cost = Cost;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.microsoft.azure.functions.kusto.encoding.KustoColumnarResult;
+import com.microsoft.azure.functions.kusto.encoding.KustoRows;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Binding the JSON result of a KustoInput query to Product[], as the worker (Gson) and the samples (Jackson) do, against reading
+// the rows lazily with KustoRows and reading the columnar result format
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductDeserializationBenchmark {
+    @Param({ "1", "100", "10000" })
+    public int rowCount;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Gson gson = new Gson();
+    private String productsJson;
+    private String productsColumnar;
+
+    @Setup
+    public void setup() {
+        this.productsJson = BenchmarkData.productsJson(this.rowCount);
+        this.productsColumnar = BenchmarkData.productsColumnar(this.rowCount);
+    }
+
+    @Benchmark
+    public Product[] jacksonArray() throws IOException {
+        return this.mapper.readValue(this.productsJson, Product[].class);
+    }
+
+    @Benchmark
+    public Product[] gsonArray() {
+        return this.gson.fromJson(this.productsJson, Product[].class);
+    }
+
+    @Benchmark
+    public void kustoRowsStream(Blackhole blackhole) {
+        KustoRows.stream(this.productsJson, Product.class).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public List<Product> kustoColumnarRows() {
+        return KustoColumnarResult.parse(this.productsColumnar).rows(Product.class);
+    }
+
+    // An aggregate over a column, which needs no row objects at all
+    @Benchmark
+    public double kustoColumnarCostSum() {
+        double sum = 0;
+        for (double cost : KustoColumnarResult.parse(this.productsColumnar).doubleColumn("Cost")) {
+            sum += cost;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.microsoft.azure.functions.kusto.encoding.KustoPayloads;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Serializing the value of an OutputBinding<Product[]> or OutputBinding<List<Product>> for a KustoOutput binding
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductSerializationBenchmark {
+    @Param({ "1", "100", "10000" })
+    public int rowCount;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Gson gson = new Gson();
+    private Product[] productArray;
+    private List<Product> productList;
+
+    @Setup
+    public void setup() {
+        this.productArray = BenchmarkData.products(this.rowCount);
+        this.productList = Arrays.asList(this.productArray);
+    }
+
+    @Benchmark
+    public String jacksonArray() throws JsonProcessingException {
+        return this.mapper.writeValueAsString(this.productArray);
+    }
+
+    @Benchmark
+    public String jacksonList() throws JsonProcessingException {
+        return this.mapper.writeValueAsString(this.productList);
+    }
+
+    @Benchmark
+    public String gsonArray() {
+        return this.gson.toJson(this.productArray);
+    }
+
+    @Benchmark
+    public String gsonList() {
+        return this.gson.toJson(this.productList);
+    }
+
+    @Benchmark
+    public String encoderJsonLines() {
+        return KustoPayloads.toJsonLines(ProductKustoEncoder.INSTANCE, this.productList);
+    }
+}
@@ -29,7 +29,8 @@ public @interface KustoInput {
     // The KQL Command that is to be used for the query
     String kqlCommand();
 
-    // The KQL Query parameters
+    // The KQL Query parameters, e.g. "@name={name},@id:long={id}". A type after the name passes the value as a Kusto literal of that
+    // type, the values of typed parameters that contain "," or "=" are enclosed in double quotes (@tags:string="a,b")
     String kqlParameters();
 
     // An option to set the ManagedServiceIdentity option. If set to "system" will use SystemManagedIdentity
@@ -40,4 +41,29 @@ public @interface KustoInput {
     // Refer https://learn.microsoft.com/en-us/azure/data-explorer/kusto/api/netfx/request-properties#clientrequestproperties for details on properties    
     String clientRequestProperties() default "";
 
+    // Enables caching of the query results in the host when greater than 0. Invocations that resolve to the same query share the
+    // result for this many seconds
+    int cacheTtlSeconds() default 0;
+
+    // The maximum number of cached query results, the least recently used results are evicted first. Defaults to 1000 when caching
+    // is enabled
+    int cacheMaxEntries() default 0;
+
+    // Comma separated names for the result tables of a multi statement kqlCommand (name1,name2). When set the binding returns a
+    // JSON object with the records of each result table under its name, bind it to a POJO with an array field per table
+    String resultTableNames() default "";
+
+    // The format of the result, json (the default, an array of records), csv (a header line and a line per record) or columnar (a JSON
+    // object with the column names and types and an array of values per column). Read columnar results with KustoColumnarResult
+    // and csv results with KustoRows.csvIterable, binding the parameter as a String
+    String resultFormat() default "";
+
+    // Comma separated app setting names of the connection strings of read replicas (follower clusters) of the database. The queries
+    // go to the replica with the lowest expected wait, the connection keeps serving control commands
+    String readConnections() default "";
+
+    // Sends a hedged query to the next best read replica when the first one did not complete within this percentile (1 to 99) of
+    // its recent latencies, the first result is used
+    int hedgeAfterPercentile() default 0;
+
 }
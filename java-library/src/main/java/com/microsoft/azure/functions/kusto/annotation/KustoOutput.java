@@ -40,9 +40,47 @@ public @interface KustoOutput {
     String managedServiceIdentity() default "";
 
     // Indicates the type of ingestion. If set to "queued" will use queued ingestion. Defaults to managed ingestion
+    String ingestionType() default "managed";
+
+    // Misspelled and not read by the extension, kept for the functions that set it. Use ingestionType
+    @Deprecated
     String ingestionTyoe() default "managed";
 
     // Optional attribute pertinent to queued ingestion type. When using queued ingestion, the following values can be specified
     // This is specified as ``@flushImmediately=false,@pollIntervalSeconds=15,@pollTimeoutMinutes=5`` like other kusto binding properties.
+    // Adding ``@trackingMode=background`` returns from the invocation once the data is queued, the status is then tracked and logged by the host.
     String ingestionProperties() default "@flushImmediately=false,@pollIntervalSeconds=15,@pollTimeoutMinutes=5";
+
+    // Optional. Setting any of the batch limits enables batching across invocations. Rows from invocations writing to the same
+    // connection, database, table, format and mapping are buffered by the extension and ingested together when a limit is reached.
+    // The invocation completes once the batch its rows are part of has been ingested.
+    // Number of buffered rows that triggers the ingestion of the batch
+    int batchMaxRows() default 0;
+
+    // Size in bytes of the buffered rows that triggers the ingestion of the batch. Defaults to 4 MB when batching is enabled
+    int batchMaxBytes() default 0;
+
+    // Maximum time in milliseconds rows are buffered before the batch is ingested. Defaults to 1000 ms when batching is enabled
+    int batchMaxLatencyMs() default 0;
+
+    // Optional. Spreads the rows over several targets when set, comma separated Connection/Database targets (the app setting name of
+    // a connection string and a database) or Database targets on the connection. The rows are split by the shardKey field and the
+    // shards are ingested in parallel into the table of their target
+    String shardTargets() default "";
+
+    // The field of the rows whose value picks the shard target, e.g. ProductID
+    String shardKey() default "";
+
+    // Comma separated ascending boundaries for range sharding, one less than the number of targets. A row goes to the first target
+    // whose boundary is above its key, or to the last target. Without boundaries the rows are spread by a hash of the key
+    String shardBoundaries() default "";
+
+    // Optional. Scopes the identity of the rows of ingestIdentityKey, which it needs. An identity of the invocation resolved from the
+    // trigger metadata, e.g. {PartitionContext.PartitionId}, for keys that are only unique within it
+    String ingestIdentity() default "";
+
+    // Optional. Makes the ingestion of the rows of an invocation idempotent. The field of the rows whose values identify them, e.g.
+    // SequenceNumber. The SourceId of the rows is derived from them and tags the ingested extents, the rows of a replayed invocation
+    // that were already ingested are skipped. Needs ingestionType = "queued"
+    String ingestIdentityKey() default "";
 }
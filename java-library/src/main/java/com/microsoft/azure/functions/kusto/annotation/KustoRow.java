@@ -0,0 +1,23 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a POJO that is written to a KustoOutput binding. At compile time an encoder named <PojoName>KustoEncoder is generated in the
+// same package. It writes rows as JSON lines or RFC-4180 CSV without reflection, see KustoPayloads for handing the payload to an
+// OutputBinding<String>
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface KustoRow {
+    // The fields (or getter properties) to write, in the column order of the target table. Defaults to the non-static fields of
+    // the class in declaration order. The names are used as the JSON property names
+    String[] columns() default {};
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.annotation;
+
+import com.microsoft.azure.functions.annotation.CustomBinding;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+@CustomBinding(direction = "in", name = "", type = "kustoTrigger")
+public @interface KustoTrigger {
+    // the name used in the function.json
+    String name();
+
+    // The database that contains the table
+    String database();
+
+    // The table whose new rows invoke the function. The table needs the IngestionTime policy
+    String tableName();
+
+    // The connection string name that is used for resolving connection to Kusto
+    String connection();
+
+    // An option to set the ManagedServiceIdentity option. If set to "system" will use SystemManagedIdentity
+    // else use UserManagedIdentity
+    String managedServiceIdentity() default "";
+
+    // Operators applied to the new rows before they are passed to the function, starting with a pipe
+    // (e.g. "| where Level == 'Error' | project Id, Message")
+    String query() default "";
+
+    // The maximum number of rows the function is invoked with, a JSON array of the rows. Defaults to 100
+    int maxBatchSize() default 0;
+
+    // The time between two polls of the table, in milliseconds. Defaults to 5000
+    int pollingIntervalMs() default 0;
+
+    // The number of times the function is invoked with a page of rows before the page is logged and skipped. Defaults to 5
+    int maxAttempts() default 0;
+
+    // When true the first poll of the function reads the rows already in the table, otherwise it starts with the rows
+    // ingested after it
+    boolean startFromBeginning() default false;
+}
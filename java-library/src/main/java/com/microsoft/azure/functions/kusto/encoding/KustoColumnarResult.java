@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reads a KustoInput result in the columnar format (resultFormat = "columnar"), bind the parameter as a String. The payload holds the
+// column names and types once and an array of values per column:
+// {"columns":[{"name":"ProductID","type":"long"},...],"rowCount":2,"data":[[1,2],...]}
+// long and int columns are read into long[], real columns into double[], so that analytics over a column need neither row objects
+// nor boxed values. Rows can still be read as instances of a row class
+public final class KustoColumnarResult {
+    private final int rowCount;
+    private final Map<String, Column> columns;
+
+    private KustoColumnarResult(int rowCount, Map<String, Column> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    // Reads the result of a binding without resultTableNames
+    public static KustoColumnarResult parse(String payload) {
+        KustoJsonReader reader = new KustoJsonReader(payload);
+        KustoColumnarResult result = read(reader);
+        reader.endDocument();
+        return result;
+    }
+
+    // Reads the result of a binding with resultTableNames, by table name
+    public static Map<String, KustoColumnarResult> parseTables(String payload) {
+        KustoJsonReader reader = new KustoJsonReader(payload);
+        Map<String, KustoColumnarResult> tables = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNextMember()) {
+            String tableName = reader.nextName();
+            tables.put(tableName, read(reader));
+        }
+        reader.endDocument();
+        return tables;
+    }
+
+    public int rowCount() {
+        return this.rowCount;
+    }
+
+    // The column names in result order
+    public List<String> columnNames() {
+        return Collections.unmodifiableList(new ArrayList<>(this.columns.keySet()));
+    }
+
+    // The Kusto type of the column (long, int, real, string, bool, datetime, timespan, guid, decimal or dynamic)
+    public String columnType(String column) {
+        return this.find(column).type;
+    }
+
+    // The values of a long or int column, null values read as 0. The array is shared by all callers and must not be modified
+    public long[] longColumn(String column) {
+        Column values = this.find(column);
+        if (values.longs == null) {
+            throw new IllegalArgumentException("Column " + column + " of type " + values.type + " is not a long or int column");
+        }
+        return values.longs;
+    }
+
+    // The values of a real, long or int column, null values read as NaN. The array of a real column is shared by all callers and must
+    // not be modified
+    public double[] doubleColumn(String column) {
+        Column values = this.find(column);
+        if (values.doubles != null) {
+            return values.doubles;
+        }
+        if (values.longs == null) {
+            throw new IllegalArgumentException("Column " + column + " of type " + values.type + " is not a numeric column");
+        }
+        double[] doubles = new double[this.rowCount];
+        for (int row = 0; row < this.rowCount; row++) {
+            doubles[row] = values.nulls.get(row) ? Double.NaN : values.longs[row];
+        }
+        return doubles;
+    }
+
+    public boolean isNull(String column, int row) {
+        Column values = this.find(column);
+        if (row < 0 || row >= this.rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of a result with " + this.rowCount + " rows");
+        }
+        return values.nulls.get(row);
+    }
+
+    // The values of any column as objects (Long, Double, String, Boolean, or Map and List for dynamic values), null values are null
+    public Object[] column(String column) {
+        Column values = this.find(column);
+        Object[] result = new Object[this.rowCount];
+        for (int row = 0; row < this.rowCount; row++) {
+            result[row] = values.valueAt(row);
+        }
+        return result;
+    }
+
+    // The rows as instances of the row class. The class needs a constructor without parameters, columns are matched to fields by name
+    public <T> List<T> rows(Class<T> rowType) {
+        KustoRowBinder<T> binder = KustoRowBinder.forType(rowType);
+        List<T> rows = new ArrayList<>(this.rowCount);
+        for (int row = 0; row < this.rowCount; row++) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (Column column : this.columns.values()) {
+                values.put(column.name, column.valueAt(row));
+            }
+            rows.add(binder.bind(values));
+        }
+        return rows;
+    }
+
+    private Column find(String column) {
+        Column values = this.columns.get(column);
+        if (values == null) {
+            throw new IllegalArgumentException("The result has no column " + column + ", its columns are " + this.columns.keySet());
+        }
+        return values;
+    }
+
+    private static KustoColumnarResult read(KustoJsonReader reader) {
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        int rowCount = -1;
+        Map<String, Column> columns = null;
+        reader.beginObject();
+        while (reader.hasNextMember()) {
+            switch (reader.nextName()) {
+                case "columns":
+                    reader.beginArray();
+                    while (reader.hasNextMember()) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> column = (Map<String, Object>) reader.readValue();
+                        names.add((String) column.get("name"));
+                        types.add((String) column.get("type"));
+                    }
+                    break;
+                case "rowCount":
+                    rowCount = (int) reader.nextLong();
+                    break;
+                case "data":
+                    // The host writes the columns and the row count first, so that the values can be read straight into arrays
+                    if (rowCount < 0) {
+                        throw new IllegalArgumentException("The columns and rowCount of a columnar result must precede its data");
+                    }
+                    columns = readData(reader, names, types, rowCount);
+                    break;
+                default:
+                    // Members added in later versions are skipped
+                    reader.readValue();
+                    break;
+            }
+        }
+        if (columns == null) {
+            throw new IllegalArgumentException("The payload is not a columnar result, it has no data");
+        }
+        return new KustoColumnarResult(rowCount, columns);
+    }
+
+    private static Map<String, Column> readData(KustoJsonReader reader, List<String> names, List<String> types, int rowCount) {
+        Map<String, Column> columns = new LinkedHashMap<>();
+        reader.beginArray();
+        for (int i = 0; i < names.size(); i++) {
+            if (!reader.hasNextMember()) {
+                throw new IllegalArgumentException("The columnar result has " + names.size() + " columns but only " + i + " data arrays");
+            }
+            columns.put(names.get(i), Column.read(reader, names.get(i), types.get(i), rowCount));
+        }
+        if (reader.hasNextMember()) {
+            throw new IllegalArgumentException("The columnar result has more data arrays than its " + names.size() + " columns");
+        }
+        return columns;
+    }
+
+    private static final class Column {
+        private final String name;
+        private final String type;
+        private final BitSet nulls = new BitSet();
+        // Exactly one of the three holds the values, by column type
+        private long[] longs;
+        private double[] doubles;
+        private Object[] values;
+
+        private Column(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        static Column read(KustoJsonReader reader, String name, String type, int rowCount) {
+            Column column = new Column(name, type);
+            if ("long".equals(type) || "int".equals(type)) {
+                column.longs = new long[rowCount];
+            } else if ("real".equals(type)) {
+                column.doubles = new double[rowCount];
+            } else {
+                column.values = new Object[rowCount];
+            }
+            reader.beginArray();
+            int row = 0;
+            while (reader.hasNextMember()) {
+                if (row == rowCount) {
+                    throw new IllegalArgumentException("Column " + name + " has more values than the " + rowCount + " rows of the result");
+                }
+                if (reader.nextNull()) {
+                    column.nulls.set(row);
+                    if (column.doubles != null) {
+                        column.doubles[row] = Double.NaN;
+                    }
+                } else if (column.longs != null) {
+                    column.longs[row] = reader.nextLong();
+                } else if (column.doubles != null) {
+                    column.doubles[row] = reader.nextDouble();
+                } else {
+                    column.values[row] = reader.readValue();
+                }
+                row++;
+            }
+            if (row != rowCount) {
+                throw new IllegalArgumentException("Column " + name + " has " + row + " values, the result has " + rowCount + " rows");
+            }
+            return column;
+        }
+
+        Object valueAt(int row) {
+            if (this.nulls.get(row)) {
+                return null;
+            }
+            if (this.longs != null) {
+                return this.longs[row];
+            }
+            if (this.doubles != null) {
+                return this.doubles[row];
+            }
+            return this.values[row];
+        }
+    }
+}
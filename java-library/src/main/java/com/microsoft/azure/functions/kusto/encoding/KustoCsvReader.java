@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A pull reader over a KustoInput result in the csv format: a header line with the column names and a line per row (RFC-4180).
+// Values are read as strings, unquoted empty fields as null and quoted empty fields as empty strings
+final class KustoCsvReader {
+    private final String csv;
+    private final List<String> columnNames = new ArrayList<>();
+    private int position;
+
+    KustoCsvReader(String csv) {
+        if (csv == null) {
+            throw new IllegalArgumentException("The CSV payload cannot be null");
+        }
+        this.csv = csv;
+        if (this.position < this.csv.length()) {
+            this.readLine(this.columnNames);
+        }
+    }
+
+    // Returns the next row, or null after the last one
+    Map<String, Object> nextRow() {
+        if (this.position >= this.csv.length()) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(this.columnNames.size());
+        this.readLine(values);
+        if (values.size() != this.columnNames.size()) {
+            throw new IllegalArgumentException("A row of the CSV payload has " + values.size() + " fields, the header has " + this.columnNames.size());
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            row.put(this.columnNames.get(i), values.get(i));
+        }
+        return row;
+    }
+
+    private void readLine(List<String> fields) {
+        while (true) {
+            fields.add(this.readField());
+            if (this.position >= this.csv.length()) {
+                return;
+            }
+            char c = this.csv.charAt(this.position++);
+            if (c == '\r' && this.position < this.csv.length() && this.csv.charAt(this.position) == '\n') {
+                this.position++;
+                return;
+            }
+            if (c == '\n' || c == '\r') {
+                return;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("Expected ',' after the quoted field at position " + (this.position - 1) + " of the CSV payload");
+            }
+        }
+    }
+
+    private String readField() {
+        if (this.position < this.csv.length() && this.csv.charAt(this.position) == '"') {
+            StringBuilder value = new StringBuilder();
+            this.position++;
+            while (true) {
+                if (this.position >= this.csv.length()) {
+                    throw new IllegalArgumentException("Unterminated quoted field in the CSV payload");
+                }
+                char c = this.csv.charAt(this.position++);
+                if (c != '"') {
+                    value.append(c);
+                } else if (this.position < this.csv.length() && this.csv.charAt(this.position) == '"') {
+                    value.append('"');
+                    this.position++;
+                } else {
+                    return value.toString();
+                }
+            }
+        }
+        int start = this.position;
+        while (this.position < this.csv.length()) {
+            char c = this.csv.charAt(this.position);
+            if (c == ',' || c == '\n' || c == '\r') {
+                break;
+            }
+            this.position++;
+        }
+        return start == this.position ? null : this.csv.substring(start, this.position);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import java.util.Date;
+
+// Value writers used by the generated KustoRowEncoder implementations. Values are appended to the target builder without any
+// intermediate strings where possible
+public final class KustoEncoding {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private KustoEncoding() {
+    }
+
+    public static void appendJson(StringBuilder target, String value) {
+        if (value == null) {
+            target.append("null");
+            return;
+        }
+        target.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    target.append("\\\"");
+                    break;
+                case '\\':
+                    target.append("\\\\");
+                    break;
+                case '\n':
+                    target.append("\\n");
+                    break;
+                case '\r':
+                    target.append("\\r");
+                    break;
+                case '\t':
+                    target.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        target.append("\\u").append(HEX_DIGITS[(c >> 12) & 0xF]).append(HEX_DIGITS[(c >> 8) & 0xF])
+                                .append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        target.append(c);
+                    }
+            }
+        }
+        target.append('"');
+    }
+
+    public static void appendJson(StringBuilder target, double value) {
+        // JSON has no literal for NaN and infinities, Kusto accepts them as strings for real columns
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            target.append('"').append(value).append('"');
+        } else {
+            target.append(value);
+        }
+    }
+
+    public static void appendJson(StringBuilder target, Object value) {
+        if (value == null) {
+            target.append("null");
+        } else if (value instanceof Double || value instanceof Float) {
+            appendJson(target, ((Number) value).doubleValue());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            target.append(value);
+        } else {
+            appendJson(target, toText(value));
+        }
+    }
+
+    public static void appendCsv(StringBuilder target, String value) {
+        if (value == null) {
+            return;
+        }
+        if (!requiresQuotes(value)) {
+            target.append(value);
+            return;
+        }
+        target.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                target.append('"');
+            }
+            target.append(c);
+        }
+        target.append('"');
+    }
+
+    public static void appendCsv(StringBuilder target, double value) {
+        target.append(value);
+    }
+
+    public static void appendCsv(StringBuilder target, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            target.append(value);
+        } else {
+            appendCsv(target, toText(value));
+        }
+    }
+
+    private static String toText(Object value) {
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        if (value instanceof Date) {
+            // ISO-8601, which Kusto parses as datetime
+            return ((Date) value).toInstant().toString();
+        }
+        return value.toString();
+    }
+
+    // RFC-4180 requires quotes for fields with separators, quotes or line breaks. Fields with surrounding spaces are quoted as
+    // well so that they are not trimmed on ingestion
+    private static boolean requiresQuotes(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        if (value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ') {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A pull reader over the JSON array a KustoInput binding returns. Rows are parsed one at a time when asked for, so only the row being
+// read is materialized besides the payload itself. Objects are read as LinkedHashMap, arrays as ArrayList, integers as Long (BigDecimal
+// when they do not fit), other numbers as Double. Payloads of other shapes (the columnar format) are read with the member level methods
+final class KustoJsonReader {
+    private final CharSequence json;
+    private int position;
+    private boolean started;
+    private boolean finished;
+    // Whether the member level reader is right after the opening bracket of an object or array, where no separator is expected
+    private boolean afterOpening;
+
+    KustoJsonReader(CharSequence json) {
+        if (json == null) {
+            throw new IllegalArgumentException("The JSON payload cannot be null");
+        }
+        this.json = json;
+    }
+
+    // Returns the next row of the top level array, or null after the last one
+    Map<String, Object> nextRow() {
+        if (this.finished) {
+            return null;
+        }
+        if (!this.started) {
+            this.started = true;
+            this.skipWhitespace();
+            if (this.position == this.json.length()) {
+                // An empty binding value is an empty result
+                this.finished = true;
+                return null;
+            }
+            this.expect('[');
+            this.skipWhitespace();
+            if (this.peek() == ']') {
+                this.position++;
+                this.finished = true;
+                return null;
+            }
+        } else {
+            this.skipWhitespace();
+            char c = this.next();
+            if (c == ']') {
+                this.finished = true;
+                return null;
+            }
+            if (c != ',') {
+                throw this.syntaxError("Expected ',' or ']'");
+            }
+        }
+        this.skipWhitespace();
+        if (this.peek() != '{') {
+            throw this.syntaxError("Expected a row object");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> row = (Map<String, Object>) this.readValue();
+        return row;
+    }
+
+    // Enters an object, its members are read while hasNextMember returns true
+    void beginObject() {
+        this.skipWhitespace();
+        this.expect('{');
+        this.afterOpening = true;
+    }
+
+    // Enters an array, its elements are read while hasNextMember returns true
+    void beginArray() {
+        this.skipWhitespace();
+        this.expect('[');
+        this.afterOpening = true;
+    }
+
+    // Moves to the next member of the current object or array, or leaves it and returns false after the last one
+    boolean hasNextMember() {
+        this.skipWhitespace();
+        char c = this.peek();
+        if (c == '}' || c == ']') {
+            this.position++;
+            this.afterOpening = false;
+            return false;
+        }
+        if (!this.afterOpening) {
+            if (c != ',') {
+                throw this.syntaxError("Expected ','");
+            }
+            this.position++;
+        }
+        this.afterOpening = false;
+        return true;
+    }
+
+    // Reads the name of the next object member
+    String nextName() {
+        this.skipWhitespace();
+        if (this.peek() != '"') {
+            throw this.syntaxError("Expected a property name");
+        }
+        String name = this.readString();
+        this.skipWhitespace();
+        this.expect(':');
+        return name;
+    }
+
+    // Consumes a null value, returns false without moving when the next value is not null
+    boolean nextNull() {
+        this.skipWhitespace();
+        if (this.peek() != 'n') {
+            return false;
+        }
+        this.expectLiteral("null");
+        return true;
+    }
+
+    // Reads an integral value without boxing it
+    long nextLong() {
+        this.skipWhitespace();
+        int start = this.position;
+        boolean negative = this.peek() == '-';
+        if (negative) {
+            this.position++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (this.position < this.json.length() && digits <= 18) {
+            char c = this.json.charAt(this.position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            this.position++;
+            digits++;
+        }
+        if (digits == 0 || digits > 18 || this.isNumberPart()) {
+            // Values that are long or not integral take the slow path
+            this.position = start;
+            String number = this.readNumberText();
+            try {
+                return new BigDecimal(number).longValueExact();
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw this.syntaxError("Invalid integral number '" + number + "'");
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    // Reads a floating point value without boxing it. NaN and infinite values are written as strings
+    double nextDouble() {
+        this.skipWhitespace();
+        String number = this.peek() == '"' ? this.readString() : this.readNumberText();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw this.syntaxError("Invalid number '" + number + "'");
+        }
+    }
+
+    // Checks that nothing but whitespace follows the value read last
+    void endDocument() {
+        this.skipWhitespace();
+        if (this.position != this.json.length()) {
+            throw this.syntaxError("Unexpected content after the end of the payload");
+        }
+    }
+
+    Object readValue() {
+        this.skipWhitespace();
+        char c = this.peek();
+        switch (c) {
+            case '{':
+                return this.readObject();
+            case '[':
+                return this.readArray();
+            case '"':
+                return this.readString();
+            case 't':
+                this.expectLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                this.expectLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                this.expectLiteral("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return this.readNumber();
+                }
+                throw this.syntaxError("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        this.expect('{');
+        Map<String, Object> object = new LinkedHashMap<>();
+        this.skipWhitespace();
+        if (this.peek() == '}') {
+            this.position++;
+            return object;
+        }
+        while (true) {
+            this.skipWhitespace();
+            if (this.peek() != '"') {
+                throw this.syntaxError("Expected a property name");
+            }
+            String name = this.readString();
+            this.skipWhitespace();
+            this.expect(':');
+            object.put(name, this.readValue());
+            this.skipWhitespace();
+            char c = this.next();
+            if (c == '}') {
+                return object;
+            }
+            if (c != ',') {
+                throw this.syntaxError("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        this.expect('[');
+        List<Object> array = new ArrayList<>();
+        this.skipWhitespace();
+        if (this.peek() == ']') {
+            this.position++;
+            return array;
+        }
+        while (true) {
+            array.add(this.readValue());
+            this.skipWhitespace();
+            char c = this.next();
+            if (c == ']') {
+                return array;
+            }
+            if (c != ',') {
+                throw this.syntaxError("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString() {
+        this.expect('"');
+        int start = this.position;
+        // Fast path for strings without escapes
+        while (this.position < this.json.length()) {
+            char c = this.json.charAt(this.position);
+            if (c == '"') {
+                String value = this.json.subSequence(start, this.position).toString();
+                this.position++;
+                return value;
+            }
+            if (c == '\\') {
+                break;
+            }
+            this.position++;
+        }
+        StringBuilder value = new StringBuilder().append(this.json, start, this.position);
+        while (true) {
+            char c = this.next();
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = this.next();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    value.append(escaped);
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (this.position + 4 > this.json.length()) {
+                        throw this.syntaxError("Incomplete unicode escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(this.json.subSequence(this.position, this.position + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw this.syntaxError("Invalid unicode escape");
+                    }
+                    this.position += 4;
+                    break;
+                default:
+                    throw this.syntaxError("Invalid escape '\\" + escaped + "'");
+            }
+        }
+    }
+
+    private Object readNumber() {
+        String number = this.readNumberText();
+        boolean isIntegral = number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0;
+        try {
+            if (isIntegral) {
+                // Up to 18 characters always fit in a long, longer values are rare enough to take the slow path
+                return number.length() <= 18 ? (Object) Long.parseLong(number) : toIntegral(new BigDecimal(number));
+            }
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw this.syntaxError("Invalid number '" + number + "'");
+        }
+    }
+
+    private String readNumberText() {
+        int start = this.position;
+        while (this.isNumberPart()) {
+            this.position++;
+        }
+        return this.json.subSequence(start, this.position).toString();
+    }
+
+    private boolean isNumberPart() {
+        if (this.position >= this.json.length()) {
+            return false;
+        }
+        char c = this.json.charAt(this.position);
+        return c == '.' || c == 'e' || c == 'E' || c == '-' || c == '+' || (c >= '0' && c <= '9');
+    }
+
+    private static Object toIntegral(BigDecimal value) {
+        try {
+            return value.longValueExact();
+        } catch (ArithmeticException e) {
+            return value;
+        }
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (this.next() != literal.charAt(i)) {
+                throw this.syntaxError("Expected '" + literal + "'");
+            }
+        }
+    }
+
+    private void expect(char expected) {
+        if (this.next() != expected) {
+            this.position--;
+            throw this.syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private char peek() {
+        if (this.position >= this.json.length()) {
+            throw this.syntaxError("Unexpected end of the payload");
+        }
+        return this.json.charAt(this.position);
+    }
+
+    private char next() {
+        char c = this.peek();
+        this.position++;
+        return c;
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.json.length()) {
+            char c = this.json.charAt(this.position);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            this.position++;
+        }
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " at position " + this.position + " of the KustoInput payload");
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import com.microsoft.azure.functions.OutputBinding;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+// Builds the payload for a KustoOutput binding of type OutputBinding<String> from rows and a KustoRowEncoder. JSON payloads are
+// written one object per line and are ingested with the default (or json/multijson) dataFormat, CSV payloads need dataFormat = "csv"
+public final class KustoPayloads {
+    private static final char LINE_SEPARATOR = '\n';
+    // Rough size of a row, the builder of a collection of rows is presized to avoid repeated growth for large batches
+    private static final int ESTIMATED_ROW_SIZE = 64;
+
+    private KustoPayloads() {
+    }
+
+    public static <T> String toJsonLines(KustoRowEncoder<T> encoder, Iterable<? extends T> rows) {
+        StringBuilder payload = newPayload(rows);
+        boolean first = true;
+        for (T row : rows) {
+            if (!first) {
+                payload.append(LINE_SEPARATOR);
+            }
+            first = false;
+            encoder.appendJson(row, payload);
+        }
+        return payload.toString();
+    }
+
+    public static <T> String toJsonLines(KustoRowEncoder<T> encoder, T[] rows) {
+        return toJsonLines(encoder, Arrays.asList(rows));
+    }
+
+    public static <T> String toCsv(KustoRowEncoder<T> encoder, Iterable<? extends T> rows) {
+        StringBuilder payload = newPayload(rows);
+        boolean first = true;
+        for (T row : rows) {
+            if (!first) {
+                payload.append(LINE_SEPARATOR);
+            }
+            first = false;
+            encoder.appendCsv(row, payload);
+        }
+        return payload.toString();
+    }
+
+    public static <T> String toCsv(KustoRowEncoder<T> encoder, T[] rows) {
+        return toCsv(encoder, Arrays.asList(rows));
+    }
+
+    public static <T> void setJsonLines(OutputBinding<String> binding, KustoRowEncoder<T> encoder, Iterable<? extends T> rows) {
+        binding.setValue(toJsonLines(encoder, rows));
+    }
+
+    public static <T> void setCsv(OutputBinding<String> binding, KustoRowEncoder<T> encoder, Iterable<? extends T> rows) {
+        binding.setValue(toCsv(encoder, rows));
+    }
+
+    private static StringBuilder newPayload(Iterable<?> rows) {
+        if (rows instanceof Collection) {
+            long capacity = (long) ((Collection<?>) rows).size() * ESTIMATED_ROW_SIZE;
+            return new StringBuilder((int) Math.min(capacity, Integer.MAX_VALUE - 8));
+        }
+        return new StringBuilder();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Fills instances of a row class from the rows read by KustoJsonReader, KustoCsvReader and KustoColumnarResult. The fields of the class are looked up once per class,
+// columns are matched to fields by name (exact first, then ignoring case) and values are converted to the field type
+final class KustoRowBinder<T> {
+    private static final ClassValue<KustoRowBinder<?>> BINDERS = new ClassValue<KustoRowBinder<?>>() {
+        @Override
+        protected KustoRowBinder<?> computeValue(Class<?> type) {
+            return new KustoRowBinder<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final Constructor<T> constructor;
+    private final Map<String, Field> fields = new HashMap<>();
+    private final Map<String, Field> fieldsIgnoringCase = new HashMap<>();
+
+    private KustoRowBinder(Class<T> type) {
+        this.type = type;
+        try {
+            this.constructor = type.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Row class " + type.getName() + " needs a constructor without parameters", e);
+        }
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                // Fields of subclasses hide the fields of their superclasses
+                this.fields.putIfAbsent(field.getName(), field);
+                this.fieldsIgnoringCase.putIfAbsent(field.getName().toLowerCase(Locale.ROOT), field);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> KustoRowBinder<T> forType(Class<T> type) {
+        return (KustoRowBinder<T>) BINDERS.get(type);
+    }
+
+    T bind(Map<String, Object> row) {
+        T instance;
+        try {
+            instance = this.constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create an instance of row class " + this.type.getName(), e);
+        }
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            Field field = this.fields.get(column.getKey());
+            if (field == null) {
+                field = this.fieldsIgnoringCase.get(column.getKey().toLowerCase(Locale.ROOT));
+            }
+            if (field == null || column.getValue() == null) {
+                // Columns without a matching field are ignored, null values leave the field default
+                continue;
+            }
+            try {
+                field.set(instance, convert(column.getValue(), field.getType(), column.getKey()));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Could not set field " + field.getName() + " of row class " + this.type.getName(), e);
+            }
+        }
+        return instance;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object convert(Object value, Class<?> target, String column) {
+        if (target.isInstance(value) && !(value instanceof Number)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (target == long.class || target == Long.class) {
+                return number.longValue();
+            }
+            if (target == int.class || target == Integer.class) {
+                return number.intValue();
+            }
+            if (target == double.class || target == Double.class) {
+                return number.doubleValue();
+            }
+            if (target == float.class || target == Float.class) {
+                return number.floatValue();
+            }
+            if (target == short.class || target == Short.class) {
+                return number.shortValue();
+            }
+            if (target == byte.class || target == Byte.class) {
+                return number.byteValue();
+            }
+            if (target == BigDecimal.class) {
+                return number instanceof BigDecimal ? number : new BigDecimal(number.toString());
+            }
+            if (target == BigInteger.class) {
+                return new BigDecimal(number.toString()).toBigInteger();
+            }
+            if (target == String.class) {
+                return number.toString();
+            }
+            if (target == Object.class || target == Number.class) {
+                return number;
+            }
+        } else if (value instanceof String) {
+            String text = (String) value;
+            if (target == Instant.class) {
+                return Instant.parse(text);
+            }
+            if (target == Date.class) {
+                return Date.from(Instant.parse(text));
+            }
+            if (target.isEnum()) {
+                return Enum.valueOf((Class<? extends Enum>) target, text);
+            }
+            if ((target == char.class || target == Character.class) && text.length() == 1) {
+                return text.charAt(0);
+            }
+            // Kusto returns decimal, long and real values that do not fit JSON numbers (NaN, Infinity) as strings
+            if (target == BigDecimal.class) {
+                return new BigDecimal(text);
+            }
+            if (target == double.class || target == Double.class) {
+                return Double.parseDouble(text);
+            }
+            if (target == long.class || target == Long.class) {
+                return Long.parseLong(text);
+            }
+            // Values of csv results are all text
+            if (target == int.class || target == Integer.class) {
+                return Integer.parseInt(text);
+            }
+            if (target == float.class || target == Float.class) {
+                return Float.parseFloat(text);
+            }
+            if (target == short.class || target == Short.class) {
+                return Short.parseShort(text);
+            }
+            if (target == byte.class || target == Byte.class) {
+                return Byte.parseByte(text);
+            }
+            if (target == BigInteger.class) {
+                return new BigInteger(text);
+            }
+            if (target == boolean.class || target == Boolean.class) {
+                return Boolean.parseBoolean(text);
+            }
+        } else if (value instanceof Boolean && target == boolean.class) {
+            return value;
+        }
+        throw new IllegalArgumentException("Cannot convert the value of column " + column + " (" + value.getClass().getSimpleName()
+                + ") to " + target.getName());
+    }
+}
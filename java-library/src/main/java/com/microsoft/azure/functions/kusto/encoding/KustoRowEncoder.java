@@ -0,0 +1,20 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+// Writes rows of type T for a KustoOutput binding. Implementations are generated at compile time for classes annotated with
+// @KustoRow, they access the fields directly and do not use reflection
+public interface KustoRowEncoder<T> {
+    // The column names, in the order they are written
+    String[] columns();
+
+    // Appends the row as a single line JSON object
+    void appendJson(T row, StringBuilder target);
+
+    // Appends the row as a RFC-4180 CSV record, without the line terminator
+    void appendCsv(T row, StringBuilder target);
+}
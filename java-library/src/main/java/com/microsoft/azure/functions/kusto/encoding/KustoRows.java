@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Reads the rows of a KustoInput binding lazily. Bind the parameter as a String and iterate or stream over it instead of binding an
+// array, rows are then parsed and converted one at a time (or one chunk at a time) as they are consumed and only the payload string is
+// kept in memory in full. The worker hands the binding value over as a single message, so the payload itself cannot be streamed
+public final class KustoRows {
+    private KustoRows() {
+    }
+
+    // The rows as maps of column name to value, in column order
+    public static Iterable<Map<String, Object>> iterable(String json) {
+        return () -> new RowIterator<>(new KustoJsonReader(json)::nextRow, Function.identity());
+    }
+
+    // The rows as instances of the row class. The class needs a constructor without parameters, columns are matched to fields by name
+    public static <T> Iterable<T> iterable(String json, Class<T> rowType) {
+        KustoRowBinder<T> binder = KustoRowBinder.forType(rowType);
+        return () -> new RowIterator<>(new KustoJsonReader(json)::nextRow, binder::bind);
+    }
+
+    // The rows converted with a custom mapping function
+    public static <T> Iterable<T> iterable(String json, Function<Map<String, Object>, T> mapper) {
+        return () -> new RowIterator<>(new KustoJsonReader(json)::nextRow, mapper);
+    }
+
+    public static Stream<Map<String, Object>> stream(String json) {
+        return toStream(iterable(json));
+    }
+
+    public static <T> Stream<T> stream(String json, Class<T> rowType) {
+        return toStream(iterable(json, rowType));
+    }
+
+    public static <T> Stream<T> stream(String json, Function<Map<String, Object>, T> mapper) {
+        return toStream(iterable(json, mapper));
+    }
+
+    // The rows of a result in the csv format (resultFormat = "csv") as instances of the row class. Values are converted from their text
+    // to the field types, dynamic values are kept as their JSON text
+    public static <T> Iterable<T> csvIterable(String csv, Class<T> rowType) {
+        KustoRowBinder<T> binder = KustoRowBinder.forType(rowType);
+        return () -> new RowIterator<>(new KustoCsvReader(csv)::nextRow, binder::bind);
+    }
+
+    public static <T> Stream<T> csvStream(String csv, Class<T> rowType) {
+        return toStream(csvIterable(csv, rowType));
+    }
+
+    // The rows in lists of at most chunkSize rows, for processing that works on batches (e.g. writing to another store)
+    public static <T> Iterator<List<T>> chunks(String json, Class<T> rowType, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be greater than 0");
+        }
+        Iterator<T> rows = iterable(json, rowType).iterator();
+        return new Iterator<List<T>>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public List<T> next() {
+                if (!rows.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<T> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && rows.hasNext()) {
+                    chunk.add(rows.next());
+                }
+                return chunk;
+            }
+        };
+    }
+
+    private static <T> Stream<T> toStream(Iterable<T> rows) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows.iterator(), Spliterator.ORDERED), false);
+    }
+
+    private static final class RowIterator<T> implements Iterator<T> {
+        private final Supplier<Map<String, Object>> reader;
+        private final Function<Map<String, Object>, T> mapper;
+        private Map<String, Object> nextRow;
+
+        private RowIterator(Supplier<Map<String, Object>> reader, Function<Map<String, Object>, T> mapper) {
+            this.reader = reader;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.nextRow == null) {
+                this.nextRow = this.reader.get();
+            }
+            return this.nextRow != null;
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map<String, Object> row = this.nextRow;
+            this.nextRow = null;
+            return this.mapper.apply(row);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.processor;
+
+import com.microsoft.azure.functions.kusto.annotation.KustoRow;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+// Generates a KustoRowEncoder for every class annotated with @KustoRow. The encoder reads the fields (or getters) directly, the
+// shape of the row is resolved once at compile time instead of on every invocation through reflection
+public class KustoRowProcessor extends AbstractProcessor {
+    static final String ENCODER_SUFFIX = "KustoEncoder";
+    private static final String ENCODING_CLASS = "com.microsoft.azure.functions.kusto.encoding.KustoEncoding";
+    private static final String ENCODER_INTERFACE = "com.microsoft.azure.functions.kusto.encoding.KustoRowEncoder";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(KustoRow.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(KustoRow.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                this.error(element, "@KustoRow can only be applied to classes");
+                continue;
+            }
+            TypeElement rowType = (TypeElement) element;
+            List<Column> columns = this.resolveColumns(rowType);
+            if (columns != null) {
+                this.writeEncoder(rowType, columns);
+            }
+        }
+        return true;
+    }
+
+    private List<Column> resolveColumns(TypeElement rowType) {
+        String[] columnNames = rowType.getAnnotation(KustoRow.class).columns();
+        List<String> names = new ArrayList<>();
+        if (columnNames.length == 0) {
+            for (VariableElement field : ElementFilter.fieldsIn(rowType.getEnclosedElements())) {
+                if (!field.getModifiers().contains(Modifier.STATIC) && !field.getModifiers().contains(Modifier.TRANSIENT)) {
+                    names.add(field.getSimpleName().toString());
+                }
+            }
+        } else {
+            Collections.addAll(names, columnNames);
+        }
+        if (names.isEmpty()) {
+            this.error(rowType, "@KustoRow class " + rowType.getSimpleName() + " has no columns");
+            return null;
+        }
+        List<Column> columns = new ArrayList<>();
+        boolean resolved = true;
+        for (String name : names) {
+            Column column = this.resolveColumn(rowType, name);
+            if (column == null) {
+                this.error(rowType, "Column '" + name + "' of " + rowType.getSimpleName()
+                        + " has no accessible field or getter, make the field non-private or add a non-private getter");
+                resolved = false;
+            } else {
+                columns.add(column);
+            }
+        }
+        return resolved ? columns : null;
+    }
+
+    private Column resolveColumn(TypeElement rowType, String name) {
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        TypeElement current = rowType;
+        while (current != null) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                if (field.getSimpleName().contentEquals(name) && this.isAccessible(field, rowType)) {
+                    return new Column(name, "row." + name, field.asType());
+                }
+            }
+            for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements())) {
+                String methodName = method.getSimpleName().toString();
+                boolean isGetter = methodName.equals("get" + capitalized)
+                        || (methodName.equals("is" + capitalized) && method.getReturnType().getKind() == TypeKind.BOOLEAN);
+                if (isGetter && method.getParameters().isEmpty() && method.getReturnType().getKind() != TypeKind.VOID
+                        && this.isAccessible(method, rowType)) {
+                    return new Column(name, "row." + methodName + "()", method.getReturnType());
+                }
+            }
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return null;
+    }
+
+    // The encoder is generated in the package of the row, so package-private and protected members declared in that package can be used
+    private boolean isAccessible(Element member, TypeElement rowType) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return this.processingEnv.getElementUtils().getPackageOf(member).equals(this.processingEnv.getElementUtils().getPackageOf(rowType));
+    }
+
+    private void writeEncoder(TypeElement rowType, List<Column> columns) {
+        PackageElement rowPackage = this.processingEnv.getElementUtils().getPackageOf(rowType);
+        String packageName = rowPackage.isUnnamed() ? "" : rowPackage.getQualifiedName().toString();
+        String rowTypeName = rowType.getQualifiedName().toString();
+        String encoderName = encoderSimpleName(rowType);
+        String qualifiedEncoderName = packageName.isEmpty() ? encoderName : packageName + "." + encoderName;
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("// Generated by ").append(KustoRowProcessor.class.getName()).append(" from ").append(rowTypeName).append(", do not edit\n");
+        source.append("public final class ").append(encoderName).append(" implements ").append(ENCODER_INTERFACE).append('<')
+                .append(rowTypeName).append("> {\n");
+        source.append("    public static final ").append(encoderName).append(" INSTANCE = new ").append(encoderName).append("();\n");
+        source.append("    private static final String[] COLUMNS = {");
+        for (int i = 0; i < columns.size(); i++) {
+            source.append(i == 0 ? "" : ", ").append(javaStringLiteral(columns.get(i).name));
+        }
+        source.append("};\n\n");
+        source.append("    private ").append(encoderName).append("() {\n    }\n\n");
+        source.append("    @Override\n    public String[] columns() {\n        return COLUMNS.clone();\n    }\n\n");
+
+        source.append("    @Override\n    public void appendJson(").append(rowTypeName).append(" row, StringBuilder target) {\n");
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            // The property names are escaped here once, only the values are escaped at run time
+            StringBuilder propertyName = new StringBuilder(i == 0 ? "{" : ",");
+            appendJsonName(propertyName, column.name);
+            propertyName.append(':');
+            source.append("        target.append(").append(javaStringLiteral(propertyName.toString())).append(");\n");
+            source.append("        ").append(valueWriter(column, "appendJson")).append('\n');
+        }
+        source.append("        target.append('}');\n    }\n\n");
+
+        source.append("    @Override\n    public void appendCsv(").append(rowTypeName).append(" row, StringBuilder target) {\n");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                source.append("        target.append(',');\n");
+            }
+            source.append("        ").append(valueWriter(columns.get(i), "appendCsv")).append('\n');
+        }
+        source.append("    }\n}\n");
+
+        try {
+            JavaFileObject sourceFile = this.processingEnv.getFiler().createSourceFile(qualifiedEncoderName, rowType);
+            try (Writer writer = sourceFile.openWriter()) {
+                writer.write(source.toString());
+            }
+        } catch (IOException e) {
+            this.error(rowType, "Could not generate " + qualifiedEncoderName + ": " + e.getMessage());
+        }
+    }
+
+    // Integral and boolean values are appended as is, everything else goes through the escaping writers of KustoEncoding
+    private static String valueWriter(Column column, String encodingMethod) {
+        switch (column.type.getKind()) {
+            case BOOLEAN:
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+                return "target.append(" + column.accessor + ");";
+            case CHAR:
+                return ENCODING_CLASS + "." + encodingMethod + "(target, String.valueOf(" + column.accessor + "));";
+            case FLOAT:
+            case DOUBLE:
+                return ENCODING_CLASS + "." + encodingMethod + "(target, (double) " + column.accessor + ");";
+            default:
+                if (column.type.toString().equals("java.lang.String")) {
+                    return ENCODING_CLASS + "." + encodingMethod + "(target, " + column.accessor + ");";
+                }
+                return ENCODING_CLASS + "." + encodingMethod + "(target, (Object) " + column.accessor + ");";
+        }
+    }
+
+    // Nested classes get the names of their enclosing classes as a prefix, Outer.Inner becomes Outer_InnerKustoEncoder
+    static String encoderSimpleName(TypeElement rowType) {
+        StringBuilder name = new StringBuilder(rowType.getSimpleName());
+        Element enclosing = rowType.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.append(ENCODER_SUFFIX).toString();
+    }
+
+    private static void appendJsonName(StringBuilder target, String name) {
+        target.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                target.append('\\');
+            }
+            target.append(c);
+        }
+        target.append('"');
+    }
+
+    private static String javaStringLiteral(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\');
+            }
+            literal.append(c);
+        }
+        return literal.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static final class Column {
+        private final String name;
+        private final String accessor;
+        private final TypeMirror type;
+
+        private Column(String name, String accessor, TypeMirror type) {
+            this.name = name;
+            this.accessor = accessor;
+            this.type = type;
+        }
+    }
+}
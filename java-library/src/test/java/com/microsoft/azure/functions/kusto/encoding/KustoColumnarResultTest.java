@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KustoColumnarResultTest {
+    // As the host writes it for a query over the products table
+    private static final String PRODUCTS = "{\"columns\":[{\"name\":\"ProductID\",\"type\":\"long\"},{\"name\":\"Name\",\"type\":\"string\"},"
+            + "{\"name\":\"Cost\",\"type\":\"real\"},{\"name\":\"Tags\",\"type\":\"dynamic\"}],\"rowCount\":3,"
+            + "\"data\":[[1,2,null],[\"Pen\",null,\"Ink\"],[2.5,\"NaN\",-1e2],[{\"a\":true},null,[1]]]}";
+
+    static class Product {
+        long ProductID;
+        String Name;
+        double Cost;
+    }
+
+    @Test
+    public void readsColumnsIntoArrays() {
+        KustoColumnarResult result = KustoColumnarResult.parse(PRODUCTS);
+        assertEquals(3, result.rowCount());
+        assertEquals(Arrays.asList("ProductID", "Name", "Cost", "Tags"), result.columnNames());
+        assertEquals("real", result.columnType("Cost"));
+        assertArrayEquals(new long[] { 1, 2, 0 }, result.longColumn("ProductID"));
+        assertTrue(result.isNull("ProductID", 2));
+        assertFalse(result.isNull("ProductID", 1));
+        assertArrayEquals(new double[] { 2.5, Double.NaN, -100 }, result.doubleColumn("Cost"));
+        assertArrayEquals(new double[] { 1, 2, Double.NaN }, result.doubleColumn("ProductID"));
+        assertArrayEquals(new Object[] { "Pen", null, "Ink" }, result.column("Name"));
+        assertEquals(Collections.singletonMap("a", true), result.column("Tags")[0]);
+        assertThrows(IllegalArgumentException.class, () -> result.longColumn("Name"));
+        assertThrows(IllegalArgumentException.class, () -> result.column("Missing"));
+    }
+
+    @Test
+    public void readsRowsIntoPojos() {
+        List<Product> products = KustoColumnarResult.parse(PRODUCTS).rows(Product.class);
+        assertEquals(3, products.size());
+        assertEquals(1, products.get(0).ProductID);
+        assertEquals("Pen", products.get(0).Name);
+        assertNull(products.get(1).Name);
+        assertEquals(0, products.get(2).ProductID);
+        assertEquals(-100, products.get(2).Cost);
+    }
+
+    @Test
+    public void readsNamedResultTables() {
+        Map<String, KustoColumnarResult> tables = KustoColumnarResult.parseTables("{\"byId\":" + PRODUCTS + ",\"empty\":"
+                + "{\"columns\":[{\"name\":\"ProductID\",\"type\":\"long\"}],\"rowCount\":0,\"data\":[[]]}}");
+        assertEquals(Arrays.asList("byId", "empty"), Arrays.asList(tables.keySet().toArray()));
+        assertEquals(3, tables.get("byId").rowCount());
+        assertEquals(0, tables.get("empty").longColumn("ProductID").length);
+    }
+
+    @Test
+    public void reportsMalformedPayloads() {
+        assertThrows(IllegalArgumentException.class, () -> KustoColumnarResult.parse("[{\"ProductID\":1}]"));
+        assertThrows(IllegalArgumentException.class,
+                () -> KustoColumnarResult.parse("{\"columns\":[{\"name\":\"a\",\"type\":\"long\"}],\"rowCount\":2,\"data\":[[1]]}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> KustoColumnarResult.parse("{\"columns\":[{\"name\":\"a\",\"type\":\"long\"}],\"rowCount\":1,\"data\":[[1],[2]]}"));
+        assertThrows(IllegalArgumentException.class,
+                () -> KustoColumnarResult.parse("{\"columns\":[{\"name\":\"a\",\"type\":\"long\"}],\"rowCount\":1,\"data\":[[1.5]]}"));
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import com.microsoft.azure.functions.kusto.annotation.KustoRow;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class KustoRowEncoderTest {
+    enum Category {
+        BOOK, GAME
+    }
+
+    @KustoRow
+    static class Product {
+        public long ProductID;
+        public String Name;
+        public double Cost;
+        Category Category;
+        transient String ignored;
+
+        Product(long productID, String name, double cost, Category category) {
+            this.ProductID = productID;
+            this.Name = name;
+            this.Cost = cost;
+            this.Category = category;
+        }
+    }
+
+    @KustoRow(columns = { "id", "active", "note" })
+    static class Item {
+        private final int id;
+        private final boolean active;
+        private final Long note;
+
+        Item(int id, boolean active, Long note) {
+            this.id = id;
+            this.active = active;
+            this.note = note;
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public boolean isActive() {
+            return this.active;
+        }
+
+        public Long getNote() {
+            return this.note;
+        }
+    }
+
+    @Test
+    public void writesFieldsAsJsonLines() {
+        List<Product> products = Arrays.asList(new Product(1, "Pen \"blue\"", 2.5, Category.BOOK),
+                new Product(2, "Line\nbreak", Double.NaN, null));
+        String payload = KustoPayloads.toJsonLines(KustoRowEncoderTest_ProductKustoEncoder.INSTANCE, products);
+        assertEquals("{\"ProductID\":1,\"Name\":\"Pen \\\"blue\\\"\",\"Cost\":2.5,\"Category\":\"BOOK\"}\n"
+                + "{\"ProductID\":2,\"Name\":\"Line\\nbreak\",\"Cost\":\"NaN\",\"Category\":null}", payload);
+        assertArrayEquals(new String[] { "ProductID", "Name", "Cost", "Category" },
+                KustoRowEncoderTest_ProductKustoEncoder.INSTANCE.columns());
+    }
+
+    @Test
+    public void writesFieldsAsCsv() {
+        List<Product> products = Arrays.asList(new Product(1, "Pen, \"blue\"", 2.5, Category.GAME),
+                new Product(2, null, 0, null));
+        String payload = KustoPayloads.toCsv(KustoRowEncoderTest_ProductKustoEncoder.INSTANCE, products);
+        assertEquals("1,\"Pen, \"\"blue\"\"\",2.5,GAME\n2,,0.0,", payload);
+    }
+
+    @Test
+    public void usesGettersInDeclaredColumnOrder() {
+        Item[] items = { new Item(7, true, 42L), new Item(8, false, null) };
+        assertEquals("{\"id\":7,\"active\":true,\"note\":42}\n{\"id\":8,\"active\":false,\"note\":null}",
+                KustoPayloads.toJsonLines(KustoRowEncoderTest_ItemKustoEncoder.INSTANCE, items));
+        assertEquals("7,true,42\n8,false,", KustoPayloads.toCsv(KustoRowEncoderTest_ItemKustoEncoder.INSTANCE, items));
+    }
+}
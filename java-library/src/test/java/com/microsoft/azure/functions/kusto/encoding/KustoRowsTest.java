@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License. See License.txt in the project root for
+ * license information.
+ */
+
+package com.microsoft.azure.functions.kusto.encoding;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class KustoRowsTest {
+    private static final String PRODUCTS = "[{\"ProductID\":1,\"Name\":\"Pen \\\"blue\\\"\",\"Cost\":2.5,\"Created\":\"2024-01-02T03:04:05Z\"},"
+            + " {\"ProductID\":2,\"Name\":null,\"Cost\":\"NaN\",\"Extra\":[1,{\"a\":true}]},\n"
+            + " {\"productid\":12345678901234567890,\"Name\":\"\\u00e9t\\u00e9\",\"Cost\":-1e2,\"Price\":\"10.25\"}]";
+
+    static class Product {
+        long ProductID;
+        String Name;
+        double Cost;
+        Instant Created;
+        BigDecimal Price;
+    }
+
+    @Test
+    public void streamsRowsIntoPojos() {
+        List<Product> products = KustoRows.stream(PRODUCTS.replace("12345678901234567890", "3"), Product.class)
+                .collect(Collectors.toList());
+        assertEquals(3, products.size());
+        assertEquals(1, products.get(0).ProductID);
+        assertEquals("Pen \"blue\"", products.get(0).Name);
+        assertEquals(Instant.parse("2024-01-02T03:04:05Z"), products.get(0).Created);
+        assertNull(products.get(1).Name);
+        assertEquals(Double.NaN, products.get(1).Cost);
+        // Column names are matched ignoring case when there is no exact match
+        assertEquals(3, products.get(2).ProductID);
+        assertEquals("été", products.get(2).Name);
+        assertEquals(-100, products.get(2).Cost);
+        assertEquals(new BigDecimal("10.25"), products.get(2).Price);
+    }
+
+    @Test
+    public void readsRowsAsMaps() {
+        Iterator<Map<String, Object>> rows = KustoRows.iterable(PRODUCTS).iterator();
+        assertEquals(Arrays.asList("ProductID", "Name", "Cost", "Created"), new ArrayList<>(rows.next().keySet()));
+        Map<String, Object> second = rows.next();
+        assertEquals(2L, second.get("ProductID"));
+        assertEquals(Arrays.asList(1L, Collections.singletonMap("a", true)), second.get("Extra"));
+        assertEquals(new BigDecimal("12345678901234567890"), rows.next().get("productid"));
+        assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void splitsRowsIntoChunks() {
+        Iterator<List<Product>> chunks = KustoRows.chunks(PRODUCTS.replace("12345678901234567890", "3"), Product.class, 2);
+        assertEquals(2, chunks.next().size());
+        assertEquals(1, chunks.next().size());
+        assertFalse(chunks.hasNext());
+    }
+
+    @Test
+    public void handlesEmptyResults() {
+        assertFalse(KustoRows.iterable("[ ]").iterator().hasNext());
+        assertFalse(KustoRows.iterable("").iterator().hasNext());
+    }
+
+    @Test
+    public void readsCsvRowsIntoPojos() {
+        String csv = "ProductID,Name,Cost,Created\n"
+                + "1,\"Pen \"\"blue\"\", large\",2.5,2024-01-02T03:04:05Z\n"
+                + "2,,NaN,\r\n"
+                + "3,\"\",-100,\n";
+        List<Product> products = KustoRows.csvStream(csv, Product.class).collect(Collectors.toList());
+        assertEquals(3, products.size());
+        assertEquals(1, products.get(0).ProductID);
+        assertEquals("Pen \"blue\", large", products.get(0).Name);
+        assertEquals(Instant.parse("2024-01-02T03:04:05Z"), products.get(0).Created);
+        assertNull(products.get(1).Name);
+        assertEquals(Double.NaN, products.get(1).Cost);
+        assertNull(products.get(1).Created);
+        assertEquals("", products.get(2).Name);
+        assertEquals(-100, products.get(2).Cost);
+        assertFalse(KustoRows.csvIterable("", Product.class).iterator().hasNext());
+        assertThrows(IllegalArgumentException.class, () -> KustoRows.csvStream("ProductID,Name\n1\n", Product.class).count());
+    }
+
+    @Test
+    public void reportsMalformedPayloads() {
+        assertThrows(IllegalArgumentException.class, () -> KustoRows.stream("[{\"a\":1,}]").count());
+        assertThrows(IllegalArgumentException.class, () -> KustoRows.stream("[{\"a\":1}").count());
+    }
+}
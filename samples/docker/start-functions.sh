@@ -1,13 +1,20 @@
 #!/bin/bash
 # Takes 3 parameters the path to navigate to , the language and the port to run the func tools on
-while getopts l:p: flag
+# An optional -k replaces the KustoConnectionString of the app, e.g. to point it to a local Kusto stand-in
+while getopts l:p:k: flag
 do
   case "${flag}" in
     l) language=${OPTARG};;
     p) port=${OPTARG};;
+    k) kusto_connection_string=${OPTARG};;
   esac
 done
 echo "Using language: $language & Port: $port"
+if [ -n "$kusto_connection_string" ]; then
+  # func start does not override variables already set in the environment with local.settings.json
+  echo "Using KustoConnectionString: $kusto_connection_string"
+  export KustoConnectionString="$kusto_connection_string"
+fi
 echo "Running $language functions samples"
 cd /src/samples-$language
 if [ $language == "outofproc" ]; then
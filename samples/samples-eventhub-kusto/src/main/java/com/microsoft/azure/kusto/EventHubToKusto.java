@@ -10,6 +10,7 @@ import com.microsoft.azure.functions.kusto.annotation.KustoOutput;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Azure Functions with EventHub Trigger.
@@ -21,15 +22,20 @@ public class EventHubToKusto {
                     consumerGroup = "FunctionsCG",
                     connection = "AzureWebJobsEventHubSender", cardinality = Cardinality.MANY) List<String> messages,
             @BindingName("PartitionContext") Map<String, Object> partitionContext,
-            @KustoOutput(name = "KustoProductsEH", database = "sdktests", tableName = "ProductsEH", connection = "FabricKQLDbConnectionString")
+            @BindingName("SystemPropertiesArray") Object[] systemPropertiesArray,
+            // A batch replayed after a failure or a rebalance has the same partition and sequence numbers, its rows are not ingested again
+            @KustoOutput(name = "KustoProductsEH", database = "sdktests", tableName = "ProductsEH", connection = "FabricKQLDbConnectionString",
+                    ingestionType = "queued", ingestIdentity = "{PartitionContext.PartitionId}", ingestIdentityKey = "SequenceNumber")
             OutputBinding<List<ProductWithEHContext>> productWithContext,
             final ExecutionContext context) {
         final ObjectMapper mapper = new ObjectMapper();
-        List<ProductWithEHContext> products = messages.stream().map(message -> {
+        List<ProductWithEHContext> products = IntStream.range(0, messages.size()).mapToObj(i -> {
+            String message = messages.get(i);
             try {
                 context.getLogger().info("** Processing ** " + message);
                 ProductWithEHContext p =  mapper.readValue(message, ProductWithEHContext.class);
                 p.partitionContext = partitionContext;
+                p.sequenceNumber = Long.parseLong(String.valueOf(((Map<?, ?>) systemPropertiesArray[i]).get("SequenceNumber")));
                 context.getLogger().info("** PostProcess ** " + mapper.writeValueAsString(p));
                 return p;
             } catch (JsonProcessingException e) {
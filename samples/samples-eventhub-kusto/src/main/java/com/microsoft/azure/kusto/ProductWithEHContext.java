@@ -19,6 +19,8 @@ public class ProductWithEHContext {
     public double cost;
     @JsonProperty("EHPartitionContext")
     public Map<String,Object> partitionContext;
+    @JsonProperty("SequenceNumber")
+    public long sequenceNumber;
 
     public ProductWithEHContext() {
     }
@@ -3,17 +3,16 @@
 
 using System;
 using System.Collections.Generic;
+using System.Globalization;
 using System.IO;
-using System.Text;
+using System.Linq;
 using System.Threading;
 using System.Threading.Tasks;
-using Kusto.Cloud.Platform.Utils;
 using Kusto.Data.Common;
 using Kusto.Ingest;
 using Microsoft.Azure.WebJobs.Extensions.Kusto;
 using Microsoft.Azure.WebJobs.Host;
 using Microsoft.Extensions.Logging;
-using Newtonsoft.Json;
 
 namespace Microsoft.Azure.WebJobs.Kusto
 {
@@ -31,6 +30,8 @@ namespace Microsoft.Azure.WebJobs.Kusto
         private readonly KustoIngestContext _kustoIngestContext;
         private readonly ILogger _logger;
         private readonly Lazy<string> _contextdetail;
+        // The number of flushes with rows, part of the SourceId of bindings with an ingest identity
+        private int _flushCount;
 
 
         public KustoAsyncCollector(KustoIngestContext kustoContext, ILogger logger)
@@ -40,7 +41,7 @@ namespace Microsoft.Azure.WebJobs.Kusto
             this._contextdetail = new Lazy<string>(() => $"TableName='{kustoContext.ResolvedAttribute?.TableName}'," +
             $"Database='{kustoContext.ResolvedAttribute?.Database}', " +
             $"MappingRef='{kustoContext.ResolvedAttribute?.MappingRef}', " +
-            $"DataFormat='{this.GetDataFormat()}', " +
+            $"DataFormat='{this.GetDataFormat(this._rows.Count)}', " +
             $"IngestionType='{kustoContext.ResolvedAttribute?.IngestionType}', " +
             $"IngestionProperties='{kustoContext.ResolvedAttribute?.IngestionProperties}', " +
             $"ManagedIdentity='{kustoContext.ResolvedAttribute?.ManagedServiceIdentity}'");
@@ -88,7 +89,11 @@ namespace Microsoft.Azure.WebJobs.Kusto
             {
                 if (this._rows.Count != 0)
                 {
-                    IngestionStatus ingestionStatus = await this.IngestRowsAsync(ingestSourceId, cancellationToken);
+                    string flushPart = (this._flushCount++).ToString(CultureInfo.InvariantCulture);
+                    ingestSourceId = NewSourceId(this._kustoIngestContext, this._rows, flushPart);
+                    IngestionStatus ingestionStatus = this._kustoIngestContext.ShardRouter != null
+                        ? await this.IngestShardsAsync(flushPart, cancellationToken)
+                        : await this.IngestRowsAsync(this._kustoIngestContext, this._rows, ingestSourceId, cancellationToken);
                     if (ingestionStatus.Status == Status.Failed || ingestionStatus.Status == Status.PartiallySucceeded)
                     {
                         string errorMessage = $"Ingestion status reported failure/partial success for {ingestSourceId}. Ingest detail {this._contextdetail.Value}, and status reported was {ingestionStatus.Status}";
@@ -110,85 +115,205 @@ namespace Microsoft.Azure.WebJobs.Kusto
             }
         }
 
+        /// <summary>
+        /// Splits the rows over the shard targets of the binding and ingests the shards in parallel, each with its own SourceId. The status
+        /// returned is the worst status of the shards
+        /// </summary>
+        private async Task<IngestionStatus> IngestShardsAsync(string flushPart, CancellationToken cancellationToken)
+        {
+            List<T>[] shards = this._kustoIngestContext.ShardRouter.Split(this._rows);
+            var shardIngestions = new List<Task<IngestionStatus>>(shards.Length);
+            for (int i = 0; i < shards.Length; i++)
+            {
+                if (shards[i].Count > 0)
+                {
+                    KustoIngestContext shardContext = this._kustoIngestContext.ShardContexts[i];
+                    if (this._logger.IsEnabled(LogLevel.Debug))
+                    {
+                        this._logger.LogDebug($"Ingesting shard of {shards[i].Count} rows into database {shardContext.ResolvedAttribute.Database} of connection {shardContext.ResolvedAttribute.Connection}");
+                    }
+                    shardIngestions.Add(this.IngestRowsAsync(shardContext, shards[i], NewSourceId(shardContext, shards[i], flushPart), cancellationToken));
+                }
+            }
+            IngestionStatus[] shardStatuses = await Task.WhenAll(shardIngestions);
+            return RollUpStatus(shardStatuses);
+        }
+
+        /// <summary>
+        /// A random SourceId, or the one derived from the identity of the rows for bindings with an ingest identity so that replays of the
+        /// invocation ingest the rows with the same SourceId
+        /// </summary>
+        /// <param name="part">Tells the parts of the rows of an invocation apart</param>
+        private static Guid NewSourceId(KustoIngestContext context, List<T> rows, string part)
+        {
+            return KustoIngestIdentity.IsEnabled(context.ResolvedAttribute)
+                ? KustoIngestIdentity.GetSourceId(context.ResolvedAttribute, rows, part)
+                : Guid.NewGuid();
+        }
+
+        /// <summary>
+        /// The worst of the statuses of the parts of a flush: failed, then partially succeeded, otherwise the status of the first part
+        /// </summary>
+        private static IngestionStatus RollUpStatus(IngestionStatus[] statuses)
+        {
+            return statuses.FirstOrDefault(status => status.Status == Status.Failed)
+                ?? statuses.FirstOrDefault(status => status.Status == Status.PartiallySucceeded)
+                ?? statuses[0];
+        }
+
+        /// <summary>
+        /// Ingests the rows through the context. The rows are written to the spill log when the host has one with room left, otherwise they
+        /// are handed over to the shared batch of the target when batching is enabled
+        /// </summary>
+        private Task<IngestionStatus> IngestRowsAsync(KustoIngestContext context, List<T> rows, Guid ingestSourceId, CancellationToken cancellationToken)
+        {
+            if (context.SpillLog != null && this.SpillRows(context, rows, ingestSourceId))
+            {
+                return Task.FromResult(new IngestionStatus { Status = Status.Queued, IngestionSourceId = ingestSourceId });
+            }
+            return IsBatchingEnabled(context)
+                ? this.AddRowsToBatchAsync(context, rows)
+                : this.IngestRowsDirectAsync(context, rows, ingestSourceId, cancellationToken);
+        }
+
         /// <summary>
         /// Performs the actual ingestion using managed ingest client
         /// </summary>
         /// <param name="ingestSourceId">The ingest source id is used to track the ingestion</param>
         /// <returns></returns>
-        private async Task<IngestionStatus> IngestRowsAsync(Guid ingestSourceId, CancellationToken cancellationToken = default)
+        private async Task<IngestionStatus> IngestRowsDirectAsync(KustoIngestContext context, List<T> rows, Guid ingestSourceId, CancellationToken cancellationToken = default)
         {
-            DataSourceFormat format = this.GetDataFormat();
-            string dataToIngest = (format == DataSourceFormat.multijson || format == DataSourceFormat.json) ? this.SerializeToIngestData() : string.Join(Environment.NewLine, this._rows);
+            DataSourceFormat format = this.GetDataFormat(rows.Count);
+            // LeaveOpen is not set on the options, the ingest client disposes the stream once it is done which returns the pooled buffers
+            Stream dataToIngest = KustoBindingUtilities.WriteRowsToStream(rows, KustoBindingUtilities.IsJsonFormat(format));
+            long chunkBytes = context.IngestRouter?.ChunkBytes ?? 0;
+            if (chunkBytes > 0 && rows.Count > 1 && dataToIngest.Length > chunkBytes)
+            {
+                int chunkCount = (int)Math.Min(rows.Count, (dataToIngest.Length + chunkBytes - 1) / chunkBytes);
+                dataToIngest.Dispose();
+                return await this.IngestChunksAsync(context, rows, chunkCount, ingestSourceId, cancellationToken);
+            }
             var streamSourceOptions = new StreamSourceOptions()
             {
                 SourceId = ingestSourceId,
             };
-            return await this.IngestData(dataToIngest, format, streamSourceOptions, cancellationToken);
+            return await this.IngestData(context, dataToIngest, rows.Count, format, streamSourceOptions, cancellationToken);
         }
 
-        private async Task<IngestionStatus> IngestData(string dataToIngest, DataSourceFormat format, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken)
+        /// <summary>
+        /// Splits the rows into chunks with about the same number of rows, and so of about the same size, and ingests the chunks in parallel,
+        /// each with its own SourceId. The chunks share a deadline, the status returned is the worst status of the chunks. Chunks still running when
+        /// the deadline passes are not awaited but logged once they complete, a retry of the invocation ingests their rows again unless the
+        /// binding has an IngestIdentityKey
+        /// </summary>
+        private async Task<IngestionStatus> IngestChunksAsync(KustoIngestContext context, List<T> rows, int chunkCount, Guid ingestSourceId, CancellationToken cancellationToken)
         {
-            bool isQueuedIngestion = "queued".EqualsOrdinalIgnoreCase(this._kustoIngestContext.ResolvedAttribute.IngestionType);
+            TimeSpan chunkTimeout = context.IngestRouter.ChunkTimeout;
+            using var deadline = CancellationTokenSource.CreateLinkedTokenSource(cancellationToken);
+            deadline.CancelAfter(chunkTimeout);
+            int chunkRows = (rows.Count + chunkCount - 1) / chunkCount;
+            var chunkIngestions = new List<Task<IngestionStatus>>(chunkCount);
+            for (int start = 0; start < rows.Count; start += chunkRows)
+            {
+                List<T> chunk = rows.GetRange(start, Math.Min(chunkRows, rows.Count - start));
+                DataSourceFormat format = this.GetDataFormat(chunk.Count);
+                Stream chunkData = KustoBindingUtilities.WriteRowsToStream(chunk, KustoBindingUtilities.IsJsonFormat(format));
+                var streamSourceOptions = new StreamSourceOptions()
+                {
+                    SourceId = NewSourceId(context, chunk, $"{ingestSourceId:N}/{start}"),
+                };
+                chunkIngestions.Add(this.IngestData(context, chunkData, chunk.Count, format, streamSourceOptions, deadline.Token));
+            }
             if (this._logger.IsEnabled(LogLevel.Debug))
             {
-                this._logger.LogDebug($"Ingesting data with SourceId {streamSourceOptions.SourceId} using {this._kustoIngestContext.ResolvedAttribute.IngestionType} ingestion");
+                this._logger.LogDebug($"Ingesting {rows.Count} rows in {chunkIngestions.Count} chunks. Ingest detail {this._contextdetail.Value}");
             }
-            IKustoIngestionService ingestionService = isQueuedIngestion
-                ? new KustoQueuedIngestionService(this._kustoIngestContext, this._logger)
-                : (IKustoIngestionService)new KustoManagedIngestionService(this._kustoIngestContext, this._logger);
-            return await ingestionService.IngestData(format, KustoBindingUtilities.StreamFromString(dataToIngest), streamSourceOptions, cancellationToken);
-        }
-
-        private string SerializeToIngestData()
-        {
-            var sb = new StringBuilder();
-            bool first = true;
-            Formatting indent = this._rows.Count == 1 ? Formatting.None : Formatting.Indented;
-            using (var textWriter = new StringWriter(sb))
+            Task<IngestionStatus[]> allChunks = Task.WhenAll(chunkIngestions);
+            // Not every ingestion client observes cancellation, the deadline is enforced here as well
+            Task deadlineElapsed = Task.Delay(Timeout.Infinite, deadline.Token);
+            try
             {
-                foreach (T row in this._rows)
+                if (await Task.WhenAny(allChunks, deadlineElapsed) != allChunks)
                 {
-                    if (!first)
-                    {
-                        textWriter.WriteLine(string.Empty);
-                    }
-                    first = false;
-                    using var jsonWriter = new JsonTextWriter(textWriter) { QuoteName = true, Formatting = indent, CloseOutput = false };
-                    if (typeof(T) == typeof(string))
-                    {
-                        textWriter.Write(row.ToString());
-                    }
-                    else
-                    {
-                        // POCO , JObject
-                        JsonSerializer.CreateDefault().Serialize(jsonWriter, row);
-                    }
+                    this.ObserveLeftoverChunks(allChunks, chunkIngestions);
+                    cancellationToken.ThrowIfCancellationRequested();
+                    throw new TimeoutException($"The {chunkIngestions.Count} chunks of {rows.Count} rows were not ingested within {chunkTimeout}. Ingest detail {this._contextdetail.Value}");
                 }
             }
-            return sb.ToString();
+            finally
+            {
+                deadline.Cancel();
+            }
+            return RollUpStatus(await allChunks);
         }
 
-        private DataSourceFormat GetDataFormat()
+        /// <summary>
+        /// Logs the outcome of the chunks that outlived the invocation, so that the rows they ingest after it failed can be told apart from the
+        /// rows of its retry, and their failures are observed
+        /// </summary>
+        private void ObserveLeftoverChunks(Task<IngestionStatus[]> allChunks, List<Task<IngestionStatus>> chunkIngestions)
         {
-            KustoAttribute resolvedAttribute = this._kustoIngestContext.ResolvedAttribute;
-            DataSourceFormat returnFormat = DataSourceFormat.json;
-            if (string.IsNullOrEmpty(resolvedAttribute.DataFormat))
+            string contextDetail = this._contextdetail.Value;
+            allChunks.ContinueWith(completed =>
             {
-                if (this._rows.Count > 1)
-                {
-                    returnFormat = DataSourceFormat.multijson;
-                }
+                // Reading the exception of the aggregate observes the exceptions of the chunks
+                Exception exception = completed.Exception?.GetBaseException();
+                int ingestedChunks = chunkIngestions.Count(chunk => chunk.IsCompletedSuccessfully);
+                this._logger.LogWarning(exception, $"{ingestedChunks} of the {chunkIngestions.Count} chunks of a flush that timed out were ingested, the rows of a retry of the invocation " +
+                    $"may be duplicates of them. Ingest detail {contextDetail}");
+            }, CancellationToken.None, TaskContinuationOptions.None, TaskScheduler.Default);
+        }
+
+        private async Task<IngestionStatus> IngestData(KustoIngestContext context, Stream dataToIngest, int rowCount, DataSourceFormat format, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken)
+        {
+            if (this._logger.IsEnabled(LogLevel.Debug))
+            {
+                this._logger.LogDebug($"Ingesting data with SourceId {streamSourceOptions.SourceId} using {context.ResolvedAttribute.IngestionType} ingestion");
             }
-            else
+            IKustoIngestionService ingestionService = IKustoIngestionService.Create(context, this._logger, dataToIngest.Length);
+            return await ingestionService.IngestData(format, dataToIngest, rowCount, streamSourceOptions, cancellationToken);
+        }
+
+        private static bool IsBatchingEnabled(KustoIngestContext context)
+        {
+            // A batch mixes the rows of several invocations, the rows of bindings with an ingest identity are ingested with the SourceId of their invocation instead
+            return context.IngestBatcher != null && KustoIngestBatcher.IsBatchingEnabled(context.ResolvedAttribute) && !KustoIngestIdentity.IsEnabled(context.ResolvedAttribute);
+        }
+
+        /// <summary>
+        /// Hands the rows over to the batch shared by all invocations writing to the same table. The status returned is the one
+        /// of the ingestion the rows ended up in
+        /// </summary>
+        private Task<IngestionStatus> AddRowsToBatchAsync(KustoIngestContext context, List<T> rows)
+        {
+            DataSourceFormat format = this.GetDataFormat(rows.Count);
+            if (this._logger.IsEnabled(LogLevel.Debug))
             {
-                bool parseResult = Enum.TryParse(resolvedAttribute.DataFormat, out DataSourceFormat ingestDataFormat);
-                // If user provides JSON and it has multiple values then convert to multi-json
-                returnFormat = parseResult && ingestDataFormat == DataSourceFormat.json && this._rows.Count > 1
-                    ? DataSourceFormat.multijson
-                    : ingestDataFormat;
+                this._logger.LogDebug($"Adding {rows.Count} rows to the ingestion batch. Ingest detail {this._contextdetail.Value}");
+            }
+            // The rows are copied into the batch before AddAsync returns, so the serialized rows can be released right away
+            using Stream serializedRows = KustoBindingUtilities.WriteRowsToStream(rows, KustoBindingUtilities.IsJsonFormat(format));
+            return context.IngestBatcher.AddAsync(context, serializedRows, rows.Count);
+        }
 
+        /// <summary>
+        /// Writes the rows to the spill log, they are ingested in the background with the SourceId of this flush. Returns false when the log is full
+        /// </summary>
+        private bool SpillRows(KustoIngestContext context, List<T> rows, Guid ingestSourceId)
+        {
+            DataSourceFormat format = this.GetDataFormat(rows.Count);
+            using Stream serializedRows = KustoBindingUtilities.WriteRowsToStream(rows, KustoBindingUtilities.IsJsonFormat(format));
+            bool isSpilled = context.SpillLog.TryAppend(context, serializedRows, rows.Count, ingestSourceId);
+            if (isSpilled && this._logger.IsEnabled(LogLevel.Debug))
+            {
+                this._logger.LogDebug($"Spilled {rows.Count} rows with SourceId {ingestSourceId}. Ingest detail {this._contextdetail.Value}");
             }
-            return returnFormat;
+            return isSpilled;
+        }
+
+        private DataSourceFormat GetDataFormat(int rowCount)
+        {
+            return KustoBindingUtilities.GetDataFormat(this._kustoIngestContext.ResolvedAttribute.DataFormat, rowCount);
         }
 
         public void Dispose()
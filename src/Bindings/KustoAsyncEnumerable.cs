@@ -4,10 +4,9 @@
 using System;
 using System.Collections.Generic;
 using System.Data;
-using System.Linq;
+using System.Diagnostics;
 using System.Threading;
 using System.Threading.Tasks;
-using Kusto.Data.Common;
 using Microsoft.Azure.WebJobs.Kusto;
 using Newtonsoft.Json;
 
@@ -34,6 +33,10 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
         {
             private readonly KustoQueryContext _kustoQueryContext;
             private IDataReader _reader;
+            // The rows read so far, recorded as the result size once the reader is exhausted
+            private long _rowCount;
+            // Null when T is read through JSON
+            private Func<IDataRecord, T> _mapRow;
             public KustoAsyncEnumerator(KustoQueryContext kustoQueryContext)
             {
                 this._kustoQueryContext = kustoQueryContext ?? throw new ArgumentNullException(nameof(kustoQueryContext));
@@ -60,26 +63,47 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             /// <returns></returns>
             private async Task<bool> GetNextRowAsync()
             {
-                if (this._kustoQueryContext.QueryProvider != null)
+                if (this._kustoQueryContext.QueryProvider != null || this._kustoQueryContext.ReadRouter != null)
                 {
                     if (this._reader == null)
                     {
                         string tracingRequestId = Guid.NewGuid().ToString();
-                        // expect that this is a string in a specific format
-                        // We expect that we have a declarative query mechanism to perform KQL
-                        IEnumerable<KeyValuePair<string, string>> queryParameters = KustoBindingUtilities.ParseParameters(this._kustoQueryContext.ResolvedAttribute.KqlParameters).Select(kvp => new KeyValuePair<string, string>(kvp.Key, kvp.Value?.ToString()));
-                        IEnumerable<KeyValuePair<string, object>> crpOptions = KustoBindingUtilities.ParseParameters(this._kustoQueryContext.ResolvedAttribute.ClientRequestProperties).Select(kvp => new KeyValuePair<string, object>(kvp.Key, kvp.Value));
-                        var clientRequestProperties = new ClientRequestProperties(options: crpOptions, parameters: queryParameters)
+                        KustoQueryPlan queryPlan = this._kustoQueryContext.QueryPlan;
+                        KustoAttribute attribute = this._kustoQueryContext.ResolvedAttribute;
+                        // The span and the duration cover the execution, the rows are read at the pace of the function
+                        using (Activity activity = KustoTracing.StartQuery(attribute, false, $"{KustoConstants.ClientRequestId};{tracingRequestId}"))
                         {
-                            ClientRequestId = $"{KustoConstants.ClientRequestId};{tracingRequestId}",
-                        };
-                        this._reader = await this._kustoQueryContext.QueryProvider.ExecuteQueryAsync(this._kustoQueryContext.ResolvedAttribute.Database, this._kustoQueryContext.ResolvedAttribute.KqlCommand, clientRequestProperties);
+                            long startTimestamp = Stopwatch.GetTimestamp();
+                            try
+                            {
+                                // Only the execution holds a slot of the connection.
+                                // Streamed results are not hedged, the function may have consumed rows of the first response by the time a hedged one completes
+                                this._reader = await this._kustoQueryContext.QueryLimiter.RunAsync(() => this._kustoQueryContext.ReadRouter != null ?
+                                    this._kustoQueryContext.ReadRouter.ExecuteQueryAsync(attribute.Database, queryPlan.KqlCommand, () => queryPlan.CreateClientRequestProperties(tracingRequestId, this._kustoQueryContext.QueryTimeout)) :
+                                    this._kustoQueryContext.QueryProvider.ExecuteQueryAsync(attribute.Database, queryPlan.KqlCommand, queryPlan.CreateClientRequestProperties(tracingRequestId, this._kustoQueryContext.QueryTimeout)));
+                            }
+                            catch (Exception e)
+                            {
+                                KustoTracing.SetError(activity, e);
+                                KustoMetrics.QueryDuration.Record(KustoMetrics.ElapsedMilliseconds(startTimestamp), KustoMetrics.QueryTags(attribute, false, "failure"));
+                                throw;
+                            }
+                            KustoMetrics.QueryDuration.Record(KustoMetrics.ElapsedMilliseconds(startTimestamp), KustoMetrics.QueryTags(attribute, false, "success"));
+                        }
+                        this._mapRow = KustoRowMapper<T>.GetMapper(this._reader);
                     }
                     if (this._reader.Read())
                     {
-                        this.Current = JsonConvert.DeserializeObject<T>(KustoBindingUtilities.SerializeRow(this._reader));
+                        this.Current = this._mapRow != null ? this._mapRow(this._reader) : JsonConvert.DeserializeObject<T>(KustoBindingUtilities.SerializeRow(this._reader));
+                        this._rowCount++;
                         return true;
                     }
+                    if (this._rowCount >= 0)
+                    {
+                        KustoMetrics.QueryRows.Record(this._rowCount, KustoMetrics.QueryTags(this._kustoQueryContext.ResolvedAttribute, false, "success"));
+                        // Recorded once, MoveNextAsync may be called again after the end
+                        this._rowCount = -1;
+                    }
                 }
                 return false;
             }
@@ -0,0 +1,221 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.IO;
+using System.Text;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Data.Common;
+using Kusto.Ingest;
+using Microsoft.Azure.WebJobs.Extensions.Kusto;
+using Microsoft.Extensions.Logging;
+using static Microsoft.Azure.WebJobs.Extensions.Kusto.KustoConstants;
+
+namespace Microsoft.Azure.WebJobs.Kusto
+{
+    /// <summary>
+    /// Buffers rows flushed by different invocations that write to the same target (connection, database, table, format and mapping)
+    /// and ingests them as a single payload once any of the batch limits (rows, bytes or latency) is reached. A batch is removed once it is
+    /// detached for ingestion, so that targets resolved from binding expressions do not accumulate, and the next rows of the target start a
+    /// new batch with the context of their invocation
+    /// </summary>
+    internal class KustoIngestBatcher : IDisposable
+    {
+        private readonly ConcurrentDictionary<string, KustoIngestBatch> _batches = new ConcurrentDictionary<string, KustoIngestBatch>();
+        private readonly ILogger _logger;
+        // Cancels the ingestions of the batches when the host shuts down
+        private readonly CancellationTokenSource _shutdown = new CancellationTokenSource();
+
+        public KustoIngestBatcher(ILogger logger)
+        {
+            this._logger = logger;
+        }
+
+        /// <summary>
+        /// The number of batches that are filling up
+        /// </summary>
+        internal int BatchCount => this._batches.Count;
+
+        /// <summary>
+        /// Batching is opt-in, it is enabled when any of the batch limits is set on the attribute
+        /// </summary>
+        public static bool IsBatchingEnabled(KustoAttribute attribute)
+        {
+            return attribute.BatchMaxRows > 0 || attribute.BatchMaxBytes > 0 || attribute.BatchMaxLatencyMs > 0;
+        }
+
+        /// <summary>
+        /// Adds the serialized rows of an invocation to the shared batch of the target the context points to. The rows are copied
+        /// into the batch before this method returns
+        /// </summary>
+        /// <param name="context">The ingest context of the invocation</param>
+        /// <param name="serializedRows">The rows serialized one per line in the data format of the binding</param>
+        /// <param name="rowCount">The number of rows in serializedRows</param>
+        /// <returns>A task that completes with the status of the ingestion the rows were part of</returns>
+        public Task<IngestionStatus> AddAsync(KustoIngestContext context, Stream serializedRows, int rowCount)
+        {
+            string batchKey = BuildBatchKey(context.ResolvedAttribute);
+            while (true)
+            {
+                KustoIngestBatch batch = this._batches.GetOrAdd(batchKey, key => new KustoIngestBatch(this, key, context, this._logger));
+                // A batch that was detached in the meantime takes no more rows, they go to the next batch of the target
+                Task<IngestionStatus> ingestionTask = batch.TryAddAsync(serializedRows, rowCount);
+                if (ingestionTask != null)
+                {
+                    return ingestionTask;
+                }
+            }
+        }
+
+        public void Dispose()
+        {
+            // Not disposed, the timers of batches that are filling up may still read the token
+            this._shutdown.Cancel();
+        }
+
+        private void Remove(string batchKey, KustoIngestBatch batch)
+        {
+            // Only removes the batch itself, a newer batch of the target may already have replaced it
+            ((ICollection<KeyValuePair<string, KustoIngestBatch>>)this._batches).Remove(new KeyValuePair<string, KustoIngestBatch>(batchKey, batch));
+        }
+
+        internal static string BuildBatchKey(KustoAttribute attribute)
+        {
+            return $"{attribute.Connection}|{attribute.ManagedServiceIdentity}|{attribute.IngestionType}|{attribute.Database}|{attribute.TableName}|" +
+                $"{attribute.DataFormat}|{attribute.MappingRef}|{attribute.IngestionProperties}|{attribute.Compression}|" +
+                $"{attribute.BatchMaxRows}|{attribute.BatchMaxBytes}|{attribute.BatchMaxLatencyMs}";
+        }
+
+        /// <summary>
+        /// The rows buffered for a single target, kept serialized in a pooled stream that becomes the ingestion payload. A batch is detached
+        /// and ingested as soon as one of the limits is hit, the invocations that contributed rows to it are completed with the status of that ingestion.
+        /// A detached batch is removed from the batcher and takes no more rows
+        /// </summary>
+        private sealed class KustoIngestBatch
+        {
+            private static readonly byte[] NewLineBytes = Encoding.UTF8.GetBytes(Environment.NewLine);
+            private readonly object _syncRoot = new object();
+            private readonly KustoIngestBatcher _batcher;
+            private readonly string _batchKey;
+            private readonly KustoIngestContext _context;
+            private readonly ILogger _logger;
+            private readonly int _maxRows;
+            private readonly long _maxBytes;
+            private readonly int _maxLatencyMs;
+            private Stream _payload;
+            private int _rowCount;
+            private TaskCompletionSource<IngestionStatus> _completion;
+            private Timer _latencyTimer;
+            private bool _isDetached;
+
+            public KustoIngestBatch(KustoIngestBatcher batcher, string batchKey, KustoIngestContext context, ILogger logger)
+            {
+                this._batcher = batcher;
+                this._batchKey = batchKey;
+                this._context = context;
+                this._logger = logger;
+                KustoAttribute attribute = context.ResolvedAttribute;
+                this._maxRows = attribute.BatchMaxRows > 0 ? attribute.BatchMaxRows : int.MaxValue;
+                this._maxBytes = attribute.BatchMaxBytes > 0 ? attribute.BatchMaxBytes : DefaultBatchMaxBytes;
+                this._maxLatencyMs = attribute.BatchMaxLatencyMs > 0 ? attribute.BatchMaxLatencyMs : DefaultBatchMaxLatencyMs;
+            }
+
+            /// <returns>The status of the ingestion the rows are part of, null when the batch was detached and takes no more rows</returns>
+            public Task<IngestionStatus> TryAddAsync(Stream serializedRows, int rowCount)
+            {
+                Task<IngestionStatus> ingestionTask;
+                (Stream Payload, int RowCount, TaskCompletionSource<IngestionStatus> Completion)? readyBatch = null;
+                lock (this._syncRoot)
+                {
+                    if (this._isDetached)
+                    {
+                        return null;
+                    }
+                    if (this._completion == null)
+                    {
+                        // First rows of a new batch, the latency limit is measured from here
+                        this._completion = new TaskCompletionSource<IngestionStatus>(TaskCreationOptions.RunContinuationsAsynchronously);
+                        this._payload = KustoBindingUtilities.GetPayloadStream();
+                        this._latencyTimer = new Timer(this.OnLatencyElapsed, this._completion, this._maxLatencyMs, Timeout.Infinite);
+                    }
+                    else
+                    {
+                        this._payload.Write(NewLineBytes, 0, NewLineBytes.Length);
+                    }
+                    serializedRows.CopyTo(this._payload);
+                    this._rowCount += rowCount;
+                    ingestionTask = this._completion.Task;
+                    if (this._rowCount >= this._maxRows || this._payload.Length >= this._maxBytes)
+                    {
+                        readyBatch = this.Detach();
+                    }
+                }
+                if (readyBatch.HasValue)
+                {
+                    _ = this.IngestAsync(readyBatch.Value.Payload, readyBatch.Value.RowCount, readyBatch.Value.Completion);
+                }
+                return ingestionTask;
+            }
+
+            private void OnLatencyElapsed(object state)
+            {
+                (Stream Payload, int RowCount, TaskCompletionSource<IngestionStatus> Completion)? readyBatch = null;
+                lock (this._syncRoot)
+                {
+                    // The batch this timer was started for may already have been ingested because of the row or byte limits
+                    if (ReferenceEquals(state, this._completion))
+                    {
+                        readyBatch = this.Detach();
+                    }
+                }
+                if (readyBatch.HasValue)
+                {
+                    _ = this.IngestAsync(readyBatch.Value.Payload, readyBatch.Value.RowCount, readyBatch.Value.Completion);
+                }
+            }
+
+            private (Stream Payload, int RowCount, TaskCompletionSource<IngestionStatus> Completion) Detach()
+            {
+                (Stream Payload, int RowCount, TaskCompletionSource<IngestionStatus> Completion) detached = (this._payload, this._rowCount, this._completion);
+                this._payload = null;
+                this._rowCount = 0;
+                this._completion = null;
+                this._latencyTimer?.Dispose();
+                this._latencyTimer = null;
+                this._isDetached = true;
+                this._batcher.Remove(this._batchKey, this);
+                return detached;
+            }
+
+            private async Task IngestAsync(Stream payload, int rowCount, TaskCompletionSource<IngestionStatus> completion)
+            {
+                var ingestSourceId = Guid.NewGuid();
+                try
+                {
+                    DataSourceFormat format = KustoBindingUtilities.GetDataFormat(this._context.ResolvedAttribute.DataFormat, rowCount);
+                    var streamSourceOptions = new StreamSourceOptions()
+                    {
+                        SourceId = ingestSourceId,
+                    };
+                    if (this._logger.IsEnabled(LogLevel.Debug))
+                    {
+                        this._logger.LogDebug($"Ingesting batch of {rowCount} rows with SourceId {ingestSourceId} to table {this._context.ResolvedAttribute.TableName}");
+                    }
+                    IKustoIngestionService ingestionService = IKustoIngestionService.Create(this._context, this._logger, payload.Length);
+                    // The ingest client disposes the payload once done with it, returning the pooled buffers
+                    payload.Position = 0;
+                    IngestionStatus ingestionStatus = await ingestionService.IngestData(format, payload, rowCount, streamSourceOptions, this._batcher._shutdown.Token);
+                    completion.TrySetResult(ingestionStatus);
+                }
+                catch (Exception ex)
+                {
+                    this._logger.LogError(ex, "Exception ingesting batch with SourceId {IngestSourceId} to table {TableName}", ingestSourceId.ToString(), this._context.ResolvedAttribute.TableName);
+                    completion.TrySetException(ex);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
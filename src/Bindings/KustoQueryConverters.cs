@@ -4,7 +4,7 @@
 using System;
 using System.Collections.Generic;
 using System.Data;
-using System.Linq;
+using System.Diagnostics;
 using System.Threading;
 using System.Threading.Tasks;
 using Kusto.Cloud.Platform.Data;
@@ -46,7 +46,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
                 return queryContext;
             }
         }
-        internal class KustoGenericsConverter<T> : IAsyncConverter<KustoAttribute, IEnumerable<T>>, IAsyncConverter<KustoAttribute, string>, IAsyncConverter<KustoAttribute, JArray>, IConverter<KustoAttribute, IAsyncEnumerable<T>>
+        internal class KustoGenericsConverter<T> : IAsyncConverter<KustoAttribute, IEnumerable<T>>, IAsyncConverter<KustoAttribute, string>, IAsyncConverter<KustoAttribute, JArray>, IAsyncConverter<KustoAttribute, JObject>, IConverter<KustoAttribute, IAsyncEnumerable<T>>
         {
             private readonly KustoExtensionConfigProvider _configProvider;
             private readonly ILogger _logger;
@@ -66,7 +66,13 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             {
                 try
                 {
-                    List<T> results = (await BuildJsonArrayFromAttributeAsync(attribute, this._configProvider, this._logger)).ToObject<List<T>>();
+                    EnsureJsonResultFormat(attribute);
+                    // Cached results are shared, so every invocation gets its own objects from the cached JSON
+                    if (attribute.CacheTtlSeconds > 0 || !KustoRowMapper<T>.IsSupported)
+                    {
+                        return AsJsonArray(await GetQueryResultAsync(attribute, this._configProvider, this._logger)).ToObject<List<T>>();
+                    }
+                    List<T> results = await GetQueryResultAsync(attribute, this._configProvider, this._logger, ReadRows);
                     return results;
                 }
                 catch (Exception ex)
@@ -81,10 +87,10 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             /// </summary>
             /// <param name="attribute">The attribute that contains the query and parameters for teh query</param>
             /// <param name="cancellationToken">The async cancellation token</param>
-            /// <returns>A string (array) that contains the string representation</returns>
+            /// <returns>A string (array, or object of arrays when ResultTableNames is set) that contains the string representation, in the ResultFormat of the binding</returns>
             async Task<string> IAsyncConverter<KustoAttribute, string>.ConvertAsync(KustoAttribute attribute, CancellationToken cancellationToken)
             {
-                string result = (await BuildJsonArrayFromAttributeAsync(attribute, this._configProvider, this._logger)).ToString();
+                string result = await GetQueryResultStringAsync(attribute, this._configProvider, this._logger);
                 return result;
             }
             /// <summary>
@@ -95,8 +101,25 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             /// <returns>A JSON Array that contains the list of retrieved records</returns>
             async Task<JArray> IAsyncConverter<KustoAttribute, JArray>.ConvertAsync(KustoAttribute attribute, CancellationToken cancellationToken)
             {
-                JArray result = await BuildJsonArrayFromAttributeAsync(attribute, this._configProvider, this._logger);
-                return result;
+                EnsureJsonResultFormat(attribute);
+                JArray result = AsJsonArray(await GetQueryResultAsync(attribute, this._configProvider, this._logger));
+                // A cached result is shared with other invocations, hand out a copy that the function can modify
+                return attribute.CacheTtlSeconds > 0 ? (JArray)result.DeepClone() : result;
+            }
+            /// <summary>
+            /// Get the result tables of a multi statement query, by the names in ResultTableNames
+            /// </summary>
+            /// <param name="attribute">The attribute that contains the query and parameters for teh query</param>
+            /// <param name="cancellationToken">The async cancellation token</param>
+            /// <returns>A JSON object with an array of records for every result table</returns>
+            async Task<JObject> IAsyncConverter<KustoAttribute, JObject>.ConvertAsync(KustoAttribute attribute, CancellationToken cancellationToken)
+            {
+                EnsureJsonResultFormat(attribute);
+                if (!(await GetQueryResultAsync(attribute, this._configProvider, this._logger) is JObject result))
+                {
+                    throw new InvalidOperationException($"Binding to {nameof(JObject)} requires {nameof(KustoAttribute)}.{nameof(KustoAttribute.ResultTableNames)} to name the result tables of the query");
+                }
+                return attribute.CacheTtlSeconds > 0 ? (JObject)result.DeepClone() : result;
             }
             /// <summary>
             /// Provide an async implementation of collecting retrieved objects as a list
@@ -105,36 +128,133 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             /// <returns>A list of T , the type of the object retrieved (async)</returns>
             public IAsyncEnumerable<T> Convert(KustoAttribute attribute)
             {
+                EnsureJsonResultFormat(attribute);
                 KustoQueryContext context = this._configProvider.CreateQueryContext(attribute);
                 return new KustoAsyncEnumerable<T>(context);
             }
+
+            /// <summary>
+            /// Maps the rows of the result straight to T, see <see cref="KustoRowMapper{T}"/>
+            /// </summary>
+            private static (List<T> Result, int RowCount) ReadRows(IDataReader queryReader, string[] resultTableNames)
+            {
+                if (resultTableNames.Length > 0)
+                {
+                    throw ResultTableNamesNotSupported();
+                }
+                Func<IDataRecord, T> mapRow = KustoRowMapper<T>.GetMapper(queryReader);
+                var rows = new List<T>();
+                while (queryReader.Read())
+                {
+                    rows.Add(mapRow(queryReader));
+                }
+                return (rows, rows.Count);
+            }
+        }
+        /// <summary>
+        /// Returns the results of the query, served from the query result cache when the binding enables caching. Results of
+        /// IAsyncEnumerable bindings are streamed and never cached
+        /// </summary>
+        private static Task<JToken> GetQueryResultAsync(KustoAttribute attribute, KustoExtensionConfigProvider configProvider, ILogger logger)
+        {
+            return GetQueryResultAsync(attribute, configProvider, logger, ReadJsonResult);
+        }
+
+        /// <summary>
+        /// Returns the results of the query as a string in the result format of the binding. The rows are written from the reader straight into
+        /// the string, without building the JSON objects first. This is what string bindings, and so all the non .NET workers, go through
+        /// </summary>
+        private static Task<string> GetQueryResultStringAsync(KustoAttribute attribute, KustoExtensionConfigProvider configProvider, ILogger logger)
+        {
+            switch (KustoBindingUtilities.ParseResultFormat(attribute.ResultFormat))
+            {
+                case KustoConstants.ResultFormatCsv:
+                    return GetQueryResultAsync(attribute, configProvider, logger, KustoQueryResultWriter.WriteCsvString);
+                case KustoConstants.ResultFormatColumnar:
+                    return GetQueryResultAsync(attribute, configProvider, logger, KustoQueryResultWriter.WriteColumnarString);
+                default:
+                    return GetQueryResultAsync(attribute, configProvider, logger, KustoQueryResultWriter.WriteJsonString);
+            }
         }
-        private static async Task<JArray> BuildJsonArrayFromAttributeAsync(KustoAttribute attribute, KustoExtensionConfigProvider configProvider, ILogger logger)
+
+        /// <summary>
+        /// The csv and columnar result formats are text formats, only string bindings can be read in them
+        /// </summary>
+        private static void EnsureJsonResultFormat(KustoAttribute attribute)
+        {
+            string resultFormat = KustoBindingUtilities.ParseResultFormat(attribute.ResultFormat);
+            if (resultFormat != KustoConstants.ResultFormatJson)
+            {
+                throw new InvalidOperationException($"The {resultFormat} result format can only be used with string bindings");
+            }
+        }
+
+        private static Task<TResult> GetQueryResultAsync<TResult>(KustoAttribute attribute, KustoExtensionConfigProvider configProvider, ILogger logger,
+            Func<IDataReader, string[], (TResult Result, int RowCount)> readResult) where TResult : class
+        {
+            if (attribute.CacheTtlSeconds <= 0)
+            {
+                return ExecuteQueryAsync(attribute, configProvider, logger, readResult);
+            }
+            KustoQueryResultCache queryResultCache = configProvider.GetQueryResultCache(attribute);
+            return queryResultCache.GetOrAddAsync(KustoQueryResultCache.BuildCacheKey(attribute, typeof(TResult)), TimeSpan.FromSeconds(attribute.CacheTtlSeconds),
+                () => ExecuteQueryAsync(attribute, configProvider, logger, readResult));
+        }
+
+        private static JArray AsJsonArray(JToken queryResult)
+        {
+            return queryResult as JArray ?? throw ResultTableNamesNotSupported();
+        }
+
+        private static InvalidOperationException ResultTableNamesNotSupported()
+        {
+            return new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.ResultTableNames)} can only be used with string or {nameof(JObject)} bindings");
+        }
+
+        /// <summary>
+        /// Executes the query of the binding. The result holds the records of the first result table, or when ResultTableNames is set the records of every
+        /// result table under its name, so that a multi statement query resolves several lookups in a single request
+        /// </summary>
+        private static async Task<TResult> ExecuteQueryAsync<TResult>(KustoAttribute attribute, KustoExtensionConfigProvider configProvider, ILogger logger,
+            Func<IDataReader, string[], (TResult Result, int RowCount)> readResult) where TResult : class
         {
             KustoQueryContext kustoQueryContext = configProvider.CreateQueryContext(attribute);
+            KustoQueryPlan queryPlan = kustoQueryContext.QueryPlan;
             string tracingRequestId = Guid.NewGuid().ToString();
-            // expect that this is a string in a specific format
-            // We expect that we have a declarative query mechanism to perform KQL
-            IEnumerable<KeyValuePair<string, string>> queryParameters = KustoBindingUtilities.ParseParameters(attribute.KqlParameters).Select(kvp => new KeyValuePair<string, string>(kvp.Key, kvp.Value?.ToString()));
-            IEnumerable<KeyValuePair<string, object>> crpOptions = KustoBindingUtilities.ParseParameters(attribute.ClientRequestProperties).Select(kvp => new KeyValuePair<string, object>(kvp.Key, kvp.Value));
-            var clientRequestProperties = new ClientRequestProperties(options: crpOptions, parameters: queryParameters)
-            {
-                ClientRequestId = $"{KustoConstants.ClientRequestId};{tracingRequestId}",
-            };
-            Task<IDataReader> queryTask = kustoQueryContext.IsControlCommand ?
-            kustoQueryContext.AdminProvider.ExecuteControlCommandAsync(attribute.Database, attribute.KqlCommand, clientRequestProperties) :
-            kustoQueryContext.QueryProvider.ExecuteQueryAsync(attribute.Database, attribute.KqlCommand, clientRequestProperties);
-            var jArray = new JArray();
-            using (IDataReader queryReader = await queryTask.ConfigureAwait(false))
-            {
-                if (queryReader != null)
+            ClientRequestProperties clientRequestProperties = queryPlan.CreateClientRequestProperties(tracingRequestId, kustoQueryContext.QueryTimeout);
+            string[] resultTableNames = queryPlan.ResultTableNames;
+            using System.Diagnostics.Activity activity = KustoTracing.StartQuery(attribute, kustoQueryContext.IsControlCommand, clientRequestProperties.ClientRequestId);
+            long startTimestamp = Stopwatch.GetTimestamp();
+            (TResult Result, int RowCount) queryResult;
+            try
+            {
+                // The slot of the connection is held until the result is read, the reader streams the response. A hedged query and the failover
+                // of a failed query to another replica run within the same slot
+                queryResult = await kustoQueryContext.QueryLimiter.RunAsync(async () =>
                 {
-                    using (queryReader)
+                    Task<IDataReader> queryTask = kustoQueryContext.IsControlCommand ?
+                    kustoQueryContext.AdminProvider.ExecuteControlCommandAsync(attribute.Database, queryPlan.KqlCommand, clientRequestProperties) :
+                    kustoQueryContext.ReadRouter != null ?
+                    kustoQueryContext.ReadRouter.ExecuteQueryAsync(attribute.Database, queryPlan.KqlCommand,
+                        () => queryPlan.CreateClientRequestProperties(tracingRequestId, kustoQueryContext.QueryTimeout), attribute.HedgeAfterPercentile) :
+                    kustoQueryContext.QueryProvider.ExecuteQueryAsync(attribute.Database, queryPlan.KqlCommand, clientRequestProperties);
+                    using (IDataReader queryReader = await queryTask.ConfigureAwait(false))
                     {
-                        queryReader.ToJObjects().ForEach(jObject => jArray.Add(jObject));
+                        // A missing reader is read as an empty result
+                        return readResult(queryReader ?? new DataTable().CreateDataReader(), resultTableNames);
                     }
-                }
+                }).ConfigureAwait(false);
+            }
+            catch (Exception e)
+            {
+                KustoTracing.SetError(activity, e);
+                KustoMetrics.QueryDuration.Record(KustoMetrics.ElapsedMilliseconds(startTimestamp), KustoMetrics.QueryTags(attribute, kustoQueryContext.IsControlCommand, "failure"));
+                throw;
             }
+            KeyValuePair<string, object>[] queryTags = KustoMetrics.QueryTags(attribute, kustoQueryContext.IsControlCommand, "success");
+            KustoMetrics.QueryDuration.Record(KustoMetrics.ElapsedMilliseconds(startTimestamp), queryTags);
+            KustoMetrics.QueryRows.Record(queryResult.RowCount, queryTags);
+            activity?.SetTag("kusto.rows", queryResult.RowCount);
             if (logger.IsEnabled(LogLevel.Trace))
             {
                 string logContext = $"Query executionContext : KqlCommand='{attribute?.KqlCommand}'," +
@@ -142,10 +262,30 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
                                     $"KqlParameters='{attribute?.KqlParameters}'," +
                                     $"ManagedIdentity='{attribute?.ManagedServiceIdentity}'," +
                                     $"Query TraceId='{tracingRequestId}'," +
-                                    $"Results size='{jArray?.Count}'";
+                                    $"Results size='{queryResult.RowCount}'";
                 logger.LogTrace(logContext);
             }
-            return jArray;
+            return queryResult.Result;
+        }
+
+        private static (JToken Result, int RowCount) ReadJsonResult(IDataReader queryReader, string[] resultTableNames)
+        {
+            if (resultTableNames.Length == 0)
+            {
+                var jArray = new JArray();
+                queryReader.ToJObjects().ForEach(jObject => jArray.Add(jObject));
+                return (jArray, jArray.Count);
+            }
+            var resultTables = new JObject();
+            int rowCount = 0;
+            KustoQueryResultWriter.ForEachResultTable(queryReader, resultTableNames, tableName =>
+            {
+                var table = new JArray();
+                queryReader.ToJObjects().ForEach(jObject => table.Add(jObject));
+                resultTables[tableName] = table;
+                rowCount += table.Count;
+            });
+            return (resultTables, rowCount);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,461 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Buffers;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Data;
+using System.Data.SqlTypes;
+using System.Globalization;
+using System.IO;
+using System.Linq;
+using System.Text;
+using Kusto.Cloud.Platform.Data;
+using Microsoft.Azure.WebJobs.Kusto;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Writes query results from the data reader straight to text (JSON, CSV or columnar JSON), without building a JObject per row first. How each column is written
+    /// is worked out once per result schema and cached. Results with column types that are not handled here are written through the JObjects
+    /// of the reader, so that they are represented exactly as before
+    /// </summary>
+    internal static class KustoQueryResultWriter
+    {
+        // Bounds the schema cache for functions whose queries return an unbounded variety of schemas
+        private const int MaxCachedSchemas = 1024;
+        // The round trip format Json.NET writes dates in
+        private const string IsoDateTimeFormat = "yyyy-MM-ddTHH:mm:ss.FFFFFFFK";
+        private static readonly ConcurrentDictionary<string, ResultSchemaWriter> SchemaWriters = new ConcurrentDictionary<string, ResultSchemaWriter>(StringComparer.Ordinal);
+        private static readonly Dictionary<Type, Action<JsonWriter, object>> ValueWriters = new Dictionary<Type, Action<JsonWriter, object>>
+        {
+            [typeof(string)] = Typed<string>((writer, value) => writer.WriteValue(value)),
+            [typeof(bool)] = Typed<bool>((writer, value) => writer.WriteValue(value)),
+            [typeof(int)] = Typed<int>((writer, value) => writer.WriteValue(value)),
+            [typeof(long)] = Typed<long>((writer, value) => writer.WriteValue(value)),
+            [typeof(double)] = Typed<double>((writer, value) => writer.WriteValue(value)),
+            [typeof(DateTime)] = Typed<DateTime>((writer, value) => writer.WriteValue(value)),
+            [typeof(TimeSpan)] = Typed<TimeSpan>((writer, value) => writer.WriteValue(value)),
+            [typeof(Guid)] = Typed<Guid>((writer, value) => writer.WriteValue(value)),
+            // Dynamic columns hold JSON values
+            [typeof(object)] = WriteDynamicValue,
+        };
+        // The Kusto names of the column types in columnar results
+        private static readonly Dictionary<Type, string> ColumnTypeNames = new Dictionary<Type, string>
+        {
+            [typeof(string)] = "string",
+            [typeof(bool)] = "bool",
+            [typeof(int)] = "int",
+            [typeof(long)] = "long",
+            [typeof(double)] = "real",
+            [typeof(SqlDecimal)] = "decimal",
+            [typeof(DateTime)] = "datetime",
+            [typeof(TimeSpan)] = "timespan",
+            [typeof(Guid)] = "guid",
+            [typeof(object)] = "dynamic",
+        };
+        private static readonly char[] CsvSpecialCharacters = new[] { ',', '"', '\r', '\n' };
+
+        /// <summary>
+        /// Writes the result of a query as a compact JSON string, an array of row objects or an object with an array per named result table
+        /// </summary>
+        public static (string Result, int RowCount) WriteJsonString(IDataReader reader, string[] resultTableNames)
+        {
+            var json = new StringBuilder();
+            int rowCount = 0;
+            using (var stringWriter = new StringWriter(json, CultureInfo.InvariantCulture))
+            using (var jsonWriter = new JsonTextWriter(stringWriter) { ArrayPool = JsonCharArrayPool.Instance })
+            {
+                if (resultTableNames.Length == 0)
+                {
+                    rowCount = WriteRows(reader, jsonWriter);
+                }
+                else
+                {
+                    jsonWriter.WriteStartObject();
+                    ForEachResultTable(reader, resultTableNames, tableName =>
+                    {
+                        jsonWriter.WritePropertyName(tableName);
+                        rowCount += WriteRows(reader, jsonWriter);
+                    });
+                    jsonWriter.WriteEndObject();
+                }
+            }
+            return (json.ToString(), rowCount);
+        }
+
+        /// <summary>
+        /// Writes the result of a query as CSV, a header line with the column names and a line per row. Null values are empty fields, empty
+        /// strings are quoted so that the two can be told apart
+        /// </summary>
+        public static (string Result, int RowCount) WriteCsvString(IDataReader reader, string[] resultTableNames)
+        {
+            if (resultTableNames.Length > 0)
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute.ResultTableNames)} cannot be used with the {KustoConstants.ResultFormatCsv} result format");
+            }
+            var csv = new StringBuilder();
+            for (int i = 0; i < reader.FieldCount; i++)
+            {
+                if (i > 0)
+                {
+                    csv.Append(',');
+                }
+                AppendCsvField(csv, reader.GetName(i));
+            }
+            csv.Append('\n');
+            int rowCount = 0;
+            while (reader.Read())
+            {
+                for (int i = 0; i < reader.FieldCount; i++)
+                {
+                    if (i > 0)
+                    {
+                        csv.Append(',');
+                    }
+                    AppendCsvValue(csv, reader.GetValue(i));
+                }
+                csv.Append('\n');
+                rowCount++;
+            }
+            return (csv.ToString(), rowCount);
+        }
+
+        /// <summary>
+        /// Writes the result of a query in the columnar format, a JSON object with the columns, the row count and an array of values per column:
+        /// {"columns":[{"name":"Id","type":"long"}],"rowCount":2,"data":[[1,2]]}. Column names are not repeated for every row as they are in
+        /// the JSON format. With ResultTableNames it is an object with a columnar table per name
+        /// </summary>
+        public static (string Result, int RowCount) WriteColumnarString(IDataReader reader, string[] resultTableNames)
+        {
+            var json = new StringBuilder();
+            int rowCount = 0;
+            using (var stringWriter = new StringWriter(json, CultureInfo.InvariantCulture))
+            using (var jsonWriter = new JsonTextWriter(stringWriter) { ArrayPool = JsonCharArrayPool.Instance })
+            {
+                if (resultTableNames.Length == 0)
+                {
+                    rowCount = WriteColumnarTable(reader, jsonWriter);
+                }
+                else
+                {
+                    jsonWriter.WriteStartObject();
+                    ForEachResultTable(reader, resultTableNames, tableName =>
+                    {
+                        jsonWriter.WritePropertyName(tableName);
+                        rowCount += WriteColumnarTable(reader, jsonWriter);
+                    });
+                    jsonWriter.WriteEndObject();
+                }
+            }
+            return (json.ToString(), rowCount);
+        }
+
+        /// <summary>
+        /// Calls readTable for each of the result tables of the reader, with the name it gets. Tables beyond the named ones are ignored
+        /// </summary>
+        public static void ForEachResultTable(IDataReader reader, string[] resultTableNames, Action<string> readTable)
+        {
+            int tableIndex = 0;
+            do
+            {
+                readTable(resultTableNames[tableIndex]);
+                tableIndex++;
+            }
+            while (tableIndex < resultTableNames.Length && reader.NextResult());
+            if (tableIndex < resultTableNames.Length)
+            {
+                throw new InvalidOperationException($"The query returned {tableIndex} result table(s), {nameof(KustoAttribute.ResultTableNames)} names {resultTableNames.Length}");
+            }
+        }
+
+        /// <summary>
+        /// Converts a value of a result to JSON the way the values of a column are written. Kusto decimals and other types without a writer
+        /// are text, as Kusto writes decimals in its own JSON results
+        /// </summary>
+        internal static JToken ToJToken(object value)
+        {
+            if (value == null || value is DBNull)
+            {
+                return JValue.CreateNull();
+            }
+            if (value is JToken token)
+            {
+                return token;
+            }
+            using var tokenWriter = new JTokenWriter();
+            Action<JsonWriter, object> valueWriter = ValueWriters.TryGetValue(value.GetType(), out Action<JsonWriter, object> typedWriter) ? typedWriter : WriteTextValue;
+            valueWriter(tokenWriter, value);
+            return tokenWriter.Token;
+        }
+
+        /// <summary>
+        /// Writes the rows of the current result table of the reader as a JSON array
+        /// </summary>
+        internal static int WriteRows(IDataReader reader, JsonWriter jsonWriter)
+        {
+            ResultSchemaWriter schemaWriter = GetSchemaWriter(reader);
+            int rowCount = 0;
+            if (schemaWriter == null)
+            {
+                jsonWriter.WriteStartArray();
+                foreach (JObject row in reader.ToJObjects())
+                {
+                    row.WriteTo(jsonWriter);
+                    rowCount++;
+                }
+                jsonWriter.WriteEndArray();
+                return rowCount;
+            }
+            jsonWriter.WriteStartArray();
+            while (reader.Read())
+            {
+                schemaWriter.WriteRow(reader, jsonWriter);
+                rowCount++;
+            }
+            jsonWriter.WriteEndArray();
+            return rowCount;
+        }
+
+        /// <summary>
+        /// Writes the current result table of the reader as a columnar table. The values of every column are written to a buffer of their own
+        /// while the rows are read, the buffers are then copied into the result as the data arrays
+        /// </summary>
+        private static int WriteColumnarTable(IDataReader reader, JsonWriter jsonWriter)
+        {
+            int columnCount = reader.FieldCount;
+            var columnValueWriters = new Action<JsonWriter, object>[columnCount];
+            var columnBuffers = new StringWriter[columnCount];
+            var columnWriters = new JsonTextWriter[columnCount];
+            jsonWriter.WriteStartObject();
+            jsonWriter.WritePropertyName("columns");
+            jsonWriter.WriteStartArray();
+            for (int i = 0; i < columnCount; i++)
+            {
+                Type columnType = reader.GetFieldType(i) ?? typeof(object);
+                jsonWriter.WriteStartObject();
+                jsonWriter.WritePropertyName("name");
+                jsonWriter.WriteValue(reader.GetName(i));
+                jsonWriter.WritePropertyName("type");
+                jsonWriter.WriteValue(ColumnTypeNames.TryGetValue(columnType, out string columnTypeName) ? columnTypeName : ColumnTypeNames[typeof(object)]);
+                jsonWriter.WriteEndObject();
+                // Kusto decimals and other types without a writer are written as text, as Kusto writes decimals in its own JSON results
+                columnValueWriters[i] = ValueWriters.TryGetValue(columnType, out Action<JsonWriter, object> valueWriter) ? valueWriter : WriteTextValue;
+                columnBuffers[i] = new StringWriter(CultureInfo.InvariantCulture);
+                columnWriters[i] = new JsonTextWriter(columnBuffers[i]) { ArrayPool = JsonCharArrayPool.Instance };
+                columnWriters[i].WriteStartArray();
+            }
+            jsonWriter.WriteEndArray();
+            int rowCount = 0;
+            while (reader.Read())
+            {
+                for (int i = 0; i < columnCount; i++)
+                {
+                    object value = reader.GetValue(i);
+                    if (value == null || value is DBNull)
+                    {
+                        columnWriters[i].WriteNull();
+                    }
+                    else
+                    {
+                        columnValueWriters[i](columnWriters[i], value);
+                    }
+                }
+                rowCount++;
+            }
+            jsonWriter.WritePropertyName("rowCount");
+            jsonWriter.WriteValue(rowCount);
+            jsonWriter.WritePropertyName("data");
+            jsonWriter.WriteStartArray();
+            for (int i = 0; i < columnCount; i++)
+            {
+                columnWriters[i].WriteEndArray();
+                columnWriters[i].Close();
+                jsonWriter.WriteRawValue(columnBuffers[i].ToString());
+            }
+            jsonWriter.WriteEndArray();
+            jsonWriter.WriteEndObject();
+            return rowCount;
+        }
+
+        private static void AppendCsvValue(StringBuilder csv, object value)
+        {
+            switch (value)
+            {
+                case null:
+                case DBNull _:
+                    break;
+                case string text:
+                    // An unquoted empty field is a null value
+                    if (text.Length == 0)
+                    {
+                        csv.Append("\"\"");
+                    }
+                    else
+                    {
+                        AppendCsvField(csv, text);
+                    }
+                    break;
+                case bool flag:
+                    csv.Append(flag ? "true" : "false");
+                    break;
+                case int number:
+                    csv.Append(number.ToString(CultureInfo.InvariantCulture));
+                    break;
+                case long number:
+                    csv.Append(number.ToString(CultureInfo.InvariantCulture));
+                    break;
+                case double number:
+                    csv.Append(number.ToString("R", CultureInfo.InvariantCulture));
+                    break;
+                case DateTime dateTime:
+                    csv.Append(dateTime.ToString(IsoDateTimeFormat, CultureInfo.InvariantCulture));
+                    break;
+                case TimeSpan timeSpan:
+                    csv.Append(timeSpan.ToString("c", CultureInfo.InvariantCulture));
+                    break;
+                case JToken token:
+                    AppendCsvField(csv, token.ToString(Formatting.None));
+                    break;
+                default:
+                    AppendCsvField(csv, Convert.ToString(value, CultureInfo.InvariantCulture));
+                    break;
+            }
+        }
+
+        /// <summary>
+        /// Appends the field, quoted when it contains separators, quotes or line breaks (RFC 4180)
+        /// </summary>
+        private static void AppendCsvField(StringBuilder csv, string field)
+        {
+            if (field.IndexOfAny(CsvSpecialCharacters) < 0)
+            {
+                csv.Append(field);
+                return;
+            }
+            csv.Append('"').Append(field.Replace("\"", "\"\"")).Append('"');
+        }
+
+        private static void WriteTextValue(JsonWriter writer, object value)
+        {
+            writer.WriteValue(Convert.ToString(value, CultureInfo.InvariantCulture));
+        }
+
+        private static ResultSchemaWriter GetSchemaWriter(IDataReader reader)
+        {
+            var columnNames = new string[reader.FieldCount];
+            var columnTypes = new Type[reader.FieldCount];
+            var schemaKey = new StringBuilder();
+            for (int i = 0; i < reader.FieldCount; i++)
+            {
+                columnNames[i] = reader.GetName(i);
+                columnTypes[i] = reader.GetFieldType(i);
+                schemaKey.Append(columnNames[i]).Append(':').Append(columnTypes[i]?.FullName).Append(';');
+            }
+            if (columnTypes.Any(columnType => columnType == null || !ValueWriters.ContainsKey(columnType)))
+            {
+                return null;
+            }
+            string key = schemaKey.ToString();
+            if (SchemaWriters.TryGetValue(key, out ResultSchemaWriter schemaWriter))
+            {
+                return schemaWriter;
+            }
+            if (SchemaWriters.Count >= MaxCachedSchemas)
+            {
+                SchemaWriters.Clear();
+            }
+            return SchemaWriters.GetOrAdd(key, _ => new ResultSchemaWriter(columnNames, columnTypes.Select(columnType => ValueWriters[columnType]).ToArray()));
+        }
+
+        /// <summary>
+        /// Writes values of the column type without boxing conversions, a value of another type is written as a dynamic value
+        /// </summary>
+        private static Action<JsonWriter, object> Typed<TValue>(Action<JsonWriter, TValue> writeValue)
+        {
+            return (writer, value) =>
+            {
+                if (value is TValue typedValue)
+                {
+                    writeValue(writer, typedValue);
+                }
+                else
+                {
+                    WriteDynamicValue(writer, value);
+                }
+            };
+        }
+
+        private static void WriteDynamicValue(JsonWriter writer, object value)
+        {
+            switch (value)
+            {
+                case JToken token:
+                    token.WriteTo(writer);
+                    break;
+                case string text:
+                    writer.WriteValue(text);
+                    break;
+                default:
+                    JToken.FromObject(value).WriteTo(writer);
+                    break;
+            }
+        }
+
+        /// <summary>
+        /// Writes the rows of a result with a given schema. The property names are escaped once, values are written by column type
+        /// </summary>
+        private sealed class ResultSchemaWriter
+        {
+            private readonly string[] _escapedColumnNames;
+            private readonly Action<JsonWriter, object>[] _valueWriters;
+
+            public ResultSchemaWriter(string[] columnNames, Action<JsonWriter, object>[] valueWriters)
+            {
+                // JsonConvert.ToString quotes the name, the writer adds the quotes itself
+                this._escapedColumnNames = columnNames.Select(name => JsonConvert.ToString(name)[1..^1]).ToArray();
+                this._valueWriters = valueWriters;
+            }
+
+            public void WriteRow(IDataRecord record, JsonWriter jsonWriter)
+            {
+                jsonWriter.WriteStartObject();
+                for (int i = 0; i < this._valueWriters.Length; i++)
+                {
+                    jsonWriter.WritePropertyName(this._escapedColumnNames[i], false);
+                    object value = record.GetValue(i);
+                    if (value == null || value is DBNull)
+                    {
+                        jsonWriter.WriteNull();
+                    }
+                    else
+                    {
+                        this._valueWriters[i](jsonWriter, value);
+                    }
+                }
+                jsonWriter.WriteEndObject();
+            }
+        }
+
+        /// <summary>
+        /// Lets the JSON writer rent its buffers from the shared array pool
+        /// </summary>
+        private sealed class JsonCharArrayPool : IArrayPool<char>
+        {
+            public static readonly JsonCharArrayPool Instance = new JsonCharArrayPool();
+
+            public char[] Rent(int minimumLength)
+            {
+                return ArrayPool<char>.Shared.Rent(minimumLength);
+            }
+
+            public void Return(char[] array)
+            {
+                ArrayPool<char>.Shared.Return(array);
+            }
+        }
+    }
+}
\ No newline at end of file
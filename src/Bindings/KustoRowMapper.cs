@@ -0,0 +1,171 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Data;
+using System.Globalization;
+using System.Linq;
+using System.Linq.Expressions;
+using System.Reflection;
+using System.Text;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+using Newtonsoft.Json.Serialization;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Maps the rows of a query result to instances of T without a round trip through JSON. For every result schema a mapping plan is compiled
+    /// once and cached, it reads the columns by ordinal (with the typed getters where the column and member types match) and assigns them to
+    /// the members of T. Members are matched to columns the way Json.NET deserialization matches them. Types that rely on more of Json.NET than
+    /// plain members (converters, constructors with parameters, callbacks, extension data, required members) are not mapped and keep going
+    /// through JSON
+    /// </summary>
+    /// <typeparam name="T">The type of the rows the binding returns</typeparam>
+    internal static class KustoRowMapper<T>
+    {
+        // Bounds the plan cache for functions whose queries return an unbounded variety of schemas
+        private const int MaxCachedSchemas = 1024;
+        private const BindingFlags MemberFlags = BindingFlags.Instance | BindingFlags.Public | BindingFlags.NonPublic | BindingFlags.DeclaredOnly;
+        private static readonly JsonObjectContract Contract = ResolveContract();
+        private static readonly ConcurrentDictionary<string, Func<IDataRecord, T>> Mappers = new ConcurrentDictionary<string, Func<IDataRecord, T>>(StringComparer.Ordinal);
+        private static readonly MethodInfo IsDBNullMethod = typeof(IDataRecord).GetMethod(nameof(IDataRecord.IsDBNull));
+        private static readonly MethodInfo GetValueMethod = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetValue));
+        private static readonly MethodInfo ConvertValueMethod = typeof(KustoRowMapper<T>).GetMethod(nameof(ConvertValue), BindingFlags.NonPublic | BindingFlags.Static);
+        private static readonly Dictionary<Type, MethodInfo> TypedGetters = new Dictionary<Type, MethodInfo>
+        {
+            [typeof(string)] = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetString)),
+            [typeof(bool)] = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetBoolean)),
+            [typeof(int)] = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetInt32)),
+            [typeof(long)] = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetInt64)),
+            [typeof(double)] = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetDouble)),
+            [typeof(DateTime)] = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetDateTime)),
+            [typeof(Guid)] = typeof(IDataRecord).GetMethod(nameof(IDataRecord.GetGuid)),
+        };
+
+        /// <summary>
+        /// Whether rows can be mapped to T, callers go through JSON when they cannot
+        /// </summary>
+        public static bool IsSupported => Contract != null;
+
+        /// <summary>
+        /// Returns the mapper for the current result schema of the reader, or null when T is not supported
+        /// </summary>
+        public static Func<IDataRecord, T> GetMapper(IDataRecord record)
+        {
+            if (Contract == null)
+            {
+                return null;
+            }
+            var columnNames = new string[record.FieldCount];
+            var columnTypes = new Type[record.FieldCount];
+            var schemaKey = new StringBuilder();
+            for (int i = 0; i < record.FieldCount; i++)
+            {
+                columnNames[i] = record.GetName(i);
+                columnTypes[i] = record.GetFieldType(i) ?? typeof(object);
+                schemaKey.Append(columnNames[i]).Append(':').Append(columnTypes[i].FullName).Append(';');
+            }
+            string key = schemaKey.ToString();
+            if (Mappers.TryGetValue(key, out Func<IDataRecord, T> mapper))
+            {
+                return mapper;
+            }
+            if (Mappers.Count >= MaxCachedSchemas)
+            {
+                Mappers.Clear();
+            }
+            return Mappers.GetOrAdd(key, _ => Compile(columnNames, columnTypes));
+        }
+
+        private static JsonObjectContract ResolveContract()
+        {
+            // The same serializer settings that JsonConvert.DeserializeObject uses
+            JsonSerializer serializer = JsonSerializer.CreateDefault();
+            if (serializer.Converters.Count > 0 || !(serializer.ContractResolver.ResolveContract(typeof(T)) is JsonObjectContract contract))
+            {
+                return null;
+            }
+            bool hasPlainMembers = contract.Properties.Where(property => !property.Ignored && property.Writable)
+                .All(property => property.Converter == null && property.Required == Required.Default);
+            bool isPlainType = contract.Converter == null && contract.DefaultCreator != null && !contract.DefaultCreatorNonPublic && contract.OverrideCreator == null &&
+                contract.ExtensionDataSetter == null && contract.ItemRequired == null && contract.OnDeserializingCallbacks.Count == 0 &&
+                contract.OnDeserializedCallbacks.Count == 0 && contract.OnErrorCallbacks.Count == 0;
+            return isPlainType && hasPlainMembers ? contract : null;
+        }
+
+        private static Func<IDataRecord, T> Compile(string[] columnNames, Type[] columnTypes)
+        {
+            ParameterExpression record = Expression.Parameter(typeof(IDataRecord), "record");
+            ParameterExpression target = Expression.Variable(typeof(T), "target");
+            var body = new List<Expression> { Expression.Assign(target, Expression.New(typeof(T))) };
+            for (int i = 0; i < columnNames.Length; i++)
+            {
+                // Exact name first, then case insensitive, as when deserializing. Columns without a member are ignored
+                JsonProperty property = Contract.Properties.GetClosestMatchProperty(columnNames[i]);
+                if (property == null || property.Ignored || !property.Writable)
+                {
+                    continue;
+                }
+                MemberInfo member = (MemberInfo)property.DeclaringType.GetProperty(property.UnderlyingName, MemberFlags) ??
+                    property.DeclaringType.GetField(property.UnderlyingName, MemberFlags);
+                if (member == null)
+                {
+                    continue;
+                }
+                body.Add(BuildAssignment(record, Expression.MakeMemberAccess(target, member), property.PropertyType, i, columnTypes[i]));
+            }
+            body.Add(target);
+            return Expression.Lambda<Func<IDataRecord, T>>(Expression.Block(new[] { target }, body), record).Compile();
+        }
+
+        /// <summary>
+        /// Assigns the column to the member. Null values set nullable members to null, and leave members that cannot be null untouched
+        /// </summary>
+        private static Expression BuildAssignment(ParameterExpression record, MemberExpression member, Type memberType, int ordinal, Type columnType)
+        {
+            ConstantExpression ordinalExpression = Expression.Constant(ordinal);
+            Expression value;
+            if ((memberType == columnType || Nullable.GetUnderlyingType(memberType) == columnType) && TypedGetters.TryGetValue(columnType, out MethodInfo typedGetter))
+            {
+                value = Expression.Convert(Expression.Call(record, typedGetter, ordinalExpression), memberType);
+            }
+            else if (memberType.IsAssignableFrom(columnType))
+            {
+                value = Expression.Convert(Expression.Call(record, GetValueMethod, ordinalExpression), memberType);
+            }
+            else
+            {
+                value = Expression.Convert(Expression.Call(ConvertValueMethod, Expression.Call(record, GetValueMethod, ordinalExpression), Expression.Constant(memberType)), memberType);
+            }
+            Expression isNull = Expression.Call(record, IsDBNullMethod, ordinalExpression);
+            Expression assignValue = Expression.Assign(member, value);
+            return !memberType.IsValueType || Nullable.GetUnderlyingType(memberType) != null ?
+                Expression.IfThenElse(isNull, Expression.Assign(member, Expression.Default(memberType)), assignValue) :
+                Expression.IfThen(Expression.Not(isNull), assignValue);
+        }
+
+        /// <summary>
+        /// Converts a column value to a member type it is not directly assignable to, e.g. a long to an int or a dynamic value to an object
+        /// </summary>
+        private static object ConvertValue(object value, Type memberType)
+        {
+            Type targetType = Nullable.GetUnderlyingType(memberType) ?? memberType;
+            if (value == null || value is DBNull)
+            {
+                return memberType.IsValueType && targetType == memberType ? Activator.CreateInstance(memberType) : null;
+            }
+            if (targetType.IsInstanceOfType(value))
+            {
+                return value;
+            }
+            if (value is IConvertible && (targetType.IsPrimitive || targetType == typeof(decimal)))
+            {
+                return Convert.ChangeType(value, targetType, CultureInfo.InvariantCulture);
+            }
+            return JToken.FromObject(value).ToObject(memberType);
+        }
+    }
+}
\ No newline at end of file
@@ -14,7 +14,8 @@ namespace Microsoft.Azure.WebJobs.Kusto
             {
                 throw new ArgumentNullException(nameof(builder));
             }
-            builder.AddExtension<KustoExtensionConfigProvider>();
+            builder.AddExtension<KustoExtensionConfigProvider>()
+                .BindOptions<KustoOptions>();
             return builder;
         }
     }
@@ -0,0 +1,43 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+
+namespace Microsoft.Azure.WebJobs.Kusto
+{
+    /// <summary>
+    /// Options of a single connection in <see cref="KustoOptions.Connections"/>. Options that are not set are taken from <see cref="KustoOptions"/>
+    /// </summary>
+    public class KustoConnectionOptions
+    {
+        /// <summary>
+        /// The maximum number of queries a host runs at the same time against the connection, 0 does not limit queries
+        /// </summary>
+        public int? MaxConcurrentQueries { get; set; }
+
+        /// <summary>
+        /// The maximum number of ingestions a host runs at the same time against the connection, 0 does not limit ingestions
+        /// </summary>
+        public int? MaxConcurrentIngestions { get; set; }
+
+        /// <summary>
+        /// Adapts the concurrency against the connection to the load of the cluster
+        /// </summary>
+        public bool? AdaptiveConcurrency { get; set; }
+
+        /// <summary>
+        /// The maximum number of requests that wait for a slot of the connection, 0 does not bound the wait queue
+        /// </summary>
+        public int? MaxQueuedRequests { get; set; }
+
+        /// <summary>
+        /// The server timeout of queries and control commands against the connection
+        /// </summary>
+        public TimeSpan? QueryTimeout { get; set; }
+
+        /// <summary>
+        /// The number of times queued ingestion into the connection retries to upload the data and post the ingestion message
+        /// </summary>
+        public int? QueuedIngestMaxRetries { get; set; }
+    }
+}
\ No newline at end of file
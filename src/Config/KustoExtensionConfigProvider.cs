@@ -4,16 +4,21 @@
 using System;
 using System.Collections.Concurrent;
 using System.Collections.Generic;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
 using Kusto.Data.Common;
 using Kusto.Ingest;
 using Microsoft.Azure.WebJobs.Description;
 using Microsoft.Azure.WebJobs.Extensions.Kusto.Config;
 using Microsoft.Azure.WebJobs.Host.Bindings;
 using Microsoft.Azure.WebJobs.Host.Config;
+using Microsoft.Azure.WebJobs.Host.Executors;
 using Microsoft.Azure.WebJobs.Kusto;
 using Microsoft.Azure.WebJobs.Logging;
 using Microsoft.Extensions.Configuration;
 using Microsoft.Extensions.Logging;
+using Microsoft.Extensions.Options;
 using Newtonsoft.Json.Linq;
 using static Microsoft.Azure.WebJobs.Extensions.Kusto.KustoConstants;
 using static Microsoft.Azure.WebJobs.Extensions.Kusto.KustoQueryConverters;
@@ -24,14 +29,31 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
     /// Exposes Kusto bindings.
     /// </summary>
     [Extension("Kusto")]
-    internal class KustoExtensionConfigProvider : IExtensionConfigProvider
+    internal class KustoExtensionConfigProvider : IExtensionConfigProvider, IDisposable
     {
         internal ConcurrentDictionary<string, IKustoIngestClient> IngestClientCache { get; } = new ConcurrentDictionary<string, IKustoIngestClient>();
         internal ConcurrentDictionary<string, ICslQueryProvider> QueryClientCache { get; } = new ConcurrentDictionary<string, ICslQueryProvider>();
         internal ConcurrentDictionary<string, ICslAdminProvider> AdminClientCache { get; } = new ConcurrentDictionary<string, ICslAdminProvider>();
+        internal KustoIngestBatcher IngestBatcher { get; }
+        internal KustoIngestionStatusTracker IngestionStatusTracker { get; }
+        // Null unless the clients are warmed up while the functions are indexed
+        internal KustoClientWarmup ClientWarmup { get; }
+        // Null unless the options set a spill directory
+        internal KustoSpillLog SpillLog { get; }
+        internal KustoIngestRouter IngestRouter { get; }
+        // Concurrency limiters by connection, shared by the bindings that use the connection
+        internal ConcurrentDictionary<string, KustoConcurrencyLimiter> QueryLimiters { get; } = new ConcurrentDictionary<string, KustoConcurrencyLimiter>(StringComparer.OrdinalIgnoreCase);
+        internal ConcurrentDictionary<string, KustoConcurrencyLimiter> IngestLimiters { get; } = new ConcurrentDictionary<string, KustoConcurrencyLimiter>(StringComparer.OrdinalIgnoreCase);
+        internal KustoOptions ExtensionOptions { get; }
+        // Read routers by their replica connections, the bindings that read from the same replicas share their latency measurements
+        internal ConcurrentDictionary<string, KustoReadRouter> ReadRouters { get; } = new ConcurrentDictionary<string, KustoReadRouter>(StringComparer.OrdinalIgnoreCase);
+        // Query result caches by their maximum number of entries, bindings with the same limit share a cache
+        internal ConcurrentDictionary<int, KustoQueryResultCache> QueryResultCaches { get; } = new ConcurrentDictionary<int, KustoQueryResultCache>();
         private readonly IConfiguration _configuration;
         private readonly ILoggerFactory _loggerFactory;
         private readonly IKustoClientFactory _kustoClientFactory;
+        // Null unless the host provides it, it scopes the watermarks of the triggers to the host
+        private readonly IHostIdProvider _hostIdProvider;
         private readonly ILogger _logger;
 
         /// <summary>
@@ -41,11 +63,43 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
         /// Thrown if either parameter is null.
         /// </exception>
         public KustoExtensionConfigProvider(IConfiguration configuration, ILoggerFactory loggerFactory, IKustoClientFactory kustoClientFactory)
+            : this(configuration, loggerFactory, kustoClientFactory, Options.Create(new KustoOptions()))
         {
+        }
+
+        /// <summary>
+        /// Initializes a new instance of the <see cref="KustoExtensionConfigProvider"/> class with the options bound from host.json
+        /// </summary>
+        public KustoExtensionConfigProvider(IConfiguration configuration, ILoggerFactory loggerFactory, IKustoClientFactory kustoClientFactory, IOptions<KustoOptions> options)
+            : this(configuration, loggerFactory, kustoClientFactory, options, null)
+        {
+        }
+
+        /// <summary>
+        /// Initializes a new instance of the <see cref="KustoExtensionConfigProvider"/> class with the options bound from host.json and the id of the host
+        /// </summary>
+        public KustoExtensionConfigProvider(IConfiguration configuration, ILoggerFactory loggerFactory, IKustoClientFactory kustoClientFactory, IOptions<KustoOptions> options,
+            IHostIdProvider hostIdProvider)
+        {
+            this._hostIdProvider = hostIdProvider;
             this._configuration = configuration ?? throw new ArgumentNullException(nameof(configuration));
             this._loggerFactory = loggerFactory ?? throw new ArgumentNullException(nameof(loggerFactory));
             this._logger = this._loggerFactory.CreateLogger(LogCategories.Bindings);
             this._kustoClientFactory = kustoClientFactory ?? throw new ArgumentNullException(nameof(kustoClientFactory));
+            this.IngestBatcher = new KustoIngestBatcher(this._logger);
+            this.IngestionStatusTracker = new KustoIngestionStatusTracker(this._logger);
+            this.ExtensionOptions = options?.Value ?? throw new ArgumentNullException(nameof(options));
+            if (this.ExtensionOptions.WarmupClients)
+            {
+                this.ClientWarmup = new KustoClientWarmup(this, this._logger);
+            }
+            this.IngestRouter = new KustoIngestRouter(this.ExtensionOptions.StreamingMaxBytes, this.ExtensionOptions.StreamingMaxBytesPerSecond,
+                this.ExtensionOptions.IngestChunkBytes, this.ExtensionOptions.IngestChunkTimeout);
+            if (!string.IsNullOrEmpty(this.ExtensionOptions.SpillDirectory))
+            {
+                this.SpillLog = new KustoSpillLog(this.ExtensionOptions.SpillDirectory, this.ExtensionOptions.SpillMaxBytes, this.ExtensionOptions.SpillSegmentBytes,
+                    this.CreateIngestionContext, this._logger);
+            }
         }
 
         /// <summary>
@@ -65,13 +119,18 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             FluentBindingRule<KustoAttribute> inputOutputRule = context.AddBindingRule<KustoAttribute>();
             // Validate the attributes we have
             inputOutputRule.AddValidator(this.ValidateConnection);
+            inputOutputRule.AddValidator(ValidateQueryPlan);
             // Bind to the types
             inputOutputRule.BindToCollector<KustoOpenType>(typeof(KustoAsyncCollectorBuilder<>), this._logger, this);
             var converter = new KustoCslQueryConverter(this);
             inputOutputRule.BindToInput(converter);
             inputOutputRule.BindToInput<string>(typeof(KustoGenericsConverter<string>), this._logger, this);
             inputOutputRule.BindToInput<JArray>(typeof(KustoGenericsConverter<JArray>), this._logger, this);
+            inputOutputRule.BindToInput<JObject>(typeof(KustoGenericsConverter<JObject>), this._logger, this);
             inputOutputRule.BindToInput<OpenType>(typeof(KustoGenericsConverter<>), this._logger, this);
+            context.AddBindingRule<KustoTriggerAttribute>().BindToTrigger(new KustoTriggerBindingProvider(this, this._logger));
+            // Rows spilled by a previous run of the host are ingested before the rows of new invocations to the same table
+            this.SpillLog?.Recover();
         }
         internal void ValidateConnection(KustoAttribute attribute, Type paramType)
         {
@@ -93,15 +152,117 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
                 throw new InvalidOperationException(
                     $"The {attributeProperty} property cannot be an empty value.");
             }
+            foreach (string readConnection in SplitReadConnections(attribute.ReadConnections))
+            {
+                if (string.IsNullOrEmpty(this._configuration.GetConnectionStringOrSetting(readConnection)))
+                {
+                    throw new InvalidOperationException($"The read connection {readConnection} in {nameof(KustoAttribute)}.{nameof(KustoAttribute.ReadConnections)} should be passed as an environment variable. This value resolved to null");
+                }
+            }
+            if (attribute.HedgeAfterPercentile < 0 || attribute.HedgeAfterPercentile > 99)
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.HedgeAfterPercentile)} should be between 0 and 99, it was {attribute.HedgeAfterPercentile}");
+            }
+            if (!KustoBindingUtilities.IsValidCompression(attribute.Compression))
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.Compression)} should be none, gzip or auto, it was {attribute.Compression}");
+            }
+            if (!string.IsNullOrWhiteSpace(attribute.IngestIdentity) && !KustoIngestIdentity.IsEnabled(attribute))
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.IngestIdentity)} needs {nameof(KustoAttribute)}.{nameof(KustoAttribute.IngestIdentityKey)}, " +
+                    "without the keys of the rows every batch of the identity would get the same SourceId and all but the first would be skipped");
+            }
+            if (KustoIngestIdentity.IsEnabled(attribute) && !ContainsBindingExpression(attribute.IngestionType) && !string.Equals(attribute.IngestionType, IngestionTypeQueued, StringComparison.OrdinalIgnoreCase))
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.IngestIdentityKey)} needs {nameof(KustoAttribute)}.{nameof(KustoAttribute.IngestionType)} = \"{IngestionTypeQueued}\", " +
+                    "streaming ingestion ignores the ingestIfNotExists tag and would ingest the rows of every replay");
+            }
+            if (KustoShardRouter.IsShardingEnabled(attribute) && !ContainsBindingExpression(attribute.ShardTargets))
+            {
+                foreach (KustoShardTarget target in KustoShardRouter.Get(attribute).Targets)
+                {
+                    if (string.IsNullOrEmpty(this.GetSetting(string.IsNullOrEmpty(target.Connection) ? DefaultConnectionStringName : target.Connection)))
+                    {
+                        throw new InvalidOperationException($"The connection {target.Connection} of shard target {target.Database} in {nameof(KustoAttribute)}.{nameof(KustoAttribute.ShardTargets)} should be passed as an environment variable. This value resolved to null");
+                    }
+                }
+            }
+            this.ClientWarmup?.Register(attribute);
+        }
+
+        /// <summary>
+        /// Builds the query plan of input bindings when they are indexed, so that malformed parameters fail the indexing of the function
+        /// and the plan is ready for the first invocation. Settings that contain binding expressions are only known per invocation, their
+        /// plans are built on first use
+        /// </summary>
+        internal static void ValidateQueryPlan(KustoAttribute attribute, Type paramType)
+        {
+            if (string.IsNullOrEmpty(attribute.KqlCommand) || ContainsBindingExpression(attribute.KqlCommand) || ContainsBindingExpression(attribute.KqlParameters) ||
+                ContainsBindingExpression(attribute.ClientRequestProperties) || ContainsBindingExpression(attribute.ResultTableNames) || ContainsBindingExpression(attribute.ResultFormat))
+            {
+                return;
+            }
+            KustoQueryPlan.Get(attribute);
+        }
+
+        private static bool ContainsBindingExpression(string value)
+        {
+            return value?.IndexOf('{') >= 0;
         }
 
         internal KustoIngestContext CreateIngestionContext(KustoAttribute kustoAttribute)
         {
+            if (KustoShardRouter.IsShardingEnabled(kustoAttribute))
+            {
+                // The rows of sharded bindings are only ingested through the contexts of the shard targets
+                KustoShardRouter shardRouter = KustoShardRouter.Get(kustoAttribute);
+                return new KustoIngestContext
+                {
+                    ResolvedAttribute = kustoAttribute,
+                    ShardRouter = shardRouter,
+                    ShardContexts = shardRouter.Targets.Select(target => this.CreateIngestionContext(kustoAttribute.ForShardTarget(target.Connection, target.Database))).ToArray(),
+                };
+            }
             IKustoIngestClient service = this.GetIngestClient(kustoAttribute);
             return new KustoIngestContext
             {
                 IngestService = service,
                 ResolvedAttribute = kustoAttribute,
+                IngestBatcher = this.IngestBatcher,
+                StatusTracker = this.IngestionStatusTracker,
+                IngestLimiter = this.GetIngestLimiter(kustoAttribute.Connection),
+                SpillLog = this.SpillLog,
+                IngestRouter = this.IngestRouter,
+                // Auto bindings ingest through the managed client of the binding, and through a queued client for the payloads routed to queued ingestion
+                QueuedContext = KustoIngestRouter.IsRoutingEnabled(kustoAttribute) ? this.CreateIngestionContext(kustoAttribute.ForIngestionType(IngestionTypeQueued)) : null,
+            };
+        }
+
+        /// <summary>
+        /// The context of the listener of a trigger. The watermark of the function is a blob in the storage account of the TriggerStorageConnection option,
+        /// named after the host and the function
+        /// </summary>
+        internal async Task<KustoTriggerContext> CreateTriggerContextAsync(KustoTriggerAttribute triggerAttribute, string functionId)
+        {
+            string storageConnectionString = this.GetSetting(this.ExtensionOptions.TriggerStorageConnection);
+            if (string.IsNullOrEmpty(storageConnectionString))
+            {
+                throw new InvalidOperationException($"The watermarks of {nameof(KustoTriggerAttribute)} are kept in the storage account of {nameof(KustoOptions)}.{nameof(KustoOptions.TriggerStorageConnection)} " +
+                    $"{this.ExtensionOptions.TriggerStorageConnection}, it should be passed as an environment variable. This value resolved to null");
+            }
+            string hostId = this._hostIdProvider == null ? "default" : await this._hostIdProvider.GetHostIdAsync(CancellationToken.None).ConfigureAwait(false);
+            // The query client of the trigger is the one of an input binding of the same connection and identity
+            var queryAttribute = new KustoAttribute(triggerAttribute.Database)
+            {
+                Connection = triggerAttribute.Connection,
+                ManagedServiceIdentity = triggerAttribute.ManagedServiceIdentity,
+                TableName = triggerAttribute.TableName,
+            };
+            return new KustoTriggerContext
+            {
+                TriggerAttribute = triggerAttribute,
+                QueryProvider = this.GetQueryClient(queryAttribute),
+                WatermarkStore = new KustoBlobWatermarkStore(storageConnectionString, $"triggers/{hostId}/{functionId}.json"),
             };
         }
 
@@ -114,7 +275,9 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             try
             {
                 string cacheKey = BuildCacheKey($"{engineConnectionString}-${kustoAttribute?.IngestionType}");
-                return this.IngestClientCache.GetOrAdd(cacheKey, (c) => this._kustoClientFactory.IngestClientFactory(engineConnectionString, kustoAttribute.ManagedServiceIdentity, functionRuntime, kustoAttribute.IngestionType, this._logger));
+                int queuedIngestMaxRetries = this.ExtensionOptions.ForConnection(kustoAttribute.Connection).QueuedIngestMaxRetries.Value;
+                return this.IngestClientCache.GetOrAdd(cacheKey, (c) => this._kustoClientFactory.IngestClientFactory(engineConnectionString, kustoAttribute.ManagedServiceIdentity, functionRuntime, kustoAttribute.IngestionType,
+                    queuedIngestMaxRetries, this._logger));
             }
             catch (Exception e)
             {
@@ -132,25 +295,83 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
         internal KustoQueryContext CreateQueryContext(KustoAttribute kustoAttribute)
         {
             bool isControlCommand = kustoAttribute.KqlCommand.TrimStart().StartsWith('.');
+            bool hasReadConnections = !string.IsNullOrWhiteSpace(kustoAttribute.ReadConnections);
             return new KustoQueryContext
             {
-                QueryProvider = isControlCommand ? null : this.GetQueryClient(kustoAttribute),
+                QueryProvider = isControlCommand || hasReadConnections ? null : this.GetQueryClient(kustoAttribute),
+                ReadRouter = isControlCommand ? null : this.GetReadRouter(kustoAttribute),
                 AdminProvider = isControlCommand ? this.GetAdminClient(kustoAttribute) : null,
                 ResolvedAttribute = kustoAttribute,
-                IsControlCommand = isControlCommand
+                IsControlCommand = isControlCommand,
+                QueryPlan = KustoQueryPlan.Get(kustoAttribute),
+                QueryLimiter = this.GetQueryLimiter(kustoAttribute.Connection),
+                QueryTimeout = this.ExtensionOptions.ForConnection(kustoAttribute.Connection).QueryTimeout,
             };
         }
 
+        internal KustoConcurrencyLimiter GetQueryLimiter(string connection)
+        {
+            return this.QueryLimiters.GetOrAdd(string.IsNullOrEmpty(connection) ? DefaultConnectionStringName : connection,
+                (c) => this.CreateLimiter(c, "query", this.ExtensionOptions.ForConnection(c).MaxConcurrentQueries.Value));
+        }
+
+        internal KustoConcurrencyLimiter GetIngestLimiter(string connection)
+        {
+            return this.IngestLimiters.GetOrAdd(string.IsNullOrEmpty(connection) ? DefaultConnectionStringName : connection,
+                (c) => this.CreateLimiter(c, "ingest", this.ExtensionOptions.ForConnection(c).MaxConcurrentIngestions.Value));
+        }
+
+        private KustoConcurrencyLimiter CreateLimiter(string connection, string operation, int maxConcurrency)
+        {
+            KustoConnectionOptions connectionOptions = this.ExtensionOptions.ForConnection(connection);
+            return new KustoConcurrencyLimiter(connection, operation, maxConcurrency, connectionOptions.AdaptiveConcurrency.Value, connectionOptions.MaxQueuedRequests.Value, this._logger);
+        }
+
+        internal KustoQueryResultCache GetQueryResultCache(KustoAttribute kustoAttribute)
+        {
+            int maxEntries = kustoAttribute.CacheMaxEntries > 0 ? kustoAttribute.CacheMaxEntries : DefaultCacheMaxEntries;
+            return this.QueryResultCaches.GetOrAdd(maxEntries, (m) => new KustoQueryResultCache(m));
+        }
+
+        /// <summary>
+        /// The router of the queries of the binding over its read replicas, null when the binding has no ReadConnections
+        /// </summary>
+        internal KustoReadRouter GetReadRouter(KustoAttribute kustoAttribute)
+        {
+            string[] readConnections = SplitReadConnections(kustoAttribute.ReadConnections);
+            if (readConnections.Length == 0)
+            {
+                return null;
+            }
+            string routerKey = string.Join(",", readConnections) + "\n" + kustoAttribute.ManagedServiceIdentity;
+            return this.ReadRouters.GetOrAdd(routerKey, (k) => new KustoReadRouter(
+                readConnections.Select(readConnection => new KeyValuePair<string, ICslQueryProvider>(readConnection, this.GetQueryClient(kustoAttribute, readConnection))).ToList(), this._logger));
+        }
+
+        internal static string[] SplitReadConnections(string readConnections)
+        {
+            return string.IsNullOrWhiteSpace(readConnections) ? Array.Empty<string>() :
+                readConnections.Split(',').Select(readConnection => readConnection.Trim()).Where(readConnection => readConnection.Length > 0).Distinct(StringComparer.OrdinalIgnoreCase).ToArray();
+        }
+
         internal ICslQueryProvider GetQueryClient(KustoAttribute kustoAttribute)
         {
-            string connection = string.IsNullOrEmpty(kustoAttribute.Connection) ? DefaultConnectionStringName : kustoAttribute.Connection;
+            return this.GetQueryClient(kustoAttribute, kustoAttribute.Connection);
+        }
+
+        /// <summary>
+        /// The query client of the connection with the identity of the binding, the connection is either the connection of the binding or one of its read connections
+        /// </summary>
+        internal ICslQueryProvider GetQueryClient(KustoAttribute kustoAttribute, string queryConnection)
+        {
+            string connection = string.IsNullOrEmpty(queryConnection) ? DefaultConnectionStringName : queryConnection;
             string engineConnectionString = this.GetSetting(connection);
             string functionRuntime = this.GetSetting(FunctionsRuntimeHostKey);
             try
             {
                 if (string.IsNullOrEmpty(engineConnectionString))
                 {
-                    throw new ArgumentNullException(engineConnectionString, $"Parameter {kustoAttribute.Connection} should be passed as an environment variable. This value resolved to null");
+                    throw new ArgumentNullException(engineConnectionString, $"Parameter {connection} should be passed as an environment variable. This value resolved to null");
                 }
                 string cacheKey = BuildCacheKey(engineConnectionString);
                 return this.QueryClientCache.GetOrAdd(cacheKey, (c) => this._kustoClientFactory.QueryProviderFactory(engineConnectionString, kustoAttribute.ManagedServiceIdentity, functionRuntime, this._logger));
@@ -206,6 +427,17 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
         {
             return $"C-{connectionString.GetHashCode()}";
         }
+
+        /// <summary>
+        /// Stops the background work of the extension when the host shuts down: the ingestions of the batches, the status tracking and the
+        /// drainer of the spill log, whose rows are ingested when the host starts again
+        /// </summary>
+        public void Dispose()
+        {
+            this.IngestBatcher.Dispose();
+            this.IngestionStatusTracker.Dispose();
+            this.SpillLog?.Dispose();
+        }
     }
     /// <summary>
     /// Wrapper around OpenType to receive data correctly from output bindings (not as byte[])
@@ -0,0 +1,153 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using Microsoft.Azure.WebJobs.Extensions.Kusto;
+using Microsoft.Azure.WebJobs.Hosting;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+
+namespace Microsoft.Azure.WebJobs.Kusto
+{
+    /// <summary>
+    /// Options of the Kusto extension, bound from the extensions.kusto section of host.json
+    /// </summary>
+    public class KustoOptions : IOptionsFormatter
+    {
+        /// <summary>
+        /// Creates the clients of the bindings in the background while the functions are indexed, instead of on their first invocation
+        /// </summary>
+        public bool WarmupClients { get; set; }
+
+        /// <summary>
+        /// The maximum number of queries a host runs at the same time against a connection, further queries wait for a slot. 0 (the default) does not limit queries
+        /// </summary>
+        public int MaxConcurrentQueries { get; set; }
+
+        /// <summary>
+        /// The maximum number of ingestions a host runs at the same time against a connection, further ingestions wait for a slot. 0 (the default) does not limit ingestions
+        /// </summary>
+        public int MaxConcurrentIngestions { get; set; }
+
+        /// <summary>
+        /// Adapts the concurrency against each connection to the load of the cluster: it is halved when the cluster throttles a request or
+        /// requests slow down sharply, and grows back by about one request per round of successful requests up to MaxConcurrentQueries and
+        /// MaxConcurrentIngestions (64 when they are 0)
+        /// </summary>
+        public bool AdaptiveConcurrency { get; set; }
+
+        /// <summary>
+        /// The maximum number of requests that wait for a slot of a connection, further requests fail right away. 0 (the default) does not bound the wait queue
+        /// </summary>
+        public int MaxQueuedRequests { get; set; }
+
+        /// <summary>
+        /// The server timeout of queries and control commands, unless the binding sets servertimeout in its ClientRequestProperties. Defaults to the timeout of the Kusto client
+        /// </summary>
+        public TimeSpan? QueryTimeout { get; set; }
+
+        /// <summary>
+        /// The number of times queued ingestion retries to upload the data and post the ingestion message
+        /// </summary>
+        public int QueuedIngestMaxRetries { get; set; } = 3;
+
+        /// <summary>
+        /// The size of the payloads above which bindings whose IngestionType is auto use queued ingestion instead of streaming. Defaults to 4 MiB, the streaming limit
+        /// </summary>
+        public long StreamingMaxBytes { get; set; } = KustoConstants.DefaultStreamingMaxBytes;
+
+        /// <summary>
+        /// The bytes ingested into a table per second, over the last 10 seconds, above which bindings whose IngestionType is auto use queued ingestion for the table.
+        /// Defaults to 1 MiB. 0 routes by the size of the payloads only
+        /// </summary>
+        public long StreamingMaxBytesPerSecond { get; set; } = KustoConstants.DefaultStreamingMaxBytesPerSecond;
+
+        /// <summary>
+        /// The size of the serialized rows of a flush above which they are split on row boundaries into chunks of at most about this size, ingested in parallel.
+        /// 0 (the default) ingests every flush as a single payload
+        /// </summary>
+        public long IngestChunkBytes { get; set; }
+
+        /// <summary>
+        /// The time the chunks of a flush have to be ingested in, together. Defaults to 5 minutes
+        /// </summary>
+        public TimeSpan IngestChunkTimeout { get; set; } = TimeSpan.FromMinutes(5);
+
+        /// <summary>
+        /// A local directory output bindings write their rows to instead of ingesting them, the rows are ingested from there in the background.
+        /// Invocations then complete once the rows are on disk, whether the cluster is available or not. The directory must not be shared with other hosts.
+        /// Null (the default) ingests the rows during the invocation
+        /// </summary>
+        public string SpillDirectory { get; set; }
+
+        /// <summary>
+        /// The size of the spilled rows not ingested yet above which flushes are ingested during the invocation again. Defaults to 1 GiB
+        /// </summary>
+        public long SpillMaxBytes { get; set; } = 1024L * 1024 * 1024;
+
+        /// <summary>
+        /// The size of the files of the spill directory. A flush larger than this gets a file of its own. Defaults to 16 MiB
+        /// </summary>
+        public long SpillSegmentBytes { get; set; } = 16 * 1024 * 1024;
+
+        /// <summary>
+        /// The app setting name of the connection string of the storage account the watermarks of the Kusto triggers are kept in. Defaults to AzureWebJobsStorage
+        /// </summary>
+        public string TriggerStorageConnection { get; set; } = KustoConstants.DefaultTriggerStorageConnection;
+
+        /// <summary>
+        /// Overrides of the options for individual connections, by the name of the connection setting (e.g. KustoConnectionString)
+        /// </summary>
+        public IDictionary<string, KustoConnectionOptions> Connections { get; } = new Dictionary<string, KustoConnectionOptions>(StringComparer.OrdinalIgnoreCase);
+
+        /// <summary>
+        /// Returns the options of the connection, with the overrides of the connection applied to the options of the extension
+        /// </summary>
+        internal KustoConnectionOptions ForConnection(string connection)
+        {
+            this.Connections.TryGetValue(string.IsNullOrEmpty(connection) ? KustoConstants.DefaultConnectionStringName : connection, out KustoConnectionOptions overrides);
+            return new KustoConnectionOptions
+            {
+                MaxConcurrentQueries = overrides?.MaxConcurrentQueries ?? this.MaxConcurrentQueries,
+                MaxConcurrentIngestions = overrides?.MaxConcurrentIngestions ?? this.MaxConcurrentIngestions,
+                AdaptiveConcurrency = overrides?.AdaptiveConcurrency ?? this.AdaptiveConcurrency,
+                MaxQueuedRequests = overrides?.MaxQueuedRequests ?? this.MaxQueuedRequests,
+                QueryTimeout = overrides?.QueryTimeout ?? this.QueryTimeout,
+                QueuedIngestMaxRetries = overrides?.QueuedIngestMaxRetries ?? this.QueuedIngestMaxRetries,
+            };
+        }
+
+        /// <summary>
+        /// Formats the options for the host log
+        /// </summary>
+        public string Format()
+        {
+            var connections = new JObject();
+            foreach (KeyValuePair<string, KustoConnectionOptions> connection in this.Connections)
+            {
+                connections[connection.Key] = JObject.FromObject(connection.Value);
+            }
+            var options = new JObject
+            {
+                { nameof(this.WarmupClients), this.WarmupClients },
+                { nameof(this.MaxConcurrentQueries), this.MaxConcurrentQueries },
+                { nameof(this.MaxConcurrentIngestions), this.MaxConcurrentIngestions },
+                { nameof(this.AdaptiveConcurrency), this.AdaptiveConcurrency },
+                { nameof(this.MaxQueuedRequests), this.MaxQueuedRequests },
+                { nameof(this.QueryTimeout), this.QueryTimeout?.ToString() },
+                { nameof(this.QueuedIngestMaxRetries), this.QueuedIngestMaxRetries },
+                { nameof(this.StreamingMaxBytes), this.StreamingMaxBytes },
+                { nameof(this.StreamingMaxBytesPerSecond), this.StreamingMaxBytesPerSecond },
+                { nameof(this.IngestChunkBytes), this.IngestChunkBytes },
+                { nameof(this.IngestChunkTimeout), this.IngestChunkTimeout.ToString() },
+                { nameof(this.SpillDirectory), this.SpillDirectory },
+                { nameof(this.SpillMaxBytes), this.SpillMaxBytes },
+                { nameof(this.SpillSegmentBytes), this.SpillSegmentBytes },
+                { nameof(this.TriggerStorageConnection), this.TriggerStorageConnection },
+                { nameof(this.Connections), connections },
+            };
+            return options.ToString(Formatting.Indented);
+        }
+    }
+}
\ No newline at end of file
@@ -57,18 +57,74 @@ namespace Microsoft.Azure.WebJobs.Kusto
         public string DataFormat { get; set; }
 
         /// <summary>
-        /// The ingestion client to use. Supports managed,queued clients
+        /// The ingestion client to use. Supports managed,queued clients, and auto which picks one of them for every payload by its size and the recent
+        /// ingestion rate of the table (see the StreamingMaxBytes and StreamingMaxBytesPerSecond host options)
         /// </summary>
         [AutoResolve]
         public string IngestionType { get; set; } = "managed";
 
 
         /// <summary>
-        /// The ingestion properties (@flushImmediately=false,@pollIntervalSeconds=15,@pollTimeoutMinutes=5)
+        /// The ingestion properties (@flushImmediately=false,@pollIntervalSeconds=15,@pollTimeoutMinutes=5,@trackingMode=background)
         /// </summary>
         [AutoResolve]
         public string IngestionProperties { get; set; }
 
+        /// <summary>
+        /// Enables batching across invocations when greater than 0. Rows flushed by invocations that write to the same connection, database,
+        /// table, format and mapping are buffered in the host and ingested together once this many rows are buffered
+        /// </summary>
+        public int BatchMaxRows { get; set; }
+
+        /// <summary>
+        /// Enables batching across invocations when greater than 0. The buffered rows are ingested once their serialized size reaches this many bytes
+        /// </summary>
+        public int BatchMaxBytes { get; set; }
+
+        /// <summary>
+        /// Enables batching across invocations when greater than 0. The buffered rows are ingested at the latest this many milliseconds after the first row was buffered
+        /// </summary>
+        public int BatchMaxLatencyMs { get; set; }
+
+        /// <summary>
+        /// Compression of the payloads sent to the cluster: none (the default), gzip, or auto which compresses payloads of 64 KB and more.
+        /// The rows are compressed with gzip before they are streamed or uploaded, and ingested as compressed data
+        /// </summary>
+        public string Compression { get; set; }
+
+        /// <summary>
+        /// Enables sharded ingestion when set. Comma separated targets the rows are spread over, each either Connection/Database (the app setting name
+        /// of a connection string and a database) or a Database on <see cref="Connection"/> (Cluster1/Sales,Cluster2/Sales). The rows of a flush are split
+        /// by <see cref="ShardKey"/> and the shards are ingested in parallel into the TableName of their target
+        /// </summary>
+        public string ShardTargets { get; set; }
+
+        /// <summary>
+        /// The field of the rows whose value picks the shard target, e.g. ProductID
+        /// </summary>
+        public string ShardKey { get; set; }
+
+        /// <summary>
+        /// Comma separated ascending boundaries for range sharding, one less than the number of <see cref="ShardTargets"/>. A row goes to the first target whose
+        /// boundary is above its key, or to the last target. Numeric keys are compared as numbers, other keys by their text. Without boundaries the rows are spread by a hash of the key
+        /// </summary>
+        public string ShardBoundaries { get; set; }
+
+        /// <summary>
+        /// Scopes the identity of the rows of <see cref="IngestIdentityKey"/>, which it needs. An identity of the invocation resolved from the trigger metadata,
+        /// e.g. {PartitionContext.PartitionId}, for keys that are only unique within it
+        /// </summary>
+        [AutoResolve]
+        public string IngestIdentity { get; set; }
+
+        /// <summary>
+        /// Makes the ingestion of the rows of an invocation idempotent when set. The field of the rows, e.g. SequenceNumber, whose values identify the rows
+        /// along with <see cref="IngestIdentity"/>. The SourceId of the rows is derived from them instead of being random, and is used as ingest-by and
+        /// ingestIfNotExists tag, so that the cluster skips the rows of a replayed invocation it already ingested. Needs <see cref="IngestionType"/> queued,
+        /// streaming ingestion ignores the tag
+        /// </summary>
+        public string IngestIdentityKey { get; set; }
+
         /// <summary>
         /// In case of Input binding, the KqlCommand a.k.a KQL to execute
         /// </summary>
@@ -88,6 +144,42 @@ namespace Microsoft.Azure.WebJobs.Kusto
         [AutoResolve]
         public string ClientRequestProperties { get; set; }
 
+        /// <summary>
+        /// Enables caching of the query results when greater than 0. Invocations that resolve to the same connection, database, command,
+        /// parameters and client request properties share the result for this many seconds, concurrent identical queries are executed once
+        /// </summary>
+        public int CacheTtlSeconds { get; set; }
+
+        /// <summary>
+        /// The maximum number of cached query results, the least recently used results are evicted first. Defaults to 1000 when caching is enabled
+        /// </summary>
+        public int CacheMaxEntries { get; set; }
+
+        /// <summary>
+        /// Comma separated names for the result tables of a multi statement KqlCommand (name1,name2). When set the binding returns a JSON object
+        /// with the records of each result table under its name, so that several lookups are resolved with a single request. Applies to string and JObject bindings
+        /// </summary>
+        public string ResultTableNames { get; set; }
+
+        /// <summary>
+        /// The format of the result for string bindings, json (the default, an array of records), csv (a header line and a line per record) or
+        /// columnar (a JSON object with the column names and types and an array of values per column). Other bindings only support json
+        /// </summary>
+        public string ResultFormat { get; set; }
+
+        /// <summary>
+        /// Comma separated app setting names of the connection strings of read replicas (follower clusters) of the database (Replica1,Replica2).
+        /// When set the queries of the input binding go to the replica with the lowest expected wait, measured from the latency and the outstanding
+        /// queries of each replica. Control commands and output bindings keep using <see cref="Connection"/>
+        /// </summary>
+        public string ReadConnections { get; set; }
+
+        /// <summary>
+        /// Hedges the queries of input bindings that use <see cref="ReadConnections"/> when between 1 and 99. A query that did not complete within this
+        /// percentile of the recent latencies of its replica is sent to the next best replica as well, the first result is used and the other query cancelled
+        /// </summary>
+        public int HedgeAfterPercentile { get; set; }
+
         [SuppressMessage("Microsoft.Performance", "CA1811:AvoidUncalledPrivateCode")]
         private string DebuggerDisplay
         {
@@ -105,6 +197,28 @@ namespace Microsoft.Azure.WebJobs.Kusto
         /// </summary>
         public string Connection { get; set; }
 
+        /// <summary>
+        /// A copy of the attribute that ingests into a single shard target
+        /// </summary>
+        internal KustoAttribute ForShardTarget(string connection, string database)
+        {
+            var shardAttribute = (KustoAttribute)this.MemberwiseClone();
+            shardAttribute.Connection = connection;
+            shardAttribute.Database = database;
+            shardAttribute.ShardTargets = null;
+            return shardAttribute;
+        }
+
+        /// <summary>
+        /// The attribute of the same binding ingesting with another ingestion type, for the queued route of bindings whose IngestionType is auto
+        /// </summary>
+        internal KustoAttribute ForIngestionType(string ingestionType)
+        {
+            var routedAttribute = (KustoAttribute)this.MemberwiseClone();
+            routedAttribute.IngestionType = ingestionType;
+            return routedAttribute;
+        }
+
         private static string AssignValue(string value, string keyName)
         {
             if (string.IsNullOrEmpty(value))
@@ -22,6 +22,34 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
         public const string InputBindingType = "InputBinding";
         public const string OutputBindingType = "OutputBinding";
         public const string FunctionsRuntimeHostKey = "FUNCTIONS_WORKER_RUNTIME";
+        // Defaults used for cross invocation batching when only some of the limits are specified. 4 MB is the streaming ingestion limit
+        public const int DefaultBatchMaxBytes = 4 * 1024 * 1024;
+        public const int DefaultBatchMaxLatencyMs = 1000;
+        // Ingestion types of output bindings. Auto picks managed (streaming) or queued ingestion for every payload
+        public const string IngestionTypeQueued = "queued";
+        public const string IngestionTypeAuto = "auto";
+        // Streaming ingestion accepts payloads up to 4 MB, and is meant for tables that receive less than about 4 GB an hour
+        public const long DefaultStreamingMaxBytes = 4 * 1024 * 1024;
+        public const long DefaultStreamingMaxBytesPerSecond = 1024 * 1024;
+        // Compression of ingestion payloads. Auto compresses the payloads of at least DefaultCompressionThresholdBytes, below that gzip saves little
+        public const string CompressionNone = "none";
+        public const string CompressionGzip = "gzip";
+        public const string CompressionAuto = "auto";
+        public const int DefaultCompressionThresholdBytes = 64 * 1024;
+        // Size of the query result cache when the binding enables caching without setting CacheMaxEntries
+        public const int DefaultCacheMaxEntries = 1000;
+        // Upper bound of the concurrency of adaptive limiters when the options set no maximum
+        public const int DefaultAdaptiveMaxConcurrency = 64;
+        // Defaults of the trigger. Its watermarks are leased blobs in a container of the storage account of the host
+        public const int DefaultTriggerMaxBatchSize = 100;
+        public const int DefaultTriggerPollingIntervalMs = 5000;
+        public const int DefaultTriggerMaxAttempts = 5;
+        public const string DefaultTriggerStorageConnection = "AzureWebJobsStorage";
+        public const string TriggerWatermarkContainer = "azure-webjobs-kusto";
+        // Result formats of string input bindings
+        public const string ResultFormatJson = "json";
+        public const string ResultFormatCsv = "csv";
+        public const string ResultFormatColumnar = "columnar";
         public static readonly string AssemblyVersion = Assembly.GetExecutingAssembly().GetName().Version.ToString();
         public static readonly string ClientDetailForTracing = $"{AzFunctionsClientName}:{AssemblyVersion}";
         public static readonly string ClientRequestId = $"AzFunctions.InputBinding;{AssemblyVersion}";
@@ -0,0 +1,74 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using Microsoft.Azure.WebJobs.Description;
+
+namespace Microsoft.Azure.WebJobs.Kusto
+{
+    /// <summary>
+    /// Setup a trigger on the rows ingested into a Kusto table. The host polls the table for the rows ingested after the watermark of the function,
+    /// a database cursor kept in the storage account of the host, and invokes the function with the new rows in batches of at most
+    /// <see cref="MaxBatchSize"/> rows. The watermark moves once every batch of a page was processed, rows are delivered at least once and
+    /// skipped after <see cref="MaxAttempts"/> failed invocations
+    /// </summary>
+    [AttributeUsage(AttributeTargets.Parameter)]
+    [Binding]
+    public sealed class KustoTriggerAttribute : Attribute
+    {
+        /// <summary>Initializes a new instance of the <see cref="KustoTriggerAttribute"/> class.</summary>
+        /// <param name="Database">The name of the Database</param>
+        /// <param name="TableName">The name of the table whose new rows trigger the function</param>
+        public KustoTriggerAttribute(string Database, string TableName)
+        {
+            this.Database = string.IsNullOrEmpty(Database) ? throw new ArgumentNullException(nameof(Database)) : Database;
+            this.TableName = string.IsNullOrEmpty(TableName) ? throw new ArgumentNullException(nameof(TableName)) : TableName;
+        }
+
+        /// <summary>
+        /// The database name to use
+        /// </summary>
+        public string Database { get; private set; }
+
+        /// <summary>
+        /// The name of the table whose new rows trigger the function. The table needs the IngestionTime policy, which is enabled by default
+        /// </summary>
+        public string TableName { get; private set; }
+
+        /// <summary>
+        /// Gets or sets the app setting name that contains the Kusto connection string
+        /// </summary>
+        public string Connection { get; set; }
+
+        /// <summary>
+        /// An option to set the ManagedServiceIdentity option. If set to "system" will use SystemManagedIdentity else use UserManagedIdentity
+        /// </summary>
+        public string ManagedServiceIdentity { get; set; }
+
+        /// <summary>
+        /// Optional KQL operators applied to the new rows before they are read, starting with a pipe (| where Level == 'Error' | project Timestamp, Message)
+        /// </summary>
+        public string Query { get; set; }
+
+        /// <summary>
+        /// The maximum number of rows the function is invoked with. Defaults to 100
+        /// </summary>
+        public int MaxBatchSize { get; set; }
+
+        /// <summary>
+        /// The time between two polls of the table for new rows, in milliseconds. Defaults to 5000
+        /// </summary>
+        public int PollingIntervalMs { get; set; }
+
+        /// <summary>
+        /// The number of times the function is invoked with a page of rows before the page is logged and skipped, so that rows the function
+        /// cannot process do not stop the trigger. Defaults to 5
+        /// </summary>
+        public int MaxAttempts { get; set; }
+
+        /// <summary>
+        /// Whether a function without a watermark processes the rows the table already has. By default it starts with the rows ingested after its first poll
+        /// </summary>
+        public bool StartFromBeginning { get; set; }
+    }
+}
\ No newline at end of file
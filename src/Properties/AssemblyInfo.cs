@@ -3,4 +3,5 @@
 
 using System.Runtime.CompilerServices;
 
-[assembly: InternalsVisibleTo("Microsoft.Azure.WebJobs.Extensions.Kusto.Tests, PublicKey=0024000004800000940000000602000000240000525341310004000001000100f5751ffa9aef60d557cb991587e887f4e222d9d897cbda7ac845a1c8179c2db082f4694ce542116fe4539ec7884a1faaf77a891657c8ca7614ef2ca92f0bea0b0c0acc4edf0f0eede9ee4b9f233aea37a470662cc954d5c681a3685c2a510dbf9d9d28e6c8a0d00e33469a875abdd0b2e5f4dcf7a80e1422d0fed40bc59478b2")]
\ No newline at end of file
+[assembly: InternalsVisibleTo("Microsoft.Azure.WebJobs.Extensions.Kusto.Tests, PublicKey=0024000004800000940000000602000000240000525341310004000001000100f5751ffa9aef60d557cb991587e887f4e222d9d897cbda7ac845a1c8179c2db082f4694ce542116fe4539ec7884a1faaf77a891657c8ca7614ef2ca92f0bea0b0c0acc4edf0f0eede9ee4b9f233aea37a470662cc954d5c681a3685c2a510dbf9d9d28e6c8a0d00e33469a875abdd0b2e5f4dcf7a80e1422d0fed40bc59478b2")]
+[assembly: InternalsVisibleTo("Microsoft.Azure.WebJobs.Extensions.Kusto.Benchmarks, PublicKey=0024000004800000940000000602000000240000525341310004000001000100f5751ffa9aef60d557cb991587e887f4e222d9d897cbda7ac845a1c8179c2db082f4694ce542116fe4539ec7884a1faaf77a891657c8ca7614ef2ca92f0bea0b0c0acc4edf0f0eede9ee4b9f233aea37a470662cc954d5c681a3685c2a510dbf9d9d28e6c8a0d00e33469a875abdd0b2e5f4dcf7a80e1422d0fed40bc59478b2")]
\ No newline at end of file
@@ -1,8 +1,13 @@
 ﻿// Copyright (c) Microsoft Corporation. All rights reserved.
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
 using System.Diagnostics;
 using System.Linq;
+using Azure.Core;
+using Azure.Identity;
 using Kusto.Cloud.Platform.Utils;
 using Kusto.Data;
 using Kusto.Data.Common;
@@ -20,43 +25,69 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
     /// </summary>
     internal interface IKustoClientFactory
     {
-        IKustoIngestClient IngestClientFactory(string engineConnectionString, string managedIdentity, string runtimeName, string ingestionType, ILogger logger);
+        IKustoIngestClient IngestClientFactory(string engineConnectionString, string managedIdentity, string runtimeName, string ingestionType, int queuedIngestMaxRetries, ILogger logger);
         ICslQueryProvider QueryProviderFactory(string engineConnectionString, string managedIdentity, string runtimeName, ILogger logger);
         ICslAdminProvider AdminProviderFactory(string engineConnectionString, string managedIdentity, string runtimeName, ILogger logger);
     }
     internal class KustoClient : IKustoClientFactory
     {
+        // Managed identity credentials by identity, shared by the query, admin and ingest clients so that a token is acquired once per identity
+        // and not once per client
+        private readonly ConcurrentDictionary<string, TokenCredential> _credentials = new ConcurrentDictionary<string, TokenCredential>(StringComparer.OrdinalIgnoreCase);
+
         /// <summary>
         /// Given the engine connection string, return a kusto ingest client
         /// </summary>
         /// <param name="engineConnectionString">The engine connection string. The ingest URL will be derieved from this for the managed ingest</param>
         /// <param name="managedIdentity">MSI string to use Managed service identity</param>
         /// <param name="ingestionType">Ingestion type, managed or queued </param>
+        /// <param name="queuedIngestMaxRetries">The number of times queued ingestion retries to upload the data and post the ingestion message</param>
         /// <param name="logger">The logger to use to log the statements</param> 
         /// <returns>A managed ingest client. Attempts ingestion through streaming and then fallsback to Queued ingest mode</returns>
-        public IKustoIngestClient IngestClientFactory(string engineConnectionString, string managedIdentity, string runtimeName, string ingestionType, ILogger logger)
+        public IKustoIngestClient IngestClientFactory(string engineConnectionString, string managedIdentity, string runtimeName, string ingestionType, int queuedIngestMaxRetries, ILogger logger)
         {
-            KustoConnectionStringBuilder engineKcsb = GetKustoConnectionString(engineConnectionString, managedIdentity, runtimeName, OutputBindingType, logger);
+            KustoConnectionStringBuilder engineKcsb = this.GetKustoConnectionString(engineConnectionString, managedIdentity, runtimeName, OutputBindingType, logger);
             /*
                 We expect minimal input from the user.The end user can just pass a connection string, we need to decipher the DM
                 ingest endpoint as well from this. Both the engine and DM endpoint are needed for the managed ingest to happen
              */
             string dmConnectionStringEndpoint = engineKcsb.Hostname.Contains(IngestPrefix) ? engineConnectionString : engineConnectionString.ReplaceFirstOccurrence(ProtocolSuffix, ProtocolSuffix + IngestPrefix);
-            KustoConnectionStringBuilder dmKcsb = GetKustoConnectionString(dmConnectionStringEndpoint, managedIdentity, runtimeName, OutputBindingType, logger);
+            KustoConnectionStringBuilder dmKcsb = this.GetKustoConnectionString(dmConnectionStringEndpoint, managedIdentity, runtimeName, OutputBindingType, logger);
             // Measure the time it takes for a connection
             var ingestClientInitialize = new Stopwatch();
             ingestClientInitialize.Start();
             // Create a managed ingest connection or a queued ingest
-            IKustoIngestClient ingestClient = "queued".EqualsOrdinalIgnoreCase(ingestionType)
-                ? GetQueuedIngestClient(dmKcsb)
-                : GetManagedStreamingClient(engineKcsb, dmKcsb);
+            IKustoIngestClient ingestClient = RecordCreation("ingest", () => "queued".EqualsOrdinalIgnoreCase(ingestionType)
+                ? GetQueuedIngestClient(dmKcsb, queuedIngestMaxRetries)
+                : GetManagedStreamingClient(engineKcsb, dmKcsb));
             ingestClientInitialize.Stop();
             logger.LogDebug($"Initializing ingest client with the connection string : {KustoBindingUtils.ToSecureString(engineConnectionString)}  took {ingestClientInitialize.ElapsedMilliseconds} milliseconds. IngestionType : {ingestionType}");
             return ingestClient;
         }
-        private static IKustoIngestClient GetQueuedIngestClient(KustoConnectionStringBuilder dmKcsb)
+        /// <summary>
+        /// Creates the client, recording the creation time and the failures by exception type
+        /// </summary>
+        private static TClient RecordCreation<TClient>(string client, Func<TClient> createClient)
+        {
+            long startTimestamp = Stopwatch.GetTimestamp();
+            try
+            {
+                TClient kustoClient = createClient();
+                KustoMetrics.ClientCreationTime.Record(KustoMetrics.ElapsedMilliseconds(startTimestamp), KustoMetrics.ClientTags(client, "success"));
+                return kustoClient;
+            }
+            catch (Exception e)
+            {
+                KeyValuePair<string, object>[] failureTags = KustoMetrics.ClientTags(client, e.GetType().Name);
+                KustoMetrics.ClientCreationTime.Record(KustoMetrics.ElapsedMilliseconds(startTimestamp), failureTags);
+                KustoMetrics.ClientCreationFailures.Add(1, failureTags);
+                throw;
+            }
+        }
+
+        private static IKustoIngestClient GetQueuedIngestClient(KustoConnectionStringBuilder dmKcsb, int maxRetries)
         {
-            return KustoIngestFactory.CreateQueuedIngestClient(dmKcsb, new QueueOptions { MaxRetries = 3 });
+            return KustoIngestFactory.CreateQueuedIngestClient(dmKcsb, new QueueOptions { MaxRetries = maxRetries });
         }
 
         private static IKustoIngestClient GetManagedStreamingClient(KustoConnectionStringBuilder engineKcsb, KustoConnectionStringBuilder dmKcsb)
@@ -77,11 +108,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
 
         public ICslQueryProvider QueryProviderFactory(string engineConnectionString, string managedIdentity, string runtimeName, ILogger logger)
         {
-            KustoConnectionStringBuilder engineKcsb = GetKustoConnectionString(engineConnectionString, managedIdentity, runtimeName, InputBindingType, logger);
+            KustoConnectionStringBuilder engineKcsb = this.GetKustoConnectionString(engineConnectionString, managedIdentity, runtimeName, InputBindingType, logger);
             var timer = new Stopwatch();
             timer.Start();
             // Create a query client connection. This is needed in cases to debug any connection issues
-            ICslQueryProvider queryProvider = KustoClientFactory.CreateCslQueryProvider(engineKcsb);
+            ICslQueryProvider queryProvider = RecordCreation("query", () => KustoClientFactory.CreateCslQueryProvider(engineKcsb));
             timer.Stop();
             logger.LogDebug($"Initializing query client with the connection string : {KustoBindingUtils.ToSecureString(engineConnectionString)}  took {timer.ElapsedMilliseconds} milliseconds");
             return queryProvider;
@@ -97,17 +128,17 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
         /// <returns>An admin client to run admin commands</returns>
         public ICslAdminProvider AdminProviderFactory(string engineConnectionString, string managedIdentity, string runtimeName, ILogger logger)
         {
-            KustoConnectionStringBuilder engineKcsb = GetKustoConnectionString(engineConnectionString, managedIdentity, runtimeName, InputBindingType, logger);
+            KustoConnectionStringBuilder engineKcsb = this.GetKustoConnectionString(engineConnectionString, managedIdentity, runtimeName, InputBindingType, logger);
             var timer = new Stopwatch();
             timer.Start();
             // Create a query client connection. This is needed in cases to debug any connection issues
-            ICslAdminProvider adminQueryProvider = KustoClientFactory.CreateCslAdminProvider(engineKcsb);
+            ICslAdminProvider adminQueryProvider = RecordCreation("admin", () => KustoClientFactory.CreateCslAdminProvider(engineKcsb));
             timer.Stop();
             logger.LogDebug($"Initializing admin query client with the connection string : {KustoBindingUtils.ToSecureString(engineConnectionString)}  took {timer.ElapsedMilliseconds} milliseconds");
             return adminQueryProvider;
         }
 
-        private static KustoConnectionStringBuilder GetKustoConnectionString(string connectionString, string managedIdentity, string runtimeName, string bindingDirection, ILogger logger)
+        private KustoConnectionStringBuilder GetKustoConnectionString(string connectionString, string managedIdentity, string runtimeName, string bindingDirection, ILogger logger)
         {
             KustoConnectionStringBuilder.DefaultPreventAccessToLocalSecretsViaKeywords = false;
             var kcsb = new KustoConnectionStringBuilder(connectionString)
@@ -124,13 +155,13 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
                 {
                     logger.LogDebug($"Using system managed user identity : {managedIdentity}");
                     AdditionalOptions[ManagedIdentity] = SystemManagedIdentity;
-                    kcsb = kcsb.WithAadSystemManagedIdentity();
+                    kcsb = kcsb.WithAadAzureTokenCredentialsAuthentication(this._credentials.GetOrAdd(managedIdentity, _ => new ManagedIdentityCredential()));
                 }
                 else
                 {
                     logger.LogDebug($"Using user managed identity : {managedIdentity}");
                     AdditionalOptions[ManagedIdentity] = UserManagedIdentity;
-                    kcsb = kcsb.WithAadUserManagedIdentity(managedIdentity);
+                    kcsb = kcsb.WithAadAzureTokenCredentialsAuthentication(this._credentials.GetOrAdd(managedIdentity, clientId => new ManagedIdentityCredential(clientId)));
                 }
             }
             kcsb.SetConnectorDetails(name: AzFunctionsClientName, version: AssemblyVersion, additional: AdditionalOptions.Select(kv => (kv.Key, kv.Value)).ToArray(), sendUser: true);
@@ -2,10 +2,13 @@
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
 using System;
+using System.Collections.Generic;
+using System.Diagnostics;
 using System.Globalization;
 using System.IO;
 using System.Threading;
 using System.Threading.Tasks;
+using Kusto.Cloud.Platform.Utils;
 using Kusto.Data.Common;
 using Kusto.Ingest;
 using Microsoft.Azure.WebJobs.Kusto;
@@ -19,9 +22,81 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
     /// </summary>
     internal abstract class IKustoIngestionService
     {
-        public abstract Task<IngestionStatus> IngestData(DataSourceFormat dataFormat, Stream dataToIngest, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken);
+        protected IKustoIngestionService(KustoIngestContext ingestionContext, ILogger logger)
+        {
+            this.IngestionContext = ingestionContext;
+            this.Logger = logger;
+        }
+
+        protected KustoIngestContext IngestionContext { get; }
 
-        public static KustoIngestionProperties GetKustoIngestionProperties(DataSourceFormat dataFormat, KustoAttribute resolvedAttribute, bool isQueuedIngestion = false)
+        protected ILogger Logger { get; }
+
+        /// <summary>
+        /// Ingests the payload in a span tagged with its SourceId, and records the rows, bytes and duration of the ingestion
+        /// </summary>
+        /// <param name="rowCount">The number of rows in the payload</param>
+        public async Task<IngestionStatus> IngestData(DataSourceFormat dataFormat, Stream dataToIngest, int rowCount, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken)
+        {
+            KustoAttribute attribute = this.IngestionContext.ResolvedAttribute;
+            // The ingest client disposes the stream once done with it, its size is taken before
+            long byteCount = dataToIngest.CanSeek ? dataToIngest.Length - dataToIngest.Position : 0;
+            using System.Diagnostics.Activity activity = KustoTracing.StartIngestion(attribute, streamSourceOptions.SourceId, rowCount, byteCount);
+            long startTimestamp = Stopwatch.GetTimestamp();
+            string status = "Exception";
+            try
+            {
+                if (dataToIngest.CanSeek && KustoBindingUtilities.ShouldCompress(attribute.Compression, byteCount))
+                {
+                    dataToIngest = KustoBindingUtilities.CompressPayload(dataToIngest);
+                    streamSourceOptions.CompressionType = DataSourceCompressionType.GZip;
+                    activity?.SetTag("kusto.compressed_bytes", dataToIngest.Length);
+                    KustoMetrics.IngestedCompressedBytes.Add(dataToIngest.Length, KustoMetrics.IngestTags(attribute));
+                }
+                IngestionStatus ingestionStatus = await this.IngestDataCoreAsync(dataFormat, dataToIngest, streamSourceOptions, cancellationToken);
+                status = ingestionStatus?.Status.ToString() ?? "Unknown";
+                activity?.SetTag("kusto.ingestion_status", status);
+                if (ingestionStatus != null && ingestionStatus.Status != Status.Failed)
+                {
+                    KeyValuePair<string, object>[] ingestTags = KustoMetrics.IngestTags(attribute);
+                    KustoMetrics.IngestedRows.Add(rowCount, ingestTags);
+                    KustoMetrics.IngestedBytes.Add(byteCount, ingestTags);
+                }
+                return ingestionStatus;
+            }
+            catch (Exception e)
+            {
+                KustoTracing.SetError(activity, e);
+                throw;
+            }
+            finally
+            {
+                KustoMetrics.IngestDuration.Record(KustoMetrics.ElapsedMilliseconds(startTimestamp), KustoMetrics.IngestTags(attribute, status));
+            }
+        }
+
+        protected abstract Task<IngestionStatus> IngestDataCoreAsync(DataSourceFormat dataFormat, Stream dataToIngest, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken);
+
+        /// <summary>
+        /// Creates the ingestion service (queued or managed) based on the IngestionType in the resolved attribute. When it is auto the
+        /// router of the context picks the ingestion type from the size of the payload and the recent ingestion rate of the table
+        /// </summary>
+        /// <param name="payloadBytes">The size of the payload the service ingests</param>
+        public static IKustoIngestionService Create(KustoIngestContext ingestionContext, ILogger logger, long payloadBytes = 0)
+        {
+            if (ingestionContext.QueuedContext != null && ingestionContext.IngestRouter != null &&
+                ingestionContext.IngestRouter.ShouldQueue(ingestionContext.ResolvedAttribute, payloadBytes))
+            {
+                return new KustoQueuedIngestionService(ingestionContext.QueuedContext, logger);
+            }
+            bool isQueuedIngestion = "queued".EqualsOrdinalIgnoreCase(ingestionContext.ResolvedAttribute.IngestionType);
+            return isQueuedIngestion
+                ? new KustoQueuedIngestionService(ingestionContext, logger)
+                : new KustoManagedIngestionService(ingestionContext, logger);
+        }
+
+        /// <param name="sourceId">The SourceId of the payload, it tags the ingested extents when the binding has an ingest identity</param>
+        public static KustoIngestionProperties GetKustoIngestionProperties(DataSourceFormat dataFormat, KustoAttribute resolvedAttribute, bool isQueuedIngestion = false, Guid sourceId = default)
         {
 
             KustoIngestionProperties kustoIngestProperties = isQueuedIngestion
@@ -45,29 +120,42 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
                 };
                 kustoIngestProperties.IngestionMapping = ingestionMapping;
             }
+            if (sourceId != Guid.Empty && KustoIngestIdentity.IsEnabled(resolvedAttribute))
+            {
+                // The SourceId is derived from the identity of the rows, a replay that was already ingested is skipped by the cluster
+                string[] identityTags = new[] { KustoIngestIdentity.GetTag(sourceId) };
+                kustoIngestProperties.IngestByTags = identityTags;
+                kustoIngestProperties.IngestIfNotExists = identityTags;
+            }
             return kustoIngestProperties;
         }
+
+        /// <summary>
+        /// Ingests the stream once the limit of concurrent ingestions into the connection allows it
+        /// </summary>
+        protected static Task<IKustoIngestionResult> IngestFromStreamAsync(KustoIngestContext ingestionContext, Stream dataToIngest, KustoIngestionProperties ingestionProperties,
+            StreamSourceOptions streamSourceOptions)
+        {
+            return ingestionContext.IngestLimiter == null
+                ? ingestionContext.IngestService.IngestFromStreamAsync(dataToIngest, ingestionProperties, streamSourceOptions)
+                : ingestionContext.IngestLimiter.RunAsync(() => ingestionContext.IngestService.IngestFromStreamAsync(dataToIngest, ingestionProperties, streamSourceOptions));
+        }
     }
 
     internal class KustoManagedIngestionService : IKustoIngestionService
     {
-        private readonly KustoIngestContext _ingestionContext;
-        private readonly ILogger _logger;
-
-        public KustoManagedIngestionService(KustoIngestContext ingestionContext, ILogger logger)
+        public KustoManagedIngestionService(KustoIngestContext ingestionContext, ILogger logger) : base(ingestionContext, logger)
         {
-            this._ingestionContext = ingestionContext;
-            this._logger = logger;
         }
 
-        public override async Task<IngestionStatus> IngestData(DataSourceFormat dataFormat, Stream dataToIngest, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken)
+        protected override async Task<IngestionStatus> IngestDataCoreAsync(DataSourceFormat dataFormat, Stream dataToIngest, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken)
         {
-            KustoIngestionProperties ingestionProperties = GetKustoIngestionProperties(dataFormat, this._ingestionContext.ResolvedAttribute, false);
-            IKustoIngestionResult ingestionResult = await this._ingestionContext.IngestService.IngestFromStreamAsync(dataToIngest, ingestionProperties, streamSourceOptions);
+            KustoIngestionProperties ingestionProperties = GetKustoIngestionProperties(dataFormat, this.IngestionContext.ResolvedAttribute, false, streamSourceOptions.SourceId);
+            IKustoIngestionResult ingestionResult = await IngestFromStreamAsync(this.IngestionContext, dataToIngest, ingestionProperties, streamSourceOptions);
             IngestionStatus managedIngestionStatus = ingestionResult.GetIngestionStatusBySourceId(streamSourceOptions.SourceId);
-            if (this._logger.IsEnabled(LogLevel.Debug))
+            if (this.Logger.IsEnabled(LogLevel.Debug))
             {
-                this._logger.LogDebug($"Ingestion status for sourceId {streamSourceOptions.SourceId} is {managedIngestionStatus.Status}");
+                this.Logger.LogDebug($"Ingestion status for sourceId {streamSourceOptions.SourceId} is {managedIngestionStatus.Status}");
             }
             return managedIngestionStatus;
         }
@@ -75,19 +163,14 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
 
     internal class KustoQueuedIngestionService : IKustoIngestionService
     {
-        private readonly KustoIngestContext _ingestionContext;
-        private readonly ILogger _logger;
-
-        public KustoQueuedIngestionService(KustoIngestContext ingestionContext, ILogger logger)
+        public KustoQueuedIngestionService(KustoIngestContext ingestionContext, ILogger logger) : base(ingestionContext, logger)
         {
-            this._ingestionContext = ingestionContext;
-            this._logger = logger;
         }
 
-        public override async Task<IngestionStatus> IngestData(DataSourceFormat dataFormat, Stream dataToIngest, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken)
+        protected override async Task<IngestionStatus> IngestDataCoreAsync(DataSourceFormat dataFormat, Stream dataToIngest, StreamSourceOptions streamSourceOptions, CancellationToken cancellationToken)
         {
-            var ingestionProperties = (KustoQueuedIngestionProperties)GetKustoIngestionProperties(dataFormat, this._ingestionContext.ResolvedAttribute, true);
-            System.Collections.Generic.IDictionary<string, object> ingestionPropertiesDict = KustoBindingUtilities.ParseParameters(this._ingestionContext.ResolvedAttribute.IngestionProperties);
+            var ingestionProperties = (KustoQueuedIngestionProperties)GetKustoIngestionProperties(dataFormat, this.IngestionContext.ResolvedAttribute, true, streamSourceOptions.SourceId);
+            IReadOnlyDictionary<string, object> ingestionPropertiesDict = KustoBindingUtilities.ParseParameters(this.IngestionContext.ResolvedAttribute.IngestionProperties);
             bool flushImmediately = false;
             if (ingestionPropertiesDict.TryGetValue("flushImmediately", out object flushImmediatelyObj))
             {
@@ -110,18 +193,49 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
                 int.TryParse(pollTimeoutMinutesObj.ToString(), NumberStyles.Integer, CultureInfo.InvariantCulture, out pollTimeoutMinutes);
             }
 
+            // In the background tracking mode the invocation returns as soon as the data is queued, the status is then tracked by the host wide tracker
+            bool trackInBackground = ingestionPropertiesDict.TryGetValue("trackingMode", out object trackingModeObj)
+                && "background".EqualsOrdinalIgnoreCase(trackingModeObj?.ToString()?.Trim())
+                && this.IngestionContext.StatusTracker != null;
+
             if (flushImmediately)
             {
-                this._logger.LogWarning($"Flush immediately has been set for  {streamSourceOptions.SourceId}. No aggregation will be performed for ingestion. This is not recommended for large data sets");
+                this.Logger.LogWarning($"Flush immediately has been set for  {streamSourceOptions.SourceId}. No aggregation will be performed for ingestion. This is not recommended for large data sets");
                 ingestionProperties.FlushImmediately = flushImmediately;
             }
-            IKustoIngestionResult ingestionResult = await this._ingestionContext.IngestService.IngestFromStreamAsync(dataToIngest, ingestionProperties, streamSourceOptions);
-            if (this._logger.IsEnabled(LogLevel.Trace))
+            IKustoIngestionResult ingestionResult = await IngestFromStreamAsync(this.IngestionContext, dataToIngest, ingestionProperties, streamSourceOptions);
+            long queuedTimestamp = Stopwatch.GetTimestamp();
+            if (this.Logger.IsEnabled(LogLevel.Trace))
             {
                 string logString = $"Additional properties passed {ingestionProperties.FlushImmediately} , Will poll every {pollIntervalSeconds} for status, until {pollTimeoutMinutes} minutes elapse";
-                this._logger.LogTrace($"Queued ingestion for sourceId {streamSourceOptions.SourceId}. Using ingestion properties {logString}");
+                this.Logger.LogTrace($"Queued ingestion for sourceId {streamSourceOptions.SourceId}. Using ingestion properties {logString}");
             }
-            return await PollIngestionStatus(ingestionResult, streamSourceOptions.SourceId, pollTimeoutMinutes, pollIntervalSeconds, cancellationToken);
+            if (trackInBackground)
+            {
+                string ingestDetail = $"TableName='{this.IngestionContext.ResolvedAttribute.TableName}',Database='{this.IngestionContext.ResolvedAttribute.Database}'";
+                this.IngestionContext.StatusTracker.Track(ingestionResult, streamSourceOptions.SourceId, ingestDetail,
+                    TimeSpan.FromSeconds(pollIntervalSeconds), TimeSpan.FromMinutes(pollTimeoutMinutes), this.IngestionContext.ResolvedAttribute);
+                return new IngestionStatus()
+                {
+                    IngestionSourceId = streamSourceOptions.SourceId,
+                    Status = Status.Queued,
+                };
+            }
+            IngestionStatus ingestionStatus = await PollIngestionStatus(ingestionResult, streamSourceOptions.SourceId, pollTimeoutMinutes, pollIntervalSeconds, cancellationToken);
+            if (ingestionStatus != null && IsTerminalStatus(ingestionStatus.Status))
+            {
+                KustoMetrics.QueuedIngestTimeToStatus.Record(KustoMetrics.ElapsedMilliseconds(queuedTimestamp),
+                    KustoMetrics.IngestTags(this.IngestionContext.ResolvedAttribute, ingestionStatus.Status.ToString()));
+            }
+            return ingestionStatus;
+        }
+
+        internal static bool IsTerminalStatus(Status status)
+        {
+            return status == Status.Succeeded
+                || status == Status.Skipped // The ingestion was skipped because it was already ingested 
+                || status == Status.PartiallySucceeded // Some of the records were ingested 
+                || status == Status.Failed;
         }
 
         private static async Task<IngestionStatus> PollIngestionStatus(IKustoIngestionResult queuedIngestResult, Guid sourceId, int ingestionTimeoutMinutes, int pollIntervalSeconds, CancellationToken cancellationToken)
@@ -133,10 +247,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
             {
                 ingestionStatus = queuedIngestResult.GetIngestionStatusBySourceId(sourceId);
                 // Check if the ingestion status indicates completion
-                if (ingestionStatus.Status == Status.Succeeded
-                    || ingestionStatus.Status == Status.Skipped // The ingestion was skipped because it was already ingested 
-                    || ingestionStatus.Status == Status.PartiallySucceeded // Some of the records were ingested 
-                    || ingestionStatus.Status == Status.Failed)
+                if (IsTerminalStatus(ingestionStatus.Status))
                 {
                     break;
                 }
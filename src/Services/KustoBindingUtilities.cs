@@ -3,64 +3,295 @@
 
 using System;
 using System.Collections.Generic;
+using System.Collections.ObjectModel;
 using System.Data;
 using System.IO;
+using System.IO.Compression;
 using System.Linq;
+using System.Text;
+using Kusto.Data.Common;
+using Microsoft.Azure.WebJobs.Extensions.Kusto;
+using Microsoft.IO;
 using Newtonsoft.Json;
 
 namespace Microsoft.Azure.WebJobs.Kusto
 {
     internal static class KustoBindingUtilities
     {
+        // Bounds the cache of parsed parameter lists for bindings whose resolved parameters take an unbounded variety of values
+        private const int MaxCachedParameterLists = 1024;
         private static readonly char[] CommaSeparator = new[] { ',' };
+        private static readonly char[] ParameterSeparators = new[] { ',', '=' };
+        private static readonly IReadOnlyDictionary<string, object> EmptyParameters = new ReadOnlyDictionary<string, object>(new Dictionary<string, object>());
+        private static readonly KustoLruCache<IReadOnlyDictionary<string, object>> ParsedParameters = new KustoLruCache<IReadOnlyDictionary<string, object>>(MaxCachedParameterLists);
+        private static readonly RecyclableMemoryStreamManager PayloadStreamManager = new RecyclableMemoryStreamManager();
+        // Serializer settings are never changed after creation, so a single instance is shared by all serialization calls
+        private static readonly JsonSerializer RowSerializer = JsonSerializer.CreateDefault();
+        private static readonly Encoding PayloadEncoding = new UTF8Encoding(false);
 
-        public static Stream StreamFromString(string dataToIngest)
+        /// <summary>
+        /// Gets a pooled stream to build ingestion payloads in. The buffers go back to the pool when the stream is disposed
+        /// </summary>
+        public static Stream GetPayloadStream()
         {
-            var stream = new MemoryStream();
-            var writer = new StreamWriter(stream);
-            writer.Write(dataToIngest);
-            writer.Flush();
-            stream.Position = 0;
-            return stream;
+            return PayloadStreamManager.GetStream(nameof(KustoBindingUtilities));
+        }
+
+        /// <summary>
+        /// Serializes the rows, one per line, straight into a pooled UTF-8 stream without building the payload as a string first.
+        /// </summary>
+        /// <param name="rows">The rows to serialize</param>
+        /// <param name="serializeAsJson">Writes the rows as compact JSON. Rows that are strings and rows of other formats (e.g. CSV) are written as they are</param>
+        /// <returns>The payload stream positioned at the start. Disposing it returns the buffers to the pool</returns>
+        public static Stream WriteRowsToStream<T>(IEnumerable<T> rows, bool serializeAsJson)
+        {
+            Stream payload = GetPayloadStream();
+            using (var textWriter = new StreamWriter(payload, PayloadEncoding, 4096, leaveOpen: true))
+            {
+                bool first = true;
+                foreach (T row in rows)
+                {
+                    if (!first)
+                    {
+                        textWriter.WriteLine();
+                    }
+                    first = false;
+                    if (serializeAsJson && !(row is string))
+                    {
+                        // POCO , JObject
+                        using var jsonWriter = new JsonTextWriter(textWriter) { QuoteName = true, Formatting = Formatting.None, CloseOutput = false };
+                        RowSerializer.Serialize(jsonWriter, row);
+                    }
+                    else
+                    {
+                        textWriter.Write(row.ToString());
+                    }
+                }
+            }
+            payload.Position = 0;
+            return payload;
+        }
+
+        /// <summary>
+        /// Whether the compression set on the attribute is one of none, gzip or auto. Not setting it is the same as none
+        /// </summary>
+        public static bool IsValidCompression(string compression)
+        {
+            return string.IsNullOrEmpty(compression) || string.Equals(compression, KustoConstants.CompressionNone, StringComparison.OrdinalIgnoreCase) ||
+                string.Equals(compression, KustoConstants.CompressionGzip, StringComparison.OrdinalIgnoreCase) ||
+                string.Equals(compression, KustoConstants.CompressionAuto, StringComparison.OrdinalIgnoreCase);
+        }
+
+        /// <summary>
+        /// Whether a payload is compressed before it is ingested: always with gzip compression, with auto compression once it reaches the size threshold
+        /// </summary>
+        /// <param name="compression">The compression set on the attribute</param>
+        /// <param name="payloadBytes">The size of the uncompressed payload</param>
+        public static bool ShouldCompress(string compression, long payloadBytes)
+        {
+            return string.Equals(compression, KustoConstants.CompressionGzip, StringComparison.OrdinalIgnoreCase) ||
+                (string.Equals(compression, KustoConstants.CompressionAuto, StringComparison.OrdinalIgnoreCase) && payloadBytes >= KustoConstants.DefaultCompressionThresholdBytes);
+        }
+
+        /// <summary>
+        /// Compresses the payload with gzip into a pooled stream and disposes the payload, which returns its buffers to the pool
+        /// </summary>
+        /// <returns>The compressed payload positioned at the start</returns>
+        public static Stream CompressPayload(Stream payload)
+        {
+            Stream compressedPayload = GetPayloadStream();
+            // Fastest keeps the cost of compressing low, the rows are repetitive enough that it still shrinks them several times
+            using (var gzipStream = new GZipStream(compressedPayload, CompressionLevel.Fastest, leaveOpen: true))
+            {
+                payload.CopyTo(gzipStream);
+            }
+            payload.Dispose();
+            compressedPayload.Position = 0;
+            return compressedPayload;
+        }
+
+        public static bool IsJsonFormat(DataSourceFormat format)
+        {
+            return format == DataSourceFormat.multijson || format == DataSourceFormat.json;
         }
 
 
+        /// <summary>
+        /// Resolves the format to ingest with. JSON is switched to multijson when there is more than one row to ingest
+        /// </summary>
+        /// <param name="dataFormat">The DataFormat set on the attribute, if any</param>
+        /// <param name="rowCount">The number of rows that will be ingested</param>
+        public static DataSourceFormat GetDataFormat(string dataFormat, int rowCount)
+        {
+            DataSourceFormat returnFormat = DataSourceFormat.json;
+            if (string.IsNullOrEmpty(dataFormat))
+            {
+                if (rowCount > 1)
+                {
+                    returnFormat = DataSourceFormat.multijson;
+                }
+            }
+            else
+            {
+                bool parseResult = Enum.TryParse(dataFormat, out DataSourceFormat ingestDataFormat);
+                // If user provides JSON and it has multiple values then convert to multi-json
+                returnFormat = parseResult && ingestDataFormat == DataSourceFormat.json && rowCount > 1
+                    ? DataSourceFormat.multijson
+                    : ingestDataFormat;
+            }
+            return returnFormat;
+        }
+
         public static string SerializeRow(IDataReader reader)
         {
             return JsonConvert.SerializeObject(Enumerable.Range(0, reader.FieldCount).ToDictionary(reader.GetName, i => reader.GetValue(i)));
         }
 
-        public static IDictionary<string, object> ParseParameters(string parameters)
+        /// <summary>
+        /// Parses the comma separated names of the result tables of a multi statement query, empty when no names are set
+        /// </summary>
+        public static string[] ParseResultTableNames(string resultTableNames)
+        {
+            if (string.IsNullOrWhiteSpace(resultTableNames))
+            {
+                return Array.Empty<string>();
+            }
+            string[] tableNames = resultTableNames.Split(CommaSeparator, StringSplitOptions.RemoveEmptyEntries).Select(name => name.Trim()).ToArray();
+            if (tableNames.Distinct(StringComparer.Ordinal).Count() != tableNames.Length)
+            {
+                throw new ArgumentException($"Result table names must be unique, the names \"{resultTableNames}\" contain duplicates");
+            }
+            return tableNames;
+        }
+
+        /// <summary>
+        /// Parses the result format of an input binding, json when no format is set
+        /// </summary>
+        public static string ParseResultFormat(string resultFormat)
+        {
+            if (string.IsNullOrWhiteSpace(resultFormat))
+            {
+                return KustoConstants.ResultFormatJson;
+            }
+            string format = resultFormat.Trim().ToLowerInvariant();
+            if (format != KustoConstants.ResultFormatJson && format != KustoConstants.ResultFormatCsv && format != KustoConstants.ResultFormatColumnar)
+            {
+                throw new ArgumentException($"Unsupported result format \"{resultFormat}\", the supported formats are {KustoConstants.ResultFormatJson}, {KustoConstants.ResultFormatCsv} and {KustoConstants.ResultFormatColumnar}");
+            }
+            return format;
+        }
+
+        /// <summary>
+        /// Parses a list of parameters (@param1=value1,@param2=value2). The values of typed parameters that contain commas, equal signs or leading
+        /// and trailing spaces are enclosed in double quotes, quotes within them are doubled (@param1:string="a,b=""c"""). The quotes of untyped
+        /// parameters are part of their value, as they always were. Parsed lists are cached, the returned dictionary is shared and read only
+        /// </summary>
+        public static IReadOnlyDictionary<string, object> ParseParameters(string parameters)
         {
-            var kvParameters = new Dictionary<string, object>();
             // If parameters is null, user did not specify any parameters in their function so nothing to parse
-            if (!string.IsNullOrEmpty(parameters))
+            if (string.IsNullOrEmpty(parameters))
+            {
+                return EmptyParameters;
+            }
+            if (ParsedParameters.TryGetValue(parameters, out IReadOnlyDictionary<string, object> kvParameters))
             {
-                // Because we remove empty entries, we will ignore any commas that appear at the beginning/end of the parameter list,
-                // as well as extra commas that appear between parameter pairs.
-                // I.e., ",,@param1=param1,,@param2=param2,,," will be parsed just like "@param1=param1,@param2=param2" is.
-                string[] paramPairs = parameters.Split(CommaSeparator, StringSplitOptions.RemoveEmptyEntries);
+                return kvParameters;
+            }
+            kvParameters = new ReadOnlyDictionary<string, object>(ParseParameterList(parameters));
+            return ParsedParameters.GetOrAdd(parameters, kvParameters);
+        }
 
-                foreach (string pair in paramPairs)
+        private static Dictionary<string, object> ParseParameterList(string parameters)
+        {
+            var kvParameters = new Dictionary<string, object>();
+            int position = 0;
+            while (position < parameters.Length)
+            {
+                // We ignore any commas that appear at the beginning/end of the parameter list, as well as extra commas that appear between
+                // parameter pairs. I.e., ",,@param1=param1,,@param2=param2,,," will be parsed just like "@param1=param1,@param2=param2" is.
+                if (parameters[position] == ',')
+                {
+                    position++;
+                    continue;
+                }
+                int separator = parameters.IndexOfAny(ParameterSeparators, position);
+                if (separator < 0 || parameters[separator] != '=')
+                {
+                    throw MalformedParameters();
+                }
+                string key = parameters[position..separator].Trim();
+                if (!key.StartsWith("@", StringComparison.InvariantCultureIgnoreCase))
+                {
+                    throw new ArgumentException("Parameter name must start with \"@\", i.e. \"@param1=param1,@param2=param2\"");
+                }
+                position = separator + 1;
+                string value;
+                int valueStart = position;
+                while (valueStart < parameters.Length && parameters[valueStart] == ' ')
+                {
+                    valueStart++;
+                }
+                // Only typed parameters, which came with quoting, are unquoted so that untyped values keep the meaning they always had
+                if (key.IndexOf(':') >= 0 && valueStart < parameters.Length && parameters[valueStart] == '"')
                 {
-                    // Note that we don't throw away empty entries here, so a parameter pair that looks like "=@param1=param1"
-                    // or "@param2=param2=" is considered malformed
-                    string[] items = pair.Split('=');
-                    if (items.Length != 2)
+                    value = ReadQuotedValue(parameters, ref valueStart);
+                    position = valueStart;
+                    while (position < parameters.Length && parameters[position] == ' ')
                     {
-                        throw new ArgumentException("Parameters must be separated by \",\" and parameter name and parameter value must be separated by \"=\", " +
-                           "i.e. \"@param1=param1,@param2=param2\". To specify a null value, use null, as in \"@param1=null,@param2=param2\"." +
-                           "To specify an empty string as a value, simply do not add anything after the equals sign, as in \"@param1=,@param2=param2\".");
+                        position++;
                     }
-                    string key = items[0].Trim();
-                    if (!key.StartsWith("@", StringComparison.InvariantCultureIgnoreCase))
+                    if (position < parameters.Length && parameters[position] != ',')
                     {
-                        throw new ArgumentException("Parameter name must start with \"@\", i.e. \"@param1=param1,@param2=param2\"");
+                        throw MalformedParameters();
                     }
-                    kvParameters.Add(key[1..], items[1]);
                 }
+                else
+                {
+                    int end = parameters.IndexOf(',', position);
+                    end = end < 0 ? parameters.Length : end;
+                    value = parameters[position..end];
+                    // A parameter pair that looks like "@param2=param2=" is considered malformed
+                    if (value.IndexOf('=') >= 0)
+                    {
+                        throw MalformedParameters();
+                    }
+                    position = end;
+                }
+                kvParameters.Add(key[1..], value);
             }
             return kvParameters;
         }
+
+        private static string ReadQuotedValue(string parameters, ref int position)
+        {
+            var value = new StringBuilder();
+            position++;
+            while (position < parameters.Length)
+            {
+                char c = parameters[position++];
+                if (c != '"')
+                {
+                    value.Append(c);
+                }
+                else if (position < parameters.Length && parameters[position] == '"')
+                {
+                    value.Append('"');
+                    position++;
+                }
+                else
+                {
+                    return value.ToString();
+                }
+            }
+            throw new ArgumentException($"The quoted parameter value in \"{parameters}\" is not terminated");
+        }
+
+        private static ArgumentException MalformedParameters()
+        {
+            return new ArgumentException("Parameters must be separated by \",\" and parameter name and parameter value must be separated by \"=\", " +
+               "i.e. \"@param1=param1,@param2=param2\". To specify a null value, use null, as in \"@param1=null,@param2=param2\"." +
+               "To specify an empty string as a value, simply do not add anything after the equals sign, as in \"@param1=,@param2=param2\"." +
+               "Values of typed parameters that contain \",\" or \"=\" are enclosed in double quotes, as in @param1:string=\"a,b\".");
+        }
     }
 }
\ No newline at end of file
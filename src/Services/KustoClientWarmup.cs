@@ -0,0 +1,103 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Data;
+using System.Diagnostics;
+using System.Threading.Tasks;
+using Kusto.Data.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Creates the clients of the bindings while the functions are indexed, instead of on their first invocation. Every distinct connection,
+    /// identity and binding direction is warmed up once in the background: the client is created and cached and a trivial command is run
+    /// against the engine, so that the cloud metadata is resolved, the token is acquired and the connection is open before the first
+    /// invocation needs them. Warm-up failures are logged and otherwise ignored, the invocations then create the clients as before
+    /// </summary>
+    internal sealed class KustoClientWarmup
+    {
+        // A query that needs no table, warms up the query client of input bindings
+        private const string WarmupQuery = "print warmup=1";
+        // A control command that needs no database permission, warms up the engine of output bindings and control commands
+        private const string WarmupCommand = ".show version";
+        private readonly KustoExtensionConfigProvider _configProvider;
+        private readonly ILogger _logger;
+        private readonly ConcurrentDictionary<string, Task> _warmups = new ConcurrentDictionary<string, Task>(StringComparer.Ordinal);
+
+        public KustoClientWarmup(KustoExtensionConfigProvider configProvider, ILogger logger)
+        {
+            this._configProvider = configProvider ?? throw new ArgumentNullException(nameof(configProvider));
+            this._logger = logger ?? throw new ArgumentNullException(nameof(logger));
+        }
+
+        /// <summary>
+        /// The warm-ups started so far
+        /// </summary>
+        internal ICollection<Task> Warmups => this._warmups.Values;
+
+        /// <summary>
+        /// Starts the warm-up of the clients the binding uses, unless a binding with the same connections, identity and direction started it already
+        /// </summary>
+        public void Register(KustoAttribute attribute)
+        {
+            // Identities and connections that are resolved per invocation are not known yet
+            if (attribute.ManagedServiceIdentity?.IndexOf('{') >= 0 || attribute.KqlCommand?.IndexOf('{') >= 0)
+            {
+                return;
+            }
+            bool isInput = !string.IsNullOrEmpty(attribute.KqlCommand);
+            bool isControlCommand = isInput && attribute.KqlCommand.TrimStart().StartsWith('.');
+            string direction = isControlCommand ? "admin" : isInput ? KustoConstants.InputBindingType : $"{KustoConstants.OutputBindingType}:{attribute.IngestionType}";
+            string key = string.Join("\n", attribute.Connection, attribute.ReadConnections, attribute.ManagedServiceIdentity, direction);
+            if (this._warmups.ContainsKey(key))
+            {
+                return;
+            }
+            this._warmups.GetOrAdd(key, _ => Task.Run(() => this.WarmupAsync(attribute, isInput, isControlCommand)));
+        }
+
+        private async Task WarmupAsync(KustoAttribute attribute, bool isInput, bool isControlCommand)
+        {
+            var timer = Stopwatch.StartNew();
+            try
+            {
+                var clientRequestProperties = new ClientRequestProperties
+                {
+                    ClientRequestId = $"{KustoConstants.ClientRequestId};warmup-{Guid.NewGuid()}",
+                };
+                if (isInput && !isControlCommand)
+                {
+                    string[] readConnections = KustoExtensionConfigProvider.SplitReadConnections(attribute.ReadConnections);
+                    // The queries of bindings with read replicas only go to the replicas
+                    foreach (string queryConnection in readConnections.Length > 0 ? readConnections : new[] { attribute.Connection })
+                    {
+                        ICslQueryProvider queryProvider = this._configProvider.GetQueryClient(attribute, queryConnection);
+                        IDataReader reader = await queryProvider.ExecuteQueryAsync(attribute.Database, WarmupQuery, clientRequestProperties).ConfigureAwait(false);
+                        reader?.Dispose();
+                    }
+                }
+                else
+                {
+                    if (!isInput)
+                    {
+                        _ = this._configProvider.GetIngestClient(attribute);
+                    }
+                    // The ingest clients share the credential of the admin client, acquiring the token here saves it on the first ingestion
+                    ICslAdminProvider adminProvider = this._configProvider.GetAdminClient(attribute);
+                    IDataReader reader = await adminProvider.ExecuteControlCommandAsync(attribute.Database, WarmupCommand, clientRequestProperties).ConfigureAwait(false);
+                    reader?.Dispose();
+                }
+                this._logger.LogDebug($"Warmed up the Kusto clients of connection {attribute.Connection ?? KustoConstants.DefaultConnectionStringName} in {timer.ElapsedMilliseconds} milliseconds");
+            }
+            catch (Exception e)
+            {
+                this._logger.LogWarning(e, $"Warm-up of the Kusto clients of connection {attribute.Connection ?? KustoConstants.DefaultConnectionStringName} failed after {timer.ElapsedMilliseconds} milliseconds, the clients are created on first use");
+            }
+        }
+    }
+}
\ No newline at end of file
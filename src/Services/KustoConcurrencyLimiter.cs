@@ -0,0 +1,252 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Data.Exceptions;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Bounds the number of requests a host runs at the same time against a connection. Requests beyond the limit wait for a running
+    /// request to complete, so that a burst of invocations queues in the host instead of overrunning the cluster.
+    /// An adaptive limiter moves its limit between 1 and the maximum concurrency with AIMD: every successful request raises the limit by
+    /// 1/limit (about 1 per round of requests), a throttled request or a request much slower than usual halves it. The limit then settles
+    /// around what the cluster sustains instead of swinging between overload and idle. Waiting requests are served in order, when the
+    /// queue is bounded requests beyond it are rejected
+    /// </summary>
+    internal sealed class KustoConcurrencyLimiter
+    {
+        private const double DecreaseFactor = 0.5;
+        // A request that takes this many times the smoothed latency counts as a latency spike, once enough requests were measured
+        private const double LatencySpikeFactor = 3.0;
+        private const int LatencySamplesBeforeSpikes = 20;
+        // Spikes are also at least this much slower than usual, so that the jitter of fast requests is not taken for congestion
+        private const double MinLatencySpikeMs = 100;
+        private const double LatencySmoothing = 0.1;
+        private readonly object _lock = new object();
+        private readonly LinkedList<TaskCompletionSource<bool>> _waiters = new LinkedList<TaskCompletionSource<bool>>();
+        private readonly int _maxQueued;
+        private readonly ILogger _logger;
+        private double _limit;
+        private int _inFlight;
+        private double _smoothedLatencyMs;
+        private int _latencySamples;
+        private long _lastDecreaseTimestamp;
+
+        public KustoConcurrencyLimiter(string connection, string operation, int maxConcurrency, bool isAdaptive = false, int maxQueued = 0, ILogger logger = null)
+        {
+            this.Connection = connection;
+            this.Operation = operation;
+            this.IsAdaptive = isAdaptive;
+            this.MaxConcurrency = maxConcurrency > 0 || !isAdaptive ? maxConcurrency : KustoConstants.DefaultAdaptiveMaxConcurrency;
+            this._maxQueued = maxQueued;
+            this._logger = logger;
+            this._limit = this.MaxConcurrency;
+            KustoMetrics.RegisterLimiter(this);
+        }
+
+        public string Connection { get; }
+
+        /// <summary>
+        /// The kind of the requests, query or ingest
+        /// </summary>
+        public string Operation { get; }
+
+        /// <summary>
+        /// The maximum number of concurrent requests, 0 when the requests are not limited
+        /// </summary>
+        public int MaxConcurrency { get; }
+
+        public bool IsAdaptive { get; }
+
+        /// <summary>
+        /// The current number of concurrent requests allowed, the maximum concurrency unless the limiter is adaptive
+        /// </summary>
+        public int CurrentLimit
+        {
+            get
+            {
+                lock (this._lock)
+                {
+                    return (int)this._limit;
+                }
+            }
+        }
+
+        public int InFlight
+        {
+            get
+            {
+                lock (this._lock)
+                {
+                    return this._inFlight;
+                }
+            }
+        }
+
+        public int Queued
+        {
+            get
+            {
+                lock (this._lock)
+                {
+                    return this._waiters.Count;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Runs the request once a slot is free
+        /// </summary>
+        public async Task<TResult> RunAsync<TResult>(Func<Task<TResult>> request, CancellationToken cancellationToken = default)
+        {
+            if (this.MaxConcurrency <= 0)
+            {
+                return await request().ConfigureAwait(false);
+            }
+            await this.AcquireAsync(cancellationToken).ConfigureAwait(false);
+            long startTimestamp = Stopwatch.GetTimestamp();
+            bool isThrottled = false;
+            bool isFailed = false;
+            try
+            {
+                return await request().ConfigureAwait(false);
+            }
+            catch (Exception e)
+            {
+                isThrottled = IsThrottling(e);
+                isFailed = !isThrottled;
+                throw;
+            }
+            finally
+            {
+                this.Release(isThrottled, isFailed, ElapsedMilliseconds(startTimestamp));
+            }
+        }
+
+        /// <summary>
+        /// Whether the exception is the cluster throttling the request
+        /// </summary>
+        internal static bool IsThrottling(Exception exception)
+        {
+            for (Exception e = exception; e != null; e = e.InnerException)
+            {
+                if (e is KustoRequestThrottledException || e.Message.IndexOf("throttl", StringComparison.OrdinalIgnoreCase) >= 0 ||
+                    e.Message.IndexOf("TooManyRequests", StringComparison.OrdinalIgnoreCase) >= 0)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private async Task AcquireAsync(CancellationToken cancellationToken)
+        {
+            TaskCompletionSource<bool> waiter;
+            LinkedListNode<TaskCompletionSource<bool>> node;
+            lock (this._lock)
+            {
+                if (this._waiters.Count == 0 && this._inFlight < (int)this._limit)
+                {
+                    this._inFlight++;
+                    return;
+                }
+                if (this._maxQueued > 0 && this._waiters.Count >= this._maxQueued)
+                {
+                    KustoMetrics.LimiterRejected.Add(1, KustoMetrics.LimiterTags(this));
+                    throw new InvalidOperationException($"The {this.Operation} requests of connection {this.Connection} are throttled, {this._waiters.Count} requests are already waiting for one of {(int)this._limit} slots");
+                }
+                waiter = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+                node = this._waiters.AddLast(waiter);
+            }
+            long startTimestamp = Stopwatch.GetTimestamp();
+            using (cancellationToken.Register(() => this.CancelWait(node, cancellationToken)))
+            {
+                await waiter.Task.ConfigureAwait(false);
+            }
+            KustoMetrics.LimiterWaitTime.Record(ElapsedMilliseconds(startTimestamp), KustoMetrics.LimiterTags(this));
+        }
+
+        private void CancelWait(LinkedListNode<TaskCompletionSource<bool>> node, CancellationToken cancellationToken)
+        {
+            lock (this._lock)
+            {
+                // A waiter that was granted its slot already is not in the list anymore and holds the slot until it is released
+                if (node.List == null)
+                {
+                    return;
+                }
+                this._waiters.Remove(node);
+            }
+            node.Value.TrySetCanceled(cancellationToken);
+        }
+
+        private void Release(bool isThrottled, bool isFailed, double latencyMs)
+        {
+            lock (this._lock)
+            {
+                this._inFlight--;
+                if (this.IsAdaptive)
+                {
+                    this.Adapt(isThrottled, isFailed, latencyMs);
+                }
+                while (this._waiters.Count > 0 && this._inFlight < (int)this._limit)
+                {
+                    TaskCompletionSource<bool> waiter = this._waiters.First.Value;
+                    this._waiters.RemoveFirst();
+                    this._inFlight++;
+                    waiter.TrySetResult(true);
+                }
+            }
+        }
+
+        private void Adapt(bool isThrottled, bool isFailed, double latencyMs)
+        {
+            if (isThrottled)
+            {
+                KustoMetrics.LimiterThrottled.Add(1, KustoMetrics.LimiterTags(this));
+                this.Decrease("the cluster throttled a request");
+                return;
+            }
+            if (isFailed)
+            {
+                // Other failures say nothing about the load of the cluster
+                return;
+            }
+            bool isLatencySpike = this._latencySamples >= LatencySamplesBeforeSpikes && latencyMs > this._smoothedLatencyMs * LatencySpikeFactor &&
+                latencyMs - this._smoothedLatencyMs > MinLatencySpikeMs;
+            this._smoothedLatencyMs = this._latencySamples == 0 ? latencyMs : this._smoothedLatencyMs + ((latencyMs - this._smoothedLatencyMs) * LatencySmoothing);
+            this._latencySamples++;
+            if (isLatencySpike)
+            {
+                this.Decrease($"a request took {latencyMs:F0} ms, usually {this._smoothedLatencyMs:F0} ms");
+                return;
+            }
+            this._limit = Math.Min(this.MaxConcurrency, this._limit + (1 / this._limit));
+        }
+
+        private void Decrease(string reason)
+        {
+            // The requests that were already running when the limit was decreased complete with the same signal, the limit is decreased once for them
+            long now = Stopwatch.GetTimestamp();
+            if (this._lastDecreaseTimestamp != 0 && ElapsedMilliseconds(this._lastDecreaseTimestamp, now) < Math.Max(this._smoothedLatencyMs, 100))
+            {
+                return;
+            }
+            this._lastDecreaseTimestamp = now;
+            double previousLimit = this._limit;
+            this._limit = Math.Max(1, this._limit * DecreaseFactor);
+            this._logger?.LogDebug($"Decreased the {this.Operation} concurrency of connection {this.Connection} from {(int)previousLimit} to {(int)this._limit}, {reason}");
+        }
+
+        private static double ElapsedMilliseconds(long startTimestamp, long endTimestamp = 0)
+        {
+            return ((endTimestamp == 0 ? Stopwatch.GetTimestamp() : endTimestamp) - startTimestamp) * 1000.0 / Stopwatch.Frequency;
+        }
+    }
+}
\ No newline at end of file
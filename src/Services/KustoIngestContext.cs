@@ -1,6 +1,7 @@
 ﻿// Copyright (c) Microsoft Corporation. All rights reserved.
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
+using System.Collections.Generic;
 using Kusto.Ingest;
 using Microsoft.Azure.WebJobs.Kusto;
 
@@ -14,5 +15,39 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
         public KustoAttribute ResolvedAttribute { get; set; }
 
         public IKustoIngestClient IngestService { get; set; }
+
+        public KustoIngestBatcher IngestBatcher { get; set; }
+
+        public KustoIngestionStatusTracker StatusTracker { get; set; }
+
+        /// <summary>
+        /// Bounds the concurrent ingestions into the connection, null when they are not limited
+        /// </summary>
+        public KustoConcurrencyLimiter IngestLimiter { get; set; }
+
+        /// <summary>
+        /// The log the rows are spilled to and ingested from in the background, null when rows are ingested during the invocation
+        /// </summary>
+        public KustoSpillLog SpillLog { get; set; }
+
+        /// <summary>
+        /// Routes the payloads of bindings whose IngestionType is auto and holds the limits of chunked flushes, null when neither applies
+        /// </summary>
+        public KustoIngestRouter IngestRouter { get; set; }
+
+        /// <summary>
+        /// The context the payloads routed to queued ingestion go through, for bindings whose IngestionType is auto. Null otherwise
+        /// </summary>
+        public KustoIngestContext QueuedContext { get; set; }
+
+        /// <summary>
+        /// Splits the rows over the shard targets of a sharded binding, null when the binding is not sharded
+        /// </summary>
+        public KustoShardRouter ShardRouter { get; set; }
+
+        /// <summary>
+        /// The ingest contexts of the shard targets, in the order of the targets of the router
+        /// </summary>
+        public IReadOnlyList<KustoIngestContext> ShardContexts { get; set; }
     }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Security.Cryptography;
+using System.Text;
+using Microsoft.Azure.WebJobs.Kusto;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Derives the SourceId of the rows of output bindings that set an IngestIdentityKey from the keys of the rows, scoped by the identity of
+    /// the invocation, instead of picking a random one, so that a replayed invocation ingests its rows with the same
+    /// SourceId. The SourceId is also the ingest-by tag of the extents and the ingestIfNotExists tag of the ingestion, so that the cluster
+    /// skips the rows of replays it already has
+    /// </summary>
+    internal static class KustoIngestIdentity
+    {
+        private static readonly byte[] Separator = new byte[] { 0 };
+
+        /// <summary>
+        /// The keys of the rows tell the batches of an identity apart, an identity alone would give every batch of e.g. a partition the same
+        /// SourceId and the cluster would skip all of them but the first
+        /// </summary>
+        public static bool IsEnabled(KustoAttribute attribute)
+        {
+            return !string.IsNullOrWhiteSpace(attribute.IngestIdentityKey);
+        }
+
+        /// <summary>
+        /// The SourceId of a part of the rows of an invocation, the same on every host and every replay of the invocation
+        /// </summary>
+        /// <param name="attribute">The attribute of the target the part is ingested into, resolved for the invocation</param>
+        /// <param name="rows">The rows of the part</param>
+        /// <param name="part">Tells the parts of an invocation apart, e.g. the number of the flush and of the chunk</param>
+        public static Guid GetSourceId<T>(KustoAttribute attribute, IReadOnlyList<T> rows, string part)
+        {
+            using var hash = IncrementalHash.CreateHash(HashAlgorithmName.SHA256);
+            foreach (string value in new[] { attribute.Connection, attribute.Database, attribute.TableName, attribute.IngestIdentity, part })
+            {
+                Append(hash, value);
+            }
+            string identityKey = attribute.IngestIdentityKey?.Trim();
+            if (!string.IsNullOrEmpty(identityKey))
+            {
+                foreach (T row in rows)
+                {
+                    Append(hash, KustoShardRouter.FormatKey(KustoShardRouter.ReadField(row, identityKey, nameof(KustoAttribute.IngestIdentityKey))));
+                }
+            }
+            byte[] sourceId = new byte[16];
+            Array.Copy(hash.GetHashAndReset(), sourceId, sourceId.Length);
+            // A name based (version 5) UUID
+            sourceId[7] = (byte)((sourceId[7] & 0x0F) | 0x50);
+            sourceId[8] = (byte)((sourceId[8] & 0x3F) | 0x80);
+            return new Guid(sourceId);
+        }
+
+        /// <summary>
+        /// The ingest-by tag of the rows ingested with the SourceId
+        /// </summary>
+        public static string GetTag(Guid sourceId)
+        {
+            return sourceId.ToString("N");
+        }
+
+        private static void Append(IncrementalHash hash, string value)
+        {
+            if (!string.IsNullOrEmpty(value))
+            {
+                hash.AppendData(Encoding.UTF8.GetBytes(value));
+            }
+            hash.AppendData(Separator);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,97 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Diagnostics;
+using Microsoft.Azure.WebJobs.Kusto;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Picks the route of the payloads of output bindings whose IngestionType is auto: streaming ingestion for small payloads into tables
+    /// that receive little data, queued ingestion for payloads above the streaming limit and for tables whose recent ingestion rate is more
+    /// than streaming ingestion is meant for. Also holds the limits above which the rows of a flush are split in chunks ingested in parallel
+    /// </summary>
+    internal sealed class KustoIngestRouter
+    {
+        // Rates by target, bounded so that tables resolved from binding expressions cannot grow it without limit
+        private const int MaxTrackedTargets = 1024;
+        private static readonly TimeSpan RateWindow = TimeSpan.FromSeconds(10);
+        private readonly ConcurrentDictionary<string, IngestRate> _rates = new ConcurrentDictionary<string, IngestRate>(StringComparer.Ordinal);
+        private readonly long _streamingMaxBytes;
+        private readonly long _streamingMaxBytesPerSecond;
+
+        /// <param name="streamingMaxBytes">The size of the payloads above which auto bindings use queued ingestion</param>
+        /// <param name="streamingMaxBytesPerSecond">The ingestion rate of a table above which auto bindings use queued ingestion, 0 to only route by size</param>
+        /// <param name="chunkBytes">The size of the flushes above which the rows are split in chunks, 0 to never split them</param>
+        /// <param name="chunkTimeout">The time the chunks of a flush have to be ingested in</param>
+        public KustoIngestRouter(long streamingMaxBytes, long streamingMaxBytesPerSecond, long chunkBytes, TimeSpan chunkTimeout)
+        {
+            this._streamingMaxBytes = streamingMaxBytes;
+            this._streamingMaxBytesPerSecond = streamingMaxBytesPerSecond;
+            this.ChunkBytes = chunkBytes;
+            this.ChunkTimeout = chunkTimeout;
+        }
+
+        public long ChunkBytes { get; }
+
+        public TimeSpan ChunkTimeout { get; }
+
+        public static bool IsRoutingEnabled(KustoAttribute attribute)
+        {
+            return string.Equals(attribute.IngestionType, KustoConstants.IngestionTypeAuto, StringComparison.OrdinalIgnoreCase);
+        }
+
+        /// <summary>
+        /// Counts the payload in the ingestion rate of its table and returns whether it is ingested through queued ingestion
+        /// </summary>
+        /// <param name="payloadBytes">The size of the uncompressed payload</param>
+        public bool ShouldQueue(KustoAttribute attribute, long payloadBytes)
+        {
+            string key = string.Join("\n", attribute.Connection, attribute.Database, attribute.TableName);
+            if (!this._rates.TryGetValue(key, out IngestRate rate))
+            {
+                if (this._rates.Count >= MaxTrackedTargets)
+                {
+                    this._rates.Clear();
+                }
+                rate = this._rates.GetOrAdd(key, _ => new IngestRate());
+            }
+            double bytesPerSecond = rate.Add(payloadBytes);
+            return payloadBytes > this._streamingMaxBytes || (this._streamingMaxBytesPerSecond > 0 && bytesPerSecond > this._streamingMaxBytesPerSecond);
+        }
+
+        /// <summary>
+        /// The bytes ingested into a table per second over about the last window. The window is split in two halves, the older one weighted
+        /// by the part of it that is still within a window of now
+        /// </summary>
+        private sealed class IngestRate
+        {
+            private static readonly long WindowTicks = (long)(RateWindow.TotalSeconds * Stopwatch.Frequency);
+            private readonly object _lock = new object();
+            private long _windowStart = Stopwatch.GetTimestamp();
+            private long _windowBytes;
+            private long _previousWindowBytes;
+
+            public double Add(long bytes)
+            {
+                lock (this._lock)
+                {
+                    long now = Stopwatch.GetTimestamp();
+                    long elapsed = now - this._windowStart;
+                    if (elapsed >= WindowTicks)
+                    {
+                        this._previousWindowBytes = elapsed >= 2 * WindowTicks ? 0 : this._windowBytes;
+                        this._windowBytes = 0;
+                        this._windowStart = now - (elapsed % WindowTicks);
+                        elapsed = now - this._windowStart;
+                    }
+                    this._windowBytes += bytes;
+                    double previousWeight = 1 - ((double)elapsed / WindowTicks);
+                    return ((this._previousWindowBytes * previousWeight) + this._windowBytes) / RateWindow.TotalSeconds;
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,180 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Threading;
+using Kusto.Ingest;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Tracks the status of queued ingestions in the background for bindings that use the background tracking mode. Instead of every
+    /// invocation polling for its own ingestion, a single host wide timer checks all the pending source ids and reports the outcome through logs
+    /// </summary>
+    internal class KustoIngestionStatusTracker : IDisposable
+    {
+        // How often the tracker wakes up. Each tracked ingestion is only checked once its own poll interval has elapsed
+        private static readonly TimeSpan TrackerInterval = TimeSpan.FromSeconds(5);
+        private readonly ConcurrentDictionary<Guid, TrackedIngestion> _pendingIngestions = new ConcurrentDictionary<Guid, TrackedIngestion>();
+        private readonly ILogger _logger;
+        private readonly object _timerLock = new object();
+        private Timer _timer;
+        private int _isPolling;
+
+        public KustoIngestionStatusTracker(ILogger logger)
+        {
+            this._logger = logger;
+        }
+
+        /// <summary>
+        /// The number of ingestions that have not reached a terminal status yet
+        /// </summary>
+        public int PendingCount => this._pendingIngestions.Count;
+
+        /// <summary>
+        /// Starts tracking the status of a queued ingestion
+        /// </summary>
+        /// <param name="ingestionResult">The result returned by the ingest client for the ingestion</param>
+        /// <param name="sourceId">The source id of the ingestion</param>
+        /// <param name="ingestDetail">Details of the target that are logged along with the status</param>
+        /// <param name="pollInterval">How often the status is checked</param>
+        /// <param name="timeout">Time after which the ingestion is reported as timed out if it has not completed</param>
+        /// <param name="attribute">The attribute of the binding, to tag the time the ingestion took to reach its terminal status</param>
+        public void Track(IKustoIngestionResult ingestionResult, Guid sourceId, string ingestDetail, TimeSpan pollInterval, TimeSpan timeout, KustoAttribute attribute = null)
+        {
+            DateTime now = DateTime.UtcNow;
+            this._pendingIngestions[sourceId] = new TrackedIngestion
+            {
+                IngestionResult = ingestionResult,
+                IngestDetail = ingestDetail,
+                Attribute = attribute,
+                QueuedTimestamp = Stopwatch.GetTimestamp(),
+                PollInterval = pollInterval,
+                NextPollTime = now.Add(pollInterval),
+                Deadline = now.Add(timeout)
+            };
+            this.EnsureTimerStarted();
+        }
+
+        /// <summary>
+        /// Checks the status of all the pending ingestions that are due and stops tracking the ones that completed or timed out
+        /// </summary>
+        internal void PollPendingIngestions()
+        {
+            // Skip the round if the previous one is still running
+            if (Interlocked.Exchange(ref this._isPolling, 1) == 1)
+            {
+                return;
+            }
+            try
+            {
+                DateTime now = DateTime.UtcNow;
+                foreach (KeyValuePair<Guid, TrackedIngestion> pendingIngestion in this._pendingIngestions)
+                {
+                    TrackedIngestion trackedIngestion = pendingIngestion.Value;
+                    if (trackedIngestion.NextPollTime > now)
+                    {
+                        continue;
+                    }
+                    this.CheckIngestion(pendingIngestion.Key, trackedIngestion, now);
+                }
+            }
+            finally
+            {
+                Volatile.Write(ref this._isPolling, 0);
+            }
+        }
+
+        private void CheckIngestion(Guid sourceId, TrackedIngestion trackedIngestion, DateTime now)
+        {
+            try
+            {
+                IngestionStatus ingestionStatus = trackedIngestion.IngestionResult.GetIngestionStatusBySourceId(sourceId);
+                switch (ingestionStatus.Status)
+                {
+                    case Status.Succeeded:
+                    case Status.Skipped:
+                        this._pendingIngestions.TryRemove(sourceId, out _);
+                        RecordTimeToStatus(trackedIngestion, ingestionStatus.Status.ToString());
+                        this._logger.LogInformation("Queued ingestion with SourceId {IngestSourceId} completed with status {IngestionStatus}. Ingest detail {IngestDetail}",
+                            sourceId.ToString(), ingestionStatus.Status.ToString(), trackedIngestion.IngestDetail);
+                        return;
+                    case Status.Failed:
+                    case Status.PartiallySucceeded:
+                        this._pendingIngestions.TryRemove(sourceId, out _);
+                        RecordTimeToStatus(trackedIngestion, ingestionStatus.Status.ToString());
+                        this._logger.LogError("Queued ingestion with SourceId {IngestSourceId} completed with status {IngestionStatus}. Ingest detail {IngestDetail}, details reported '{IngestionDetails}'",
+                            sourceId.ToString(), ingestionStatus.Status.ToString(), trackedIngestion.IngestDetail, ingestionStatus.Details);
+                        return;
+                    default:
+                        break;
+                }
+            }
+            catch (Exception ex)
+            {
+                // A failure to read the status is retried on the next round until the deadline
+                this._logger.LogWarning(ex, "Error reading the status of queued ingestion with SourceId {IngestSourceId}", sourceId.ToString());
+            }
+            if (now >= trackedIngestion.Deadline)
+            {
+                this._pendingIngestions.TryRemove(sourceId, out _);
+                RecordTimeToStatus(trackedIngestion, "TimedOut");
+                this._logger.LogError("Queued ingestion with SourceId {IngestSourceId} did not complete before the poll timeout. Ingest detail {IngestDetail}",
+                    sourceId.ToString(), trackedIngestion.IngestDetail);
+                return;
+            }
+            trackedIngestion.NextPollTime = now.Add(trackedIngestion.PollInterval);
+        }
+
+        private static void RecordTimeToStatus(TrackedIngestion trackedIngestion, string status)
+        {
+            if (trackedIngestion.Attribute != null)
+            {
+                KustoMetrics.QueuedIngestTimeToStatus.Record(KustoMetrics.ElapsedMilliseconds(trackedIngestion.QueuedTimestamp), KustoMetrics.IngestTags(trackedIngestion.Attribute, status));
+            }
+        }
+
+        private void EnsureTimerStarted()
+        {
+            if (this._timer != null)
+            {
+                return;
+            }
+            lock (this._timerLock)
+            {
+                this._timer ??= new Timer(_ => this.PollPendingIngestions(), null, TrackerInterval, TrackerInterval);
+            }
+        }
+
+        public void Dispose()
+        {
+            lock (this._timerLock)
+            {
+                this._timer?.Dispose();
+                this._timer = null;
+            }
+        }
+
+        private sealed class TrackedIngestion
+        {
+            public IKustoIngestionResult IngestionResult { get; set; }
+
+            public string IngestDetail { get; set; }
+
+            public KustoAttribute Attribute { get; set; }
+
+            public long QueuedTimestamp { get; set; }
+
+            public TimeSpan PollInterval { get; set; }
+
+            public DateTime NextPollTime { get; set; }
+
+            public DateTime Deadline { get; set; }
+        }
+    }
+}
\ No newline at end of file
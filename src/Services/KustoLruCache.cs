@@ -0,0 +1,79 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// A bounded LRU cache of values that are cheap to recreate, e.g. parsed binding settings. When the cache is full the least recently used
+    /// entry is evicted, so that settings with an unbounded variety of resolved values do not push out the ones that are used all the time
+    /// </summary>
+    internal sealed class KustoLruCache<TValue> where TValue : class
+    {
+        private readonly object _syncRoot = new object();
+        private readonly Dictionary<string, LinkedListNode<KeyValuePair<string, TValue>>> _entries;
+        // Most recently used first
+        private readonly LinkedList<KeyValuePair<string, TValue>> _usageOrder = new LinkedList<KeyValuePair<string, TValue>>();
+        private readonly int _maxEntries;
+
+        public KustoLruCache(int maxEntries)
+        {
+            if (maxEntries <= 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(maxEntries), "The cache must be able to hold at least one entry");
+            }
+            this._maxEntries = maxEntries;
+            this._entries = new Dictionary<string, LinkedListNode<KeyValuePair<string, TValue>>>(StringComparer.Ordinal);
+        }
+
+        public int Count
+        {
+            get
+            {
+                lock (this._syncRoot)
+                {
+                    return this._entries.Count;
+                }
+            }
+        }
+
+        public bool TryGetValue(string key, out TValue value)
+        {
+            lock (this._syncRoot)
+            {
+                if (this._entries.TryGetValue(key, out LinkedListNode<KeyValuePair<string, TValue>> node))
+                {
+                    this._usageOrder.Remove(node);
+                    this._usageOrder.AddFirst(node);
+                    value = node.Value.Value;
+                    return true;
+                }
+            }
+            value = null;
+            return false;
+        }
+
+        /// <summary>
+        /// Adds the value unless the key was added in the meantime, and returns the cached value of the key
+        /// </summary>
+        public TValue GetOrAdd(string key, TValue value)
+        {
+            lock (this._syncRoot)
+            {
+                if (this._entries.TryGetValue(key, out LinkedListNode<KeyValuePair<string, TValue>> node))
+                {
+                    return node.Value.Value;
+                }
+                this._entries[key] = this._usageOrder.AddFirst(new KeyValuePair<string, TValue>(key, value));
+                if (this._entries.Count > this._maxEntries)
+                {
+                    this._entries.Remove(this._usageOrder.Last.Value.Key);
+                    this._usageOrder.RemoveLast();
+                }
+                return value;
+            }
+        }
+    }
+}
\ No newline at end of file
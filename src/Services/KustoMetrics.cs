@@ -0,0 +1,179 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Diagnostics.Metrics;
+using Microsoft.Azure.WebJobs.Kusto;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// The metrics of the extension, published through System.Diagnostics.Metrics under the meter named after the extension assembly.
+    /// OpenTelemetry picks them up with AddMeter("Microsoft.Azure.WebJobs.Extensions.Kusto")
+    /// </summary>
+    internal static class KustoMetrics
+    {
+        public const string MeterName = "Microsoft.Azure.WebJobs.Extensions.Kusto";
+        private static readonly Meter Meter = new Meter(MeterName, KustoConstants.AssemblyVersion);
+        // The limiters of all the hosts in the process, weakly referenced so that the gauges do not keep them alive
+        private static readonly List<WeakReference<KustoConcurrencyLimiter>> Limiters = new List<WeakReference<KustoConcurrencyLimiter>>();
+        private static readonly List<WeakReference<KustoSpillTarget>> SpillTargets = new List<WeakReference<KustoSpillTarget>>();
+
+        public static readonly Counter<long> LimiterThrottled = Meter.CreateCounter<long>("kusto.limiter.throttled", description: "Requests the cluster throttled");
+        public static readonly Counter<long> LimiterRejected = Meter.CreateCounter<long>("kusto.limiter.rejected", description: "Requests rejected because the wait queue of the connection was full");
+        public static readonly Histogram<double> LimiterWaitTime = Meter.CreateHistogram<double>("kusto.limiter.wait_time", "ms", "Time requests waited for a slot of the connection");
+        public static readonly Counter<long> HedgedQueries = Meter.CreateCounter<long>("kusto.read.hedged", description: "Queries sent to a second read replica because the first one was slower than the hedging percentile");
+        public static readonly Counter<long> IngestedRows = Meter.CreateCounter<long>("kusto.ingest.rows", description: "Rows handed over to ingestion");
+        public static readonly Counter<long> IngestedBytes = Meter.CreateCounter<long>("kusto.ingest.bytes", "By", "Size of the payloads handed over to ingestion");
+        public static readonly Counter<long> IngestedCompressedBytes = Meter.CreateCounter<long>("kusto.ingest.compressed_bytes", "By", "Size of the compressed payloads sent to the cluster, for bindings that compress them");
+        public static readonly Histogram<double> IngestDuration = Meter.CreateHistogram<double>("kusto.ingest.duration", "ms", "Time to ingest a payload, for queued ingestion until the data is queued or its status polled");
+        public static readonly Histogram<double> QueuedIngestTimeToStatus = Meter.CreateHistogram<double>("kusto.ingest.queued.time_to_status", "ms", "Time from queuing the data to the terminal status of the ingestion");
+        public static readonly Histogram<double> QueryDuration = Meter.CreateHistogram<double>("kusto.query.duration", "ms", "Time to execute a query or control command and read its result");
+        public static readonly Histogram<long> QueryRows = Meter.CreateHistogram<long>("kusto.query.rows", description: "Rows in the result of a query");
+        public static readonly Histogram<double> ClientCreationTime = Meter.CreateHistogram<double>("kusto.client.creation_time", "ms", "Time to create a Kusto client");
+        public static readonly Counter<long> ClientCreationFailures = Meter.CreateCounter<long>("kusto.client.creation_failures", description: "Kusto clients that could not be created");
+        public static readonly Counter<long> SpilledRows = Meter.CreateCounter<long>("kusto.spill.rows", description: "Rows written to the spill log");
+        public static readonly Counter<long> SpillRejected = Meter.CreateCounter<long>("kusto.spill.rejected", description: "Flushes ingested right away because the spill log was full");
+        public static readonly Counter<long> SpillRetries = Meter.CreateCounter<long>("kusto.spill.retries", description: "Ingestions of spilled rows retried after a transient failure");
+        public static readonly Counter<long> SpillDeadLettered = Meter.CreateCounter<long>("kusto.spill.dead_lettered", description: "Spilled records moved to the dead letter directory after a permanent failure");
+        public static readonly Counter<long> TriggerRows = Meter.CreateCounter<long>("kusto.trigger.rows", description: "New rows the functions of Kusto triggers were invoked with");
+        public static readonly Counter<long> TriggerFailures = Meter.CreateCounter<long>("kusto.trigger.failures", description: "Polls of Kusto triggers that failed, their rows are read again on the next poll");
+
+        static KustoMetrics()
+        {
+            Meter.CreateObservableGauge<int>("kusto.limiter.limit", () => ObserveLimiters(limiter => limiter.CurrentLimit), description: "Concurrent requests allowed against the connection");
+            Meter.CreateObservableGauge<int>("kusto.limiter.in_flight", () => ObserveLimiters(limiter => limiter.InFlight), description: "Requests running against the connection");
+            Meter.CreateObservableGauge<int>("kusto.limiter.queued", () => ObserveLimiters(limiter => limiter.Queued), description: "Requests waiting for a slot of the connection");
+            Meter.CreateObservableGauge<long>("kusto.spill.backlog.bytes", () => ObserveSpillTargets<long>(target => target.PendingBytes), "By", "Size of the spilled records not ingested yet");
+            Meter.CreateObservableGauge<int>("kusto.spill.backlog.records", () => ObserveSpillTargets<int>(target => target.PendingRecords), description: "Spilled records not ingested yet");
+            Meter.CreateObservableGauge<double>("kusto.spill.backlog.age", () => ObserveSpillTargets<double>(target => target.OldestPendingAgeMs), "ms", "Time the oldest spilled record not ingested yet has been waiting");
+        }
+
+        public static void RegisterLimiter(KustoConcurrencyLimiter limiter)
+        {
+            lock (Limiters)
+            {
+                Limiters.Add(new WeakReference<KustoConcurrencyLimiter>(limiter));
+            }
+        }
+
+        public static void RegisterSpillTarget(KustoSpillTarget target)
+        {
+            lock (SpillTargets)
+            {
+                SpillTargets.Add(new WeakReference<KustoSpillTarget>(target));
+            }
+        }
+
+        public static KeyValuePair<string, object>[] LimiterTags(KustoConcurrencyLimiter limiter)
+        {
+            return new[]
+            {
+                new KeyValuePair<string, object>("connection", limiter.Connection),
+                new KeyValuePair<string, object>("operation", limiter.Operation),
+            };
+        }
+
+        /// <summary>
+        /// The tags of ingestion measurements, the database, table and ingestion mode and the status when known
+        /// </summary>
+        public static KeyValuePair<string, object>[] IngestTags(KustoAttribute attribute, string status = null)
+        {
+            var tags = new List<KeyValuePair<string, object>>(4)
+            {
+                new KeyValuePair<string, object>("database", attribute.Database),
+                new KeyValuePair<string, object>("table", attribute.TableName),
+                new KeyValuePair<string, object>("mode", IngestionMode(attribute)),
+            };
+            if (status != null)
+            {
+                tags.Add(new KeyValuePair<string, object>("status", status));
+            }
+            return tags.ToArray();
+        }
+
+        public static KeyValuePair<string, object>[] SpillTags(KustoAttribute attribute)
+        {
+            return new[]
+            {
+                new KeyValuePair<string, object>("database", attribute.Database),
+                new KeyValuePair<string, object>("table", attribute.TableName),
+            };
+        }
+
+        public static KeyValuePair<string, object>[] TriggerTags(KustoTriggerAttribute attribute)
+        {
+            return new[]
+            {
+                new KeyValuePair<string, object>("database", attribute.Database),
+                new KeyValuePair<string, object>("table", attribute.TableName),
+            };
+        }
+
+        public static KeyValuePair<string, object>[] QueryTags(KustoAttribute attribute, bool isControlCommand, string status)
+        {
+            return new[]
+            {
+                new KeyValuePair<string, object>("database", attribute.Database),
+                new KeyValuePair<string, object>("command", isControlCommand ? "control" : "query"),
+                new KeyValuePair<string, object>("status", status),
+            };
+        }
+
+        public static KeyValuePair<string, object>[] ClientTags(string client, string status)
+        {
+            return new[]
+            {
+                new KeyValuePair<string, object>("client", client),
+                new KeyValuePair<string, object>("status", status),
+            };
+        }
+
+        public static string IngestionMode(KustoAttribute attribute)
+        {
+            return string.Equals(attribute.IngestionType, "queued", StringComparison.OrdinalIgnoreCase) ? "queued" : "managed";
+        }
+
+        public static double ElapsedMilliseconds(long startTimestamp)
+        {
+            return (Stopwatch.GetTimestamp() - startTimestamp) * 1000.0 / Stopwatch.Frequency;
+        }
+
+        private static IEnumerable<Measurement<int>> ObserveLimiters(Func<KustoConcurrencyLimiter, int> observe)
+        {
+            var measurements = new List<Measurement<int>>();
+            lock (Limiters)
+            {
+                Limiters.RemoveAll(reference => !reference.TryGetTarget(out _));
+                foreach (WeakReference<KustoConcurrencyLimiter> reference in Limiters)
+                {
+                    if (reference.TryGetTarget(out KustoConcurrencyLimiter limiter) && limiter.MaxConcurrency > 0)
+                    {
+                        measurements.Add(new Measurement<int>(observe(limiter), LimiterTags(limiter)));
+                    }
+                }
+            }
+            return measurements;
+        }
+
+        private static IEnumerable<Measurement<TValue>> ObserveSpillTargets<TValue>(Func<KustoSpillTarget, TValue> observe)
+            where TValue : struct
+        {
+            var measurements = new List<Measurement<TValue>>();
+            lock (SpillTargets)
+            {
+                SpillTargets.RemoveAll(reference => !reference.TryGetTarget(out _));
+                foreach (WeakReference<KustoSpillTarget> reference in SpillTargets)
+                {
+                    if (reference.TryGetTarget(out KustoSpillTarget target))
+                    {
+                        measurements.Add(new Measurement<TValue>(observe(target), SpillTags(target.Attribute)));
+                    }
+                }
+            }
+            return measurements;
+        }
+    }
+}
\ No newline at end of file
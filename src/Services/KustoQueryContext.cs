@@ -1,6 +1,7 @@
 ﻿// Copyright (c) Microsoft Corporation. All rights reserved.
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
+using System;
 using Kusto.Data.Common;
 using Microsoft.Azure.WebJobs.Kusto;
 
@@ -15,8 +16,28 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto
 
         public ICslQueryProvider QueryProvider { get; set; }
 
+        /// <summary>
+        /// Routes the query over the read replicas of the binding, null when the query goes to the connection of the binding
+        /// </summary>
+        public KustoReadRouter ReadRouter { get; set; }
+
         public ICslAdminProvider AdminProvider { get; set; }
 
         public bool IsControlCommand { get; set; }
+
+        /// <summary>
+        /// The parsed command, parameters and result settings of the resolved attribute
+        /// </summary>
+        public KustoQueryPlan QueryPlan { get; set; }
+
+        /// <summary>
+        /// Bounds the concurrent queries against the connection
+        /// </summary>
+        public KustoConcurrencyLimiter QueryLimiter { get; set; }
+
+        /// <summary>
+        /// The server timeout of the query from the extension options, null for the timeout of the client
+        /// </summary>
+        public TimeSpan? QueryTimeout { get; set; }
     }
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Linq;
+using Kusto.Data.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// The parsed form of the query settings of an input binding: the command, the query parameters, the client request properties, the result
+    /// table names and the result format. Plans are immutable and cached by the (resolved) attribute values, so the strings of a binding are
+    /// parsed once when the binding is indexed (or on first use when they contain binding expressions) instead of on every invocation.
+    /// Query parameters can declare their type (@id:long=5). The plan then formats the values as Kusto literals of that type and declares the
+    /// typed parameters in front of the command, unless the command declares its query parameters itself
+    /// </summary>
+    internal sealed class KustoQueryPlan
+    {
+        // Bounds the plan cache for bindings whose resolved parameters take an unbounded variety of values
+        private const int MaxCachedPlans = 1024;
+        private static readonly KustoLruCache<KustoQueryPlan> Plans = new KustoLruCache<KustoQueryPlan>(MaxCachedPlans);
+        // The Kusto scalar types a parameter can be declared with, by type name and alias
+        private static readonly Dictionary<string, string> ParameterTypes = new Dictionary<string, string>(StringComparer.Ordinal)
+        {
+            ["bool"] = "bool",
+            ["boolean"] = "bool",
+            ["int"] = "int",
+            ["long"] = "long",
+            ["real"] = "real",
+            ["double"] = "real",
+            ["decimal"] = "decimal",
+            ["string"] = "string",
+            ["datetime"] = "datetime",
+            ["date"] = "datetime",
+            ["timespan"] = "timespan",
+            ["time"] = "timespan",
+            ["guid"] = "guid",
+            ["uniqueid"] = "guid",
+            ["dynamic"] = "dynamic",
+        };
+
+        private KustoQueryPlan(string kqlCommand, KeyValuePair<string, string>[] queryParameters, KeyValuePair<string, object>[] clientRequestOptions,
+            string[] resultTableNames, string resultFormat)
+        {
+            this.KqlCommand = kqlCommand;
+            this.QueryParameters = queryParameters;
+            this.ClientRequestOptions = clientRequestOptions;
+            this.ResultTableNames = resultTableNames;
+            this.ResultFormat = resultFormat;
+        }
+
+        /// <summary>
+        /// The command to execute, with the declaration of the typed query parameters when the plan adds it
+        /// </summary>
+        public string KqlCommand { get; }
+
+        public IReadOnlyList<KeyValuePair<string, string>> QueryParameters { get; }
+
+        public IReadOnlyList<KeyValuePair<string, object>> ClientRequestOptions { get; }
+
+        public string[] ResultTableNames { get; }
+
+        public string ResultFormat { get; }
+
+        /// <summary>
+        /// Returns the plan for the query settings of the attribute
+        /// </summary>
+        public static KustoQueryPlan Get(KustoAttribute attribute)
+        {
+            string key = string.Join("\n", attribute.KqlCommand, attribute.KqlParameters, attribute.ClientRequestProperties, attribute.ResultTableNames, attribute.ResultFormat);
+            if (Plans.TryGetValue(key, out KustoQueryPlan plan))
+            {
+                return plan;
+            }
+            // Parse outside of GetOrAdd, so that invalid settings throw to the caller and are not cached
+            plan = Create(attribute);
+            return Plans.GetOrAdd(key, plan);
+        }
+
+        /// <summary>
+        /// Creates the request properties of an execution of the plan. Request properties are mutable, so every execution gets its own.
+        /// The server timeout applies unless the binding sets servertimeout in its client request properties
+        /// </summary>
+        public ClientRequestProperties CreateClientRequestProperties(string tracingRequestId, TimeSpan? serverTimeout = null)
+        {
+            var clientRequestProperties = new ClientRequestProperties(options: this.ClientRequestOptions, parameters: this.QueryParameters)
+            {
+                ClientRequestId = $"{KustoConstants.ClientRequestId};{tracingRequestId}",
+            };
+            if (serverTimeout.HasValue && !this.ClientRequestOptions.Any(option => string.Equals(option.Key, ClientRequestProperties.OptionServerTimeout, StringComparison.OrdinalIgnoreCase)))
+            {
+                clientRequestProperties.SetOption(ClientRequestProperties.OptionServerTimeout, serverTimeout.Value);
+            }
+            return clientRequestProperties;
+        }
+
+        private static KustoQueryPlan Create(KustoAttribute attribute)
+        {
+            var queryParameters = new List<KeyValuePair<string, string>>();
+            var declarations = new List<string>();
+            foreach (KeyValuePair<string, object> parameter in KustoBindingUtilities.ParseParameters(attribute.KqlParameters))
+            {
+                string value = parameter.Value?.ToString();
+                int typeSeparator = parameter.Key.IndexOf(':');
+                if (typeSeparator < 0)
+                {
+                    queryParameters.Add(new KeyValuePair<string, string>(parameter.Key, value));
+                    continue;
+                }
+                string name = parameter.Key.Substring(0, typeSeparator).Trim();
+                string typeName = parameter.Key.Substring(typeSeparator + 1).Trim().ToLowerInvariant();
+                if (!ParameterTypes.TryGetValue(typeName, out string type))
+                {
+                    throw new ArgumentException($"Parameter @{name} has the unsupported type \"{typeName}\", the supported types are {string.Join(", ", ParameterTypes.Keys)}");
+                }
+                queryParameters.Add(new KeyValuePair<string, string>(name, FormatLiteral(name, type, value)));
+                declarations.Add($"{name}:{type}");
+            }
+            string kqlCommand = attribute.KqlCommand;
+            bool isControlCommand = kqlCommand?.TrimStart().StartsWith('.') == true;
+            if (declarations.Count > 0 && !isControlCommand && kqlCommand?.IndexOf("query_parameters", StringComparison.OrdinalIgnoreCase) < 0)
+            {
+                kqlCommand = $"declare query_parameters({string.Join(", ", declarations)});\n{kqlCommand}";
+            }
+            KeyValuePair<string, object>[] clientRequestOptions = KustoBindingUtilities.ParseParameters(attribute.ClientRequestProperties).ToArray();
+            return new KustoQueryPlan(kqlCommand, queryParameters.ToArray(), clientRequestOptions,
+                KustoBindingUtilities.ParseResultTableNames(attribute.ResultTableNames), KustoBindingUtilities.ParseResultFormat(attribute.ResultFormat));
+        }
+
+        /// <summary>
+        /// Formats the value of a typed parameter as a Kusto literal of its type. Numbers and booleans are checked here, so that a wrong value
+        /// fails the binding with the parameter name instead of failing the query
+        /// </summary>
+        private static string FormatLiteral(string name, string type, string value)
+        {
+            if (value == null || value.Trim() == "null")
+            {
+                return type == "string" ? value : $"{type}(null)";
+            }
+            string trimmedValue = value.Trim();
+            bool isValid;
+            switch (type)
+            {
+                case "string":
+                    // String values are passed as they are
+                    return value;
+                case "bool":
+                    isValid = bool.TryParse(trimmedValue, out bool boolValue);
+                    trimmedValue = boolValue ? "true" : "false";
+                    break;
+                case "int":
+                case "long":
+                    isValid = long.TryParse(trimmedValue, NumberStyles.Integer, CultureInfo.InvariantCulture, out _);
+                    break;
+                case "real":
+                    isValid = double.TryParse(trimmedValue, NumberStyles.Float, CultureInfo.InvariantCulture, out _);
+                    break;
+                case "decimal":
+                    isValid = decimal.TryParse(trimmedValue, NumberStyles.Float, CultureInfo.InvariantCulture, out _);
+                    break;
+                default:
+                    // datetime, timespan, guid and dynamic values are passed in their literal form, e.g. datetime(2024-01-01)
+                    return trimmedValue.StartsWith(type + "(", StringComparison.Ordinal) ? trimmedValue : $"{type}({trimmedValue})";
+            }
+            if (!isValid)
+            {
+                throw new ArgumentException($"The value \"{value}\" of parameter @{name} is not a valid {type}");
+            }
+            return trimmedValue;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Threading.Tasks;
+using Microsoft.Azure.WebJobs.Kusto;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// A LRU cache of query results for input bindings that enable caching. A miss inserts an in-flight entry so that concurrent invocations
+    /// resolving to the same query wait for that single execution instead of each going to the cluster. Failed queries are not cached.
+    /// Results are cached in the form the binding reads them in (e.g. a JSON string or JSON objects), which is part of the key
+    /// </summary>
+    internal class KustoQueryResultCache
+    {
+        private readonly object _syncRoot = new object();
+        private readonly Dictionary<string, LinkedListNode<CacheEntry>> _entries = new Dictionary<string, LinkedListNode<CacheEntry>>(StringComparer.Ordinal);
+        // Most recently used first
+        private readonly LinkedList<CacheEntry> _usageOrder = new LinkedList<CacheEntry>();
+        private readonly int _maxEntries;
+
+        public KustoQueryResultCache(int maxEntries)
+        {
+            if (maxEntries <= 0)
+            {
+                throw new ArgumentOutOfRangeException(nameof(maxEntries), "The cache must be able to hold at least one entry");
+            }
+            this._maxEntries = maxEntries;
+        }
+
+        /// <summary>
+        /// The number of cached and in-flight results
+        /// </summary>
+        public int Count
+        {
+            get
+            {
+                lock (this._syncRoot)
+                {
+                    return this._entries.Count;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Returns the cached result for the key, or executes the query and caches its result. The returned result is shared between callers and must not be modified
+        /// </summary>
+        /// <param name="key">The key of the query, see <see cref="BuildCacheKey(KustoAttribute, Type)"/></param>
+        /// <param name="timeToLive">How long the result is served from the cache, measured from when the query was started</param>
+        /// <param name="query">Executes the query on a miss</param>
+        public async Task<TResult> GetOrAddAsync<TResult>(string key, TimeSpan timeToLive, Func<Task<TResult>> query) where TResult : class
+        {
+            CacheEntry entry;
+            bool isMiss = false;
+            lock (this._syncRoot)
+            {
+                DateTime now = DateTime.UtcNow;
+                if (this._entries.TryGetValue(key, out LinkedListNode<CacheEntry> node) && node.Value.ExpiresAt > now)
+                {
+                    this._usageOrder.Remove(node);
+                    this._usageOrder.AddFirst(node);
+                    entry = node.Value;
+                }
+                else
+                {
+                    if (node != null)
+                    {
+                        this.RemoveNode(node);
+                    }
+                    entry = new CacheEntry(key, now.Add(timeToLive));
+                    this._entries[key] = this._usageOrder.AddFirst(entry);
+                    while (this._entries.Count > this._maxEntries)
+                    {
+                        this.RemoveNode(this._usageOrder.Last);
+                    }
+                    isMiss = true;
+                }
+            }
+            if (isMiss)
+            {
+                try
+                {
+                    entry.Result.SetResult(await query().ConfigureAwait(false));
+                }
+                catch (Exception ex)
+                {
+                    this.Remove(entry);
+                    entry.Result.SetException(ex);
+                }
+            }
+            return (TResult)await entry.Result.Task.ConfigureAwait(false);
+        }
+
+        /// <summary>
+        /// Builds the key identifying the results of a query, from everything that affects what the query returns
+        /// </summary>
+        internal static string BuildCacheKey(KustoAttribute attribute, Type resultType)
+        {
+            return string.Join("\n", resultType.FullName, attribute.Connection, attribute.ManagedServiceIdentity, attribute.Database, attribute.KqlCommand,
+                attribute.KqlParameters, attribute.ClientRequestProperties, attribute.ResultTableNames, attribute.ResultFormat);
+        }
+
+        private void Remove(CacheEntry entry)
+        {
+            lock (this._syncRoot)
+            {
+                // The entry may already have been evicted or replaced by a newer one
+                if (this._entries.TryGetValue(entry.Key, out LinkedListNode<CacheEntry> node) && ReferenceEquals(node.Value, entry))
+                {
+                    this.RemoveNode(node);
+                }
+            }
+        }
+
+        private void RemoveNode(LinkedListNode<CacheEntry> node)
+        {
+            this._usageOrder.Remove(node);
+            this._entries.Remove(node.Value.Key);
+        }
+
+        private sealed class CacheEntry
+        {
+            public CacheEntry(string key, DateTime expiresAt)
+            {
+                this.Key = key;
+                this.ExpiresAt = expiresAt;
+            }
+
+            public string Key { get; }
+
+            public DateTime ExpiresAt { get; }
+
+            public TaskCompletionSource<object> Result { get; } = new TaskCompletionSource<object>(TaskCreationOptions.RunContinuationsAsynchronously);
+        }
+    }
+}
\ No newline at end of file
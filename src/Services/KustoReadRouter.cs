@@ -0,0 +1,260 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Data;
+using System.Diagnostics;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Data.Common;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Routes the queries of input bindings to a set of read replicas (follower clusters). Every query goes to the replica with the lowest
+    /// expected wait, its smoothed latency times the number of its outstanding queries plus one, so that a replica that slows down or piles
+    /// up queries gets fewer of them. A hedged query is sent to the next best replica when the first one takes longer than a percentile of the
+    /// recent latencies, the first result wins and the other query is cancelled. A replica whose queries fail is backed off, doubling from 1 to
+    /// 60 seconds with every consecutive failure, and a query that fails before it is hedged is retried once on the next best replica
+    /// </summary>
+    internal sealed class KustoReadRouter
+    {
+        // Hedging waits for enough samples to know the latency distribution
+        private const int MinSamplesBeforeHedging = 20;
+        private readonly Replica[] _replicas;
+        private readonly ILogger _logger;
+
+        public KustoReadRouter(IReadOnlyList<KeyValuePair<string, ICslQueryProvider>> replicas, ILogger logger)
+        {
+            if (replicas == null || replicas.Count == 0)
+            {
+                throw new ArgumentException("At least one read replica is needed", nameof(replicas));
+            }
+            this._replicas = replicas.Select(replica => new Replica(replica.Key, replica.Value)).ToArray();
+            this._logger = logger;
+        }
+
+        /// <summary>
+        /// The names of the connections of the replicas, in the order they were configured
+        /// </summary>
+        public IReadOnlyList<string> Connections => this._replicas.Select(replica => replica.Connection).ToArray();
+
+        /// <summary>
+        /// Executes the query on the best replica, hedged to the next best replica after the percentile of recent latencies when hedgeAfterPercentile
+        /// is between 1 and 99. Every request gets its own request properties
+        /// </summary>
+        public async Task<IDataReader> ExecuteQueryAsync(string database, string query, Func<ClientRequestProperties> createRequestProperties, int hedgeAfterPercentile = 0,
+            CancellationToken cancellationToken = default)
+        {
+            Replica primary = this.SelectReplica(null);
+            TimeSpan? hedgeDelay = hedgeAfterPercentile > 0 && hedgeAfterPercentile < 100 && this._replicas.Length > 1 ? primary.GetLatencyPercentile(hedgeAfterPercentile) : null;
+            if (!hedgeDelay.HasValue)
+            {
+                try
+                {
+                    return await primary.ExecuteQueryAsync(database, query, createRequestProperties(), cancellationToken).ConfigureAwait(false);
+                }
+                catch (Exception e) when (this._replicas.Length > 1 && !cancellationToken.IsCancellationRequested && !KustoSpillTarget.IsPermanent(e))
+                {
+                    return await this.FailOverAsync(primary, e, database, query, createRequestProperties, cancellationToken).ConfigureAwait(false);
+                }
+            }
+            using (var primaryCancellation = CancellationTokenSource.CreateLinkedTokenSource(cancellationToken))
+            using (var hedgeCancellation = CancellationTokenSource.CreateLinkedTokenSource(cancellationToken))
+            {
+                Task<IDataReader> primaryQuery = primary.ExecuteQueryAsync(database, query, createRequestProperties(), primaryCancellation.Token);
+                Task delay = Task.Delay(hedgeDelay.Value, hedgeCancellation.Token);
+                if (await Task.WhenAny(primaryQuery, delay).ConfigureAwait(false) == primaryQuery)
+                {
+                    hedgeCancellation.Cancel();
+                    try
+                    {
+                        return await primaryQuery.ConfigureAwait(false);
+                    }
+                    catch (Exception e) when (!cancellationToken.IsCancellationRequested && !KustoSpillTarget.IsPermanent(e))
+                    {
+                        // The query failed before it was hedged, it is retried once like a query that is not hedged
+                        return await this.FailOverAsync(primary, e, database, query, createRequestProperties, cancellationToken).ConfigureAwait(false);
+                    }
+                }
+                Replica secondary = this.SelectReplica(primary);
+                this._logger?.LogDebug($"Hedging query to {secondary.Connection}, {primary.Connection} did not answer within {hedgeDelay.Value.TotalMilliseconds:F0} ms");
+                KustoMetrics.HedgedQueries.Add(1);
+                Task<IDataReader> hedgedQuery = secondary.ExecuteQueryAsync(database, query, createRequestProperties(), hedgeCancellation.Token);
+                Task<IDataReader> first = await Task.WhenAny(primaryQuery, hedgedQuery).ConfigureAwait(false);
+                Task<IDataReader> second = first == primaryQuery ? hedgedQuery : primaryQuery;
+                if (first.Status != TaskStatus.RanToCompletion)
+                {
+                    // The other query may still succeed
+                    return await second.ConfigureAwait(false);
+                }
+                (first == primaryQuery ? hedgeCancellation : primaryCancellation).Cancel();
+                DisposeWhenCompleted(second);
+                return first.Result;
+            }
+        }
+
+        /// <summary>
+        /// Retries a query that failed on a replica once on the next best replica
+        /// </summary>
+        private Task<IDataReader> FailOverAsync(Replica failed, Exception error, string database, string query, Func<ClientRequestProperties> createRequestProperties,
+            CancellationToken cancellationToken)
+        {
+            Replica failover = this.SelectReplica(failed);
+            this._logger?.LogWarning($"Query to {failed.Connection} failed, retrying on {failover.Connection}: {error.Message}");
+            return failover.ExecuteQueryAsync(database, query, createRequestProperties(), cancellationToken);
+        }
+
+        /// <summary>
+        /// The replica with the lowest expected wait among those not backed off, or the one whose backoff ends first when all of them are
+        /// </summary>
+        private Replica SelectReplica(Replica excluded)
+        {
+            Replica best = null;
+            double bestCost = double.MaxValue;
+            Replica firstBackedOff = null;
+            long firstBackoffEnd = long.MaxValue;
+            long now = Stopwatch.GetTimestamp();
+            foreach (Replica replica in this._replicas.Where(replica => replica != excluded))
+            {
+                long backoffEnd = replica.BackoffEndTimestamp;
+                if (backoffEnd > now)
+                {
+                    if (backoffEnd < firstBackoffEnd)
+                    {
+                        firstBackedOff = replica;
+                        firstBackoffEnd = backoffEnd;
+                    }
+                    continue;
+                }
+                double cost = replica.ExpectedWait;
+                if (cost < bestCost)
+                {
+                    best = replica;
+                    bestCost = cost;
+                }
+            }
+            return best ?? firstBackedOff;
+        }
+
+        private static void DisposeWhenCompleted(Task<IDataReader> query)
+        {
+            query.ContinueWith(completed => completed.Result?.Dispose(), CancellationToken.None, TaskContinuationOptions.OnlyOnRanToCompletion, TaskScheduler.Default);
+        }
+
+        private sealed class Replica
+        {
+            private const double LatencySmoothing = 0.2;
+            // Latencies of the last queries, for the hedging percentile
+            private const int LatencyWindow = 128;
+            private const int MaxBackoffSeconds = 60;
+            private readonly ICslQueryProvider _queryProvider;
+            private readonly double[] _latencies = new double[LatencyWindow];
+            private readonly object _lock = new object();
+            private int _latencyCount;
+            private int _outstanding;
+            private double _smoothedLatencyMs;
+            private int _consecutiveFailures;
+            private long _backoffEndTimestamp;
+
+            public Replica(string connection, ICslQueryProvider queryProvider)
+            {
+                this.Connection = connection;
+                this._queryProvider = queryProvider;
+            }
+
+            public string Connection { get; }
+
+            /// <summary>
+            /// The expected wait of a new query. Replicas without measurements come first, so that every replica gets measured
+            /// </summary>
+            public double ExpectedWait
+            {
+                get
+                {
+                    lock (this._lock)
+                    {
+                        return this._latencyCount == 0 ? this._outstanding : this._smoothedLatencyMs * (this._outstanding + 1);
+                    }
+                }
+            }
+
+            /// <summary>
+            /// The timestamp until which the replica gets no queries after a failure, 0 when it is not backed off
+            /// </summary>
+            public long BackoffEndTimestamp
+            {
+                get
+                {
+                    lock (this._lock)
+                    {
+                        return this._backoffEndTimestamp;
+                    }
+                }
+            }
+
+            public TimeSpan? GetLatencyPercentile(int percentile)
+            {
+                double[] latencies;
+                lock (this._lock)
+                {
+                    if (this._latencyCount < MinSamplesBeforeHedging)
+                    {
+                        return null;
+                    }
+                    latencies = this._latencies.Take(Math.Min(this._latencyCount, LatencyWindow)).ToArray();
+                }
+                Array.Sort(latencies);
+                int index = Math.Min(latencies.Length - 1, (int)Math.Ceiling(latencies.Length * percentile / 100.0) - 1);
+                return TimeSpan.FromMilliseconds(latencies[Math.Max(0, index)]);
+            }
+
+            public async Task<IDataReader> ExecuteQueryAsync(string database, string query, ClientRequestProperties requestProperties, CancellationToken cancellationToken)
+            {
+                lock (this._lock)
+                {
+                    this._outstanding++;
+                }
+                long startTimestamp = Stopwatch.GetTimestamp();
+                bool succeeded = false;
+                try
+                {
+                    IDataReader reader = await this._queryProvider.ExecuteQueryAsync(database, query, requestProperties, cancellationToken).ConfigureAwait(false);
+                    succeeded = true;
+                    return reader;
+                }
+                catch (Exception e) when (!cancellationToken.IsCancellationRequested && !KustoSpillTarget.IsPermanent(e))
+                {
+                    // A query that was cancelled, e.g. the loser of a hedge, or that the cluster refused for good says nothing about the replica
+                    lock (this._lock)
+                    {
+                        this._consecutiveFailures++;
+                        double backoffSeconds = Math.Min(MaxBackoffSeconds, Math.Pow(2, Math.Min(this._consecutiveFailures, 10) - 1));
+                        this._backoffEndTimestamp = Stopwatch.GetTimestamp() + (long)(backoffSeconds * Stopwatch.Frequency);
+                    }
+                    throw;
+                }
+                finally
+                {
+                    double latencyMs = (Stopwatch.GetTimestamp() - startTimestamp) * 1000.0 / Stopwatch.Frequency;
+                    lock (this._lock)
+                    {
+                        this._outstanding--;
+                        // Cancelled and failed queries say little about the latency of the replica, they are not measured
+                        if (succeeded)
+                        {
+                            this._consecutiveFailures = 0;
+                            this._backoffEndTimestamp = 0;
+                            this._smoothedLatencyMs = this._latencyCount == 0 ? latencyMs : this._smoothedLatencyMs + ((latencyMs - this._smoothedLatencyMs) * LatencySmoothing);
+                            this._latencies[this._latencyCount % LatencyWindow] = latencyMs;
+                            this._latencyCount++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
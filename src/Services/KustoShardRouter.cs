@@ -0,0 +1,246 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Globalization;
+using System.Linq;
+using Microsoft.Azure.WebJobs.Kusto;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+using Newtonsoft.Json.Serialization;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Splits the rows of a sharded output binding over its targets (connection and database) by the value of the shard key of every row.
+    /// Without boundaries the rows are spread by a hash of the key that is stable across hosts and restarts, with boundaries every target
+    /// takes the keys below its boundary and the last target the rest
+    /// </summary>
+    internal sealed class KustoShardRouter
+    {
+        // Routers by their sharding settings, bounded so that settings resolved from binding expressions cannot grow it without limit
+        private const int MaxCachedRouters = 1024;
+        private const uint FnvOffsetBasis = 2166136261;
+        private const uint FnvPrime = 16777619;
+        private static readonly ConcurrentDictionary<string, KustoShardRouter> Routers = new ConcurrentDictionary<string, KustoShardRouter>(StringComparer.Ordinal);
+        // Readers of a field of the rows by row type, field name and the setting that names the field
+        private static readonly ConcurrentDictionary<(Type, string, string), Func<object, object>> KeyReaders = new ConcurrentDictionary<(Type, string, string), Func<object, object>>();
+        private readonly string[] _boundaries;
+
+        private KustoShardRouter(IReadOnlyList<KustoShardTarget> targets, string shardKey, string[] boundaries)
+        {
+            this.Targets = targets;
+            this.ShardKey = shardKey;
+            this._boundaries = boundaries;
+        }
+
+        public IReadOnlyList<KustoShardTarget> Targets { get; }
+
+        public string ShardKey { get; }
+
+        public bool IsRangeSharded => this._boundaries.Length > 0;
+
+        public static bool IsShardingEnabled(KustoAttribute attribute)
+        {
+            return !string.IsNullOrWhiteSpace(attribute.ShardTargets);
+        }
+
+        /// <summary>
+        /// The router of the sharding settings of the attribute, throws when the settings are malformed
+        /// </summary>
+        public static KustoShardRouter Get(KustoAttribute attribute)
+        {
+            string key = string.Join("\n", attribute.Connection, attribute.Database, attribute.ShardTargets, attribute.ShardKey, attribute.ShardBoundaries);
+            if (Routers.TryGetValue(key, out KustoShardRouter router))
+            {
+                return router;
+            }
+            router = Create(attribute);
+            if (Routers.Count >= MaxCachedRouters)
+            {
+                Routers.Clear();
+            }
+            return Routers.GetOrAdd(key, router);
+        }
+
+        /// <summary>
+        /// Splits the rows by target, the lists are in the order of <see cref="Targets"/> and keep the order of the rows
+        /// </summary>
+        public List<T>[] Split<T>(IEnumerable<T> rows)
+        {
+            var shards = new List<T>[this.Targets.Count];
+            for (int i = 0; i < shards.Length; i++)
+            {
+                shards[i] = new List<T>();
+            }
+            foreach (T row in rows)
+            {
+                shards[this.GetShard(row)].Add(row);
+            }
+            return shards;
+        }
+
+        /// <summary>
+        /// The index of the target of the row
+        /// </summary>
+        public int GetShard(object row)
+        {
+            object keyValue = ReadField(row, this.ShardKey, nameof(KustoAttribute.ShardKey));
+            if (this.IsRangeSharded)
+            {
+                for (int i = 0; i < this._boundaries.Length; i++)
+                {
+                    if (CompareKey(keyValue, this._boundaries[i]) < 0)
+                    {
+                        return i;
+                    }
+                }
+                return this._boundaries.Length;
+            }
+            string keyText = FormatKey(keyValue);
+            // FNV-1a, string.GetHashCode is randomized per process and would send the same key to different targets on different hosts
+            uint hash = FnvOffsetBasis;
+            foreach (char c in keyText)
+            {
+                hash = (hash ^ c) * FnvPrime;
+            }
+            return (int)(hash % (uint)this.Targets.Count);
+        }
+
+        /// <summary>
+        /// The value of a field of a row, read by the name the field has in the ingested JSON
+        /// </summary>
+        /// <param name="settingName">The attribute setting that names the field, for the errors</param>
+        internal static object ReadField(object row, string fieldName, string settingName)
+        {
+            if (row == null)
+            {
+                return null;
+            }
+            Func<object, object> reader = KeyReaders.GetOrAdd((row.GetType(), fieldName, settingName), k => CreateKeyReader(k.Item1, k.Item2, k.Item3));
+            return reader(row);
+        }
+
+        private static Func<object, object> CreateKeyReader(Type rowType, string fieldName, string settingName)
+        {
+            if (typeof(JObject).IsAssignableFrom(rowType))
+            {
+                return row => ((JObject)row).GetValue(fieldName, StringComparison.OrdinalIgnoreCase);
+            }
+            if (rowType == typeof(string))
+            {
+                // Rows handed over as text, only JSON rows have named fields
+                return row =>
+                {
+                    string text = ((string)row).TrimStart();
+                    if (!text.StartsWith("{", StringComparison.Ordinal))
+                    {
+                        throw new InvalidOperationException($"Rows are read as JSON objects to find the {settingName} {fieldName}, the row was not a JSON object");
+                    }
+                    return JObject.Parse(text).GetValue(fieldName, StringComparison.OrdinalIgnoreCase);
+                };
+            }
+            // POCOs are read through the same contract they are serialized with, so the key is named as in the ingested JSON
+            if (JsonSerializer.CreateDefault().ContractResolver.ResolveContract(rowType) is JsonObjectContract contract)
+            {
+                JsonProperty property = contract.Properties.GetClosestMatchProperty(fieldName);
+                if (property != null && property.Readable)
+                {
+                    return row => property.ValueProvider.GetValue(row);
+                }
+            }
+            throw new InvalidOperationException($"The {settingName} {fieldName} is not a property of the rows of type {rowType.Name}");
+        }
+
+        private static int CompareKey(object keyValue, string boundary)
+        {
+            string keyText = FormatKey(keyValue);
+            // Numbers are compared as numbers, other keys by their text
+            if (double.TryParse(keyText, NumberStyles.Float, CultureInfo.InvariantCulture, out double keyNumber) &&
+                double.TryParse(boundary, NumberStyles.Float, CultureInfo.InvariantCulture, out double boundaryNumber))
+            {
+                return keyNumber.CompareTo(boundaryNumber);
+            }
+            return string.CompareOrdinal(keyText, boundary);
+        }
+
+        /// <summary>
+        /// The text of a key value, the same on every host
+        /// </summary>
+        internal static string FormatKey(object keyValue)
+        {
+            if (keyValue is JValue jValue)
+            {
+                keyValue = jValue.Value;
+            }
+            switch (keyValue)
+            {
+                case null:
+                    return string.Empty;
+                case DateTime dateTime:
+                    return dateTime.ToString("o", CultureInfo.InvariantCulture);
+                case DateTimeOffset dateTimeOffset:
+                    return dateTimeOffset.UtcDateTime.ToString("o", CultureInfo.InvariantCulture);
+                case JToken token:
+                    return token.ToString(Formatting.None);
+                default:
+                    return Convert.ToString(keyValue, CultureInfo.InvariantCulture);
+            }
+        }
+
+        private static KustoShardRouter Create(KustoAttribute attribute)
+        {
+            if (string.IsNullOrWhiteSpace(attribute.ShardKey))
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.ShardKey)} is needed to shard the rows over the {nameof(KustoAttribute.ShardTargets)}");
+            }
+            // A target is Connection/Database, or just a Database on the connection of the binding
+            KustoShardTarget[] targets = attribute.ShardTargets.Split(',').Select(target => target.Trim()).Where(target => target.Length > 0).Select(target =>
+            {
+                int separator = target.IndexOf('/');
+                return separator < 0
+                    ? new KustoShardTarget(attribute.Connection, target)
+                    : new KustoShardTarget(target.Substring(0, separator).Trim(), target.Substring(separator + 1).Trim());
+            }).ToArray();
+            if (targets.Any(target => string.IsNullOrEmpty(target.Database)))
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.ShardTargets)} {attribute.ShardTargets} should list Connection/Database or Database targets");
+            }
+            string[] boundaries = string.IsNullOrWhiteSpace(attribute.ShardBoundaries) ? Array.Empty<string>() :
+                attribute.ShardBoundaries.Split(',').Select(boundary => boundary.Trim()).ToArray();
+            if (boundaries.Length > 0 && boundaries.Length != targets.Length - 1)
+            {
+                throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.ShardBoundaries)} should have one boundary less than the {targets.Length} targets, it has {boundaries.Length}");
+            }
+            for (int i = 1; i < boundaries.Length; i++)
+            {
+                if (CompareKey(boundaries[i - 1], boundaries[i]) >= 0)
+                {
+                    throw new InvalidOperationException($"{nameof(KustoAttribute)}.{nameof(KustoAttribute.ShardBoundaries)} should be in ascending order, {boundaries[i - 1]} is not below {boundaries[i]}");
+                }
+            }
+            return new KustoShardRouter(targets, attribute.ShardKey.Trim(), boundaries);
+        }
+    }
+
+    /// <summary>
+    /// A connection and database rows of a sharded output binding are ingested into
+    /// </summary>
+    internal sealed class KustoShardTarget
+    {
+        public KustoShardTarget(string connection, string database)
+        {
+            this.Connection = connection;
+            this.Database = database;
+        }
+
+        /// <summary>
+        /// The app setting name of the connection string, null for the default connection
+        /// </summary>
+        public string Connection { get; }
+
+        public string Database { get; }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,156 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.IO;
+using System.Linq;
+using System.Security.Cryptography;
+using System.Text;
+using System.Threading;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// A host wide log on local disk the output bindings write their rows to instead of ingesting them, so that invocations complete as soon
+    /// as the rows are on disk whether the cluster is available or not. Each target has its own directory of memory mapped segments that a
+    /// background drainer ingests in order. Rows are delivered at least once: a crash between an ingestion and the record being marked drained
+    /// ingests the record again, with the same SourceId
+    /// </summary>
+    internal class KustoSpillLog : IDisposable
+    {
+        private readonly ConcurrentDictionary<string, KustoSpillTarget> _targets = new ConcurrentDictionary<string, KustoSpillTarget>(StringComparer.Ordinal);
+        private readonly string _directory;
+        private readonly long _maxBytes;
+        private readonly long _segmentBytes;
+        private readonly Func<KustoAttribute, KustoIngestContext> _contextFactory;
+        private readonly ILogger _logger;
+        // The size of the records being appended, they are counted against maxBytes before the lock of their target is taken
+        private long _reservedBytes;
+
+        /// <param name="directory">The directory of the log, it must not be shared with other hosts</param>
+        /// <param name="maxBytes">The size of the records not drained yet above which rows are no longer spilled</param>
+        /// <param name="segmentBytes">The size of the segment files</param>
+        /// <param name="contextFactory">Creates the ingest context of a target recovered from a previous host</param>
+        public KustoSpillLog(string directory, long maxBytes, long segmentBytes, Func<KustoAttribute, KustoIngestContext> contextFactory, ILogger logger)
+        {
+            this._directory = directory;
+            this._maxBytes = maxBytes;
+            this._segmentBytes = segmentBytes;
+            this._contextFactory = contextFactory;
+            this._logger = logger;
+        }
+
+        /// <summary>
+        /// The size of the records of all the targets that are not drained yet
+        /// </summary>
+        public long PendingBytes => this._targets.Values.Sum(target => target.PendingBytes);
+
+        /// <summary>
+        /// Reopens the targets left in the directory by a previous host and starts draining them
+        /// </summary>
+        public void Recover()
+        {
+            if (!Directory.Exists(this._directory))
+            {
+                return;
+            }
+            foreach (string targetDirectory in Directory.GetDirectories(this._directory))
+            {
+                if (!File.Exists(Path.Combine(targetDirectory, KustoSpillTarget.TargetFileName)))
+                {
+                    continue;
+                }
+                try
+                {
+                    KustoSpillTarget target = KustoSpillTarget.Open(targetDirectory, this._segmentBytes, this._contextFactory, this._logger);
+                    if (this._targets.TryAdd(KustoSpillTarget.BuildTargetKey(target.Attribute), target))
+                    {
+                        KustoMetrics.RegisterSpillTarget(target);
+                        this._logger.LogInformation("Recovered {PendingRecords} spilled records to table {TableName} from {SpillDirectory}", target.PendingRecords, target.Attribute.TableName, targetDirectory);
+                        target.Start();
+                    }
+                    else
+                    {
+                        target.Dispose();
+                    }
+                }
+                catch (Exception e)
+                {
+                    this._logger.LogError(e, "Could not recover the spilled rows in {SpillDirectory}, they are left in place", targetDirectory);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Writes the serialized rows of an invocation to the log of its target, they are ingested in the background with the given SourceId
+        /// </summary>
+        /// <param name="context">The ingest context of the invocation</param>
+        /// <param name="serializedRows">The rows serialized one per line in the data format of the binding</param>
+        /// <param name="rowCount">The number of rows in serializedRows</param>
+        /// <param name="sourceId">The SourceId the rows are ingested with</param>
+        /// <returns>True when the rows are on disk, false when the log is full and the rows have to be ingested by the caller</returns>
+        public bool TryAppend(KustoIngestContext context, Stream serializedRows, int rowCount, Guid sourceId)
+        {
+            KustoAttribute attribute = context.ResolvedAttribute;
+            long payloadLength = serializedRows.Length - serializedRows.Position;
+            long recordBytes = KustoSpillSegment.HeaderBytes + payloadLength;
+            // The targets have a lock each, concurrent appends reserve their bytes first so that together they cannot go over maxBytes.
+            // A record is counted twice between its append and the release of its reservation, which only rejects rows early
+            long reservedBytes = Interlocked.Add(ref this._reservedBytes, recordBytes);
+            long pendingBytes = this.PendingBytes + reservedBytes - recordBytes;
+            if (payloadLength > int.MaxValue || pendingBytes + recordBytes > this._maxBytes)
+            {
+                Interlocked.Add(ref this._reservedBytes, -recordBytes);
+                KustoMetrics.SpillRejected.Add(1, KustoMetrics.SpillTags(attribute));
+                if (this._logger.IsEnabled(LogLevel.Debug))
+                {
+                    this._logger.LogDebug($"Spill log is full with {pendingBytes} bytes pending, {rowCount} rows to table {attribute.TableName} are ingested right away");
+                }
+                return false;
+            }
+            KustoSpillTarget target;
+            try
+            {
+                target = this._targets.GetOrAdd(KustoSpillTarget.BuildTargetKey(attribute), key => this.CreateTarget(key, attribute));
+                target.Append(context, serializedRows, (int)payloadLength, rowCount, sourceId);
+            }
+            finally
+            {
+                Interlocked.Add(ref this._reservedBytes, -recordBytes);
+            }
+            KustoMetrics.SpilledRows.Add(rowCount, KustoMetrics.SpillTags(attribute));
+            target.Start();
+            return true;
+        }
+
+        private KustoSpillTarget CreateTarget(string targetKey, KustoAttribute attribute)
+        {
+            KustoSpillTarget target = KustoSpillTarget.Create(Path.Combine(this._directory, GetTargetDirectoryName(targetKey, attribute)), attribute, this._segmentBytes, this._contextFactory, this._logger);
+            KustoMetrics.RegisterSpillTarget(target);
+            return target;
+        }
+
+        /// <summary>
+        /// The name of the table, stripped of the characters that are not valid in file names, followed by a hash of the target key
+        /// </summary>
+        internal static string GetTargetDirectoryName(string targetKey, KustoAttribute attribute)
+        {
+            string tableName = new string((attribute.TableName ?? string.Empty).Where(c => char.IsLetterOrDigit(c) || c == '_' || c == '-').Take(64).ToArray());
+            using var sha256 = SHA256.Create();
+            byte[] hash = sha256.ComputeHash(Encoding.UTF8.GetBytes(targetKey));
+            return $"{tableName}-{BitConverter.ToString(hash, 0, 8).Replace("-", string.Empty)}";
+        }
+
+        public void Dispose()
+        {
+            foreach (KustoSpillTarget target in this._targets.Values)
+            {
+                target.Dispose();
+            }
+            this._targets.Clear();
+        }
+    }
+}
\ No newline at end of file
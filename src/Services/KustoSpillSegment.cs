@@ -0,0 +1,207 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Buffers;
+using System.Collections.Generic;
+using System.IO;
+using System.IO.MemoryMappedFiles;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// A file of the spill log, memory mapped and written append only. Each record is a fixed header (state, payload length, row count,
+    /// SourceId and creation time) followed by the serialized rows. The state of a record is written last, once the rest of the record is
+    /// flushed to disk, so a record cut short by a crash stays empty and is overwritten
+    /// </summary>
+    internal sealed class KustoSpillSegment : IDisposable
+    {
+        public const int HeaderBytes = 36;
+        // The state of a record that was never completed is 0, the value of a new file
+        private const int StateWritten = 1;
+        private const int StateDrained = 2;
+        private const int CopyBufferBytes = 81920;
+        private readonly MemoryMappedFile _file;
+        private readonly MemoryMappedViewAccessor _view;
+        private long _writeOffset;
+
+        private KustoSpillSegment(string path, long sequence, long capacity)
+        {
+            this.Path = path;
+            this.Sequence = sequence;
+            this.Capacity = capacity;
+            this._file = MemoryMappedFile.CreateFromFile(path, FileMode.OpenOrCreate, null, capacity, MemoryMappedFileAccess.ReadWrite);
+            this._view = this._file.CreateViewAccessor(0, capacity, MemoryMappedFileAccess.ReadWrite);
+        }
+
+        public string Path { get; }
+
+        /// <summary>
+        /// The order of the segment in the log of its target, records are drained in the order of the segments
+        /// </summary>
+        public long Sequence { get; }
+
+        public long Capacity { get; }
+
+        /// <summary>
+        /// The records of the segment that are not drained yet
+        /// </summary>
+        public int PendingRecords { get; private set; }
+
+        /// <summary>
+        /// Creates a new segment file of the given size
+        /// </summary>
+        public static KustoSpillSegment Create(string path, long sequence, long capacity)
+        {
+            return new KustoSpillSegment(path, sequence, capacity);
+        }
+
+        /// <summary>
+        /// Opens the segment file left by a previous host and returns the records it has not drained, in the order they were written
+        /// </summary>
+        public static KustoSpillSegment Open(string path, long sequence, out List<KustoSpillRecord> pendingRecords)
+        {
+            var segment = new KustoSpillSegment(path, sequence, new FileInfo(path).Length);
+            pendingRecords = new List<KustoSpillRecord>();
+            long offset = 0;
+            while (offset + HeaderBytes <= segment.Capacity)
+            {
+                int state = segment._view.ReadInt32(offset);
+                int payloadLength = segment._view.ReadInt32(offset + 4);
+                // The scan stops at the first record that was never completed, nothing is written after it
+                if ((state != StateWritten && state != StateDrained) || payloadLength < 0 || offset + HeaderBytes + payloadLength > segment.Capacity)
+                {
+                    break;
+                }
+                if (state == StateWritten)
+                {
+                    byte[] sourceId = new byte[16];
+                    segment._view.ReadArray(offset + 12, sourceId, 0, sourceId.Length);
+                    pendingRecords.Add(new KustoSpillRecord(segment, offset, payloadLength, segment._view.ReadInt32(offset + 8), new Guid(sourceId), segment._view.ReadInt64(offset + 28)));
+                }
+                offset += HeaderBytes + payloadLength;
+            }
+            segment._writeOffset = offset;
+            segment.PendingRecords = pendingRecords.Count;
+            return segment;
+        }
+
+        /// <summary>
+        /// Appends the serialized rows as a new record and flushes it to disk. Returns null when the segment has no room left for the record
+        /// </summary>
+        public KustoSpillRecord TryAppend(Stream serializedRows, int payloadLength, int rowCount, Guid sourceId, long createdUnixMs)
+        {
+            long offset = this._writeOffset;
+            if (offset + HeaderBytes + payloadLength > this.Capacity)
+            {
+                return null;
+            }
+            this._view.Write(offset + 4, payloadLength);
+            this._view.Write(offset + 8, rowCount);
+            byte[] sourceIdBytes = sourceId.ToByteArray();
+            this._view.WriteArray(offset + 12, sourceIdBytes, 0, sourceIdBytes.Length);
+            this._view.Write(offset + 28, createdUnixMs);
+            byte[] buffer = ArrayPool<byte>.Shared.Rent(CopyBufferBytes);
+            try
+            {
+                long position = offset + HeaderBytes;
+                int read;
+                while ((read = serializedRows.Read(buffer, 0, buffer.Length)) > 0)
+                {
+                    this._view.WriteArray(position, buffer, 0, read);
+                    position += read;
+                }
+            }
+            finally
+            {
+                ArrayPool<byte>.Shared.Return(buffer);
+            }
+            this._view.Flush();
+            this._view.Write(offset, StateWritten);
+            this._view.Flush();
+            this._writeOffset = offset + HeaderBytes + payloadLength;
+            this.PendingRecords++;
+            return new KustoSpillRecord(this, offset, payloadLength, rowCount, sourceId, createdUnixMs);
+        }
+
+        /// <summary>
+        /// Copies the serialized rows of the record into a pooled stream positioned at the start
+        /// </summary>
+        public Stream ReadPayload(KustoSpillRecord record)
+        {
+            Stream payload = KustoBindingUtilities.GetPayloadStream();
+            byte[] buffer = ArrayPool<byte>.Shared.Rent(CopyBufferBytes);
+            try
+            {
+                long position = record.Offset + HeaderBytes;
+                long remaining = record.PayloadLength;
+                while (remaining > 0)
+                {
+                    int count = (int)Math.Min(buffer.Length, remaining);
+                    this._view.ReadArray(position, buffer, 0, count);
+                    payload.Write(buffer, 0, count);
+                    position += count;
+                    remaining -= count;
+                }
+            }
+            finally
+            {
+                ArrayPool<byte>.Shared.Return(buffer);
+            }
+            payload.Position = 0;
+            return payload;
+        }
+
+        /// <summary>
+        /// Marks the record as drained so that it is not ingested again after a restart
+        /// </summary>
+        public void MarkDrained(KustoSpillRecord record)
+        {
+            this._view.Write(record.Offset, StateDrained);
+            this._view.Flush();
+            this.PendingRecords--;
+        }
+
+        public void Dispose()
+        {
+            this._view.Dispose();
+            this._file.Dispose();
+        }
+    }
+
+    /// <summary>
+    /// A record of the spill log that has not been drained yet
+    /// </summary>
+    internal sealed class KustoSpillRecord
+    {
+        public KustoSpillRecord(KustoSpillSegment segment, long offset, int payloadLength, int rowCount, Guid sourceId, long createdUnixMs)
+        {
+            this.Segment = segment;
+            this.Offset = offset;
+            this.PayloadLength = payloadLength;
+            this.RowCount = rowCount;
+            this.SourceId = sourceId;
+            this.CreatedUnixMs = createdUnixMs;
+        }
+
+        public KustoSpillSegment Segment { get; }
+
+        public long Offset { get; }
+
+        public int PayloadLength { get; }
+
+        public int RowCount { get; }
+
+        /// <summary>
+        /// The SourceId of the invocation that spilled the rows, reused by every attempt to ingest them
+        /// </summary>
+        public Guid SourceId { get; }
+
+        public long CreatedUnixMs { get; }
+
+        /// <summary>
+        /// The size of the record in the segment, header included
+        /// </summary>
+        public long Bytes => KustoSpillSegment.HeaderBytes + this.PayloadLength;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,360 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Globalization;
+using System.IO;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Data.Common;
+using Kusto.Data.Exceptions;
+using Kusto.Ingest;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// The spilled rows of a single target (connection, database, table, format and mapping), kept in a directory of segments and ingested
+    /// by a background drainer one record at a time, in the order they were spilled. A record is only marked drained once its ingestion
+    /// succeeded or failed for good, transient failures are retried with an exponential backoff while the records behind it wait
+    /// </summary>
+    internal sealed class KustoSpillTarget : IDisposable
+    {
+        public const string TargetFileName = "target.json";
+        public const string SegmentExtension = ".seg";
+        public const string DeadLetterDirectoryName = "deadletter";
+        private static readonly TimeSpan MinRetryDelay = TimeSpan.FromSeconds(1);
+        private static readonly TimeSpan MaxRetryDelay = TimeSpan.FromSeconds(60);
+        private readonly object _lock = new object();
+        private readonly Queue<KustoSpillRecord> _pendingRecords = new Queue<KustoSpillRecord>();
+        private readonly List<KustoSpillSegment> _segments = new List<KustoSpillSegment>();
+        private readonly SemaphoreSlim _signal = new SemaphoreSlim(0);
+        private readonly CancellationTokenSource _stopping = new CancellationTokenSource();
+        private readonly string _directory;
+        private readonly long _segmentBytes;
+        private readonly Func<KustoAttribute, KustoIngestContext> _contextFactory;
+        private readonly ILogger _logger;
+        private KustoSpillSegment _activeSegment;
+        private KustoIngestContext _context;
+        private long _pendingBytes;
+        private Task _drainer;
+
+        private KustoSpillTarget(string directory, KustoAttribute attribute, long segmentBytes, Func<KustoAttribute, KustoIngestContext> contextFactory, ILogger logger)
+        {
+            this._directory = directory;
+            this.Attribute = attribute;
+            this._segmentBytes = segmentBytes;
+            this._contextFactory = contextFactory;
+            this._logger = logger;
+        }
+
+        /// <summary>
+        /// The attribute the spilled rows are ingested with
+        /// </summary>
+        public KustoAttribute Attribute { get; }
+
+        /// <summary>
+        /// The size of the records that are not drained yet, headers included
+        /// </summary>
+        public long PendingBytes => Interlocked.Read(ref this._pendingBytes);
+
+        public int PendingRecords
+        {
+            get
+            {
+                lock (this._lock)
+                {
+                    return this._pendingRecords.Count;
+                }
+            }
+        }
+
+        /// <summary>
+        /// How long the oldest record that is not drained yet has been waiting, 0 when there is none
+        /// </summary>
+        public double OldestPendingAgeMs
+        {
+            get
+            {
+                lock (this._lock)
+                {
+                    return this._pendingRecords.Count == 0 ? 0 : Math.Max(0, DateTimeOffset.UtcNow.ToUnixTimeMilliseconds() - this._pendingRecords.Peek().CreatedUnixMs);
+                }
+            }
+        }
+
+        /// <summary>
+        /// The key of the target, attributes with the same key spill into the same directory
+        /// </summary>
+        public static string BuildTargetKey(KustoAttribute attribute)
+        {
+            return $"{attribute.Connection}|{attribute.ManagedServiceIdentity}|{attribute.IngestionType}|{attribute.Database}|{attribute.TableName}|" +
+                $"{attribute.DataFormat}|{attribute.MappingRef}|{attribute.IngestionProperties}|{attribute.Compression}|" +
+                $"{KustoIngestIdentity.IsEnabled(attribute)}";
+        }
+
+        /// <summary>
+        /// Creates the directory of a new target and records the attribute in it, so that the rows can be ingested after a restart
+        /// </summary>
+        public static KustoSpillTarget Create(string directory, KustoAttribute attribute, long segmentBytes, Func<KustoAttribute, KustoIngestContext> contextFactory, ILogger logger)
+        {
+            Directory.CreateDirectory(directory);
+            var target = new JObject
+            {
+                { nameof(KustoAttribute.Connection), attribute.Connection },
+                { nameof(KustoAttribute.Database), attribute.Database },
+                { nameof(KustoAttribute.TableName), attribute.TableName },
+                { nameof(KustoAttribute.DataFormat), attribute.DataFormat },
+                { nameof(KustoAttribute.MappingRef), attribute.MappingRef },
+                { nameof(KustoAttribute.IngestionType), attribute.IngestionType },
+                { nameof(KustoAttribute.IngestionProperties), attribute.IngestionProperties },
+                { nameof(KustoAttribute.ManagedServiceIdentity), attribute.ManagedServiceIdentity },
+                { nameof(KustoAttribute.Compression), attribute.Compression },
+                // The SourceIds of the records are derived from the identity of their invocation, the target only needs it to tag the ingested extents
+                { nameof(KustoAttribute.IngestIdentity), attribute.IngestIdentity },
+                { nameof(KustoAttribute.IngestIdentityKey), attribute.IngestIdentityKey },
+            };
+            File.WriteAllText(Path.Combine(directory, TargetFileName), target.ToString(Formatting.Indented));
+            return new KustoSpillTarget(directory, attribute, segmentBytes, contextFactory, logger);
+        }
+
+        /// <summary>
+        /// Opens the directory of a target left by a previous host and queues the records it has not drained
+        /// </summary>
+        public static KustoSpillTarget Open(string directory, long segmentBytes, Func<KustoAttribute, KustoIngestContext> contextFactory, ILogger logger)
+        {
+            JObject target = JObject.Parse(File.ReadAllText(Path.Combine(directory, TargetFileName)));
+            var attribute = new KustoAttribute((string)target[nameof(KustoAttribute.Database)])
+            {
+                Connection = (string)target[nameof(KustoAttribute.Connection)],
+                TableName = (string)target[nameof(KustoAttribute.TableName)],
+                DataFormat = (string)target[nameof(KustoAttribute.DataFormat)],
+                MappingRef = (string)target[nameof(KustoAttribute.MappingRef)],
+                IngestionType = (string)target[nameof(KustoAttribute.IngestionType)],
+                IngestionProperties = (string)target[nameof(KustoAttribute.IngestionProperties)],
+                ManagedServiceIdentity = (string)target[nameof(KustoAttribute.ManagedServiceIdentity)],
+                Compression = (string)target[nameof(KustoAttribute.Compression)],
+                IngestIdentity = (string)target[nameof(KustoAttribute.IngestIdentity)],
+                IngestIdentityKey = (string)target[nameof(KustoAttribute.IngestIdentityKey)],
+            };
+            var spillTarget = new KustoSpillTarget(directory, attribute, segmentBytes, contextFactory, logger);
+            foreach (string segmentPath in Directory.GetFiles(directory, "*" + SegmentExtension).OrderBy(path => path, StringComparer.Ordinal))
+            {
+                if (new FileInfo(segmentPath).Length == 0)
+                {
+                    File.Delete(segmentPath);
+                    continue;
+                }
+                long sequence = long.Parse(Path.GetFileNameWithoutExtension(segmentPath), NumberStyles.None, CultureInfo.InvariantCulture);
+                KustoSpillSegment segment = KustoSpillSegment.Open(segmentPath, sequence, out List<KustoSpillRecord> pendingRecords);
+                if (pendingRecords.Count == 0)
+                {
+                    segment.Dispose();
+                    File.Delete(segmentPath);
+                    continue;
+                }
+                // Segments of a previous host are only drained, new records go to a new segment
+                spillTarget._segments.Add(segment);
+                foreach (KustoSpillRecord record in pendingRecords)
+                {
+                    spillTarget._pendingRecords.Enqueue(record);
+                    spillTarget._pendingBytes += record.Bytes;
+                }
+            }
+            return spillTarget;
+        }
+
+        /// <summary>
+        /// Writes the serialized rows to the active segment of the target and wakes up the drainer. The record is on disk when this method returns
+        /// </summary>
+        /// <param name="context">The ingest context of the invocation, used to ingest the records of the target</param>
+        public KustoSpillRecord Append(KustoIngestContext context, Stream serializedRows, int payloadLength, int rowCount, Guid sourceId)
+        {
+            KustoSpillRecord record;
+            lock (this._lock)
+            {
+                this._context ??= context;
+                long createdUnixMs = DateTimeOffset.UtcNow.ToUnixTimeMilliseconds();
+                record = this._activeSegment?.TryAppend(serializedRows, payloadLength, rowCount, sourceId, createdUnixMs);
+                if (record == null)
+                {
+                    // A record larger than a segment gets a segment of its own
+                    long sequence = this._segments.Count == 0 ? 1 : this._segments[this._segments.Count - 1].Sequence + 1;
+                    string segmentPath = Path.Combine(this._directory, sequence.ToString("D10", CultureInfo.InvariantCulture) + SegmentExtension);
+                    this._activeSegment = KustoSpillSegment.Create(segmentPath, sequence, Math.Max(this._segmentBytes, KustoSpillSegment.HeaderBytes + payloadLength));
+                    this._segments.Add(this._activeSegment);
+                    this.DeleteDrainedSegments();
+                    record = this._activeSegment.TryAppend(serializedRows, payloadLength, rowCount, sourceId, createdUnixMs);
+                }
+                this._pendingRecords.Enqueue(record);
+                Interlocked.Add(ref this._pendingBytes, record.Bytes);
+            }
+            this._signal.Release();
+            return record;
+        }
+
+        /// <summary>
+        /// Starts draining the records of the target in the background
+        /// </summary>
+        public void Start()
+        {
+            lock (this._lock)
+            {
+                this._drainer ??= Task.Run(this.DrainAsync);
+            }
+        }
+
+        private async Task DrainAsync()
+        {
+            TimeSpan retryDelay = MinRetryDelay;
+            CancellationToken stopping = this._stopping.Token;
+            while (!stopping.IsCancellationRequested)
+            {
+                KustoSpillRecord record;
+                lock (this._lock)
+                {
+                    record = this._pendingRecords.Count == 0 ? null : this._pendingRecords.Peek();
+                }
+                try
+                {
+                    if (record == null)
+                    {
+                        await this._signal.WaitAsync(stopping);
+                        continue;
+                    }
+                    IngestionStatus ingestionStatus = await this.IngestRecordAsync(record, stopping);
+                    if (ingestionStatus?.Status == Status.Failed || ingestionStatus?.Status == Status.PartiallySucceeded)
+                    {
+                        this.DeadLetter(record, $"ingestion status {ingestionStatus.Status}");
+                    }
+                    this.CompleteRecord(record);
+                    retryDelay = MinRetryDelay;
+                }
+                catch (OperationCanceledException) when (stopping.IsCancellationRequested)
+                {
+                    return;
+                }
+                catch (Exception e) when (IsPermanent(e))
+                {
+                    this._logger.LogError(e, "Permanent failure ingesting spilled rows with SourceId {IngestSourceId} to table {TableName}", record.SourceId.ToString(), this.Attribute.TableName);
+                    this.DeadLetter(record, e.Message);
+                    this.CompleteRecord(record);
+                }
+                catch (Exception e)
+                {
+                    KustoMetrics.SpillRetries.Add(1, KustoMetrics.SpillTags(this.Attribute));
+                    this._logger.LogWarning(e, "Transient failure ingesting spilled rows with SourceId {IngestSourceId} to table {TableName}, retrying in {RetryDelay}",
+                        record.SourceId.ToString(), this.Attribute.TableName, retryDelay);
+                    try
+                    {
+                        await Task.Delay(retryDelay, stopping);
+                    }
+                    catch (OperationCanceledException)
+                    {
+                        return;
+                    }
+                    retryDelay = TimeSpan.FromTicks(Math.Min(retryDelay.Ticks * 2, MaxRetryDelay.Ticks));
+                }
+            }
+        }
+
+        private async Task<IngestionStatus> IngestRecordAsync(KustoSpillRecord record, CancellationToken cancellationToken)
+        {
+            this._context ??= this._contextFactory(this.Attribute);
+            DataSourceFormat format = KustoBindingUtilities.GetDataFormat(this.Attribute.DataFormat, record.RowCount);
+            // The SourceId of the invocation is kept across retries, so that a retried ingestion can be recognized
+            var streamSourceOptions = new StreamSourceOptions()
+            {
+                SourceId = record.SourceId,
+            };
+            if (this._logger.IsEnabled(LogLevel.Debug))
+            {
+                this._logger.LogDebug($"Ingesting {record.RowCount} spilled rows with SourceId {record.SourceId} to table {this.Attribute.TableName}");
+            }
+            // The ingest client disposes the payload once done with it, returning the pooled buffers
+            Stream payload = record.Segment.ReadPayload(record);
+            IKustoIngestionService ingestionService = IKustoIngestionService.Create(this._context, this._logger, record.PayloadLength);
+            return await ingestionService.IngestData(format, payload, record.RowCount, streamSourceOptions, cancellationToken);
+        }
+
+        /// <summary>
+        /// Keeps the rows of a record the cluster refused in the dead letter directory of the target, named after the SourceId of the record
+        /// </summary>
+        private void DeadLetter(KustoSpillRecord record, string reason)
+        {
+            KustoMetrics.SpillDeadLettered.Add(1, KustoMetrics.SpillTags(this.Attribute));
+            string deadLetterDirectory = Path.Combine(this._directory, DeadLetterDirectoryName);
+            Directory.CreateDirectory(deadLetterDirectory);
+            string deadLetterPath = Path.Combine(deadLetterDirectory, record.SourceId.ToString());
+            using (Stream payload = record.Segment.ReadPayload(record))
+            using (FileStream deadLetter = File.Create(deadLetterPath))
+            {
+                payload.CopyTo(deadLetter);
+            }
+            this._logger.LogError("Spilled rows with SourceId {IngestSourceId} to table {TableName} could not be ingested ({Reason}), they were moved to {DeadLetterPath}",
+                record.SourceId.ToString(), this.Attribute.TableName, reason, deadLetterPath);
+        }
+
+        private void CompleteRecord(KustoSpillRecord record)
+        {
+            lock (this._lock)
+            {
+                this._pendingRecords.Dequeue();
+                record.Segment.MarkDrained(record);
+                Interlocked.Add(ref this._pendingBytes, -record.Bytes);
+                this.DeleteDrainedSegments();
+            }
+        }
+
+        /// <summary>
+        /// Deletes the segments, other than the active one, whose records are all drained
+        /// </summary>
+        private void DeleteDrainedSegments()
+        {
+            for (int i = this._segments.Count - 1; i >= 0; i--)
+            {
+                KustoSpillSegment segment = this._segments[i];
+                if (segment != this._activeSegment && segment.PendingRecords == 0)
+                {
+                    this._segments.RemoveAt(i);
+                    segment.Dispose();
+                    File.Delete(segment.Path);
+                }
+            }
+        }
+
+        /// <summary>
+        /// Whether the failure will not go away by retrying, e.g. a missing table or mapping
+        /// </summary>
+        internal static bool IsPermanent(Exception exception)
+        {
+            for (Exception e = exception; e != null; e = e.InnerException)
+            {
+                if (e is KustoException kustoException && kustoException.IsPermanent)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void Dispose()
+        {
+            this._stopping.Cancel();
+            lock (this._lock)
+            {
+                foreach (KustoSpillSegment segment in this._segments)
+                {
+                    segment.Dispose();
+                }
+                this._segments.Clear();
+                this._activeSegment = null;
+            }
+        }
+    }
+}
\ No newline at end of file
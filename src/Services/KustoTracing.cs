@@ -0,0 +1,61 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Diagnostics;
+using Microsoft.Azure.WebJobs.Kusto;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// The spans of the extension, published through an ActivitySource with the name of the meter. OpenTelemetry picks them up with
+    /// AddSource("Microsoft.Azure.WebJobs.Extensions.Kusto"), without a listener no span is created
+    /// </summary>
+    internal static class KustoTracing
+    {
+        private static readonly ActivitySource Source = new ActivitySource(KustoMetrics.MeterName, KustoConstants.AssemblyVersion);
+
+        /// <summary>
+        /// Starts the span of an ingestion, tagged with the SourceId that identifies the ingestion in the cluster
+        /// </summary>
+        public static Activity StartIngestion(KustoAttribute attribute, Guid sourceId, int rowCount, long byteCount)
+        {
+            Activity activity = Source.StartActivity("Kusto ingest", ActivityKind.Client);
+            if (activity != null)
+            {
+                activity.SetTag("db.system", "kusto");
+                activity.SetTag("db.name", attribute.Database);
+                activity.SetTag("kusto.table", attribute.TableName);
+                activity.SetTag("kusto.ingestion_mode", KustoMetrics.IngestionMode(attribute));
+                activity.SetTag("kusto.source_id", sourceId.ToString());
+                activity.SetTag("kusto.rows", rowCount);
+                activity.SetTag("kusto.bytes", byteCount);
+            }
+            return activity;
+        }
+
+        /// <summary>
+        /// Starts the span of a query or control command, tagged with the ClientRequestId that identifies the request in the cluster
+        /// </summary>
+        public static Activity StartQuery(KustoAttribute attribute, bool isControlCommand, string clientRequestId)
+        {
+            Activity activity = Source.StartActivity(isControlCommand ? "Kusto control command" : "Kusto query", ActivityKind.Client);
+            if (activity != null)
+            {
+                activity.SetTag("db.system", "kusto");
+                activity.SetTag("db.name", attribute.Database);
+                activity.SetTag("kusto.client_request_id", clientRequestId);
+            }
+            return activity;
+        }
+
+        public static void SetError(Activity activity, Exception exception)
+        {
+            if (activity != null)
+            {
+                activity.SetStatus(ActivityStatusCode.Error, exception.Message);
+                activity.SetTag("error.type", exception.GetType().FullName);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,174 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Reflection;
+using System.Threading.Tasks;
+using Microsoft.Azure.WebJobs.Host.Bindings;
+using Microsoft.Azure.WebJobs.Host.Listeners;
+using Microsoft.Azure.WebJobs.Host.Protocols;
+using Microsoft.Azure.WebJobs.Host.Triggers;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Creates the bindings of the parameters that have a <see cref="KustoTriggerAttribute"/>
+    /// </summary>
+    internal sealed class KustoTriggerBindingProvider : ITriggerBindingProvider
+    {
+        private readonly KustoExtensionConfigProvider _configProvider;
+        private readonly ILogger _logger;
+
+        public KustoTriggerBindingProvider(KustoExtensionConfigProvider configProvider, ILogger logger)
+        {
+            this._configProvider = configProvider;
+            this._logger = logger;
+        }
+
+        public Task<ITriggerBinding> TryCreateAsync(TriggerBindingProviderContext context)
+        {
+            if (context == null)
+            {
+                throw new ArgumentNullException(nameof(context));
+            }
+            ParameterInfo parameter = context.Parameter;
+            KustoTriggerAttribute attribute = parameter.GetCustomAttribute<KustoTriggerAttribute>(inherit: false);
+            if (attribute == null)
+            {
+                return Task.FromResult<ITriggerBinding>(null);
+            }
+            if (!KustoTriggerBinding.IsSupportedType(parameter.ParameterType))
+            {
+                throw new InvalidOperationException($"{nameof(KustoTriggerAttribute)} binds to T[], IReadOnlyList<T>, List<T>, {nameof(JArray)} or string, not to {parameter.ParameterType.Name}");
+            }
+            if (!string.IsNullOrWhiteSpace(attribute.Query) && !attribute.Query.TrimStart().StartsWith("|", StringComparison.Ordinal))
+            {
+                throw new InvalidOperationException($"{nameof(KustoTriggerAttribute)}.{nameof(KustoTriggerAttribute.Query)} should start with a pipe, it was {attribute.Query}");
+            }
+            return Task.FromResult<ITriggerBinding>(new KustoTriggerBinding(parameter, attribute, this._configProvider, this._logger));
+        }
+    }
+
+    /// <summary>
+    /// Binds the new rows of a Kusto trigger to the parameter of the function, and creates the listener that polls the table
+    /// </summary>
+    internal sealed class KustoTriggerBinding : ITriggerBinding
+    {
+        private static readonly IReadOnlyDictionary<string, Type> TriggerDataContract = new Dictionary<string, Type>(StringComparer.OrdinalIgnoreCase)
+        {
+            { "Watermark", typeof(string) },
+            { "RowCount", typeof(int) },
+        };
+        private readonly ParameterInfo _parameter;
+        private readonly KustoTriggerAttribute _attribute;
+        private readonly KustoExtensionConfigProvider _configProvider;
+        private readonly ILogger _logger;
+
+        public KustoTriggerBinding(ParameterInfo parameter, KustoTriggerAttribute attribute, KustoExtensionConfigProvider configProvider, ILogger logger)
+        {
+            this._parameter = parameter;
+            this._attribute = attribute;
+            this._configProvider = configProvider;
+            this._logger = logger;
+        }
+
+        public Type TriggerValueType => typeof(KustoTriggerBatch);
+
+        public IReadOnlyDictionary<string, Type> BindingDataContract => TriggerDataContract;
+
+        /// <summary>
+        /// Rows are bound as JSON to string and object parameters, the latter are the parameters of functions in other languages
+        /// </summary>
+        internal static bool IsSupportedType(Type parameterType)
+        {
+            if (parameterType == typeof(string) || parameterType == typeof(object) || parameterType == typeof(JArray) || parameterType.IsArray)
+            {
+                return true;
+            }
+            if (!parameterType.IsGenericType)
+            {
+                return false;
+            }
+            Type definition = parameterType.GetGenericTypeDefinition();
+            return definition == typeof(List<>) || definition == typeof(IReadOnlyList<>) || definition == typeof(IList<>) || definition == typeof(IEnumerable<>);
+        }
+
+        public Task<ITriggerData> BindAsync(object value, ValueBindingContext context)
+        {
+            var batch = (KustoTriggerBatch)value;
+            Type parameterType = this._parameter.ParameterType;
+            object rows = parameterType == typeof(string) || parameterType == typeof(object) ? batch.Rows.ToString(Formatting.None) :
+                parameterType == typeof(JArray) ? batch.Rows : batch.Rows.ToObject(parameterType);
+            var bindingData = new Dictionary<string, object>(StringComparer.OrdinalIgnoreCase)
+            {
+                { "Watermark", batch.Watermark },
+                { "RowCount", batch.Rows.Count },
+            };
+            return Task.FromResult<ITriggerData>(new TriggerData(new KustoTriggerValueProvider(parameterType, rows, batch), bindingData));
+        }
+
+        public async Task<IListener> CreateListenerAsync(ListenerFactoryContext context)
+        {
+            if (context == null)
+            {
+                throw new ArgumentNullException(nameof(context));
+            }
+            KustoTriggerContext triggerContext = await this._configProvider.CreateTriggerContextAsync(this._attribute, context.Descriptor.Id).ConfigureAwait(false);
+            return new KustoTriggerListener(triggerContext, context.Descriptor.Id, context.Executor, this._logger);
+        }
+
+        public ParameterDescriptor ToParameterDescriptor()
+        {
+            return new ParameterDescriptor
+            {
+                Name = this._parameter.Name,
+            };
+        }
+
+        private sealed class KustoTriggerValueProvider : IValueProvider
+        {
+            private readonly object _value;
+            private readonly KustoTriggerBatch _batch;
+
+            public KustoTriggerValueProvider(Type type, object value, KustoTriggerBatch batch)
+            {
+                this.Type = type;
+                this._value = value;
+                this._batch = batch;
+            }
+
+            public Type Type { get; }
+
+            public Task<object> GetValueAsync()
+            {
+                return Task.FromResult(this._value);
+            }
+
+            public string ToInvokeString()
+            {
+                return $"{this._batch.Rows.Count} rows up to watermark '{this._batch.Watermark}'";
+            }
+        }
+    }
+
+    /// <summary>
+    /// The rows a Kusto trigger invokes its function with, and the cursor of the poll that read them
+    /// </summary>
+    internal sealed class KustoTriggerBatch
+    {
+        public KustoTriggerBatch(JArray rows, string watermark)
+        {
+            this.Rows = rows;
+            this.Watermark = watermark;
+        }
+
+        public JArray Rows { get; }
+
+        public string Watermark { get; }
+    }
+}
\ No newline at end of file
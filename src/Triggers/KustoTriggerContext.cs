@@ -0,0 +1,105 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Globalization;
+using Kusto.Data.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Wraps around the trigger attribute, the query client and the watermark of a function, and builds the queries that read its new rows
+    /// </summary>
+    internal class KustoTriggerContext
+    {
+        // Returns the current cursor of the database
+        public const string CurrentCursorQuery = "print Cursor = cursor_current()";
+        // The watermark, the end of the range and the last row of the previous page are passed as query parameters
+        private const string WatermarkParameter = "_watermark";
+        private const string CursorParameter = "_cursor";
+        private const string LastIngestionTimeParameter = "_lastIngestionTime";
+        private const string LastRowHashParameter = "_lastRowHash";
+
+        public KustoTriggerAttribute TriggerAttribute { get; set; }
+
+        /// <summary>
+        /// The queries of the trigger do not go through the concurrency limiter of the connection, they would hold its slots while the function
+        /// runs and the bindings of the function wait for them
+        /// </summary>
+        public ICslQueryProvider QueryProvider { get; set; }
+
+        public KustoTriggerWatermarkStore WatermarkStore { get; set; }
+
+        public int MaxBatchSize => this.TriggerAttribute.MaxBatchSize > 0 ? this.TriggerAttribute.MaxBatchSize : KustoConstants.DefaultTriggerMaxBatchSize;
+
+        public int MaxAttempts => this.TriggerAttribute.MaxAttempts > 0 ? this.TriggerAttribute.MaxAttempts : KustoConstants.DefaultTriggerMaxAttempts;
+
+        public TimeSpan PollingInterval => TimeSpan.FromMilliseconds(this.TriggerAttribute.PollingIntervalMs > 0 ? this.TriggerAttribute.PollingIntervalMs : KustoConstants.DefaultTriggerPollingIntervalMs);
+
+        /// <summary>
+        /// Returns the next page of the rows ingested after the watermark and up to the cursor of the range, at most MaxBatchSize of them ordered by
+        /// ingestion time and row hash after the last row of the previous page. The rows are filtered on their ingestion time first, so that the
+        /// extents of the pages already read are pruned, and only the rows that share the ingestion time of the last row of the previous page or
+        /// of the end of the page are hashed. Rows with the same ingestion time and hash stay on the same page, so a page can only be larger with
+        /// duplicate rows. The first result is the ingestion time and hash of the last row of the page, and is empty once the range is read. The
+        /// second result is the rows of the page, after the Query of the trigger
+        /// </summary>
+        public string PageQuery
+        {
+            get
+            {
+                string query = this.TriggerAttribute.Query?.Trim();
+                return $"declare query_parameters({WatermarkParameter}:string, {CursorParameter}:string, {LastIngestionTimeParameter}:datetime = datetime(null), {LastRowHashParameter}:long = long(null));\n" +
+                    $"let _range = ['{this.TriggerAttribute.TableName}']\n" +
+                    $"| where cursor_after({WatermarkParameter}) and cursor_before_or_at({CursorParameter})\n" +
+                    $"| where isnull({LastIngestionTimeParameter}) or ingestion_time() >= {LastIngestionTimeParameter}\n" +
+                    "| extend _kustoIngestionTime = ingestion_time();\n" +
+                    // The rows after the last row of the previous page, only the ones of its ingestion time are hashed
+                    $"let _rows = union (_range | where isnull({LastIngestionTimeParameter}) or _kustoIngestionTime > {LastIngestionTimeParameter}),\n" +
+                    $"    (_range | where _kustoIngestionTime == {LastIngestionTimeParameter} | where hash(tostring(pack_all())) > {LastRowHashParameter});\n" +
+                    $"let _endTime = toscalar(_rows | top {this.MaxBatchSize} by _kustoIngestionTime asc | summarize max(_kustoIngestionTime));\n" +
+                    "let _before = _rows | where _kustoIngestionTime < _endTime | extend _kustoRowHash = long(null);\n" +
+                    "let _atEnd = _rows | where _kustoIngestionTime == _endTime | extend _kustoRowHash = hash(tostring(pack_all()));\n" +
+                    "let _beforeCount = toscalar(_before | count);\n" +
+                    $"let _endHash = toscalar(_atEnd | order by _kustoRowHash asc | where row_number() <= {this.MaxBatchSize} - _beforeCount | summarize max(_kustoRowHash));\n" +
+                    "let _page = materialize(union _before, (_atEnd | where _kustoRowHash <= _endHash));\n" +
+                    "_page | top 1 by _kustoIngestionTime desc, _kustoRowHash desc | project _kustoIngestionTime, _kustoRowHash;\n" +
+                    "_page | order by _kustoIngestionTime asc, _kustoRowHash asc | project-away _kustoIngestionTime, _kustoRowHash" +
+                    (string.IsNullOrEmpty(query) ? string.Empty : "\n" + query);
+            }
+        }
+
+        /// <summary>
+        /// Returns the number of rows ingested after the watermark
+        /// </summary>
+        public string BacklogQuery => $"declare query_parameters({WatermarkParameter}:string);\n['{this.TriggerAttribute.TableName}']\n| where cursor_after({WatermarkParameter})\n| count";
+
+        /// <summary>
+        /// The query parameters of the watermark. The range and the last row are passed when the watermark is in the middle of a range
+        /// </summary>
+        public ClientRequestProperties CreateClientRequestProperties(KustoTriggerWatermark watermark)
+        {
+            var clientRequestProperties = new ClientRequestProperties
+            {
+                ClientRequestId = $"{KustoConstants.ClientRequestId};{Guid.NewGuid()}",
+            };
+            if (watermark == null)
+            {
+                return clientRequestProperties;
+            }
+            clientRequestProperties.SetParameter(WatermarkParameter, watermark.Watermark);
+            if (watermark.Cursor != null)
+            {
+                clientRequestProperties.SetParameter(CursorParameter, watermark.Cursor);
+            }
+            if (watermark.LastIngestionTime.HasValue && watermark.LastRowHash.HasValue)
+            {
+                clientRequestProperties.SetParameter(LastIngestionTimeParameter,
+                    $"datetime({watermark.LastIngestionTime.Value.ToUniversalTime().ToString("yyyy-MM-ddTHH:mm:ss.fffffffZ", CultureInfo.InvariantCulture)})");
+                clientRequestProperties.SetParameter(LastRowHashParameter, watermark.LastRowHash.Value.ToString(CultureInfo.InvariantCulture));
+            }
+            return clientRequestProperties;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,306 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Data;
+using System.Diagnostics;
+using System.Globalization;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Microsoft.Azure.WebJobs.Host.Executors;
+using Microsoft.Azure.WebJobs.Host.Listeners;
+using Microsoft.Azure.WebJobs.Host.Scale;
+using Microsoft.Extensions.Logging;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// Polls the table of a Kusto trigger for the rows ingested after the watermark of the function, and invokes the function with them in
+    /// batches. Only the host that holds the lease of the watermark polls. A poll captures the current cursor and reads the rows up to it
+    /// page by page, a page of at most MaxBatchSize rows is read in full before the function is invoked with it, and the watermark moves past
+    /// the page once the function processed it. A failed invocation has the rows of its page read again on the next poll, until the page failed
+    /// MaxAttempts times and is skipped
+    /// </summary>
+    internal sealed class KustoTriggerListener : IListener, IScaleMonitorProvider, ITargetScalerProvider
+    {
+        private readonly KustoTriggerContext _context;
+        private readonly ITriggeredFunctionExecutor _executor;
+        private readonly ILogger _logger;
+        private readonly KustoTriggerScaleMonitor _scaleMonitor;
+        private CancellationTokenSource _cancellationSource;
+        private Task _pollLoop;
+        private long _leaseRenewedTimestamp;
+
+        public KustoTriggerListener(KustoTriggerContext context, string functionId, ITriggeredFunctionExecutor executor, ILogger logger)
+        {
+            this._context = context;
+            this._executor = executor;
+            this._logger = logger;
+            this._scaleMonitor = new KustoTriggerScaleMonitor(context, functionId, logger);
+        }
+
+        public Task StartAsync(CancellationToken cancellationToken)
+        {
+            this._cancellationSource = new CancellationTokenSource();
+            CancellationToken pollToken = this._cancellationSource.Token;
+            this._pollLoop = Task.Run(() => this.PollAsync(pollToken), CancellationToken.None);
+            return Task.CompletedTask;
+        }
+
+        public async Task StopAsync(CancellationToken cancellationToken)
+        {
+            if (this._pollLoop == null)
+            {
+                return;
+            }
+            this._cancellationSource.Cancel();
+            await Task.WhenAny(this._pollLoop, Task.Delay(Timeout.Infinite, cancellationToken)).ConfigureAwait(false);
+            try
+            {
+                await this._context.WatermarkStore.ReleaseLeaseAsync(cancellationToken).ConfigureAwait(false);
+            }
+            catch (Exception e)
+            {
+                // The lease expires on its own
+                this._logger.LogWarning(e, "Could not release the lease of the watermark of the trigger on table {TableName}", this._context.TriggerAttribute.TableName);
+            }
+        }
+
+        public void Cancel()
+        {
+            this._cancellationSource?.Cancel();
+        }
+
+        public IScaleMonitor GetMonitor()
+        {
+            return this._scaleMonitor;
+        }
+
+        public ITargetScaler GetTargetScaler()
+        {
+            return this._scaleMonitor;
+        }
+
+        private async Task PollAsync(CancellationToken cancellationToken)
+        {
+            while (!cancellationToken.IsCancellationRequested)
+            {
+                try
+                {
+                    if (await this.RenewLeaseAsync(cancellationToken).ConfigureAwait(false))
+                    {
+                        await this.PollOnceAsync(cancellationToken).ConfigureAwait(false);
+                    }
+                }
+                catch (OperationCanceledException) when (cancellationToken.IsCancellationRequested)
+                {
+                    break;
+                }
+                catch (Exception e)
+                {
+                    KustoMetrics.TriggerFailures.Add(1, KustoMetrics.TriggerTags(this._context.TriggerAttribute));
+                    this._logger.LogError(e, "Polling table {TableName} of database {Database} for new rows failed, the rows are read again on the next poll",
+                        this._context.TriggerAttribute.TableName, this._context.TriggerAttribute.Database);
+                }
+                try
+                {
+                    await Task.Delay(this._context.PollingInterval, cancellationToken).ConfigureAwait(false);
+                }
+                catch (OperationCanceledException)
+                {
+                    break;
+                }
+            }
+        }
+
+        /// <summary>
+        /// Reads the rows ingested after the watermark page by page, invokes the function with each page and moves the watermark past it
+        /// </summary>
+        /// <returns>The number of rows the function was invoked with</returns>
+        internal async Task<int> PollOnceAsync(CancellationToken cancellationToken)
+        {
+            KustoTriggerWatermark watermark = await this._context.WatermarkStore.ReadAsync(cancellationToken).ConfigureAwait(false);
+            if (watermark == null)
+            {
+                // The first poll of the function starts at the current cursor, or before the first row of the table
+                watermark = new KustoTriggerWatermark
+                {
+                    Watermark = this._context.TriggerAttribute.StartFromBeginning ? string.Empty : await this.QueryCurrentCursorAsync(cancellationToken).ConfigureAwait(false),
+                };
+                await this._context.WatermarkStore.WriteAsync(watermark, cancellationToken).ConfigureAwait(false);
+                this._logger.LogInformation("Trigger on table {TableName} starts at watermark '{Watermark}'", this._context.TriggerAttribute.TableName, watermark.Watermark);
+            }
+            if (watermark.Cursor == null)
+            {
+                // A range ends at the cursor of the poll that starts it, a poll that failed in the middle of a range is resumed within it
+                watermark.Cursor = await this.QueryCurrentCursorAsync(cancellationToken).ConfigureAwait(false);
+                if (watermark.Cursor == watermark.Watermark)
+                {
+                    return 0;
+                }
+            }
+            int rowCount = 0;
+            while (true)
+            {
+                cancellationToken.ThrowIfCancellationRequested();
+                KustoTriggerPage page = await this.ReadPageAsync(watermark, cancellationToken).ConfigureAwait(false);
+                if (page == null)
+                {
+                    watermark = new KustoTriggerWatermark { Watermark = watermark.Cursor };
+                    await this._context.WatermarkStore.WriteAsync(watermark, cancellationToken).ConfigureAwait(false);
+                    break;
+                }
+                if (watermark.Attempts >= this._context.MaxAttempts)
+                {
+                    this.SkipPage(page, watermark);
+                }
+                else
+                {
+                    rowCount += await this.ExecutePageAsync(page, watermark, cancellationToken).ConfigureAwait(false);
+                }
+                watermark.LastIngestionTime = page.LastIngestionTime;
+                watermark.LastRowHash = page.LastRowHash;
+                watermark.Attempts = 0;
+                await this._context.WatermarkStore.WriteAsync(watermark, cancellationToken).ConfigureAwait(false);
+            }
+            if (rowCount > 0 && this._logger.IsEnabled(LogLevel.Debug))
+            {
+                this._logger.LogDebug($"Processed {rowCount} new rows of table {this._context.TriggerAttribute.TableName}, watermark moved to '{watermark.Watermark}'");
+            }
+            return rowCount;
+        }
+
+        /// <summary>
+        /// Reads the next page of the range of the watermark. The reader is closed before the function is invoked with the rows
+        /// </summary>
+        /// <returns>The page, null once the range is read</returns>
+        private async Task<KustoTriggerPage> ReadPageAsync(KustoTriggerWatermark watermark, CancellationToken cancellationToken)
+        {
+            using IDataReader reader = await this._context.QueryProvider.ExecuteQueryAsync(this._context.TriggerAttribute.Database, this._context.PageQuery,
+                this._context.CreateClientRequestProperties(watermark), cancellationToken).ConfigureAwait(false);
+            if (!reader.Read())
+            {
+                return null;
+            }
+            var page = new KustoTriggerPage
+            {
+                LastIngestionTime = DateTime.SpecifyKind(Convert.ToDateTime(reader.GetValue(0), CultureInfo.InvariantCulture), DateTimeKind.Utc),
+                LastRowHash = Convert.ToInt64(reader.GetValue(1), CultureInfo.InvariantCulture),
+            };
+            if (!reader.NextResult())
+            {
+                throw new InvalidOperationException($"The query of the trigger on table {this._context.TriggerAttribute.TableName} returned no rows result");
+            }
+            while (reader.Read())
+            {
+                page.Rows.Add(ReadRow(reader));
+            }
+            return page;
+        }
+
+        /// <summary>
+        /// Invokes the function with the rows of the page in batches. A failed invocation is counted in the attempts of the page before it throws
+        /// </summary>
+        /// <returns>The number of rows the function was invoked with</returns>
+        private async Task<int> ExecutePageAsync(KustoTriggerPage page, KustoTriggerWatermark watermark, CancellationToken cancellationToken)
+        {
+            // Duplicate rows can make a page larger than a batch
+            for (int offset = 0; offset < page.Rows.Count; offset += this._context.MaxBatchSize)
+            {
+                var batch = new JArray(page.Rows.Skip(offset).Take(this._context.MaxBatchSize));
+                FunctionResult result = await this.ExecuteAsync(batch, watermark.Cursor, cancellationToken).ConfigureAwait(false);
+                if (!result.Succeeded)
+                {
+                    watermark.Attempts++;
+                    await this._context.WatermarkStore.WriteAsync(watermark, cancellationToken).ConfigureAwait(false);
+                    throw new InvalidOperationException($"The function failed to process {batch.Count} new rows of table {this._context.TriggerAttribute.TableName}, " +
+                        $"attempt {watermark.Attempts} of {this._context.MaxAttempts}", result.Exception);
+                }
+            }
+            return page.Rows.Count;
+        }
+
+        /// <summary>
+        /// Logs the rows of a page the function failed to process MaxAttempts times, the watermark then moves past them
+        /// </summary>
+        private void SkipPage(KustoTriggerPage page, KustoTriggerWatermark watermark)
+        {
+            KustoMetrics.TriggerFailures.Add(1, KustoMetrics.TriggerTags(this._context.TriggerAttribute));
+            this._logger.LogError("The function failed to process {RowCount} new rows of table {TableName} {Attempts} times, they are skipped. Range '{Watermark}' to '{Cursor}', rows {Rows}",
+                page.Rows.Count, this._context.TriggerAttribute.TableName, watermark.Attempts, watermark.Watermark, watermark.Cursor, page.Rows.ToString(Formatting.None));
+        }
+
+        private async Task<FunctionResult> ExecuteAsync(JArray rows, string cursor, CancellationToken cancellationToken)
+        {
+            // Long polls keep the lease, another host would otherwise process the same rows
+            if (!await this.RenewLeaseAsync(cancellationToken).ConfigureAwait(false))
+            {
+                throw new InvalidOperationException($"The lease of the watermark of the trigger on table {this._context.TriggerAttribute.TableName} was lost");
+            }
+            var triggerData = new TriggeredFunctionData
+            {
+                TriggerValue = new KustoTriggerBatch(rows, cursor),
+            };
+            FunctionResult result = await this._executor.TryExecuteAsync(triggerData, cancellationToken).ConfigureAwait(false);
+            if (result.Succeeded)
+            {
+                KustoMetrics.TriggerRows.Add(rows.Count, KustoMetrics.TriggerTags(this._context.TriggerAttribute));
+            }
+            return result;
+        }
+
+        /// <summary>
+        /// Takes or renews the lease of the watermark, at most every third of the lease duration while it is held
+        /// </summary>
+        private async Task<bool> RenewLeaseAsync(CancellationToken cancellationToken)
+        {
+            long renewedTimestamp = Interlocked.Read(ref this._leaseRenewedTimestamp);
+            if (renewedTimestamp != 0 && KustoMetrics.ElapsedMilliseconds(renewedTimestamp) < KustoBlobWatermarkStore.LeaseDuration.TotalMilliseconds / 3)
+            {
+                return true;
+            }
+            bool hasLease = await this._context.WatermarkStore.TryAcquireLeaseAsync(cancellationToken).ConfigureAwait(false);
+            Interlocked.Exchange(ref this._leaseRenewedTimestamp, hasLease ? Stopwatch.GetTimestamp() : 0);
+            return hasLease;
+        }
+
+        private async Task<string> QueryCurrentCursorAsync(CancellationToken cancellationToken)
+        {
+            using IDataReader reader = await this._context.QueryProvider.ExecuteQueryAsync(this._context.TriggerAttribute.Database, KustoTriggerContext.CurrentCursorQuery,
+                this._context.CreateClientRequestProperties(null), cancellationToken).ConfigureAwait(false);
+            string cursor = reader.Read() ? reader.GetValue(0) as string : null;
+            return string.IsNullOrEmpty(cursor)
+                ? throw new InvalidOperationException($"The current cursor of database {this._context.TriggerAttribute.Database} could not be read, the table {this._context.TriggerAttribute.TableName} needs the IngestionTime policy")
+                : cursor;
+        }
+
+        private static JObject ReadRow(IDataReader reader)
+        {
+            var row = new JObject();
+            for (int i = 0; i < reader.FieldCount; i++)
+            {
+                // The values are converted as in the results of input bindings, e.g. decimals as text
+                row[reader.GetName(i)] = KustoQueryResultWriter.ToJToken(reader.GetValue(i));
+            }
+            return row;
+        }
+
+        public void Dispose()
+        {
+            this._cancellationSource?.Cancel();
+            this._cancellationSource?.Dispose();
+        }
+
+        private sealed class KustoTriggerPage
+        {
+            public JArray Rows { get; } = new JArray();
+
+            public DateTime LastIngestionTime { get; set; }
+
+            public long LastRowHash { get; set; }
+        }
+    }
+}
\ No newline at end of file
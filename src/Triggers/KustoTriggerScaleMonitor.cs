@@ -0,0 +1,119 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Data;
+using System.Globalization;
+using System.Linq;
+using System.Threading.Tasks;
+using Microsoft.Azure.WebJobs.Host.Scale;
+using Microsoft.Extensions.Logging;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// The number of rows of the table of a Kusto trigger that were ingested after the watermark of the function
+    /// </summary>
+    internal class KustoTriggerMetrics : ScaleMetrics
+    {
+        public long UnprocessedRowCount { get; set; }
+    }
+
+    /// <summary>
+    /// Scale hints of a Kusto trigger from the rows waiting after its watermark. The rows of a function are processed by the one host that holds
+    /// the lease of its watermark, so a backlog needs one worker and no backlog none
+    /// </summary>
+    internal sealed class KustoTriggerScaleMonitor : IScaleMonitor<KustoTriggerMetrics>, ITargetScaler
+    {
+        private readonly KustoTriggerContext _context;
+        private readonly ILogger _logger;
+
+        public KustoTriggerScaleMonitor(KustoTriggerContext context, string functionId, ILogger logger)
+        {
+            this._context = context;
+            this._logger = logger;
+            this.Descriptor = new ScaleMonitorDescriptor($"{functionId}-kustotrigger-{context.TriggerAttribute.Database}-{context.TriggerAttribute.TableName}".ToLowerInvariant(), functionId);
+            this.TargetScalerDescriptor = new TargetScalerDescriptor(functionId);
+        }
+
+        public ScaleMonitorDescriptor Descriptor { get; }
+
+        public TargetScalerDescriptor TargetScalerDescriptor { get; }
+
+        async Task<ScaleMetrics> IScaleMonitor.GetMetricsAsync()
+        {
+            return await this.GetMetricsAsync().ConfigureAwait(false);
+        }
+
+        public async Task<KustoTriggerMetrics> GetMetricsAsync()
+        {
+            return new KustoTriggerMetrics
+            {
+                UnprocessedRowCount = await this.GetUnprocessedRowCountAsync().ConfigureAwait(false),
+            };
+        }
+
+        ScaleStatus IScaleMonitor.GetScaleStatus(ScaleStatusContext context)
+        {
+            return this.GetScaleStatus(new ScaleStatusContext<KustoTriggerMetrics>
+            {
+                WorkerCount = context.WorkerCount,
+                Metrics = context.Metrics?.Cast<KustoTriggerMetrics>().ToArray(),
+            });
+        }
+
+        public ScaleStatus GetScaleStatus(ScaleStatusContext<KustoTriggerMetrics> context)
+        {
+            KustoTriggerMetrics latest = context.Metrics?.LastOrDefault();
+            var status = new ScaleStatus { Vote = ScaleVote.None };
+            if (latest == null)
+            {
+                return status;
+            }
+            if (latest.UnprocessedRowCount > 0 && context.WorkerCount == 0)
+            {
+                status.Vote = ScaleVote.ScaleOut;
+            }
+            else if (context.WorkerCount > 1 || (context.WorkerCount > 0 && context.Metrics.All(metrics => metrics.UnprocessedRowCount == 0)))
+            {
+                // Workers beyond the one that holds the lease have nothing to process
+                status.Vote = ScaleVote.ScaleIn;
+            }
+            return status;
+        }
+
+        public async Task<TargetScalerResult> GetScaleResultAsync(TargetScalerContext context)
+        {
+            long unprocessedRowCount = await this.GetUnprocessedRowCountAsync().ConfigureAwait(false);
+            return new TargetScalerResult
+            {
+                TargetWorkerCount = unprocessedRowCount > 0 ? 1 : 0,
+            };
+        }
+
+        /// <summary>
+        /// The rows after the watermark. A function without a watermark counts as a backlog, a worker has to poll once to set it.
+        /// The rows of a range that is processed page by page count until the whole range is processed
+        /// </summary>
+        private async Task<long> GetUnprocessedRowCountAsync()
+        {
+            try
+            {
+                KustoTriggerWatermark watermark = await this._context.WatermarkStore.ReadAsync(default).ConfigureAwait(false);
+                if (watermark == null)
+                {
+                    return 1;
+                }
+                using IDataReader reader = await this._context.QueryProvider.ExecuteQueryAsync(this._context.TriggerAttribute.Database, this._context.BacklogQuery,
+                    this._context.CreateClientRequestProperties(new KustoTriggerWatermark { Watermark = watermark.Watermark })).ConfigureAwait(false);
+                return reader.Read() ? Convert.ToInt64(reader.GetValue(0), CultureInfo.InvariantCulture) : 0;
+            }
+            catch (Exception e)
+            {
+                // Without a count the backlog is assumed, so that a worker keeps polling
+                this._logger.LogWarning(e, "Could not count the new rows of table {TableName} for scaling", this._context.TriggerAttribute.TableName);
+                return 1;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,171 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Threading;
+using System.Threading.Tasks;
+using Azure;
+using Azure.Storage.Blobs;
+using Azure.Storage.Blobs.Models;
+using Azure.Storage.Blobs.Specialized;
+using Newtonsoft.Json.Linq;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto
+{
+    /// <summary>
+    /// The progress of a Kusto trigger through the rows of its table. The function processed the rows up to the database cursor
+    /// <see cref="Watermark"/>. While it processes the rows up to <see cref="Cursor"/> page by page, it also processed the rows of that range up
+    /// to the ingestion time and row hash of the last page
+    /// </summary>
+    internal sealed class KustoTriggerWatermark
+    {
+        /// <summary>
+        /// The cursor up to which every row was processed. An empty watermark is before the first row of the table
+        /// </summary>
+        public string Watermark { get; set; }
+
+        /// <summary>
+        /// The end of the range that is processed page by page, null between two ranges
+        /// </summary>
+        public string Cursor { get; set; }
+
+        /// <summary>
+        /// The ingestion time of the last row processed in the range, null before its first page
+        /// </summary>
+        public DateTime? LastIngestionTime { get; set; }
+
+        /// <summary>
+        /// The hash of the last row processed in the range, which orders the rows of the same ingestion time
+        /// </summary>
+        public long? LastRowHash { get; set; }
+
+        /// <summary>
+        /// The number of failed invocations with the page after the last row processed, the page is skipped once it reaches the MaxAttempts of the trigger
+        /// </summary>
+        public int Attempts { get; set; }
+    }
+
+    /// <summary>
+    /// Keeps the watermark of a Kusto trigger. The watermark is leased, only the host that holds the lease polls the table so that the rows are processed by one host at a time
+    /// </summary>
+    internal abstract class KustoTriggerWatermarkStore
+    {
+        /// <summary>
+        /// Takes the lease of the watermark, or renews it when this host holds it already
+        /// </summary>
+        /// <returns>True while this host holds the lease</returns>
+        public abstract Task<bool> TryAcquireLeaseAsync(CancellationToken cancellationToken);
+
+        /// <summary>
+        /// Gives up the lease so that another host can take over without waiting for it to expire
+        /// </summary>
+        public abstract Task ReleaseLeaseAsync(CancellationToken cancellationToken);
+
+        /// <summary>
+        /// The watermark, null when the function has none yet
+        /// </summary>
+        public abstract Task<KustoTriggerWatermark> ReadAsync(CancellationToken cancellationToken);
+
+        /// <summary>
+        /// Moves the watermark, fails unless this host holds the lease
+        /// </summary>
+        public abstract Task WriteAsync(KustoTriggerWatermark watermark, CancellationToken cancellationToken);
+    }
+
+    /// <summary>
+    /// Keeps the watermark in a blob of the storage account of the host, leased by the host that polls the table
+    /// </summary>
+    internal sealed class KustoBlobWatermarkStore : KustoTriggerWatermarkStore
+    {
+        // Renewed on every poll and while the batches of a poll are processed
+        internal static readonly TimeSpan LeaseDuration = TimeSpan.FromSeconds(60);
+        private readonly BlobClient _blob;
+        private readonly BlobLeaseClient _lease;
+        private bool _hasLease;
+
+        /// <param name="storageConnectionString">The connection string of the storage account</param>
+        /// <param name="blobName">The name of the blob of the watermark, unique per host and function</param>
+        public KustoBlobWatermarkStore(string storageConnectionString, string blobName)
+        {
+            this._blob = new BlobContainerClient(storageConnectionString, KustoConstants.TriggerWatermarkContainer).GetBlobClient(blobName);
+            this._lease = this._blob.GetBlobLeaseClient();
+        }
+
+        public override async Task<bool> TryAcquireLeaseAsync(CancellationToken cancellationToken)
+        {
+            if (this._hasLease)
+            {
+                try
+                {
+                    await this._lease.RenewAsync(cancellationToken: cancellationToken).ConfigureAwait(false);
+                    return true;
+                }
+                catch (RequestFailedException)
+                {
+                    // The lease expired and another host may hold it now
+                    this._hasLease = false;
+                }
+            }
+            try
+            {
+                await this._lease.AcquireAsync(LeaseDuration, cancellationToken: cancellationToken).ConfigureAwait(false);
+            }
+            catch (RequestFailedException e) when (e.Status == 404)
+            {
+                // A lease needs the blob, the first host creates it without a watermark
+                await this._blob.GetParentBlobContainerClient().CreateIfNotExistsAsync(cancellationToken: cancellationToken).ConfigureAwait(false);
+                try
+                {
+                    await this._blob.UploadAsync(BinaryData.FromString("{}"), overwrite: false, cancellationToken).ConfigureAwait(false);
+                }
+                catch (RequestFailedException uploadException) when (uploadException.Status == 409)
+                {
+                    // Another host created it in the meantime
+                }
+                return false;
+            }
+            catch (RequestFailedException e) when (e.Status == 409)
+            {
+                // Leased by another host
+                return false;
+            }
+            this._hasLease = true;
+            return true;
+        }
+
+        public override async Task ReleaseLeaseAsync(CancellationToken cancellationToken)
+        {
+            if (this._hasLease)
+            {
+                this._hasLease = false;
+                await this._lease.ReleaseAsync(cancellationToken: cancellationToken).ConfigureAwait(false);
+            }
+        }
+
+        public override async Task<KustoTriggerWatermark> ReadAsync(CancellationToken cancellationToken)
+        {
+            try
+            {
+                Response<BlobDownloadResult> download = await this._blob.DownloadContentAsync(cancellationToken).ConfigureAwait(false);
+                // The blob is created without a watermark
+                KustoTriggerWatermark watermark = JObject.Parse(download.Value.Content.ToString()).ToObject<KustoTriggerWatermark>();
+                return watermark.Watermark == null ? null : watermark;
+            }
+            catch (RequestFailedException e) when (e.Status == 404)
+            {
+                return null;
+            }
+        }
+
+        public override async Task WriteAsync(KustoTriggerWatermark watermark, CancellationToken cancellationToken)
+        {
+            JObject content = JObject.FromObject(watermark);
+            content["UpdatedUtc"] = DateTime.UtcNow;
+            var uploadOptions = new BlobUploadOptions
+            {
+                Conditions = new BlobRequestConditions { LeaseId = this._lease.LeaseId },
+            };
+            await this._blob.UploadAsync(BinaryData.FromString(content.ToString()), uploadOptions, cancellationToken).ConfigureAwait(false);
+        }
+    }
+}
\ No newline at end of file
@@ -4,10 +4,12 @@
 using System;
 using System.Collections.Generic;
 using System.IO;
+using System.IO.Compression;
 using System.Linq;
 using System.Text;
 using System.Threading.Tasks;
 using Kusto.Cloud.Platform.Utils;
+using Kusto.Data.Common;
 using Kusto.Ingest;
 using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
 using Microsoft.Azure.WebJobs.Kusto;
@@ -61,11 +63,11 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
             IEnumerable<int> numberOfItems = Enumerable.Range(1, 5);
             var expectedItems = new List<Item>();
             var serializer = JsonSerializer.CreateDefault();
-            // Add this test to make sure we do get Quoted strings
+            // Add this test to make sure we do get Quoted strings, rows are written as compact JSON one per line
             var sb = new StringBuilder();
             using (var textWriter = new StringWriter(sb))
             {
-                using var jsonWriter = new JsonTextWriter(textWriter) { QuoteName = true, Formatting = Formatting.Indented, CloseOutput = false };
+                using var jsonWriter = new JsonTextWriter(textWriter) { QuoteName = true, Formatting = Formatting.None, CloseOutput = false };
                 var taskResult = Task.WhenAll(numberOfItems.Select(i =>
                 {
                     var item = new Item { ID = i, Name = "x-" + i };
@@ -133,6 +135,184 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
             Assert.Equal("json", actualKustoIngestionProp.Format.ToString());
             mockIngestionClient.VerifyAll();
         }
+        [Fact]
+        public async Task FlushAsyncQueuedIngestionTracksStatusInBackgroundAsync()
+        {
+            // Given
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            var ingestionStatus = new IngestionStatus()
+            {
+                Status = Status.Pending,
+            };
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(() => ingestionStatus);
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                It.IsAny<Stream>(),
+                It.IsAny<KustoIngestionProperties>(),
+                It.IsAny<StreamSourceOptions>())).ReturnsAsync(mockIngestionResult.Object);
+            KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+            context.ResolvedAttribute.IngestionType = "queued";
+            context.ResolvedAttribute.IngestionProperties = "@pollIntervalSeconds=0,@trackingMode=background";
+            using var tracker = new KustoIngestionStatusTracker(this._logger);
+            context.StatusTracker = tracker;
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            // When - the flush returns while the ingestion is still pending
+            await collector.AddAsync(new Item { ID = 1, Name = "x-1" });
+            await collector.FlushAsync();
+            // Then
+            Assert.Equal(1, tracker.PendingCount);
+            tracker.PollPendingIngestions();
+            Assert.Equal(1, tracker.PendingCount);
+            // Once the status is terminal the ingestion is no longer tracked
+            ingestionStatus = new IngestionStatus()
+            {
+                Status = Status.Succeeded,
+            };
+            tracker.PollPendingIngestions();
+            Assert.Equal(0, tracker.PendingCount);
+        }
+        [Fact]
+        public async Task FlushAsyncIngestsShardsIntoTheirTargetsAsync()
+        {
+            // Given
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(new IngestionStatus() { Status = Status.Succeeded });
+            var actualIngestDataStreams = new List<Stream>();
+            var actualKustoIngestionProps = new List<KustoIngestionProperties>();
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                Capture.In(actualIngestDataStreams),
+                Capture.In(actualKustoIngestionProps),
+                It.IsAny<StreamSourceOptions>())).ReturnsAsync(mockIngestionResult.Object);
+            KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+            context.ResolvedAttribute.ShardTargets = "shard0,shard1";
+            context.ResolvedAttribute.ShardKey = "ID";
+            context.ResolvedAttribute.ShardBoundaries = "3";
+            context.ShardRouter = KustoShardRouter.Get(context.ResolvedAttribute);
+            context.ShardContexts = context.ShardRouter.Targets.Select(target => new KustoIngestContext
+            {
+                IngestService = mockIngestionClient.Object,
+                ResolvedAttribute = context.ResolvedAttribute.ForShardTarget(target.Connection, target.Database),
+            }).ToArray();
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            // When
+            foreach (int id in Enumerable.Range(1, 5))
+            {
+                await collector.AddAsync(new Item { ID = id, Name = "x-" + id });
+            }
+            await collector.FlushAsync();
+            // Then - every shard is ingested once into its database
+            Assert.Equal(2, actualKustoIngestionProps.Count);
+            Dictionary<string, int[]> idsByDatabase = actualKustoIngestionProps.Zip(actualIngestDataStreams, (props, stream) => (props.DatabaseName, Ids: KustoTestHelper.LoadItems(stream).Select(item => item.ID)))
+                .ToDictionary(shard => shard.DatabaseName, shard => shard.Ids.ToArray());
+            Assert.Equal(new[] { 1, 2 }, idsByDatabase["shard0"]);
+            Assert.Equal(new[] { 3, 4, 5 }, idsByDatabase["shard1"]);
+            Assert.All(actualKustoIngestionProps, props => Assert.Equal("items", props.TableName));
+        }
+        [Theory]
+        [InlineData("gzip", 1, true)]
+        [InlineData("auto", 1, false)]
+        [InlineData("auto", 5000, true)]
+        [InlineData(null, 5000, false)]
+        public async Task FlushAsyncCompressesPayloadAsync(string compression, int rowCount, bool expectCompressed)
+        {
+            // Given
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(new IngestionStatus() { Status = Status.Succeeded });
+            var actualIngestDataStreams = new List<Stream>();
+            var actualStreamSourceOptions = new List<StreamSourceOptions>();
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                Capture.In(actualIngestDataStreams),
+                It.IsAny<KustoIngestionProperties>(),
+                Capture.In(actualStreamSourceOptions))).ReturnsAsync(mockIngestionResult.Object);
+            KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+            context.ResolvedAttribute.Compression = compression;
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            List<Item> expectedItems = Enumerable.Range(1, rowCount).Select(id => new Item { ID = id, Name = "x-" + id }).ToList();
+            // When
+            foreach (Item item in expectedItems)
+            {
+                await collector.AddAsync(item);
+            }
+            await collector.FlushAsync();
+            // Then - compressed payloads are flagged as gzip and hold the same rows
+            StreamSourceOptions actualOptions = actualStreamSourceOptions.Single();
+            Stream actualPayload = actualIngestDataStreams.Single();
+            Assert.Equal(expectCompressed ? DataSourceCompressionType.GZip : DataSourceCompressionType.None, actualOptions.CompressionType);
+            List<Item> actualItems = KustoTestHelper.LoadItems(expectCompressed ? new GZipStream(actualPayload, CompressionMode.Decompress) : actualPayload);
+            Assert.True(expectedItems.SequenceEqual(actualItems));
+        }
+
+        [Fact]
+        public async Task FlushAsyncIngestsReplayWithSameSourceIdAndTagsAsync()
+        {
+            // Given
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(new IngestionStatus() { Status = Status.Succeeded });
+            var actualKustoIngestionProps = new List<KustoIngestionProperties>();
+            var actualStreamSourceOptions = new List<StreamSourceOptions>();
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                It.IsAny<Stream>(),
+                Capture.In(actualKustoIngestionProps),
+                Capture.In(actualStreamSourceOptions))).ReturnsAsync(mockIngestionResult.Object);
+            async Task FlushAsync(string partitionId, int firstId)
+            {
+                KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+                context.ResolvedAttribute.IngestIdentity = partitionId;
+                context.ResolvedAttribute.IngestIdentityKey = "ID";
+                var collector = new KustoAsyncCollector<Item>(context, this._logger);
+                foreach (int id in Enumerable.Range(firstId, 10))
+                {
+                    await collector.AddAsync(new Item { ID = id, Name = "x-" + id });
+                }
+                await collector.FlushAsync();
+            }
+            // When - the same rows of the same partition are ingested twice, then other rows and the same rows of another partition
+            await FlushAsync("0", 1);
+            await FlushAsync("0", 1);
+            await FlushAsync("0", 11);
+            await FlushAsync("1", 1);
+            // Then - the replay has the SourceId of the first ingestion, which tags the extents and skips the rows when the tag exists
+            Guid[] actualSourceIds = actualStreamSourceOptions.Select(options => options.SourceId).ToArray();
+            Assert.Equal(actualSourceIds[0], actualSourceIds[1]);
+            Assert.Equal(3, actualSourceIds.Distinct().Count());
+            string expectedTag = actualSourceIds[0].ToString("N");
+            Assert.Equal(expectedTag, actualKustoIngestionProps[1].IngestByTags.Single());
+            Assert.Equal(expectedTag, actualKustoIngestionProps[1].IngestIfNotExists.Single());
+        }
 
+        [Fact]
+        public async Task FlushAsyncIngestsEveryBatchOfAPartitionWithItsOwnSourceIdAsync()
+        {
+            // Given
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(new IngestionStatus() { Status = Status.Succeeded });
+            var actualKustoIngestionProps = new List<KustoIngestionProperties>();
+            var actualIngestDataStreams = new List<Stream>();
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                Capture.In(actualIngestDataStreams),
+                Capture.In(actualKustoIngestionProps),
+                It.IsAny<StreamSourceOptions>())).ReturnsAsync(mockIngestionResult.Object);
+            // When - two different batches of the same partition are flushed
+            foreach (int firstId in new[] { 1, 11 })
+            {
+                KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+                context.ResolvedAttribute.IngestIdentity = "0";
+                context.ResolvedAttribute.IngestIdentityKey = "ID";
+                var collector = new KustoAsyncCollector<Item>(context, this._logger);
+                foreach (int id in Enumerable.Range(firstId, 10))
+                {
+                    await collector.AddAsync(new Item { ID = id, Name = "x-" + id });
+                }
+                await collector.FlushAsync();
+            }
+            // Then - both batches are ingested, with tags the cluster does not skip
+            Assert.Equal(2, actualIngestDataStreams.Count);
+            Assert.Equal(Enumerable.Range(1, 20), actualIngestDataStreams.SelectMany(stream => KustoTestHelper.LoadItems(stream)).Select(item => item.ID));
+            Assert.NotEqual(actualKustoIngestionProps[0].IngestIfNotExists.Single(), actualKustoIngestionProps[1].IngestIfNotExists.Single());
+        }
     }
 }
\ No newline at end of file
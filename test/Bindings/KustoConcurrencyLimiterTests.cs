@@ -0,0 +1,79 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Threading.Tasks;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoConcurrencyLimiterTests
+    {
+        [Fact]
+        public async Task RunAsyncQueuesRequestsBeyondTheLimitAsync()
+        {
+            // Given
+            var limiter = new KustoConcurrencyLimiter("KustoConnectionString", "ingest", 1);
+            var firstRequest = new TaskCompletionSource<int>();
+            // When
+            Task<int> first = limiter.RunAsync(() => firstRequest.Task);
+            Task<int> second = limiter.RunAsync(() => Task.FromResult(2));
+            // Then - the second request waits until the first one completes
+            Assert.Equal(1, limiter.InFlight);
+            Assert.Equal(1, limiter.Queued);
+            Assert.False(second.IsCompleted);
+            firstRequest.SetResult(1);
+            Assert.Equal(new[] { 1, 2 }, await Task.WhenAll(first, second));
+            Assert.Equal(0, limiter.InFlight);
+        }
+
+        [Fact]
+        public async Task RunAsyncRejectsRequestsBeyondTheQueueAsync()
+        {
+            // Given
+            var limiter = new KustoConcurrencyLimiter("KustoConnectionString", "query", 1, maxQueued: 1);
+            var firstRequest = new TaskCompletionSource<int>();
+            Task<int> first = limiter.RunAsync(() => firstRequest.Task);
+            Task<int> second = limiter.RunAsync(() => Task.FromResult(2));
+            // When
+            await Assert.ThrowsAsync<InvalidOperationException>(() => limiter.RunAsync(() => Task.FromResult(3)));
+            firstRequest.SetResult(1);
+            // Then
+            Assert.Equal(new[] { 1, 2 }, await Task.WhenAll(first, second));
+        }
+
+        [Fact]
+        public async Task AdaptiveLimiterHalvesOnThrottlingAndGrowsBackAsync()
+        {
+            // Given
+            var limiter = new KustoConcurrencyLimiter("KustoConnectionString", "ingest", 8, isAdaptive: true);
+            // When
+            await Assert.ThrowsAsync<InvalidOperationException>(() => limiter.RunAsync<int>(() => throw new InvalidOperationException("Request was throttled")));
+            // Then
+            Assert.Equal(4, limiter.CurrentLimit);
+            // When - a round of successful requests per slot
+            for (int i = 0; i < 40; i++)
+            {
+                await limiter.RunAsync(() => Task.FromResult(i));
+            }
+            // Then
+            Assert.Equal(8, limiter.CurrentLimit);
+        }
+
+        [Fact]
+        public async Task AdaptiveLimiterIgnoresOtherFailuresAsync()
+        {
+            var limiter = new KustoConcurrencyLimiter("KustoConnectionString", "query", 8, isAdaptive: true);
+            await Assert.ThrowsAsync<InvalidOperationException>(() => limiter.RunAsync<int>(() => throw new InvalidOperationException("Semantic error")));
+            Assert.Equal(8, limiter.CurrentLimit);
+        }
+
+        [Fact]
+        public void UnlimitedLimiterIsNotAdaptive()
+        {
+            var limiter = new KustoConcurrencyLimiter("KustoConnectionString", "query", 0);
+            Assert.Equal(0, limiter.CurrentLimit);
+            Assert.Equal(KustoConstants.DefaultAdaptiveMaxConcurrency, new KustoConcurrencyLimiter("KustoConnectionString", "query", 0, isAdaptive: true).MaxConcurrency);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Linq;
+using System.Threading.Tasks;
+using Kusto.Ingest;
+using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoIngestBatcherTests
+    {
+        private readonly ILogger _logger = new LoggerFactory().CreateLogger<KustoIngestBatcherTests>();
+
+        [Fact]
+        public async Task FlushAsyncBatchesRowsAcrossCollectorsAsync()
+        {
+            // Given
+            var actualIngestDataStreams = new List<Stream>();
+            var actualKustoIngestionProps = new List<KustoIngestionProperties>();
+            Mock<IKustoIngestClient> mockIngestionClient = CreateIngestClient(actualIngestDataStreams, actualKustoIngestionProps);
+            var batcher = new KustoIngestBatcher(this._logger);
+            KustoIngestContext firstContext = CreateBatchingContext(mockIngestionClient.Object, batcher, batchMaxRows: 2);
+            KustoIngestContext secondContext = CreateBatchingContext(mockIngestionClient.Object, batcher, batchMaxRows: 2);
+            var firstCollector = new KustoAsyncCollector<Item>(firstContext, this._logger);
+            var secondCollector = new KustoAsyncCollector<Item>(secondContext, this._logger);
+            var firstItem = new Item { ID = 1, Name = "x-1" };
+            var secondItem = new Item { ID = 2, Name = "x-2" };
+            // When
+            await firstCollector.AddAsync(firstItem);
+            await secondCollector.AddAsync(secondItem);
+            await Task.WhenAll(firstCollector.FlushAsync(), secondCollector.FlushAsync());
+            // Then - both rows go in a single ingestion
+            Assert.Single(actualIngestDataStreams);
+            List<Item> actualItems = KustoTestHelper.LoadItems(actualIngestDataStreams.First());
+            Assert.Equal(2, actualItems.Count);
+            Assert.Contains(firstItem, actualItems);
+            Assert.Contains(secondItem, actualItems);
+            Assert.Equal("multijson", actualKustoIngestionProps.First().Format.ToString());
+            // The ingested batch is removed, the next rows of the target start a new one
+            Assert.Equal(0, batcher.BatchCount);
+        }
+
+        [Fact]
+        public async Task FlushAsyncFailsPendingBatchWhenHostShutsDownAsync()
+        {
+            // Given - a queued ingestion that stays pending, the batch waits on the status poll
+            var polled = new TaskCompletionSource<bool>(TaskCreationOptions.RunContinuationsAsynchronously);
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>()))
+                .Returns(() =>
+                {
+                    polled.TrySetResult(true);
+                    return new IngestionStatus() { Status = Status.Pending };
+                });
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(It.IsAny<Stream>(), It.IsAny<KustoIngestionProperties>(), It.IsAny<StreamSourceOptions>()))
+                .ReturnsAsync(mockIngestionResult.Object);
+            var batcher = new KustoIngestBatcher(this._logger);
+            KustoIngestContext context = CreateBatchingContext(mockIngestionClient.Object, batcher, batchMaxRows: 1);
+            context.ResolvedAttribute.IngestionType = "queued";
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            await collector.AddAsync(new Item { ID = 1, Name = "x-1" });
+            Task flush = collector.FlushAsync();
+            await polled.Task;
+            // When
+            batcher.Dispose();
+            // Then
+            await Assert.ThrowsAnyAsync<OperationCanceledException>(() => flush);
+        }
+
+        [Fact]
+        public async Task FlushAsyncIngestsBatchAfterLatencyAsync()
+        {
+            // Given
+            var actualIngestDataStreams = new List<Stream>();
+            var actualKustoIngestionProps = new List<KustoIngestionProperties>();
+            Mock<IKustoIngestClient> mockIngestionClient = CreateIngestClient(actualIngestDataStreams, actualKustoIngestionProps);
+            var batcher = new KustoIngestBatcher(this._logger);
+            KustoIngestContext context = CreateBatchingContext(mockIngestionClient.Object, batcher, batchMaxRows: 100, batchMaxLatencyMs: 50);
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            var expectedItem = new Item { ID = 10, Name = "x-10" };
+            // When - the row limit is never reached, the latency limit flushes the batch
+            await collector.AddAsync(expectedItem);
+            await collector.FlushAsync();
+            // Then
+            List<Item> actualItems = KustoTestHelper.LoadItems(actualIngestDataStreams.Single());
+            Assert.Single(actualItems);
+            Assert.Equal(expectedItem, actualItems[0]);
+            Assert.Equal("json", actualKustoIngestionProps.First().Format.ToString());
+        }
+
+        private static KustoIngestContext CreateBatchingContext(IKustoIngestClient ingestClient, KustoIngestBatcher batcher, int batchMaxRows = 0, int batchMaxLatencyMs = 0)
+        {
+            KustoIngestContext context = KustoTestHelper.CreateContext(ingestClient);
+            context.ResolvedAttribute.BatchMaxRows = batchMaxRows;
+            context.ResolvedAttribute.BatchMaxLatencyMs = batchMaxLatencyMs;
+            context.IngestBatcher = batcher;
+            return context;
+        }
+
+        private static Mock<IKustoIngestClient> CreateIngestClient(List<Stream> actualIngestDataStreams, List<KustoIngestionProperties> actualKustoIngestionProps)
+        {
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            var ingestionStatus = new IngestionStatus()
+            {
+                Status = Status.Succeeded,
+            };
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(ingestionStatus);
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                Capture.In(actualIngestDataStreams),
+                Capture.In(actualKustoIngestionProps),
+                It.IsAny<StreamSourceOptions>())).ReturnsAsync(mockIngestionResult.Object);
+            return mockIngestionClient;
+        }
+    }
+}
\ No newline at end of file
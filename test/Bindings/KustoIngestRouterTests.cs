@@ -0,0 +1,110 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Linq;
+using System.Threading.Tasks;
+using Kusto.Ingest;
+using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoIngestRouterTests
+    {
+        private readonly ILogger _logger = new LoggerFactory().CreateLogger<KustoIngestRouterTests>();
+
+        [Fact]
+        public void ShouldQueueRoutesBySizeAndRate()
+        {
+            // Given
+            var router = new KustoIngestRouter(streamingMaxBytes: 1000, streamingMaxBytesPerSecond: 1000, chunkBytes: 0, chunkTimeout: TimeSpan.FromMinutes(1));
+            var busyTable = new KustoAttribute("unittest") { TableName = "busy", IngestionType = "auto" };
+            var quietTable = new KustoAttribute("unittest") { TableName = "quiet", IngestionType = "auto" };
+            // When - Then: small payloads stream and payloads above the streaming limit are queued
+            Assert.False(router.ShouldQueue(busyTable, 500));
+            Assert.True(router.ShouldQueue(busyTable, 1001));
+            // Once the table receives more than the rate limit its small payloads are queued too, other tables are not affected
+            bool isQueued = false;
+            for (int i = 0; i < 30 && !isQueued; i++)
+            {
+                isQueued = router.ShouldQueue(busyTable, 900);
+            }
+            Assert.True(isQueued);
+            Assert.False(router.ShouldQueue(quietTable, 500));
+            Assert.True(KustoIngestRouter.IsRoutingEnabled(busyTable));
+            Assert.False(KustoIngestRouter.IsRoutingEnabled(new KustoAttribute("unittest") { TableName = "items" }));
+        }
+
+        [Fact]
+        public async Task FlushAsyncRoutesLargePayloadsToQueuedIngestionAsync()
+        {
+            // Given
+            var managedIngestDataStreams = new List<Stream>();
+            var queuedIngestDataStreams = new List<Stream>();
+            Mock<IKustoIngestClient> managedIngestionClient = CreateIngestClient(managedIngestDataStreams, new List<StreamSourceOptions>());
+            Mock<IKustoIngestClient> queuedIngestionClient = CreateIngestClient(queuedIngestDataStreams, new List<StreamSourceOptions>());
+            KustoIngestContext context = KustoTestHelper.CreateContext(managedIngestionClient.Object);
+            context.ResolvedAttribute.IngestionType = "auto";
+            context.IngestRouter = new KustoIngestRouter(streamingMaxBytes: 1024, streamingMaxBytesPerSecond: 0, chunkBytes: 0, chunkTimeout: TimeSpan.FromMinutes(1));
+            context.QueuedContext = new KustoIngestContext
+            {
+                IngestService = queuedIngestionClient.Object,
+                ResolvedAttribute = context.ResolvedAttribute.ForIngestionType("queued"),
+            };
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            // When - a single row, then a payload above the streaming limit
+            await collector.AddAsync(new Item { ID = 1, Name = "x-1" });
+            await collector.FlushAsync();
+            foreach (int id in Enumerable.Range(1, 200))
+            {
+                await collector.AddAsync(new Item { ID = id, Name = "x-" + id });
+            }
+            await collector.FlushAsync();
+            // Then
+            Assert.Single(KustoTestHelper.LoadItems(managedIngestDataStreams.Single()));
+            Assert.Equal(200, KustoTestHelper.LoadItems(queuedIngestDataStreams.Single()).Count);
+        }
+
+        [Fact]
+        public async Task FlushAsyncIngestsOversizedFlushInChunksAsync()
+        {
+            // Given
+            var actualIngestDataStreams = new List<Stream>();
+            var actualStreamSourceOptions = new List<StreamSourceOptions>();
+            Mock<IKustoIngestClient> mockIngestionClient = CreateIngestClient(actualIngestDataStreams, actualStreamSourceOptions);
+            KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+            context.IngestRouter = new KustoIngestRouter(streamingMaxBytes: 0, streamingMaxBytesPerSecond: 0, chunkBytes: 1024, chunkTimeout: TimeSpan.FromMinutes(1));
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            List<Item> expectedItems = Enumerable.Range(1, 200).Select(id => new Item { ID = id, Name = "x-" + id }).ToList();
+            // When
+            foreach (Item item in expectedItems)
+            {
+                await collector.AddAsync(item);
+            }
+            await collector.FlushAsync();
+            // Then - every chunk is ingested once with its own SourceId, together they hold all the rows
+            Assert.True(actualIngestDataStreams.Count > 1);
+            Assert.Equal(actualStreamSourceOptions.Count, actualStreamSourceOptions.Select(options => options.SourceId).Distinct().Count());
+            List<Item> actualItems = actualIngestDataStreams.SelectMany(stream => KustoTestHelper.LoadItems(stream)).OrderBy(item => item.ID).ToList();
+            Assert.True(expectedItems.SequenceEqual(actualItems));
+        }
+
+        private static Mock<IKustoIngestClient> CreateIngestClient(List<Stream> actualIngestDataStreams, List<StreamSourceOptions> actualStreamSourceOptions)
+        {
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(new IngestionStatus() { Status = Status.Succeeded });
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                Capture.In(actualIngestDataStreams),
+                It.IsAny<KustoIngestionProperties>(),
+                Capture.In(actualStreamSourceOptions))).ReturnsAsync(mockIngestionResult.Object);
+            return mockIngestionClient;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Concurrent;
+using System.Collections.Generic;
+using System.Diagnostics;
+using System.Diagnostics.Metrics;
+using System.IO;
+using System.Linq;
+using System.Threading.Tasks;
+using Kusto.Ingest;
+using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoMetricsTests
+    {
+        // A table of its own, other tests ingest through the same meter in parallel
+        private const string TableName = "telemetryitems";
+        private readonly ILogger _logger = new LoggerFactory().CreateLogger<KustoMetricsTests>();
+
+        [Fact]
+        public async Task IngestionRecordsMetricsAndSpanAsync()
+        {
+            // Given
+            var measurements = new ConcurrentBag<(string Instrument, double Value, Dictionary<string, object> Tags)>();
+            using var meterListener = new MeterListener
+            {
+                InstrumentPublished = (instrument, listener) =>
+                {
+                    if (instrument.Meter.Name == KustoMetrics.MeterName)
+                    {
+                        listener.EnableMeasurementEvents(instrument);
+                    }
+                },
+            };
+            meterListener.SetMeasurementEventCallback<long>((instrument, value, tags, state) => measurements.Add((instrument.Name, value, ToDictionary(tags))));
+            meterListener.SetMeasurementEventCallback<double>((instrument, value, tags, state) => measurements.Add((instrument.Name, value, ToDictionary(tags))));
+            meterListener.Start();
+            var activities = new ConcurrentBag<Activity>();
+            using var activityListener = new ActivityListener
+            {
+                ShouldListenTo = source => source.Name == KustoMetrics.MeterName,
+                Sample = (ref ActivityCreationOptions<ActivityContext> options) => ActivitySamplingResult.AllDataAndRecorded,
+                ActivityStopped = activities.Add,
+            };
+            ActivitySource.AddActivityListener(activityListener);
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(new IngestionStatus() { Status = Status.Succeeded });
+            var actualStreamSourceOptions = new List<StreamSourceOptions>();
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(It.IsAny<Stream>(), It.IsAny<KustoIngestionProperties>(), Capture.In(actualStreamSourceOptions)))
+                .ReturnsAsync(mockIngestionResult.Object);
+            var collector = new KustoAsyncCollector<Item>(KustoTestHelper.CreateContext(mockIngestionClient.Object, tableName: TableName), this._logger);
+            // When
+            await collector.AddAsync(new Item { ID = 1, Name = "x-1" });
+            await collector.AddAsync(new Item { ID = 2, Name = "x-2" });
+            await collector.FlushAsync();
+            // Then
+            List<(string Instrument, double Value, Dictionary<string, object> Tags)> tableMeasurements = measurements.Where(m => TableName.Equals(m.Tags.GetValueOrDefault("table"))).ToList();
+            Assert.Equal(2, tableMeasurements.Single(m => m.Instrument == "kusto.ingest.rows").Value);
+            Assert.True(tableMeasurements.Single(m => m.Instrument == "kusto.ingest.bytes").Value > 0);
+            (string Instrument, double Value, Dictionary<string, object> Tags) duration = tableMeasurements.Single(m => m.Instrument == "kusto.ingest.duration");
+            Assert.Equal("managed", duration.Tags["mode"]);
+            Assert.Equal("Succeeded", duration.Tags["status"]);
+            Activity ingestActivity = activities.Single(a => TableName.Equals(a.GetTagItem("kusto.table")));
+            Assert.Equal(actualStreamSourceOptions.Single().SourceId.ToString(), ingestActivity.GetTagItem("kusto.source_id"));
+        }
+
+        private static Dictionary<string, object> ToDictionary(ReadOnlySpan<KeyValuePair<string, object>> tags)
+        {
+            var dictionary = new Dictionary<string, object>();
+            foreach (KeyValuePair<string, object> tag in tags)
+            {
+                dictionary[tag.Key] = tag.Value;
+            }
+            return dictionary;
+        }
+    }
+}
\ No newline at end of file
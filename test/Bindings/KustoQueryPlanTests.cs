@@ -0,0 +1,158 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using Kusto.Data.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoQueryPlanTests
+    {
+        [Fact]
+        public void GetKeepsUntypedParametersAndCommand()
+        {
+            // Given
+            var attribute = new KustoAttribute("db")
+            {
+                KqlCommand = "declare query_parameters(name:string);Products | where Name == name",
+                KqlParameters = "@name=Item-1",
+                ClientRequestProperties = "@servertimeout=00:01:00",
+            };
+            // When
+            KustoQueryPlan plan = KustoQueryPlan.Get(attribute);
+            // Then
+            Assert.Equal(attribute.KqlCommand, plan.KqlCommand);
+            Assert.Equal(new[] { new KeyValuePair<string, string>("name", "Item-1") }, plan.QueryParameters);
+            Assert.Equal(new[] { new KeyValuePair<string, object>("servertimeout", "00:01:00") }, plan.ClientRequestOptions);
+            Assert.Empty(plan.ResultTableNames);
+            Assert.Equal(KustoConstants.ResultFormatJson, plan.ResultFormat);
+        }
+
+        [Fact]
+        public void GetDeclaresTypedParameters()
+        {
+            // Given
+            var attribute = new KustoAttribute("db")
+            {
+                KqlCommand = "Products | where ProductID == id and Timestamp > from and Tags has tag",
+                KqlParameters = "@id:long=5,@from:datetime=2024-01-01,@tag:string=\"a,b\",@enabled:boolean=True",
+            };
+            // When
+            KustoQueryPlan plan = KustoQueryPlan.Get(attribute);
+            // Then
+            Assert.Equal("declare query_parameters(id:long, from:datetime, tag:string, enabled:bool);\n" + attribute.KqlCommand, plan.KqlCommand);
+            Assert.Equal(new[]
+            {
+                new KeyValuePair<string, string>("id", "5"),
+                new KeyValuePair<string, string>("from", "datetime(2024-01-01)"),
+                new KeyValuePair<string, string>("tag", "a,b"),
+                new KeyValuePair<string, string>("enabled", "true"),
+            }, plan.QueryParameters);
+        }
+
+        [Fact]
+        public void GetKeepsCommandsThatDeclareTheirParameters()
+        {
+            // Given
+            var attribute = new KustoAttribute("db")
+            {
+                KqlCommand = "declare query_parameters(id:long);Products | where ProductID == id",
+                KqlParameters = "@id:long=null",
+            };
+            // When
+            KustoQueryPlan plan = KustoQueryPlan.Get(attribute);
+            // Then
+            Assert.Equal(attribute.KqlCommand, plan.KqlCommand);
+            Assert.Equal(new[] { new KeyValuePair<string, string>("id", "long(null)") }, plan.QueryParameters);
+        }
+
+        [Theory]
+        [InlineData("@id:long=five")]
+        [InlineData("@id:float=5")]
+        [InlineData("@id:string=\"5")]
+        [InlineData("@id:string=\"5\"x")]
+        [InlineData("@id=5=6")]
+        public void GetRejectsInvalidParameters(string kqlParameters)
+        {
+            var attribute = new KustoAttribute("db")
+            {
+                KqlCommand = "Products | where ProductID == id",
+                KqlParameters = kqlParameters,
+            };
+            Assert.Throws<ArgumentException>(() => KustoQueryPlan.Get(attribute));
+        }
+
+        [Fact]
+        public void GetReturnsCachedPlans()
+        {
+            // Given
+            var attribute = new KustoAttribute("db")
+            {
+                KqlCommand = "Products | where ProductID == id",
+                KqlParameters = "@id:int=7",
+            };
+            var sameSettings = new KustoAttribute("other")
+            {
+                KqlCommand = "Products | where ProductID == id",
+                KqlParameters = "@id:int=7",
+            };
+            // When
+            KustoQueryPlan plan = KustoQueryPlan.Get(attribute);
+            // Then
+            Assert.Same(plan, KustoQueryPlan.Get(sameSettings));
+        }
+
+        [Fact]
+        public void CreateClientRequestPropertiesCreatesNewProperties()
+        {
+            // Given
+            KustoQueryPlan plan = KustoQueryPlan.Get(new KustoAttribute("db")
+            {
+                KqlCommand = "Products | where ProductID == id",
+                KqlParameters = "@id:long=5",
+            });
+            // When
+            ClientRequestProperties first = plan.CreateClientRequestProperties("first");
+            ClientRequestProperties second = plan.CreateClientRequestProperties("second");
+            // Then
+            Assert.NotSame(first, second);
+            Assert.Equal($"{KustoConstants.ClientRequestId};first", first.ClientRequestId);
+            Assert.Equal($"{KustoConstants.ClientRequestId};second", second.ClientRequestId);
+        }
+
+        [Fact]
+        public void ParseParametersUnquotesValuesOfTypedParameters()
+        {
+            IReadOnlyDictionary<string, object> parameters = KustoBindingUtilities.ParseParameters(",@a:string=\"x=\"\"1\"\",y\", @b=,@c=plain,");
+            Assert.Equal("x=\"1\",y", parameters["a:string"]);
+            Assert.Equal(string.Empty, parameters["b"]);
+            Assert.Equal("plain", parameters["c"]);
+        }
+
+        [Fact]
+        public void ParseParametersKeepsQuotesOfUntypedParameters()
+        {
+            // Untyped values are passed as they are written, quotes included
+            IReadOnlyDictionary<string, object> parameters = KustoBindingUtilities.ParseParameters("@name=\"Item-1\",@id=\"\"");
+            Assert.Equal("\"Item-1\"", parameters["name"]);
+            Assert.Equal("\"\"", parameters["id"]);
+        }
+
+        [Fact]
+        public void LruCacheEvictsLeastRecentlyUsedEntry()
+        {
+            var cache = new KustoLruCache<string>(2);
+            cache.GetOrAdd("a", "1");
+            cache.GetOrAdd("b", "2");
+            Assert.True(cache.TryGetValue("a", out _));
+            cache.GetOrAdd("c", "3");
+            Assert.Equal(2, cache.Count);
+            Assert.True(cache.TryGetValue("a", out _));
+            Assert.False(cache.TryGetValue("b", out _));
+            Assert.Equal("3", cache.GetOrAdd("c", "other"));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,91 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Threading;
+using System.Threading.Tasks;
+using Newtonsoft.Json.Linq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoQueryResultCacheTests
+    {
+        [Fact]
+        public async Task GetOrAddAsyncCollapsesConcurrentMissesAsync()
+        {
+            // Given
+            var cache = new KustoQueryResultCache(10);
+            int queryCount = 0;
+            var queryResult = new TaskCompletionSource<JToken>();
+            Task<JToken> Query()
+            {
+                Interlocked.Increment(ref queryCount);
+                return queryResult.Task;
+            }
+            // When - the second lookup arrives while the first query is still running
+            Task<JToken> first = cache.GetOrAddAsync("key", TimeSpan.FromMinutes(1), Query);
+            Task<JToken> second = cache.GetOrAddAsync("key", TimeSpan.FromMinutes(1), Query);
+            queryResult.SetResult(new JArray(1, 2));
+            JToken[] results = await Task.WhenAll(first, second);
+            JToken third = await cache.GetOrAddAsync("key", TimeSpan.FromMinutes(1), Query);
+            // Then
+            Assert.Equal(1, queryCount);
+            Assert.Same(results[0], results[1]);
+            Assert.Same(results[0], third);
+        }
+
+        [Fact]
+        public async Task GetOrAddAsyncEvictsLeastRecentlyUsedAsync()
+        {
+            // Given
+            var cache = new KustoQueryResultCache(2);
+            int queryCount = 0;
+            Task<JToken> Query()
+            {
+                Interlocked.Increment(ref queryCount);
+                return Task.FromResult<JToken>(new JArray());
+            }
+            await cache.GetOrAddAsync("a", TimeSpan.FromMinutes(1), Query);
+            await cache.GetOrAddAsync("b", TimeSpan.FromMinutes(1), Query);
+            // When - a is used again, so b is the least recently used when c is added
+            await cache.GetOrAddAsync("a", TimeSpan.FromMinutes(1), Query);
+            await cache.GetOrAddAsync("c", TimeSpan.FromMinutes(1), Query);
+            await cache.GetOrAddAsync("a", TimeSpan.FromMinutes(1), Query);
+            await cache.GetOrAddAsync("b", TimeSpan.FromMinutes(1), Query);
+            // Then - a, b, c and b again
+            Assert.Equal(4, queryCount);
+            Assert.Equal(2, cache.Count);
+        }
+
+        [Fact]
+        public async Task GetOrAddAsyncDoesNotCacheFailuresAsync()
+        {
+            // Given
+            var cache = new KustoQueryResultCache(10);
+            // When
+            await Assert.ThrowsAsync<InvalidOperationException>(() => cache.GetOrAddAsync<JToken>("key", TimeSpan.FromMinutes(1), () => throw new InvalidOperationException("Query failed")));
+            JToken result = await cache.GetOrAddAsync("key", TimeSpan.FromMinutes(1), () => Task.FromResult<JToken>(new JArray(1)));
+            // Then
+            Assert.Single(result);
+        }
+
+        [Fact]
+        public async Task GetOrAddAsyncRefreshesExpiredEntriesAsync()
+        {
+            // Given
+            var cache = new KustoQueryResultCache(10);
+            int queryCount = 0;
+            Task<JToken> Query()
+            {
+                Interlocked.Increment(ref queryCount);
+                return Task.FromResult<JToken>(new JArray());
+            }
+            // When
+            await cache.GetOrAddAsync("key", TimeSpan.Zero, Query);
+            await cache.GetOrAddAsync("key", TimeSpan.Zero, Query);
+            // Then
+            Assert.Equal(2, queryCount);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Data;
+using System.Linq;
+using Kusto.Cloud.Platform.Data;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoQueryResultWriterTests
+    {
+        [Fact]
+        public void WriteJsonStringMatchesJObjectResult()
+        {
+            // Given
+            // Only scalar columns, dynamic values are compared in WriteJsonStringNamesResultTables
+            DataSet dataSet = CreateDataSet(1);
+            dataSet.Tables[0].Columns.Remove("Properties");
+            string expected = new JArray(dataSet.CreateDataReader().ToJObjects()).ToString(Formatting.None);
+            // When
+            (string result, int rowCount) = KustoQueryResultWriter.WriteJsonString(dataSet.CreateDataReader(), Array.Empty<string>());
+            // Then
+            Assert.Equal(expected, result);
+            Assert.Equal(3, rowCount);
+        }
+
+        [Fact]
+        public void WriteJsonStringNamesResultTables()
+        {
+            // Given
+            DataSet dataSet = CreateDataSet(2);
+            // When
+            (string result, int rowCount) = KustoQueryResultWriter.WriteJsonString(dataSet.CreateDataReader(), new[] { "first", "second" });
+            // Then
+            var tables = JObject.Parse(result);
+            Assert.Equal(6, rowCount);
+            Assert.Equal(3, ((JArray)tables["first"]).Count);
+            Assert.Equal("Name \"1\"", tables["second"][1]["Name"].Value<string>());
+            Assert.Equal(JTokenType.Null, tables["second"][2]["Name"].Type);
+            Assert.Equal(42, tables["second"][0]["Properties"]["answer"].Value<int>());
+        }
+
+        [Fact]
+        public void WriteJsonStringFailsOnMissingResultTables()
+        {
+            // Given
+            DataSet dataSet = CreateDataSet(1);
+            // When - Then
+            Assert.Throws<InvalidOperationException>(() => KustoQueryResultWriter.WriteJsonString(dataSet.CreateDataReader(), new[] { "first", "second" }));
+        }
+
+        [Fact]
+        public void WriteCsvStringWritesHeaderAndRows()
+        {
+            // Given
+            DataSet dataSet = CreateDataSet(1);
+            dataSet.Tables[0].Rows.Add(3L, string.Empty, 3.5, DBNull.Value, DBNull.Value);
+            // When
+            (string result, int rowCount) = KustoQueryResultWriter.WriteCsvString(dataSet.CreateDataReader(), Array.Empty<string>());
+            // Then
+            Assert.Equal(4, rowCount);
+            Assert.Equal("Id,Name,Cost,Timestamp,Properties\n" +
+                "0,Name 0,0.5,2023-01-01T00:00:00Z,\"{\"\"answer\"\":42}\"\n" +
+                "1,\"Name \"\"1\"\"\",1.5,2023-01-02T00:00:00Z,text\n" +
+                "2,,,,\n" +
+                "3,\"\",3.5,,\n", result);
+        }
+
+        [Fact]
+        public void WriteColumnarStringWritesColumns()
+        {
+            // Given
+            DataSet dataSet = CreateDataSet(2);
+            // When
+            (string result, int rowCount) = KustoQueryResultWriter.WriteColumnarString(dataSet.CreateDataReader(), new[] { "first", "second" });
+            // Then
+            var tables = JObject.Parse(result);
+            Assert.Equal(6, rowCount);
+            JToken first = tables["first"];
+            Assert.Equal(3, first["rowCount"].Value<int>());
+            Assert.Equal(new[] { "Id", "Name", "Cost", "Timestamp", "Properties" }, first["columns"].Select(column => column["name"].Value<string>()));
+            Assert.Equal(new[] { "long", "string", "real", "datetime", "dynamic" }, first["columns"].Select(column => column["type"].Value<string>()));
+            Assert.Equal(new[] { 0L, 1L, 2L }, first["data"][0].Values<long>());
+            Assert.Equal(JTokenType.Null, first["data"][1][2].Type);
+            Assert.Equal(42, first["data"][4][0]["answer"].Value<int>());
+            Assert.True(JToken.DeepEquals(first, tables["second"]));
+        }
+
+        private static DataSet CreateDataSet(int tableCount)
+        {
+            var dataSet = new DataSet();
+            for (int tableIndex = 0; tableIndex < tableCount; tableIndex++)
+            {
+                var table = new DataTable("Table_" + tableIndex);
+                table.Columns.Add("Id", typeof(long));
+                table.Columns.Add("Name", typeof(string));
+                table.Columns.Add("Cost", typeof(double));
+                table.Columns.Add("Timestamp", typeof(DateTime)).DateTimeMode = DataSetDateTime.Utc;
+                table.Columns.Add("Properties", typeof(object));
+                table.Rows.Add(0L, "Name 0", 0.5, new DateTime(2023, 1, 1, 0, 0, 0, DateTimeKind.Utc), new JObject { ["answer"] = 42 });
+                table.Rows.Add(1L, "Name \"1\"", 1.5, new DateTime(2023, 1, 2, 0, 0, 0, DateTimeKind.Utc), "text");
+                table.Rows.Add(2L, DBNull.Value, DBNull.Value, DBNull.Value, DBNull.Value);
+                dataSet.Tables.Add(table);
+            }
+            return dataSet;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Data;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Data.Common;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoReadRouterTests
+    {
+        [Fact]
+        public async Task ExecuteQueryAsyncPrefersTheFasterReplicaAsync()
+        {
+            // Given
+            var slowReplica = new Mock<ICslQueryProvider>();
+            var fastReplica = new Mock<ICslQueryProvider>();
+            SetupQuery(slowReplica, async cancellationToken =>
+            {
+                await Task.Delay(200, cancellationToken);
+                return new DataTable().CreateDataReader();
+            });
+            SetupQuery(fastReplica, cancellationToken => Task.FromResult<IDataReader>(new DataTable().CreateDataReader()));
+            KustoReadRouter router = CreateRouter(slowReplica.Object, fastReplica.Object);
+            // When - every replica is measured once, then the expected wait decides
+            for (int i = 0; i < 5; i++)
+            {
+                using IDataReader reader = await router.ExecuteQueryAsync("unittestdb", "Storms | take 10", () => new ClientRequestProperties());
+            }
+            // Then
+            VerifyQueries(slowReplica, Times.Once());
+            VerifyQueries(fastReplica, Times.Exactly(4));
+        }
+
+        [Fact]
+        public async Task ExecuteQueryAsyncHedgesSlowQueriesAsync()
+        {
+            // Given
+            var primaryReplica = new Mock<ICslQueryProvider>();
+            var secondaryReplica = new Mock<ICslQueryProvider>();
+            bool isPrimaryStuck = false;
+            var primaryCancelled = new TaskCompletionSource<bool>();
+            SetupQuery(primaryReplica, async cancellationToken =>
+            {
+                if (isPrimaryStuck)
+                {
+                    using (cancellationToken.Register(() => primaryCancelled.TrySetResult(true)))
+                    {
+                        await Task.Delay(Timeout.Infinite, cancellationToken);
+                    }
+                }
+                return new DataTable().CreateDataReader();
+            });
+            IDataReader secondaryReader = new DataTable().CreateDataReader();
+            SetupQuery(secondaryReplica, async cancellationToken =>
+            {
+                await Task.Delay(30, cancellationToken);
+                return secondaryReader;
+            });
+            KustoReadRouter router = CreateRouter(primaryReplica.Object, secondaryReplica.Object);
+            for (int i = 0; i < 25; i++)
+            {
+                using IDataReader reader = await router.ExecuteQueryAsync("unittestdb", "Storms | take 10", () => new ClientRequestProperties(), 90);
+            }
+            // When - the primary replica stops answering
+            isPrimaryStuck = true;
+            IDataReader result = await router.ExecuteQueryAsync("unittestdb", "Storms | take 10", () => new ClientRequestProperties(), 90);
+            // Then - the hedged query answers and the stuck one is cancelled
+            Assert.Same(secondaryReader, result);
+            Assert.True(await primaryCancelled.Task);
+        }
+
+        [Fact]
+        public async Task ExecuteQueryAsyncFailsOverFromAFailingReplicaAsync()
+        {
+            // Given
+            var failingReplica = new Mock<ICslQueryProvider>();
+            var healthyReplica = new Mock<ICslQueryProvider>();
+            SetupQuery(failingReplica, cancellationToken => Task.FromException<IDataReader>(new InvalidOperationException("Follower is down")));
+            SetupQuery(healthyReplica, cancellationToken => Task.FromResult<IDataReader>(new DataTable().CreateDataReader()));
+            KustoReadRouter router = CreateRouter(failingReplica.Object, healthyReplica.Object);
+            // When
+            for (int i = 0; i < 5; i++)
+            {
+                using IDataReader reader = await router.ExecuteQueryAsync("unittestdb", "Storms | take 10", () => new ClientRequestProperties());
+            }
+            // Then - the failed query is retried on the healthy replica, and the failing replica is backed off
+            VerifyQueries(failingReplica, Times.Once());
+            VerifyQueries(healthyReplica, Times.Exactly(5));
+        }
+
+        [Fact]
+        public async Task ExecuteQueryAsyncFailsOverWhenHedgedQueryFailsBeforeHedgeDelayAsync()
+        {
+            // Given
+            var primaryReplica = new Mock<ICslQueryProvider>();
+            var secondaryReplica = new Mock<ICslQueryProvider>();
+            bool isPrimaryDown = false;
+            SetupQuery(primaryReplica, cancellationToken => isPrimaryDown
+                ? Task.FromException<IDataReader>(new InvalidOperationException("Follower is down"))
+                : Task.FromResult<IDataReader>(new DataTable().CreateDataReader()));
+            IDataReader failoverReader = new DataTable().CreateDataReader();
+            SetupQuery(secondaryReplica, async cancellationToken =>
+            {
+                if (isPrimaryDown)
+                {
+                    return failoverReader;
+                }
+                await Task.Delay(200, cancellationToken);
+                return new DataTable().CreateDataReader();
+            });
+            KustoReadRouter router = CreateRouter(primaryReplica.Object, secondaryReplica.Object);
+            for (int i = 0; i < 25; i++)
+            {
+                using IDataReader reader = await router.ExecuteQueryAsync("unittestdb", "Storms | take 10", () => new ClientRequestProperties(), 90);
+            }
+            // When - the primary replica fails right away
+            isPrimaryDown = true;
+            IDataReader result = await router.ExecuteQueryAsync("unittestdb", "Storms | take 10", () => new ClientRequestProperties(), 90);
+            // Then - the query is retried on the other replica
+            Assert.Same(failoverReader, result);
+        }
+
+        [Fact]
+        public async Task ExecuteQueryAsyncDoesNotHedgeWithoutPercentileAsync()
+        {
+            // Given
+            var firstReplica = new Mock<ICslQueryProvider>();
+            var secondReplica = new Mock<ICslQueryProvider>();
+            SetupQuery(firstReplica, cancellationToken => Task.FromResult<IDataReader>(new DataTable().CreateDataReader()));
+            SetupQuery(secondReplica, cancellationToken => Task.FromResult<IDataReader>(new DataTable().CreateDataReader()));
+            KustoReadRouter router = CreateRouter(firstReplica.Object, secondReplica.Object);
+            // When
+            using IDataReader reader = await router.ExecuteQueryAsync("unittestdb", "Storms | take 10", () => new ClientRequestProperties());
+            // Then - a single query is sent
+            VerifyQueries(firstReplica, Times.Once());
+            VerifyQueries(secondReplica, Times.Never());
+        }
+
+        private static KustoReadRouter CreateRouter(ICslQueryProvider first, ICslQueryProvider second)
+        {
+            return new KustoReadRouter(new[]
+            {
+                new KeyValuePair<string, ICslQueryProvider>("FirstReplica", first),
+                new KeyValuePair<string, ICslQueryProvider>("SecondReplica", second),
+            }, null);
+        }
+
+        private static void SetupQuery(Mock<ICslQueryProvider> replica, Func<CancellationToken, Task<IDataReader>> query)
+        {
+            replica.Setup(m => m.ExecuteQueryAsync(It.IsAny<string>(), It.IsAny<string>(), It.IsAny<ClientRequestProperties>(), It.IsAny<CancellationToken>()))
+                .Returns((string database, string kql, ClientRequestProperties properties, CancellationToken cancellationToken) => query(cancellationToken));
+        }
+
+        private static void VerifyQueries(Mock<ICslQueryProvider> replica, Times times)
+        {
+            replica.Verify(m => m.ExecuteQueryAsync("unittestdb", "Storms | take 10", It.IsAny<ClientRequestProperties>(), It.IsAny<CancellationToken>()), times);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Data;
+using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
+using Newtonsoft.Json;
+using Newtonsoft.Json.Linq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoRowMapperTests
+    {
+        [Fact]
+        public void MapperReadsRowsLikeJsonDeserialization()
+        {
+            // Given - Kusto returns ID as a long, the Item property is an int
+            var table = new DataTable();
+            table.Columns.Add("ID", typeof(long));
+            table.Columns.Add("name", typeof(string));
+            table.Columns.Add("Cost", typeof(double));
+            table.Columns.Add("Timestamp", typeof(DateTime));
+            table.Columns.Add("Unmapped", typeof(string));
+            table.Rows.Add(1L, "Item-1", 1.5, new DateTime(2023, 1, 1, 0, 0, 0, DateTimeKind.Utc), "ignored");
+            table.Rows.Add(2L, DBNull.Value, DBNull.Value, new DateTime(2023, 1, 2, 0, 0, 0, DateTimeKind.Utc), DBNull.Value);
+            var rows = new List<Item>();
+            // When
+            using (DataTableReader reader = table.CreateDataReader())
+            {
+                Func<IDataRecord, Item> mapRow = KustoRowMapper<Item>.GetMapper(reader);
+                while (reader.Read())
+                {
+                    rows.Add(mapRow(reader));
+                }
+            }
+            // Then
+            Assert.Equal(new Item { ID = 1, Name = "Item-1", Cost = 1.5, Timestamp = new DateTime(2023, 1, 1, 0, 0, 0, DateTimeKind.Utc) }, rows[0]);
+            Assert.Equal(new Item { ID = 2, Timestamp = new DateTime(2023, 1, 2, 0, 0, 0, DateTimeKind.Utc) }, rows[1]);
+        }
+
+        [Fact]
+        public void MapperHonorsJsonAttributesAndConvertsDynamicValues()
+        {
+            // Given
+            var table = new DataTable();
+            table.Columns.Add("item_id", typeof(int));
+            table.Columns.Add("Secret", typeof(string));
+            table.Columns.Add("Tags", typeof(object));
+            table.Columns.Add("Count", typeof(long));
+            table.Rows.Add(7, "hidden", new JArray("a", "b"), 3L);
+            Record record;
+            // When
+            using (DataTableReader reader = table.CreateDataReader())
+            {
+                reader.Read();
+                record = KustoRowMapper<Record>.GetMapper(reader)(reader);
+            }
+            // Then
+            Assert.Equal(7L, record.Id);
+            Assert.Null(record.Secret);
+            Assert.Equal(new[] { "a", "b" }, record.Tags);
+            Assert.Equal(3, record.Count);
+        }
+
+        [Fact]
+        public void MapperIsCachedPerSchema()
+        {
+            // Given
+            var first = new DataTable();
+            first.Columns.Add("ID", typeof(long));
+            var second = new DataTable();
+            second.Columns.Add("ID", typeof(long));
+            var third = new DataTable();
+            third.Columns.Add("ID", typeof(int));
+            // When - Then
+            Assert.Same(KustoRowMapper<Item>.GetMapper(first.CreateDataReader()), KustoRowMapper<Item>.GetMapper(second.CreateDataReader()));
+            Assert.NotSame(KustoRowMapper<Item>.GetMapper(first.CreateDataReader()), KustoRowMapper<Item>.GetMapper(third.CreateDataReader()));
+        }
+
+        [Fact]
+        public void TypesThatNeedJsonAreNotMapped()
+        {
+            Assert.True(KustoRowMapper<Item>.IsSupported);
+            Assert.False(KustoRowMapper<JObject>.IsSupported);
+            Assert.False(KustoRowMapper<Dictionary<string, object>>.IsSupported);
+            Assert.False(KustoRowMapper<ConstructedRecord>.IsSupported);
+            Assert.Null(KustoRowMapper<ConstructedRecord>.GetMapper(new DataTable().CreateDataReader()));
+        }
+
+        public class Record
+        {
+            [JsonProperty("item_id")]
+            public long Id { get; set; }
+
+            [JsonIgnore]
+            public string Secret { get; set; }
+
+            public string[] Tags { get; set; }
+
+            public int? Count { get; set; }
+        }
+
+        public class ConstructedRecord
+        {
+            [JsonConstructor]
+            public ConstructedRecord(long id)
+            {
+                this.Id = id;
+            }
+
+            public long Id { get; }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Linq;
+using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+using Newtonsoft.Json.Linq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoShardRouterTests
+    {
+        [Fact]
+        public void GetParsesTargets()
+        {
+            KustoShardRouter router = KustoShardRouter.Get(new KustoAttribute("unittest")
+            {
+                Connection = "KustoConnectionString",
+                ShardTargets = "shard0, OtherConnection/shard1",
+                ShardKey = "ID",
+            });
+            Assert.Equal(new[] { "KustoConnectionString", "OtherConnection" }, router.Targets.Select(target => target.Connection));
+            Assert.Equal(new[] { "shard0", "shard1" }, router.Targets.Select(target => target.Database));
+            Assert.False(router.IsRangeSharded);
+        }
+
+        [Fact]
+        public void HashShardingIsStableAcrossRowTypes()
+        {
+            // Given
+            KustoShardRouter router = KustoShardRouter.Get(new KustoAttribute("unittest") { ShardTargets = "shard0,shard1,shard2", ShardKey = "ID" });
+            IEnumerable<int> ids = Enumerable.Range(1, 100);
+            // When
+            int[] pocoShards = ids.Select(id => router.GetShard(new Item { ID = id })).ToArray();
+            int[] jsonShards = ids.Select(id => router.GetShard($"{{\"ID\":{id},\"Name\":\"x\"}}")).ToArray();
+            int[] jObjectShards = ids.Select(id => router.GetShard(new JObject { ["id"] = id })).ToArray();
+            // Then - the same key goes to the same target whatever the row type, and every target gets rows
+            Assert.Equal(pocoShards, jsonShards);
+            Assert.Equal(pocoShards, jObjectShards);
+            Assert.Equal(3, pocoShards.Distinct().Count());
+        }
+
+        [Fact]
+        public void RangeShardingUsesBoundaries()
+        {
+            // Given
+            KustoShardRouter router = KustoShardRouter.Get(new KustoAttribute("unittest") { ShardTargets = "shard0,shard1,shard2", ShardKey = "ID", ShardBoundaries = "10,100" });
+            // When
+            List<Item>[] shards = router.Split(new[] { new Item { ID = 5 }, new Item { ID = 10 }, new Item { ID = 99 }, new Item { ID = 1000 } });
+            // Then - numeric keys are compared as numbers
+            Assert.Equal(new[] { 5 }, shards[0].Select(item => item.ID));
+            Assert.Equal(new[] { 10, 99 }, shards[1].Select(item => item.ID));
+            Assert.Equal(new[] { 1000 }, shards[2].Select(item => item.ID));
+        }
+
+        [Theory]
+        [InlineData("shard0,shard1", null, null)]
+        [InlineData("shard0,shard1", "ID", "1,2")]
+        [InlineData("shard0,shard1,shard2", "ID", "20,10")]
+        [InlineData("shard0,Connection/", "ID", null)]
+        public void GetRejectsMalformedSettings(string shardTargets, string shardKey, string shardBoundaries)
+        {
+            Assert.Throws<InvalidOperationException>(() => KustoShardRouter.Get(new KustoAttribute("unittest")
+            {
+                ShardTargets = shardTargets,
+                ShardKey = shardKey,
+                ShardBoundaries = shardBoundaries,
+            }));
+        }
+
+        [Fact]
+        public void GetShardRejectsUnknownKey()
+        {
+            KustoShardRouter router = KustoShardRouter.Get(new KustoAttribute("unittest") { ShardTargets = "shard0,shard1", ShardKey = "ProductID" });
+            Assert.Throws<InvalidOperationException>(() => router.GetShard(new Item { ID = 1 }));
+        }
+    }
+}
\ No newline at end of file
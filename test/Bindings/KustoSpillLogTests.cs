@@ -0,0 +1,168 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.IO;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Ingest;
+using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+using Moq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoSpillLogTests : IDisposable
+    {
+        private const long SegmentBytes = 64 * 1024;
+        private readonly ILogger _logger = new LoggerFactory().CreateLogger<KustoSpillLogTests>();
+        private readonly string _spillDirectory = Path.Combine(Path.GetTempPath(), "kusto-spill-" + Guid.NewGuid().ToString("N"));
+
+        [Fact]
+        public async Task TryAppendIngestsRecordsInOrderAndRetriesTransientFailuresAsync()
+        {
+            // Given - the first ingestion fails with a transient error
+            var actualIngestDataStreams = new List<Stream>();
+            var actualStreamSourceOptions = new List<StreamSourceOptions>();
+            Mock<IKustoIngestClient> mockIngestionClient = CreateIngestClient(actualIngestDataStreams, actualStreamSourceOptions, failFirst: true);
+            using var spillLog = new KustoSpillLog(this._spillDirectory, long.MaxValue, SegmentBytes, attribute => CreateContext(mockIngestionClient.Object, attribute), this._logger);
+            KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+            var firstItem = new Item { ID = 1, Name = "x-1" };
+            var secondItem = new Item { ID = 2, Name = "x-2" };
+            var firstSourceId = Guid.NewGuid();
+            var secondSourceId = Guid.NewGuid();
+            // When
+            Assert.True(spillLog.TryAppend(context, KustoBindingUtilities.WriteRowsToStream(new[] { firstItem }, true), 1, firstSourceId));
+            Assert.True(spillLog.TryAppend(context, KustoBindingUtilities.WriteRowsToStream(new[] { secondItem }, true), 1, secondSourceId));
+            await WaitUntilAsync(() => spillLog.PendingBytes == 0);
+            // Then - the failed record is retried with its SourceId before the record behind it is ingested
+            Assert.Equal(new[] { firstSourceId, firstSourceId, secondSourceId }, actualStreamSourceOptions.Select(options => options.SourceId));
+            Assert.Equal(firstItem, KustoTestHelper.LoadItems(actualIngestDataStreams[1]).Single());
+            Assert.Equal(secondItem, KustoTestHelper.LoadItems(actualIngestDataStreams[2]).Single());
+        }
+
+        [Fact]
+        public async Task RecoverIngestsRecordsLeftByPreviousHostAsync()
+        {
+            // Given - the previous host spilled rows and stopped before the cluster answered
+            var hangingIngestionClient = new Mock<IKustoIngestClient>();
+            hangingIngestionClient.Setup(m => m.IngestFromStreamAsync(It.IsAny<Stream>(), It.IsAny<KustoIngestionProperties>(), It.IsAny<StreamSourceOptions>()))
+                .Returns(new TaskCompletionSource<IKustoIngestionResult>().Task);
+            var expectedItem = new Item { ID = 3, Name = "x-3" };
+            var expectedSourceId = Guid.NewGuid();
+            using (var previousSpillLog = new KustoSpillLog(this._spillDirectory, long.MaxValue, SegmentBytes, attribute => CreateContext(hangingIngestionClient.Object, attribute), this._logger))
+            {
+                KustoIngestContext previousContext = KustoTestHelper.CreateContext(hangingIngestionClient.Object);
+                Assert.True(previousSpillLog.TryAppend(previousContext, KustoBindingUtilities.WriteRowsToStream(new[] { expectedItem }, true), 1, expectedSourceId));
+            }
+            var actualIngestDataStreams = new List<Stream>();
+            var actualStreamSourceOptions = new List<StreamSourceOptions>();
+            Mock<IKustoIngestClient> mockIngestionClient = CreateIngestClient(actualIngestDataStreams, actualStreamSourceOptions);
+            using var spillLog = new KustoSpillLog(this._spillDirectory, long.MaxValue, SegmentBytes, attribute => CreateContext(mockIngestionClient.Object, attribute), this._logger);
+            // When
+            spillLog.Recover();
+            await WaitUntilAsync(() => actualStreamSourceOptions.Count == 1 && spillLog.PendingBytes == 0);
+            // Then
+            Assert.Equal(expectedSourceId, actualStreamSourceOptions.Single().SourceId);
+            Assert.Equal(expectedItem, KustoTestHelper.LoadItems(actualIngestDataStreams.Single()).Single());
+        }
+
+        [Fact]
+        public async Task FlushAsyncIngestsRowsWhenSpillLogIsFullAsync()
+        {
+            // Given - a spill log too small for any row
+            var actualIngestDataStreams = new List<Stream>();
+            var actualStreamSourceOptions = new List<StreamSourceOptions>();
+            Mock<IKustoIngestClient> mockIngestionClient = CreateIngestClient(actualIngestDataStreams, actualStreamSourceOptions);
+            using var spillLog = new KustoSpillLog(this._spillDirectory, KustoSpillSegment.HeaderBytes, SegmentBytes, attribute => CreateContext(mockIngestionClient.Object, attribute), this._logger);
+            KustoIngestContext context = KustoTestHelper.CreateContext(mockIngestionClient.Object);
+            context.SpillLog = spillLog;
+            var collector = new KustoAsyncCollector<Item>(context, this._logger);
+            var expectedItem = new Item { ID = 4, Name = "x-4" };
+            // When
+            await collector.AddAsync(expectedItem);
+            await collector.FlushAsync();
+            // Then - the rows are ingested during the flush and nothing is left on disk
+            Assert.Equal(expectedItem, KustoTestHelper.LoadItems(actualIngestDataStreams.Single()).Single());
+            Assert.Equal(0, spillLog.PendingBytes);
+            Assert.False(Directory.Exists(this._spillDirectory));
+        }
+
+        [Fact]
+        public void TryAppendDoesNotGoOverMaxBytesWhenAppendsRunConcurrently()
+        {
+            // Given - the records are not drained and the log has room for four of them
+            var hangingIngestionClient = new Mock<IKustoIngestClient>();
+            hangingIngestionClient.Setup(m => m.IngestFromStreamAsync(It.IsAny<Stream>(), It.IsAny<KustoIngestionProperties>(), It.IsAny<StreamSourceOptions>()))
+                .Returns(new TaskCompletionSource<IKustoIngestionResult>().Task);
+            var item = new Item { ID = 5, Name = "x-5" };
+            long recordBytes = KustoSpillSegment.HeaderBytes + KustoBindingUtilities.WriteRowsToStream(new[] { item }, true).Length;
+            long maxBytes = 4 * recordBytes;
+            using var spillLog = new KustoSpillLog(this._spillDirectory, maxBytes, SegmentBytes, attribute => CreateContext(hangingIngestionClient.Object, attribute), this._logger);
+            KustoIngestContext context = KustoTestHelper.CreateContext(hangingIngestionClient.Object);
+            // When
+            int spilledCount = 0;
+            Parallel.For(0, 64, i =>
+            {
+                if (spillLog.TryAppend(context, KustoBindingUtilities.WriteRowsToStream(new[] { item }, true), 1, Guid.NewGuid()))
+                {
+                    Interlocked.Increment(ref spilledCount);
+                }
+            });
+            // Then
+            Assert.InRange(spilledCount, 1, 4);
+            Assert.Equal(spilledCount * recordBytes, spillLog.PendingBytes);
+            Assert.True(spillLog.PendingBytes <= maxBytes);
+        }
+
+        public void Dispose()
+        {
+            if (Directory.Exists(this._spillDirectory))
+            {
+                Directory.Delete(this._spillDirectory, true);
+            }
+        }
+
+        private static KustoIngestContext CreateContext(IKustoIngestClient ingestClient, KustoAttribute attribute)
+        {
+            return new KustoIngestContext
+            {
+                IngestService = ingestClient,
+                ResolvedAttribute = attribute
+            };
+        }
+
+        private static async Task WaitUntilAsync(Func<bool> condition)
+        {
+            DateTime deadline = DateTime.UtcNow.AddSeconds(30);
+            while (!condition())
+            {
+                Assert.True(DateTime.UtcNow < deadline, "The spilled rows were not ingested in time");
+                await Task.Delay(20);
+            }
+        }
+
+        private static Mock<IKustoIngestClient> CreateIngestClient(List<Stream> actualIngestDataStreams, List<StreamSourceOptions> actualStreamSourceOptions, bool failFirst = false)
+        {
+            var mockIngestionClient = new Mock<IKustoIngestClient>();
+            var mockIngestionResult = new Mock<IKustoIngestionResult>();
+            var ingestionStatus = new IngestionStatus()
+            {
+                Status = Status.Succeeded,
+            };
+            mockIngestionResult.Setup(m => m.GetIngestionStatusBySourceId(It.IsAny<Guid>())).Returns(ingestionStatus);
+            int calls = 0;
+            mockIngestionClient.Setup(m => m.IngestFromStreamAsync(
+                Capture.In(actualIngestDataStreams),
+                It.IsAny<KustoIngestionProperties>(),
+                Capture.In(actualStreamSourceOptions))).Returns(() => failFirst && calls++ == 0
+                    ? Task.FromException<IKustoIngestionResult>(new IOException("The cluster could not be reached"))
+                    : Task.FromResult(mockIngestionResult.Object));
+            return mockIngestionClient;
+        }
+    }
+}
\ No newline at end of file
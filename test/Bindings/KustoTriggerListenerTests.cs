@@ -0,0 +1,225 @@
+﻿// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT License. See License.txt in the project root for license information.
+
+using System;
+using System.Collections.Generic;
+using System.Data;
+using System.Data.SqlTypes;
+using System.Globalization;
+using System.Linq;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Data.Common;
+using Microsoft.Azure.WebJobs.Host.Executors;
+using Microsoft.Azure.WebJobs.Host.Scale;
+using Microsoft.Azure.WebJobs.Kusto;
+using Microsoft.Extensions.Logging;
+using Moq;
+using Newtonsoft.Json.Linq;
+using Xunit;
+
+namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
+{
+    public class KustoTriggerListenerTests
+    {
+        private readonly ILogger _logger = new LoggerFactory().CreateLogger<KustoTriggerListenerTests>();
+
+        [Fact]
+        public async Task PollOnceAsyncInvokesFunctionPageByPageAndMovesWatermarkAsync()
+        {
+            // Given - 5 rows ingested after the watermark c1, up to the cursor c2, read in pages of MaxBatchSize rows
+            var watermarkStore = new InMemoryWatermarkStore("c1");
+            var actualClientRequestProperties = new List<ClientRequestProperties>();
+            Mock<ICslQueryProvider> mockQueryProvider = CreateQueryProvider("c2", new[] { 2, 2, 1 }, actualClientRequestProperties);
+            var actualBatches = new List<KustoTriggerBatch>();
+            Mock<ITriggeredFunctionExecutor> mockExecutor = CreateExecutor(actualBatches, failedInvocation: 0);
+            KustoTriggerListener listener = this.CreateListener(watermarkStore, mockQueryProvider.Object, mockExecutor.Object);
+            // When
+            int actualRowCount = await listener.PollOnceAsync(CancellationToken.None);
+            // Then - the rows are read once, in order, a page per invocation, and the range ends at the cursor of the poll
+            Assert.Equal(5, actualRowCount);
+            Assert.Equal(new[] { 2, 2, 1 }, actualBatches.Select(batch => batch.Rows.Count));
+            Assert.Equal(Enumerable.Range(1, 5), actualBatches.SelectMany(batch => batch.Rows).Select(row => (int)row["ID"]));
+            Assert.All(actualBatches, batch => Assert.Equal("c2", batch.Watermark));
+            // Decimals are text, as in the results of input bindings
+            Assert.Equal(new JValue("1.5"), actualBatches[0].Rows[0]["Price"]);
+            // The cursor query, then 3 pages and the empty page that ends the range
+            Assert.Equal(5, actualClientRequestProperties.Count);
+            Assert.All(actualClientRequestProperties.Skip(1), properties => Assert.Equal("c1", properties.Parameters["_watermark"]));
+            Assert.All(actualClientRequestProperties.Skip(1), properties => Assert.Equal("c2", properties.Parameters["_cursor"]));
+            Assert.False(actualClientRequestProperties[1].Parameters.ContainsKey("_lastRowHash"));
+            Assert.Equal("2", actualClientRequestProperties[2].Parameters["_lastRowHash"]);
+            Assert.Equal("c2", watermarkStore.Watermark.Watermark);
+            Assert.Null(watermarkStore.Watermark.Cursor);
+        }
+
+        [Fact]
+        public async Task PollOnceAsyncResumesAfterLastProcessedPageWhenFunctionFailsAsync()
+        {
+            // Given - more rows than MaxBatchSize, and the function fails on the second page
+            var watermarkStore = new InMemoryWatermarkStore("c1");
+            var actualClientRequestProperties = new List<ClientRequestProperties>();
+            Mock<ICslQueryProvider> mockQueryProvider = CreateQueryProvider("c2", new[] { 2, 2, 1 }, actualClientRequestProperties);
+            var actualBatches = new List<KustoTriggerBatch>();
+            Mock<ITriggeredFunctionExecutor> mockExecutor = CreateExecutor(actualBatches, failedInvocation: 2);
+            KustoTriggerListener listener = this.CreateListener(watermarkStore, mockQueryProvider.Object, mockExecutor.Object);
+            // When
+            await Assert.ThrowsAsync<InvalidOperationException>(() => listener.PollOnceAsync(CancellationToken.None));
+            // Then - the first page is done, the range and the last row of the first page are kept
+            Assert.Equal("c1", watermarkStore.Watermark.Watermark);
+            Assert.Equal("c2", watermarkStore.Watermark.Cursor);
+            Assert.Equal(2, watermarkStore.Watermark.LastRowHash);
+            // When - the next poll resumes within the range
+            actualClientRequestProperties.Clear();
+            int actualRowCount = await listener.PollOnceAsync(CancellationToken.None);
+            // Then - only the rows of the failed page and after it are read again, without capturing a new cursor
+            Assert.Equal(3, actualRowCount);
+            Assert.Equal(new[] { 1, 2, 3, 4, 3, 4, 5 }, actualBatches.SelectMany(batch => batch.Rows).Select(row => (int)row["ID"]));
+            Assert.Equal("2", actualClientRequestProperties[0].Parameters["_lastRowHash"]);
+            Assert.Equal("c2", watermarkStore.Watermark.Watermark);
+        }
+
+        [Fact]
+        public async Task PollOnceAsyncSkipsPageAfterMaxAttemptsAsync()
+        {
+            // Given - the function always fails on the rows of the second page, and gives up on a page after 2 attempts
+            var watermarkStore = new InMemoryWatermarkStore("c1");
+            Mock<ICslQueryProvider> mockQueryProvider = CreateQueryProvider("c2", new[] { 2, 2, 1 }, new List<ClientRequestProperties>());
+            var actualBatches = new List<KustoTriggerBatch>();
+            Mock<ITriggeredFunctionExecutor> mockExecutor = CreateExecutor(actualBatches, failedInvocation: 0, failingRowId: 3);
+            var listener = new KustoTriggerListener(CreateContext(watermarkStore, mockQueryProvider.Object, maxAttempts: 2), "Functions.OnNewRows", mockExecutor.Object, this._logger);
+            // When - the page fails twice
+            await Assert.ThrowsAsync<InvalidOperationException>(() => listener.PollOnceAsync(CancellationToken.None));
+            Assert.Equal(1, watermarkStore.Watermark.Attempts);
+            await Assert.ThrowsAsync<InvalidOperationException>(() => listener.PollOnceAsync(CancellationToken.None));
+            Assert.Equal(2, watermarkStore.Watermark.Attempts);
+            int actualRowCount = await listener.PollOnceAsync(CancellationToken.None);
+            // Then - the third poll skips the page without invoking the function and moves on
+            Assert.Equal(1, actualRowCount);
+            Assert.Equal(new[] { 1, 2, 3, 4, 3, 4, 5 }, actualBatches.SelectMany(batch => batch.Rows).Select(row => (int)row["ID"]));
+            Assert.Equal("c2", watermarkStore.Watermark.Watermark);
+            Assert.Equal(0, watermarkStore.Watermark.Attempts);
+        }
+
+        [Fact]
+        public void GetScaleStatusVotesForOneWorkerWhileRowsAreWaiting()
+        {
+            var scaleMonitor = new KustoTriggerScaleMonitor(CreateContext(new InMemoryWatermarkStore("c1"), null), "Functions.OnNewRows", this._logger);
+            static ScaleStatusContext<KustoTriggerMetrics> CreateStatusContext(int workerCount, params long[] unprocessedRowCounts)
+            {
+                return new ScaleStatusContext<KustoTriggerMetrics>
+                {
+                    WorkerCount = workerCount,
+                    Metrics = unprocessedRowCounts.Select(count => new KustoTriggerMetrics { UnprocessedRowCount = count }).ToArray(),
+                };
+            }
+            Assert.Equal(ScaleVote.ScaleOut, scaleMonitor.GetScaleStatus(CreateStatusContext(0, 0, 10)).Vote);
+            Assert.Equal(ScaleVote.None, scaleMonitor.GetScaleStatus(CreateStatusContext(1, 10, 10)).Vote);
+            Assert.Equal(ScaleVote.ScaleIn, scaleMonitor.GetScaleStatus(CreateStatusContext(2, 10, 10)).Vote);
+            Assert.Equal(ScaleVote.ScaleIn, scaleMonitor.GetScaleStatus(CreateStatusContext(1, 0, 0)).Vote);
+        }
+
+        private KustoTriggerListener CreateListener(KustoTriggerWatermarkStore watermarkStore, ICslQueryProvider queryProvider, ITriggeredFunctionExecutor executor)
+        {
+            return new KustoTriggerListener(CreateContext(watermarkStore, queryProvider), "Functions.OnNewRows", executor, this._logger);
+        }
+
+        private static KustoTriggerContext CreateContext(KustoTriggerWatermarkStore watermarkStore, ICslQueryProvider queryProvider, int maxAttempts = 0)
+        {
+            return new KustoTriggerContext
+            {
+                TriggerAttribute = new KustoTriggerAttribute("unittest", "items") { MaxBatchSize = 2, MaxAttempts = maxAttempts },
+                QueryProvider = queryProvider,
+                WatermarkStore = watermarkStore,
+            };
+        }
+
+        /// <summary>
+        /// Returns the cursor for the cursor query, and the pages of rows in turn for the page queries. A page resumes after the row hash of the
+        /// previous page, the row hash of a row is its ID
+        /// </summary>
+        private static Mock<ICslQueryProvider> CreateQueryProvider(string cursor, int[] pageSizes, List<ClientRequestProperties> actualClientRequestProperties)
+        {
+            var mockQueryProvider = new Mock<ICslQueryProvider>();
+            mockQueryProvider.Setup(m => m.ExecuteQueryAsync("unittest", It.IsAny<string>(), Capture.In(actualClientRequestProperties), It.IsAny<CancellationToken>()))
+                .Returns((string database, string query, ClientRequestProperties properties, CancellationToken _) =>
+                {
+                    if (query == KustoTriggerContext.CurrentCursorQuery)
+                    {
+                        var cursorTable = new DataTable();
+                        cursorTable.Columns.Add("Cursor", typeof(string));
+                        cursorTable.Rows.Add(cursor);
+                        return Task.FromResult<IDataReader>(new DataTableReader(cursorTable));
+                    }
+                    int lastId = properties.Parameters.TryGetValue("_lastRowHash", out string lastRowHash) ? int.Parse(lastRowHash, CultureInfo.InvariantCulture) : 0;
+                    int page = Array.IndexOf(pageSizes.Select((size, index) => pageSizes.Take(index).Sum()).ToArray(), lastId);
+                    int[] pageIds = page < 0 ? Array.Empty<int>() : Enumerable.Range(lastId + 1, pageSizes[page]).ToArray();
+                    var lastRowTable = new DataTable();
+                    lastRowTable.Columns.Add("_kustoIngestionTime", typeof(DateTime));
+                    lastRowTable.Columns.Add("_kustoRowHash", typeof(long));
+                    var rowsTable = new DataTable();
+                    rowsTable.Columns.Add("ID", typeof(int));
+                    rowsTable.Columns.Add("Name", typeof(string));
+                    rowsTable.Columns.Add("Price", typeof(SqlDecimal));
+                    foreach (int id in pageIds)
+                    {
+                        rowsTable.Rows.Add(id, "x-" + id, new SqlDecimal(1.5m));
+                    }
+                    if (pageIds.Length > 0)
+                    {
+                        lastRowTable.Rows.Add(new DateTime(2024, 1, 1, 0, 0, 0, DateTimeKind.Utc), (long)pageIds.Last());
+                    }
+                    return Task.FromResult<IDataReader>(new DataTableReader(new[] { lastRowTable, rowsTable }));
+                });
+            return mockQueryProvider;
+        }
+
+        /// <param name="failedInvocation">The number of the invocation that fails, 0 for none</param>
+        /// <param name="failingRowId">The ID of a row every invocation with it fails, 0 for none</param>
+        private static Mock<ITriggeredFunctionExecutor> CreateExecutor(List<KustoTriggerBatch> actualBatches, int failedInvocation, int failingRowId = 0)
+        {
+            var mockExecutor = new Mock<ITriggeredFunctionExecutor>();
+            mockExecutor.Setup(m => m.TryExecuteAsync(It.IsAny<TriggeredFunctionData>(), It.IsAny<CancellationToken>()))
+                .Returns((TriggeredFunctionData data, CancellationToken _) =>
+                {
+                    var batch = (KustoTriggerBatch)data.TriggerValue;
+                    actualBatches.Add(batch);
+                    bool isFailing = actualBatches.Count == failedInvocation || batch.Rows.Any(row => (int)row["ID"] == failingRowId);
+                    return Task.FromResult(new FunctionResult(!isFailing));
+                });
+            return mockExecutor;
+        }
+
+        private sealed class InMemoryWatermarkStore : KustoTriggerWatermarkStore
+        {
+            public InMemoryWatermarkStore(string watermark)
+            {
+                this.Watermark = new KustoTriggerWatermark { Watermark = watermark };
+            }
+
+            public KustoTriggerWatermark Watermark { get; private set; }
+
+            public override Task<bool> TryAcquireLeaseAsync(CancellationToken cancellationToken)
+            {
+                return Task.FromResult(true);
+            }
+
+            public override Task ReleaseLeaseAsync(CancellationToken cancellationToken)
+            {
+                return Task.CompletedTask;
+            }
+
+            public override Task<KustoTriggerWatermark> ReadAsync(CancellationToken cancellationToken)
+            {
+                // A copy, as the blob store reads a new one on every poll
+                return Task.FromResult(JObject.FromObject(this.Watermark).ToObject<KustoTriggerWatermark>());
+            }
+
+            public override Task WriteAsync(KustoTriggerWatermark watermark, CancellationToken cancellationToken)
+            {
+                this.Watermark = JObject.FromObject(watermark).ToObject<KustoTriggerWatermark>();
+                return Task.CompletedTask;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -2,6 +2,11 @@
 // Licensed under the MIT License. See License.txt in the project root for license information.
 
 using System;
+using System.Collections.Generic;
+using System.Data;
+using System.Threading;
+using System.Threading.Tasks;
+using Kusto.Data.Common;
 using Kusto.Ingest;
 using Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Common;
 using Microsoft.Azure.WebJobs.Host.Config;
@@ -9,6 +14,7 @@ using Microsoft.Azure.WebJobs.Kusto;
 using Microsoft.Extensions.Configuration;
 using Microsoft.Extensions.Logging;
 using Microsoft.Extensions.Logging.Abstractions;
+using Microsoft.Extensions.Options;
 using Moq;
 using Xunit;
 
@@ -64,6 +70,120 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.Config
             Assert.Equal("Parameter KustoAttribute.Connection should be passed as an environment variable. This value resolved to null", parameterNullException);
         }
 
+        [Fact]
+        public async Task WarmupCreatesClientsWhenBindingsAreIndexed()
+        {
+            // Given
+            var mockQueryClient = new Mock<ICslQueryProvider>();
+            mockQueryClient.Setup(m => m.ExecuteQueryAsync(It.IsAny<string>(), It.IsAny<string>(), It.IsAny<ClientRequestProperties>(), It.IsAny<CancellationToken>()))
+                .ReturnsAsync(new DataTable().CreateDataReader());
+            var kustoExtensionConfigProvider = new KustoExtensionConfigProvider(_baseConfig, NullLoggerFactory.Instance, new MockClientFactory(mockQueryClient.Object),
+                Options.Create(new KustoOptions { WarmupClients = true }));
+            var attribute = new KustoAttribute("unittestdb")
+            {
+                KqlCommand = "Storms | take 10"
+            };
+            // When - two bindings with the same connection are indexed
+            kustoExtensionConfigProvider.ValidateConnection(attribute, typeof(string));
+            kustoExtensionConfigProvider.ValidateConnection(attribute, typeof(string));
+            await Task.WhenAll(kustoExtensionConfigProvider.ClientWarmup.Warmups);
+            // Then
+            Assert.Single(kustoExtensionConfigProvider.QueryClientCache);
+            mockQueryClient.Verify(m => m.ExecuteQueryAsync("unittestdb", "print warmup=1", It.IsAny<ClientRequestProperties>(), It.IsAny<CancellationToken>()), Times.Once());
+        }
+
+        [Fact]
+        public void WarmupIsOffByDefault()
+        {
+            var kustoExtensionConfigProvider = new KustoExtensionConfigProvider(_baseConfig, NullLoggerFactory.Instance, new MockClientFactory(new Mock<ICslQueryProvider>(MockBehavior.Strict).Object));
+            Assert.Null(kustoExtensionConfigProvider.ClientWarmup);
+        }
+
+        [Fact]
+        public void OptionsAreBoundFromHostJson()
+        {
+            // Given
+            IConfiguration configuration = new ConfigurationBuilder()
+                .AddInMemoryCollection(new Dictionary<string, string>
+                {
+                    { "AzureFunctionsJobHost:extensions:kusto:maxConcurrentQueries", "8" },
+                    { "AzureFunctionsJobHost:extensions:kusto:queryTimeout", "00:02:00" },
+                    { "AzureFunctionsJobHost:extensions:kusto:connections:OtherConnection:maxConcurrentQueries", "2" },
+                    { "AzureFunctionsJobHost:extensions:kusto:connections:OtherConnection:queuedIngestMaxRetries", "5" },
+                })
+                .Build();
+            var options = new KustoOptions();
+            // When
+            configuration.GetSection("AzureFunctionsJobHost:extensions:kusto").Bind(options);
+            KustoConnectionOptions defaultConnection = options.ForConnection(null);
+            KustoConnectionOptions otherConnection = options.ForConnection("OtherConnection");
+            // Then
+            Assert.Equal(8, defaultConnection.MaxConcurrentQueries);
+            Assert.Equal(0, defaultConnection.MaxConcurrentIngestions);
+            Assert.Equal(TimeSpan.FromMinutes(2), defaultConnection.QueryTimeout);
+            Assert.Equal(3, defaultConnection.QueuedIngestMaxRetries);
+            Assert.Equal(2, otherConnection.MaxConcurrentQueries);
+            Assert.Equal(TimeSpan.FromMinutes(2), otherConnection.QueryTimeout);
+            Assert.Equal(5, otherConnection.QueuedIngestMaxRetries);
+        }
+
+        [Fact]
+        public void ConnectionsShareConcurrencyLimiters()
+        {
+            // Given
+            var options = new KustoOptions { MaxConcurrentQueries = 4 };
+            options.Connections["OtherConnection"] = new KustoConnectionOptions { MaxConcurrentQueries = 1 };
+            var kustoExtensionConfigProvider = new KustoExtensionConfigProvider(_baseConfig, NullLoggerFactory.Instance,
+                new MockClientFactory(new Mock<ICslQueryProvider>().Object), Options.Create(options));
+            // When
+            KustoQueryContext first = kustoExtensionConfigProvider.CreateQueryContext(new KustoAttribute("unittestdb") { KqlCommand = "Storms | take 10" });
+            KustoQueryContext second = kustoExtensionConfigProvider.CreateQueryContext(new KustoAttribute("unittestdb") { KqlCommand = "Storms | take 5" });
+            KustoConcurrencyLimiter other = kustoExtensionConfigProvider.GetQueryLimiter("OtherConnection");
+            // Then
+            Assert.Same(first.QueryLimiter, second.QueryLimiter);
+            Assert.Equal(4, first.QueryLimiter.MaxConcurrency);
+            Assert.Equal(1, other.MaxConcurrency);
+        }
+
+        [Fact]
+        public void ReadConnectionsRouteQueriesToReplicas()
+        {
+            // Given
+            var kustoExtensionConfigProvider = new KustoExtensionConfigProvider(_baseConfig, NullLoggerFactory.Instance, new MockClientFactory(new Mock<ICslQueryProvider>().Object));
+            var attribute = new KustoAttribute("unittestdb") { KqlCommand = "Storms | take 10", ReadConnections = " KustoConnectionString, " };
+            // When
+            KustoQueryContext queryContext = kustoExtensionConfigProvider.CreateQueryContext(attribute);
+            // Then - the queries go through the router, which is shared by the bindings with the same replicas
+            Assert.Null(queryContext.QueryProvider);
+            Assert.Equal(new[] { "KustoConnectionString" }, queryContext.ReadRouter.Connections);
+            Assert.Same(queryContext.ReadRouter, kustoExtensionConfigProvider.CreateQueryContext(attribute).ReadRouter);
+            Assert.Null(kustoExtensionConfigProvider.CreateQueryContext(new KustoAttribute("unittestdb") { KqlCommand = ".show tables", ReadConnections = "KustoConnectionString" }).ReadRouter);
+            Assert.Throws<InvalidOperationException>(() => kustoExtensionConfigProvider.ValidateConnection(
+                new KustoAttribute("unittestdb") { KqlCommand = "Storms | take 10", ReadConnections = "MissingReplicaConnection" }, typeof(string)));
+            Assert.Throws<InvalidOperationException>(() => kustoExtensionConfigProvider.ValidateConnection(
+                new KustoAttribute("unittestdb") { KqlCommand = "Storms | take 10", ReadConnections = "KustoConnectionString", HedgeAfterPercentile = 100 }, typeof(string)));
+        }
+
+        [Fact]
+        public void FailsWhenIngestIdentityHasNoKey()
+        {
+            KustoExtensionConfigProvider kustoExtensionConfigProvider = InitializeCreatesClients();
+            Assert.Throws<InvalidOperationException>(() => kustoExtensionConfigProvider.ValidateConnection(
+                new KustoAttribute("unittestdb") { TableName = "Items", IngestIdentity = "{PartitionContext.PartitionId}" }, typeof(string)));
+            kustoExtensionConfigProvider.ValidateConnection(
+                new KustoAttribute("unittestdb") { TableName = "Items", IngestionType = "queued", IngestIdentity = "{PartitionContext.PartitionId}", IngestIdentityKey = "SequenceNumber" }, typeof(string));
+        }
+
+        [Fact]
+        public void FailsWhenIngestIdentityKeyIsNotQueued()
+        {
+            KustoExtensionConfigProvider kustoExtensionConfigProvider = InitializeCreatesClients();
+            Assert.Throws<InvalidOperationException>(() => kustoExtensionConfigProvider.ValidateConnection(
+                new KustoAttribute("unittestdb") { TableName = "Items", IngestIdentityKey = "SequenceNumber" }, typeof(string)));
+            Assert.Throws<InvalidOperationException>(() => kustoExtensionConfigProvider.ValidateConnection(
+                new KustoAttribute("unittestdb") { TableName = "Items", IngestionType = "auto", IngestIdentityKey = "SequenceNumber" }, typeof(string)));
+        }
+
         private static KustoExtensionConfigProvider InitializeCreatesClients()
         {
             var nameResolver = new KustoNameResolver();
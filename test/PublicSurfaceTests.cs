@@ -16,7 +16,10 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests
             {
                 "KustoBindingExtension",
                 "KustoBindingStartup",
-                "KustoAttribute"
+                "KustoAttribute",
+                "KustoTriggerAttribute",
+                "KustoOptions",
+                "KustoConnectionOptions"
             };
             Host.TestCommon.TestHelpers.AssertPublicTypes(expected, assembly);
         }
@@ -29,6 +29,7 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.UnitTests
         private const string TableName = "TestTable";
         private const string QueryWithBoundParam = "declare query_parameters (name:string);TestTable | where Name == name";
         private const string QueryWithNoBoundParam = "TestTable | where Name == 'I4'";
+        private const string MultiStatementQuery = "TestTable | where Name == 'I1'; TestTable | where Name == 'I2'; TestTable | where Name == 'I3'";
         private const string CrpOptions = "@client_max_redirect_count=2, @notruncation=true, @maxoutputcolumns=638258584515103616, @query_language=\"kql\"";
         private readonly LoggerFactory _loggerFactory = new();
         private readonly TestLoggerProvider _loggerProvider = new();
@@ -155,6 +156,22 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.UnitTests
             mockQueryClient.VerifyAll();
         }
 
+        [Fact]
+        public async Task MultiTableInputBindings()
+        {
+            //Arrange
+            var mockQueryClient = new Mock<ICslQueryProvider>();
+            var queryClientFactory = new MockClientFactory(mockQueryClient.Object);
+            // The reader returns 3 result tables of 2 rows each
+            mockQueryClient.SetupSequence(m => m.ExecuteQueryAsync(DatabaseName, MultiStatementQuery, It.IsAny<ClientRequestProperties>(), default))
+                .ReturnsAsync(KustoTestHelper.MockResultDataReaderItems(DatabaseName, "I1", 1))
+                .ReturnsAsync(KustoTestHelper.MockResultDataReaderItems(DatabaseName, "I2", 2));
+            // Act
+            await this.RunTestAsync(typeof(KustoMultiTableFunctions), queryClientFactory, nameof(KustoMultiTableFunctions.MultiTableInputs));
+            // Assert - one request per binding, whatever the number of result tables
+            mockQueryClient.Verify(f => f.ExecuteQueryAsync(DatabaseName, MultiStatementQuery, It.IsAny<ClientRequestProperties>(), default), Times.Exactly(2));
+        }
+
         [Theory]
         [InlineData(typeof(NoConnectionString), nameof(NoConnectionString.ErrBinding), typeof(ArgumentNullException))]
         [InlineData(typeof(NoCommandOrTable), nameof(NoCommandOrTable.ErrBinding), typeof(InvalidOperationException))]
@@ -338,6 +355,21 @@ namespace Microsoft.Azure.WebJobs.Extensions.Kusto.Tests.UnitTests
             }
         }
 
+        private sealed class KustoMultiTableFunctions
+        {
+            [NoAutomaticTrigger]
+            public static void MultiTableInputs(
+                [Kusto(Database: DatabaseName, KqlCommand = MultiStatementQuery, Connection = KustoConstants.DefaultConnectionStringName, ResultTableNames = "first,second,third")] JObject tables,
+                [Kusto(Database: DatabaseName, KqlCommand = MultiStatementQuery, Connection = KustoConstants.DefaultConnectionStringName, ResultTableNames = "first,second")] string tablesString)
+            {
+                Assert.Equal(new[] { "first", "second", "third" }, tables.Properties().Select(p => p.Name));
+                Assert.All(tables.Properties(), p => Assert.Equal(2, ((JArray)p.Value).Count));
+                var tablesFromString = JObject.Parse(tablesString);
+                Assert.Equal(new[] { "first", "second" }, tablesFromString.Properties().Select(p => p.Name));
+                Assert.NotNull(tablesFromString["second"][0]["Name"]);
+            }
+        }
+
         private sealed class NoConnectionString
         {
             [NoAutomaticTrigger]